@@ -0,0 +1,163 @@
+package org.dfs.node;
+
+import org.dfs.node.chunkServer.ChunkServer;
+import org.dfs.transport.TCPConnection;
+import org.dfs.util.Constants;
+import org.dfs.wireformats.Event;
+import org.dfs.wireformats.StoreChunkAck;
+import org.dfs.wireformats.StoreChunkPacket;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Latency (sample time) and throughput (ops/s x chunkSize = bytes/s) of writing a chunk to 3 replicas
+ * on a local cluster (a Controller and 3 ChunkServers in this JVM, each with its own chunk directory), as the Client
+ * does in each write mode: down the chain, or fanned out to all replicas and acknowledged by all of them or by
+ * a majority. Fan-out saves the hops of the chain, and costs the client as many uploads as there are replicas:
+ * it wins on small chunks, and loses on large ones once the client's link is the bottleneck.
+ * <p>
+ * All traffic here goes over loopback, where the client's extra uploads cost little more than a memory copy:
+ * this measures the hops and the disk writes fan-out saves, not where it stops paying off. That crossover, which
+ * sets Constants.Client.FAN_OUT_MAX_CHUNK_SIZE, has to be measured with the ChunkServers on other hosts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.SampleTime, Mode.Throughput})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ReplicationModeBenchmark implements Node {
+    private static final int CONTROLLER_PORT = 17500;
+    private static final int REPLICAS = 3;
+    private static final int SEQUENCE_NUMBERS = 16; // chunks written over and over (at a new version each time)
+
+    @Param({"1000", "4000", "16000", "64000"})
+    private int chunkSize;
+
+    @Param({"CHAIN", "FAN_OUT", "FAN_OUT_QUORUM"})
+    private String mode;
+
+    private String fileName;
+    private byte[] chunk;
+    private TCPConnection[] replicas;
+    private Path[] chunkDirs;
+    private String[] hosts;
+    private int[] ports;
+    private final AtomicInteger version = new AtomicInteger();
+    private volatile Write write;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, InterruptedException {
+        Controller controller = Controller.getInstance(CONTROLLER_PORT);
+        controller.initialize();
+        replicas = new TCPConnection[REPLICAS];
+        chunkDirs = new Path[REPLICAS];
+        hosts = new String[REPLICAS];
+        ports = new int[REPLICAS];
+        for (int i = 0; i < REPLICAS; i++) {
+            hosts[i] = "127.0.0.1";
+            ports[i] = CONTROLLER_PORT + 1 + i;
+            // replicas must not share chunk files, metadata or capacity accounting
+            chunkDirs[i] = Files.createTempDirectory("replication-bench-" + i + "-");
+            new ChunkServer(new Socket(hosts[i], CONTROLLER_PORT), ports[i], "", chunkDirs[i]).initialize();
+        }
+        Thread.sleep(1000);
+        for (int i = 0; i < REPLICAS; i++) {
+            replicas[i] = new TCPConnection(new Socket(hosts[i], ports[i]), this);
+        }
+
+        fileName = "replication-bench-" + mode + "-" + chunkSize;
+        chunk = new byte[chunkSize];
+        new Random(42).nextBytes(chunk);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        for (Path chunkDir : chunkDirs) {
+            try (DirectoryStream<Path> chunks = Files.newDirectoryStream(chunkDir)) {
+                for (Path path : chunks) {
+                    Files.deleteIfExists(path);
+                }
+            }
+            Files.deleteIfExists(chunkDir);
+        }
+    }
+
+    @Benchmark
+    public void writeChunk() throws IOException, InterruptedException {
+        int chunkVersion = version.incrementAndGet();
+        int sequenceNumber = chunkVersion % SEQUENCE_NUMBERS + 1;
+        if (mode.equals("CHAIN")) {
+            write = new Write(chunkVersion, 1);
+            String[] nextHosts = {hosts[1], hosts[2]};
+            int[] nextPorts = {ports[1], ports[2]};
+            send(replicas[0], StoreChunkPacket.packetize(fileName, sequenceNumber, chunkVersion, chunk, nextHosts,
+                    nextPorts));
+        } else {
+            write = new Write(chunkVersion, mode.equals("FAN_OUT_QUORUM") ? REPLICAS / 2 + 1 : REPLICAS);
+            List<StoreChunkPacket> packets = StoreChunkPacket.packetize(fileName, sequenceNumber, chunkVersion,
+                    chunk, new String[0], new int[0]);
+            for (TCPConnection replica : replicas) {
+                send(replica, packets);
+            }
+        }
+        if (!write.stored.await(Constants.ChunkServer.ACK_TIMEOUT * (REPLICAS + 1), TimeUnit.MILLISECONDS)) {
+            throw new IllegalStateException("Chunk version " + chunkVersion + " was not acknowledged in time");
+        }
+        if (write.failed) {
+            throw new IllegalStateException("Chunk version " + chunkVersion + " was not stored on all replicas");
+        }
+    }
+
+    private static void send(TCPConnection connection, List<StoreChunkPacket> packets) throws IOException {
+        for (StoreChunkPacket packet : packets) {
+            connection.sendData(packet.getBytes());
+        }
+    }
+
+    @Override
+    public void onEvent(Event event) {
+        Write current = write;
+        if (!(event instanceof StoreChunkAck) || current == null) {
+            return;
+        }
+        StoreChunkAck ack = (StoreChunkAck) event;
+        if (ack.getVersion() != current.version) {
+            return; // acknowledged after a quorum write was done
+        }
+        if (!ack.isStored()) {
+            current.failed = true;
+            while (current.stored.getCount() > 0) {
+                current.stored.countDown();
+            }
+        }
+        current.stored.countDown();
+    }
+
+    private static class Write {
+        private final int version;
+        private final CountDownLatch stored;
+        private volatile boolean failed;
+
+        private Write(int version, int acks) {
+            this.version = version;
+            stored = new CountDownLatch(acks);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package org.dfs.node.chunkServer;
+
+import org.dfs.util.Constants;
+import org.dfs.util.FileUtil;
+import org.dfs.util.checksum.ChecksumType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the original ingest path of ChunkServer.writeChunkToDisk (write, split into slice arrays,
+ * hash the slices, then split and hash them again plus a full-chunk hash) against the single pass
+ * {@link ChunkWriter}. Both use the same algorithms so only the structure of the ingest differs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ChunkIngestBenchmark {
+    @Param({"CRC32C", "SHA1"})
+    private ChecksumType sliceChecksumType;
+
+    @Param({"SHA256", "SHA1"})
+    private ChecksumType chunkChecksumType;
+
+    private byte[] chunk;
+    private Path dir;
+    private Path chunkPath;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        chunk = new byte[Constants.CHUNK_SIZE];
+        new Random(42).nextBytes(chunk);
+        dir = Files.createTempDirectory("chunk-ingest-bench");
+        chunkPath = dir.resolve("bench" + Constants.ChunkServer.EXT_DATA_CHUNK + 1);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(chunkPath);
+        Files.deleteIfExists(dir);
+    }
+
+    @Benchmark
+    public void legacyIngest(Blackhole bh) throws IOException {
+        Files.write(chunkPath, chunk);
+
+        List<byte[]> slices = FileUtil.splitFile(chunk, Constants.SLICE_SIZE);
+        ArrayList<String> hashes = new ArrayList<>();
+        for (byte[] slice : slices) {
+            hashes.add(FileUtil.hash(slice, sliceChecksumType));
+        }
+        bh.consume(hashes);
+
+        bh.consume(FileUtil.hash(chunk, chunkChecksumType));
+
+        // slices were split and hashed a second time for sliceHashesMap
+        List<byte[]> sliceCopies = FileUtil.splitFile(chunk, Constants.SLICE_SIZE);
+        ArrayList<String> sliceHashes = new ArrayList<>();
+        for (byte[] slice : sliceCopies) {
+            sliceHashes.add(FileUtil.hash(slice, sliceChecksumType));
+        }
+        bh.consume(sliceHashes);
+    }
+
+    @Benchmark
+    public void singlePassIngest(Blackhole bh) throws IOException {
+        ChunkWriter writer = new ChunkWriter(chunkPath, sliceChecksumType, chunkChecksumType);
+        try {
+            writer.write(chunk);
+        } finally {
+            writer.close();
+        }
+        bh.consume(writer.getSliceHashes());
+        bh.consume(writer.getChunkHash());
+    }
+}
@@ -0,0 +1,104 @@
+package org.dfs.node.chunkServer;
+
+import org.dfs.util.Constants;
+import org.dfs.util.checksum.ChecksumType;
+import org.dfs.util.compression.CompressionCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Read latency of hot chunks while chunks are being ingested concurrently, with ingest going through
+ * the page cache and around it ({@link DirectIo}). Sample mode reports the latency percentiles of
+ * readHotChunk; the tail (p99, p99.9) is what suffers when ingest evicts the hot set.
+ * <p>
+ * The effect only shows when the ingested data is large compared to the free memory of the machine,
+ * and the directory must be on a file system that supports O_DIRECT (tmpfs does not, and falls back
+ * to buffered I/O). Pick one with -Ddfs.bench.dir=/path and size the ingest with ingestChunks.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DirectIoBenchmark {
+    private static final int HOT_CHUNKS = 64;
+
+    @Param({"false", "true"})
+    private boolean directIo;
+
+    // distinct chunks written before ingest wraps around and overwrites them (64 KB each)
+    @Param({"16384"})
+    private int ingestChunks;
+
+    private Path dir;
+    private Path[] hotChunks;
+    private byte[] chunk;
+    private final AtomicInteger nextIngestChunk = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory(Paths.get(System.getProperty("dfs.bench.dir",
+                System.getProperty("java.io.tmpdir"))), "direct-io-bench");
+        chunk = new byte[Constants.CHUNK_SIZE];
+        new Random(42).nextBytes(chunk);
+
+        hotChunks = new Path[HOT_CHUNKS];
+        for (int i = 0; i < HOT_CHUNKS; i++) {
+            hotChunks[i] = dir.resolve("hot" + Constants.ChunkServer.EXT_DATA_CHUNK + i);
+            Files.write(hotChunks[i], chunk);
+            // bring the hot set into the page cache
+            Files.readAllBytes(hotChunks[i]);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+        }
+        Files.deleteIfExists(dir);
+    }
+
+    @Benchmark
+    @Group("hotReadsUnderIngest")
+    @GroupThreads(1)
+    public byte[] readHotChunk() throws IOException {
+        return Files.readAllBytes(hotChunks[ThreadLocalRandom.current().nextInt(HOT_CHUNKS)]);
+    }
+
+    @Benchmark
+    @Group("hotReadsUnderIngest")
+    @GroupThreads(2)
+    public String ingestChunk() throws IOException {
+        int n = Math.floorMod(nextIngestChunk.getAndIncrement(), ingestChunks);
+        Path path = dir.resolve("ingest" + Constants.ChunkServer.EXT_DATA_CHUNK + n);
+        ChunkWriter writer = new ChunkWriter(path, ChecksumType.CRC32C, ChecksumType.SHA256,
+                CompressionCodec.NONE, directIo);
+        try {
+            writer.write(chunk);
+        } finally {
+            writer.close();
+        }
+        return writer.getChunkHash();
+    }
+}
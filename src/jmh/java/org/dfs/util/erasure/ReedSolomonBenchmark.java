@@ -0,0 +1,80 @@
+package org.dfs.util.erasure;
+
+import org.dfs.util.Constants;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encode and decode throughput of {@link ReedSolomon} on one chunk (ops/s x CHUNK_SIZE = bytes/s).
+ * Decoding is measured with no stripe lost (nothing to do), one data stripe lost (the common degraded read)
+ * and as many data stripes lost as there are parity stripes (the worst case still readable).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ReedSolomonBenchmark {
+    @Param({"6,3", "10,4", "3,2"})
+    private String code;
+
+    private ReedSolomon codec;
+    private byte[] chunk;
+    private byte[][] stripes;
+    private int stripeSize;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        String[] stripeCounts = code.split(",");
+        codec = new ReedSolomon(Integer.parseInt(stripeCounts[0]), Integer.parseInt(stripeCounts[1]));
+        chunk = new byte[Constants.CHUNK_SIZE];
+        new Random(42).nextBytes(chunk);
+        stripes = codec.encode(chunk, 0, chunk.length);
+        stripeSize = codec.getStripeSize(chunk.length);
+    }
+
+    @Benchmark
+    public byte[][] encode() {
+        return codec.encode(chunk, 0, chunk.length);
+    }
+
+    @Benchmark
+    public byte[] decodeNoneLost() {
+        byte[][] received = received(0);
+        codec.decodeData(received, stripeSize);
+        return codec.join(received, chunk.length);
+    }
+
+    @Benchmark
+    public byte[] decodeOneLost() {
+        byte[][] received = received(1);
+        codec.decodeData(received, stripeSize);
+        return codec.join(received, chunk.length);
+    }
+
+    @Benchmark
+    public byte[] decodeParityCountLost() {
+        byte[][] received = received(codec.getParityStripes());
+        codec.decodeData(received, stripeSize);
+        return codec.join(received, chunk.length);
+    }
+
+    /**
+     * The stripes a reader has when the first lost data stripes are missing
+     */
+    private byte[][] received(int lost) {
+        byte[][] received = stripes.clone();
+        for (int i = 0; i < lost; i++) {
+            received[i] = null;
+        }
+        return received;
+    }
+}
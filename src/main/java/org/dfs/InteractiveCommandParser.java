@@ -4,11 +4,14 @@ import org.dfs.node.Client;
 import org.dfs.node.Controller;
 import org.dfs.node.Node;
 import org.dfs.node.chunkServer.ChunkServer;
+import org.dfs.node.chunkServer.IoScheduler;
 import org.dfs.util.Constants;
+import org.dfs.util.compression.CompressionCodec;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Scanner;
 
 public class InteractiveCommandParser extends Thread {
@@ -79,6 +82,47 @@ public class InteractiveCommandParser extends Thread {
                 controller.printChunks(false);
             } else if (nextCommand.contains("list-files") || nextCommand.contains("get-files")) {
                 controller.printFiles();
+            } else if (nextCommand.equals(Constants.Controller.CMD_HOT_FILES)) {
+                controller.printHotFiles();
+            } else if (nextCommand.equals(Constants.Controller.CMD_REREPLICATION_STATUS)) {
+                controller.printReReplicationStatus();
+            } else if (nextCommand.startsWith(Constants.Controller.CMD_REBALANCE)) {
+                // example commands "rebalance" (status), "rebalance off", "rebalance threshold 5" (% of the disk),
+                // "rebalance rate 20" (MB/s, cluster-wide)
+                String[] args = nextCommand.split("\\s+");
+                try {
+                    if (args.length == 1) {
+                        controller.printRebalancerStatus();
+                    } else if (args[1].equals("on") || args[1].equals("off")) {
+                        controller.setRebalancingEnabled(args[1].equals("on"));
+                    } else if (args[1].equals("threshold")) {
+                        controller.setRebalancingThresholdPercent(Double.parseDouble(args[2]));
+                    } else if (args[1].equals("rate")) {
+                        controller.setRebalancingBandwidthMB(Long.parseLong(args[2]));
+                    } else {
+                        throw new IllegalArgumentException(args[1]);
+                    }
+                } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+                    System.out.println("Invalid parameters. Please enter " +
+                            "'rebalance [on|off|threshold <percent>|rate <MB/s>]'");
+                }
+            } else if (nextCommand.equals(Constants.Controller.CMD_TOPOLOGY)) {
+                controller.printTopology();
+            } else if (nextCommand.startsWith(Constants.Controller.CMD_PLACEMENT)) {
+                // example commands "placement rack-aware", "placement free-space"
+                String[] args = nextCommand.split("\\s+");
+                if (args.length != 2 || !controller.setPlacementPolicy(args[1])) {
+                    System.out.println("Invalid parameters. Please enter " +
+                            "'placement <free-space|rack-aware|policy class name>'");
+                }
+            } else if (nextCommand.startsWith(Constants.Controller.CMD_REREPLICATION_RATE)) {
+                // example command "re-replication-rate 100" (MB/s, cluster-wide)
+                String[] args = nextCommand.split("\\s+");
+                try {
+                    controller.setReReplicationBandwidthMB(Long.parseLong(args[1]));
+                } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+                    System.out.println("Invalid parameters. Please enter 're-replication-rate <MB/s>'");
+                }
             } else if (nextCommand.equals("")) {
                 continue;
             } else {
@@ -98,6 +142,65 @@ public class InteractiveCommandParser extends Thread {
                 chunkServer.printHost();
             } else if (nextCommand.contains("list-chunks") || nextCommand.contains("get-chunks")) {
                 chunkServer.printChunks();
+            } else if (nextCommand.equals(Constants.ChunkServer.CMD_SCRUB_STATUS)) {
+                chunkServer.printScrubStatus();
+            } else if (nextCommand.equals(Constants.ChunkServer.CMD_GC_STATUS)) {
+                chunkServer.printGarbageCollectorStatus();
+            } else if (nextCommand.equals(Constants.ChunkServer.CMD_IO_STATS)) {
+                chunkServer.printIoSchedulerStatus();
+            } else if (nextCommand.startsWith(Constants.ChunkServer.CMD_IO_CAP)) {
+                // example command "io-cap replication 20" (MB/s, 0 removes the cap)
+                String[] args = nextCommand.split("\\s+");
+                try {
+                    chunkServer.setIoBandwidthCapMB(IoScheduler.IoClass.valueOf(args[1].toUpperCase()),
+                            Long.parseLong(args[2]));
+                } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+                    System.out.println("Invalid parameters. Please enter " +
+                            "'io-cap <foreground|replication|prefetch|repair|scrub> <MB/s>'");
+                }
+            } else if (nextCommand.equals(Constants.ChunkServer.CMD_READ_AHEAD)) {
+                chunkServer.printReadAheadStatus();
+            } else if (nextCommand.equals(Constants.ChunkServer.CMD_HOT_CHUNKS)) {
+                chunkServer.printAccessStatistics();
+            } else if (nextCommand.equals(Constants.ChunkServer.CMD_PIPELINE_STATUS)) {
+                chunkServer.printReplicationPipelineStatus();
+            } else if (nextCommand.equals(Constants.ChunkServer.CMD_REPAIR_STATUS)) {
+                chunkServer.printSliceRepairStatus();
+            } else if (nextCommand.equals(Constants.ChunkServer.CMD_VERIFY_STATS)) {
+                chunkServer.printVerificationStats();
+            } else if (nextCommand.startsWith(Constants.ChunkServer.CMD_COMPRESSION)) {
+                // example commands "compression deflate" (default for all files), "compression none file.txt"
+                String[] args = nextCommand.split("\\s+");
+                try {
+                    CompressionCodec codec = CompressionCodec.valueOf(args[1].toUpperCase());
+                    chunkServer.setCompressionCodec(args.length > 2 ? args[2] : null, codec);
+                } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+                    System.out.println("Invalid parameters. Please enter 'compression <none|deflate> [file-name]'");
+                }
+            } else if (nextCommand.startsWith(Constants.ChunkServer.CMD_DIRECT_IO)) {
+                // example commands "direct-io" (status), "direct-io off"
+                String[] args = nextCommand.split("\\s+");
+                if (args.length == 1) {
+                    chunkServer.printDirectIoStatus();
+                } else if (args[1].equals("on") || args[1].equals("off")) {
+                    chunkServer.setDirectIo(args[1].equals("on"));
+                } else {
+                    System.out.println("Invalid parameters. Please enter 'direct-io [on|off]'");
+                }
+            } else if (nextCommand.startsWith(Constants.ChunkServer.CMD_SCRUB_RATE)) {
+                // example command "scrub-rate 10" (MB/s). The rate must be positive: a cap of 0 would mean
+                // no cap at all, and the scrubber would compete with foreground reads at full disk bandwidth
+                String[] args = nextCommand.split("\\s+");
+                try {
+                    long megabytesPerSecond = Long.parseLong(args[1]);
+                    if (megabytesPerSecond <= 0) {
+                        System.out.println("The scrub rate must be at least 1 MB/s");
+                    } else {
+                        chunkServer.setScrubBandwidthMB(megabytesPerSecond);
+                    }
+                } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+                    System.out.println("Invalid parameters. Please enter 'scrub-rate <MB/s>' (MB/s > 0)");
+                }
             } else if (nextCommand.equals("")) {
                 continue;
             } else {
@@ -114,13 +217,76 @@ public class InteractiveCommandParser extends Thread {
         while (acceptingCommands) {
             nextCommand = scanner.nextLine().trim();
             if (nextCommand.contains(Constants.Client.CMD_ADD_FILE)) {
-                // example command "add-file test.txt"
+                // example command "add-file test.txt", "add-file test.txt 5" (5 replicas of each chunk)
+                // or "add-file test.txt ec" (erasure-coded), optionally followed by the write mode of the file
+                // ("add-file test.txt 3 fan-out")
                 String[] args = nextCommand.split("\\s+");
+                Client.WriteMode writeMode = args.length > 2 ? Client.WriteMode.fromName(args[args.length - 1]) : null;
+                if (writeMode != null) {
+                    args = Arrays.copyOf(args, args.length - 1);
+                }
                 if (args.length == 2) {
                     String filePath = args[1];
-                    client.addFile(filePath);
+                    client.addFile(filePath, 0, writeMode);
+                } else if (args.length == 3 && args[2].equals(Constants.Client.ERASURE_CODED)) {
+                    client.addErasureCodedFile(args[1]);
+                } else if (args.length == 3) {
+                    String filePath = args[1];
+                    try {
+                        client.addFile(filePath, Integer.parseInt(args[2]), writeMode);
+                    } catch (NumberFormatException e) {
+                        System.out.println("Invalid replication factor: " + args[2]);
+                    }
+                } else {
+                    System.out.println("Invalid parameters. Please enter " +
+                            "'add-file <file-path> [replication-factor|ec] [chain|fan-out|auto]'");
+                }
+            } else if (nextCommand.startsWith(Constants.Client.CMD_PACK_FILES)) {
+                // example command "pack-files src/ Makefile README.md" (directories: all files directly in them)
+                String[] args = nextCommand.split("\\s+");
+                if (args.length >= 2) {
+                    client.packFiles(Arrays.asList(args).subList(1, args.length));
+                } else {
+                    System.out.println("Invalid parameters. Please enter 'pack-files <file-path|dir-path> ...'");
+                }
+            } else if (nextCommand.startsWith(Constants.Client.CMD_UPDATE_FILE)) {
+                // example command "update-file test.txt 70000 1024" (re-upload the chunks covering bytes 70000-71023)
+                String[] args = nextCommand.split("\\s+");
+                try {
+                    client.updateFile(args[1], Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+                } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+                    System.out.println("Invalid parameters. Please enter 'update-file <file-path> <offset> <length>'");
+                }
+            } else if (nextCommand.startsWith(Constants.Client.CMD_DELETE_FILE)) {
+                // example command "delete-file test.txt"
+                String[] args = nextCommand.split("\\s+");
+                if (args.length == 2) {
+                    client.deleteFile(args[1]);
+                } else {
+                    System.out.println("Invalid parameters. Please enter 'delete-file <file-name>'");
+                }
+            } else if (nextCommand.startsWith(Constants.Client.CMD_WRITE_MODE)) {
+                // example command "write-mode fan-out quorum" (files added without a write mode are fanned out,
+                // and a chunk is written once a majority of its replicas have stored it)
+                String[] args = nextCommand.split("\\s+");
+                Client.WriteMode writeMode = args.length >= 2 ? Client.WriteMode.fromName(args[1]) : null;
+                boolean quorum = args.length == 3 && args[2].equals(Constants.Client.FAN_OUT_QUORUM);
+                if (writeMode != null && (args.length == 2 || quorum || (args.length == 3 && args[2].equals("all")))) {
+                    client.setDefaultWriteMode(writeMode, quorum);
+                } else {
+                    System.out.println("Invalid parameters. Please enter 'write-mode <chain|fan-out|auto> [all|quorum]'");
+                }
+            } else if (nextCommand.contains(Constants.Client.CMD_READ_RANGE)) {
+                // example command "read-range test.txt 1024 4096"
+                String[] args = nextCommand.split("\\s+");
+                if (args.length == 4) {
+                    try {
+                        client.retrieveFileRange(args[1], Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+                    } catch (NumberFormatException e) {
+                        System.out.println("Invalid parameters. Please enter 'read-range <file-path> <offset> <length>'");
+                    }
                 } else {
-                    System.out.println("Invalid parameters. Please enter 'add-file <file-path>'");
+                    System.out.println("Invalid parameters. Please enter 'read-range <file-path> <offset> <length>'");
                 }
             } else if (nextCommand.contains("read-file") || nextCommand.contains("get-file")) {
                 // example command "read-file test.txt"
@@ -2,9 +2,17 @@ package org.dfs.models;
 
 import org.dfs.util.Constants;
 import org.dfs.util.FileUtil;
+import org.dfs.util.checksum.ChecksumType;
+import org.dfs.util.compression.CompressionCodec;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -17,6 +25,19 @@ public class Chunk {
     private String fileName;
     private boolean valid;
     private ArrayList<String> sliceHashes;
+    private String chunkHash;
+
+    // algorithms are recorded per chunk, so chunks written with older algorithms remain verifiable
+    private ChecksumType sliceChecksumType = ChecksumType.SHA1;
+    private ChecksumType chunkChecksumType = ChecksumType.SHA1;
+
+    // how the chunk is stored on disk; checksums always cover the uncompressed data
+    private CompressionCodec codec = CompressionCodec.NONE;
+    private int length = -1; // uncompressed size in bytes (unknown for chunks stored before format version 2)
+    private int storedLength = -1; // size on disk in bytes
+
+    // bumped whenever fields are appended to the metadata file
+    private static final int METADATA_FORMAT_VERSION = 2;
 
     public Chunk() {
 
@@ -30,6 +51,73 @@ public class Chunk {
         sliceHashes = new ArrayList<>();
     }
 
+    /**
+     * Restore chunk metadata from the bytes stored alongside the chunk on disk
+     */
+    public Chunk(byte[] metadataBytes) throws IOException {
+        ByteArrayInputStream baInputStream = new ByteArrayInputStream(metadataBytes);
+        DataInputStream din = new DataInputStream(new BufferedInputStream(baInputStream));
+
+        int formatVersion = din.readInt();
+        if (formatVersion > METADATA_FORMAT_VERSION) {
+            throw new IOException("Unsupported chunk metadata format: " + formatVersion);
+        }
+
+        sequenceNumber = din.readInt();
+        version = din.readInt();
+        fileName = din.readUTF();
+        timeStamp = din.readUTF();
+        valid = true;
+
+        sliceChecksumType = ChecksumType.fromId(din.readByte());
+        chunkChecksumType = ChecksumType.fromId(din.readByte());
+        chunkHash = din.readUTF();
+
+        int noOfSlices = din.readInt();
+        sliceHashes = new ArrayList<>(noOfSlices);
+        for (int i = 0; i < noOfSlices; i++) {
+            sliceHashes.add(din.readUTF());
+        }
+
+        if (formatVersion >= 2) {
+            codec = CompressionCodec.fromId(din.readByte());
+            length = din.readInt();
+            storedLength = din.readInt();
+        }
+
+        baInputStream.close();
+        din.close();
+    }
+
+    public byte[] getMetadataBytes() throws IOException {
+        ByteArrayOutputStream baOutputStream = new ByteArrayOutputStream();
+        DataOutputStream dout = new DataOutputStream(new BufferedOutputStream(baOutputStream));
+
+        dout.writeInt(METADATA_FORMAT_VERSION);
+        dout.writeInt(sequenceNumber);
+        dout.writeInt(version);
+        dout.writeUTF(fileName);
+        dout.writeUTF(timeStamp == null ? "" : timeStamp);
+
+        dout.writeByte(sliceChecksumType.getId());
+        dout.writeByte(chunkChecksumType.getId());
+        dout.writeUTF(chunkHash == null ? "" : chunkHash);
+
+        dout.writeInt(sliceHashes.size());
+        for (String sliceHash : sliceHashes) {
+            dout.writeUTF(sliceHash);
+        }
+
+        dout.writeByte(codec.getId());
+        dout.writeInt(length);
+        dout.writeInt(storedLength);
+
+        dout.flush();
+        byte[] marshalledBytes = baOutputStream.toByteArray();
+        dout.close();
+        return marshalledBytes;
+    }
+
     @Override
     public String toString() {
         return "Chunk{" +
@@ -37,6 +125,7 @@ public class Chunk {
                 ", sequenceNumber=" + sequenceNumber +
                 ", version=" + version +
                 ", valid=" + valid +
+                ", codec=" + codec +
                 ", timeStamp='" + timeStamp + '\'' +
                 '}';
     }
@@ -104,7 +193,55 @@ public class Chunk {
         this.sliceHashes = sliceHashes;
     }
 
+    public String getChunkHash() {
+        return chunkHash;
+    }
+
+    public void setChunkHash(String chunkHash) {
+        this.chunkHash = chunkHash;
+    }
+
+    public ChecksumType getSliceChecksumType() {
+        return sliceChecksumType;
+    }
+
+    public void setSliceChecksumType(ChecksumType sliceChecksumType) {
+        this.sliceChecksumType = sliceChecksumType;
+    }
+
+    public ChecksumType getChunkChecksumType() {
+        return chunkChecksumType;
+    }
+
+    public void setChunkChecksumType(ChecksumType chunkChecksumType) {
+        this.chunkChecksumType = chunkChecksumType;
+    }
+
+    public CompressionCodec getCodec() {
+        return codec;
+    }
+
+    public void setCodec(CompressionCodec codec) {
+        this.codec = codec;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public void setLength(int length) {
+        this.length = length;
+    }
+
+    public int getStoredLength() {
+        return storedLength;
+    }
+
+    public void setStoredLength(int storedLength) {
+        this.storedLength = storedLength;
+    }
+
     // Each Chunk keeps track of its own integrity, by maintaining checksums for 8KB slices of the chunk
-    // Use SHA-1 which returns a 160-bit digest for a set of bytes
+    // Slices use CRC32C by default; the whole chunk uses a cryptographic digest (SHA-256, or SHA-1 for old chunks)
 
 }
@@ -3,27 +3,37 @@ package org.dfs.models;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class StoredFile {
     private static final Logger log = LogManager.getLogger(StoredFile.class);
 
     private final String name;
-    private final ArrayList<Chunk> chunks;
+    // appended to by concurrent store requests while commands iterate over it
+    private final List<Chunk> chunks;
 
     public StoredFile(String name) {
         this.name = name;
-        chunks = new ArrayList<>();
+        chunks = new CopyOnWriteArrayList<>();
     }
 
-    public ArrayList<Chunk> getChunks() {
+    public List<Chunk> getChunks() {
         return chunks;
     }
 
+    /**
+     * Add a chunk, replacing an older version of it
+     */
     public void addChunk(Chunk chunk) {
+        chunks.removeIf(existing -> existing.getName().equals(chunk.getName()));
         chunks.add(chunk);
     }
 
+    public void removeChunk(String chunkName) {
+        chunks.removeIf(chunk -> chunk.getName().equals(chunkName));
+    }
+
     @Override
     public String toString() {
         return "StoredFile{" +
@@ -6,32 +6,53 @@ import org.dfs.transport.TCPConnectionsCache;
 import org.dfs.transport.TCPServerThread;
 import org.dfs.util.Constants;
 import org.dfs.util.FileUtil;
+import org.dfs.util.erasure.ReedSolomon;
 import org.dfs.wireformats.ClientRequestsChunkServersFromController;
 import org.dfs.wireformats.ControllerSendsClientChunkServers;
+import org.dfs.wireformats.DeleteFileRequest;
+import org.dfs.wireformats.DeleteFileResponse;
 import org.dfs.wireformats.Event;
 import org.dfs.wireformats.Protocol;
 import org.dfs.wireformats.RegisterClient;
+import org.dfs.wireformats.ReportBadReplica;
 import org.dfs.wireformats.ReportClientRegistration;
 import org.dfs.wireformats.RetrieveChunkRequest;
 import org.dfs.wireformats.RetrieveChunkResponse;
 import org.dfs.wireformats.RetrieveFileRequest;
 import org.dfs.wireformats.RetrieveFileResponse;
 import org.dfs.wireformats.SendFileInfo;
-import org.dfs.wireformats.StoreChunk;
+import org.dfs.wireformats.SendPackedFileInfo;
+import org.dfs.wireformats.StoreChunkAck;
+import org.dfs.wireformats.StoreChunkPacket;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.Socket;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Client: responsible for storing, retrieving, updating files, splitting a file into chunks,
@@ -47,26 +68,90 @@ public class Client implements Node {
     private final TCPServerThread tcpServerThread;
     private final TCPConnectionsCache tcpConnectionsCache;
 
-    // store ChunkServers returned by controller (overwritten for each call)
-    private ArrayList<Socket> chunkServerSockets;
+    // connections to the ChunkServers returned by controller, in the order returned (null for a ChunkServer
+    // that could not be reached), and their host:port (overwritten for each call)
+    private volatile ArrayList<TCPConnection> chunkServers;
+    private volatile String[] chunkServerAddresses;
+    // released when the controller has answered the current request for ChunkServers
+    private volatile CountDownLatch chunkServersReceived = new CountDownLatch(0);
+    // host:port, connection to a ChunkServer (opened the first time, and shared by all the chunks sent to it)
+    private final ConcurrentHashMap<String, TCPConnection> chunkServerConnections = new ConcurrentHashMap<>();
+    // version assigned by the controller to the chunk being stored (overwritten for each call)
+    private volatile int chunkVersion;
+    // Reed-Solomon layout of the chunk being stored if its file is erasure-coded (overwritten for each call)
+    private volatile int chunkDataStripes;
+    private volatile int chunkParityStripes;
 
     // map to store chunks when retrieving a file
     private volatile ConcurrentHashMap<String, byte[]> readingChunksMap;
     private boolean fileCorrupted;
 
+    // fileName, {offset, length} of byte ranges requested but not yet located by the controller
+    private final ConcurrentHashMap<String, int[]> pendingRangeReads = new ConcurrentHashMap<>();
+
+    // fileName, location of a file asked for to learn its stored size (not to read it)
+    private final ConcurrentHashMap<String, CompletableFuture<RetrieveFileResponse>> pendingFileQueries =
+            new ConcurrentHashMap<>();
+
+    // chunkName, chunk of an erasure-coded file being read from its stripes
+    private final ConcurrentHashMap<String, StripedRead> stripedReads = new ConcurrentHashMap<>();
+
+    // chunkName, chunk being read from one of its replicas
+    private final ConcurrentHashMap<String, ChunkRead> chunkReads = new ConcurrentHashMap<>();
+
+    // chunkName, chunk being stored whose replicas have not all acknowledged it
+    private final ConcurrentHashMap<String, PendingWrite> pendingWrites = new ConcurrentHashMap<>();
+
+    // fileName, how the chunks of the file are sent to their replicas (defaultWriteMode if not set)
+    private final ConcurrentHashMap<String, WriteMode> fileWriteModes = new ConcurrentHashMap<>();
+    private volatile WriteMode defaultWriteMode = WriteMode.AUTO;
+    // a chunk fanned out is written once a majority of its replicas (instead of all) have stored it
+    private volatile boolean fanOutQuorum;
+
+    // "/zone/rack" registered with the Controller (empty: the Controller looks the host up in its topology)
+    private final String location;
+
+    /**
+     * How the chunk of a replicated file is sent to its replicas
+     */
+    public enum WriteMode {
+        // to the first chunk server, which forwards it down the chain: the client sends the chunk once,
+        // but every replica adds a hop to the time it takes to be acknowledged
+        CHAIN,
+        // to all replicas in parallel: one hop whatever the number of replicas, for as many times the upload
+        FAN_OUT,
+        // fanned out if no larger than Constants.Client.FAN_OUT_MAX_CHUNK_SIZE, chained otherwise
+        AUTO;
+
+        /**
+         * @return the write mode named "chain", "fan-out" or "auto", null if there is none by that name
+         */
+        public static WriteMode fromName(String name) {
+            for (WriteMode writeMode : values()) {
+                if (writeMode.name().replace('_', '-').equalsIgnoreCase(name)) {
+                    return writeMode;
+                }
+            }
+            return null;
+        }
+    }
+
     public static void main(String[] args) throws IOException {
         if (args.length < 2) {
             System.out.println("Not enough arguments to start Client. " +
-                    "Enter <controller-host> and <controller-port>");
+                    "Enter <controller-host> and <controller-port> [<location>]");
             System.exit(1);
-        } else if (args.length > 2) {
-            System.out.println("Invalid number of arguments. Provide <controller-host> and <controller-port>");
+        } else if (args.length > 3) {
+            System.out.println("Invalid number of arguments. " +
+                    "Provide <controller-host> and <controller-port> [<location>]");
         }
 
         String controllerHost = args[0];
         int controllerPort = Integer.parseInt(args[1]);
+        // e.g. /zone-a/rack-1 (chunks are read from the nearest replica)
+        String location = args.length > 2 ? args[2] : "";
         Socket controllerSocket = new Socket(controllerHost, controllerPort);
-        Client client = new Client(controllerSocket);
+        Client client = new Client(controllerSocket, location);
         client.initialize();
         //        TCPConnection tcpConnection;
         //        if (client.tcpConnectionsCache.containsConnection(controllerSocket)) {
@@ -79,8 +164,13 @@ public class Client implements Node {
     }
 
     public Client(Socket controllerSocket) throws IOException {
+        this(controllerSocket, "");
+    }
+
+    public Client(Socket controllerSocket, String location) throws IOException {
         log.info("Initializing Client on {}", System.getenv("HOSTNAME"));
         this.controllerSocket = controllerSocket;
+        this.location = location;
         controllerConnection = new TCPConnection(controllerSocket, this);
         tcpConnectionsCache = new TCPConnectionsCache();
         tcpServerThread = new TCPServerThread(0, this, tcpConnectionsCache);
@@ -91,13 +181,29 @@ public class Client implements Node {
     public void initialize() {
         commandParser.start();
         tcpServerThread.start();
+
+        Timer readTimer = new Timer();
+        readTimer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                expireReads();
+            }
+        }, Constants.Client.READ_TIMEOUT, Constants.Client.READ_TIMEOUT / 4);
     }
 
-    private void sendInitialFileInfo(String fileName, int noOfChunks, int fileSize) throws IOException {
+    /**
+     * @param replicationFactor replicas of each chunk of the file (0 keeps the file's current layout)
+     * @param dataStripes       data stripes of each chunk if the file is to be erasure-coded (0: replicated)
+     */
+    private void sendInitialFileInfo(String fileName, int noOfChunks, int fileSize, int replicationFactor,
+                                     int dataStripes, int parityStripes) throws IOException {
         SendFileInfo sendFileInfo = new SendFileInfo();
         sendFileInfo.setFileName(fileName);
         sendFileInfo.setNoOfChunks(noOfChunks);
         sendFileInfo.setFileSize(fileSize);
+        sendFileInfo.setReplicationFactor(replicationFactor);
+        sendFileInfo.setDataStripes(dataStripes);
+        sendFileInfo.setParityStripes(parityStripes);
 
         controllerConnection.sendData(sendFileInfo.getBytes());
     }
@@ -110,7 +216,71 @@ public class Client implements Node {
      * @throws IOException
      */
     public synchronized void addFile(String filePath) throws IOException {
-        log.info("addFile: (file = {})", filePath);
+        addFile(filePath, 0);
+    }
+
+    /**
+     * Add new file to the DFS, storing each of its chunks on replicationFactor chunk servers
+     *
+     * @param replicationFactor 0 for the default replication factor
+     */
+    public synchronized void addFile(String filePath, int replicationFactor) throws IOException {
+        addFile(filePath, replicationFactor, null);
+    }
+
+    /**
+     * Add new file to the DFS, storing each of its chunks on replicationFactor chunk servers
+     *
+     * @param replicationFactor 0 for the default replication factor
+     * @param writeMode         how the chunks of the file are sent to their replicas (also when the file is
+     *                          updated), null for the default write mode
+     */
+    public synchronized void addFile(String filePath, int replicationFactor, WriteMode writeMode)
+            throws IOException {
+        if (replicationFactor < 0 || replicationFactor > Constants.MAX_REPLICATION_LEVEL) {
+            log.error("Replication factor must be between 1 and {}", Constants.MAX_REPLICATION_LEVEL);
+            return;
+        }
+        String fileName = Paths.get(filePath).getFileName().toString();
+        if (writeMode == null) {
+            fileWriteModes.remove(fileName);
+        } else {
+            fileWriteModes.put(fileName, writeMode);
+        }
+        addFile(filePath, replicationFactor, 0, 0);
+    }
+
+    /**
+     * Set how the chunks of files added without a write mode are sent to their replicas, and whether a chunk
+     * fanned out waits for all of its replicas or a majority of them
+     */
+    public void setDefaultWriteMode(WriteMode writeMode, boolean quorum) {
+        defaultWriteMode = writeMode;
+        fanOutQuorum = quorum;
+        log.info("Default write mode set to {} ({} acknowledgements of a chunk fanned out)", writeMode,
+                quorum ? "quorum of" : "all");
+    }
+
+    private boolean isFannedOut(String fileName, int chunkLength) {
+        WriteMode writeMode = fileWriteModes.getOrDefault(fileName, defaultWriteMode);
+        return writeMode == WriteMode.FAN_OUT ||
+                (writeMode == WriteMode.AUTO && chunkLength <= Constants.Client.FAN_OUT_MAX_CHUNK_SIZE);
+    }
+
+    /**
+     * Add new file to the DFS, erasure-coded: each chunk is split into Constants.DATA_STRIPES stripes
+     * plus Constants.PARITY_STRIPES parity stripes, each stored once on its own chunk server.
+     * Meant for cold files: it takes about half the space of 3 replicas and survives as many lost chunk servers,
+     * but reading a lost stripe means decoding it from the others.
+     */
+    public synchronized void addErasureCodedFile(String filePath) throws IOException {
+        addFile(filePath, 0, Constants.DATA_STRIPES, Constants.PARITY_STRIPES);
+    }
+
+    private void addFile(String filePath, int replicationFactor, int dataStripes, int parityStripes)
+            throws IOException {
+        log.info("addFile: (file = {}, replicationFactor = {}, erasureCoding = RS({}, {}))", filePath,
+                replicationFactor, dataStripes, parityStripes);
 
         if (!Files.exists(Path.of(filePath))) {
             log.error("File {} not found", filePath);
@@ -129,74 +299,595 @@ public class Client implements Node {
         List<byte[]> chunks = FileUtil.divideArray(bytes, Constants.CHUNK_SIZE);
         log.info("No. of chunks: {}", chunks.size());
 
-        sendInitialFileInfo(fileName, chunks.size(), bytes.length);
+        sendInitialFileInfo(fileName, chunks.size(), bytes.length, replicationFactor, dataStripes, parityStripes);
 
         // for each chunk
+        List<PendingWrite> writes = new ArrayList<>();
         for (int i = 0; i < chunks.size(); i++) {
-            log.debug("Writing chunk: {}", i + 1);
-            // contact controller and get a list of 3 chunk servers
-            sendChunkServerRequestToController();
+            writes.add(storeChunk(fileName, i + 1, chunks.get(i)));
+        } // end for each chunk loop
 
-            while (chunkServerSockets == null || chunkServerSockets.isEmpty()) {
-                // wait for chunkServerSockets object to get populated
-                try {
-                    Thread.sleep(10);
-                } catch (InterruptedException e) {
-                    log.error("Error while waiting for chunkServers to get populated.");
-                    log.error(e.getLocalizedMessage());
-                    e.printStackTrace();
+        if (awaitWrites(fileName, writes)) {
+            log.info("Finished writing all chunks ({}) of {}: all replicas stored", chunks.size(), fileName);
+        } else {
+            log.error("Some chunks of {} could not be stored on all replicas", fileName);
+        }
+
+        // contact the 3 chunk servers (A, B, C) to store the file
+        // Client only writes to the first chunk server A, which is responsible for forwarding the chunk to B,
+        // which in turn is responsible for forwarding it to C.
+        // After the first 64KB chunk of a file has been written, the client contacts the Controller
+        // to write the next chunk and repeat the process.
+        // Chunk data will be sent to the chunk servers and not the controller. The controller is only
+        // responsible for pointing the client to the chunk servers:
+        // chunk data should not flow through the controller.
+    }
+
+    /**
+     * Add many small files to the DFS, packed into shared containers. A container is stored as a file of
+     * a single chunk, so a container full of small files costs one chunk placement and one chunk on each
+     * chunk server; the Controller records the (offset, length) extent of each file in it.
+     * Files too large to be worth packing are added as regular files.
+     *
+     * @param paths files, or directories (all regular files directly in them)
+     */
+    public synchronized void packFiles(List<String> paths) throws IOException {
+        // file name, path (a later file with the same name replaces an earlier one)
+        LinkedHashMap<String, Path> files = new LinkedHashMap<>();
+        for (String path : paths) {
+            Path p = Paths.get(path);
+            if (Files.isDirectory(p)) {
+                try (DirectoryStream<Path> dir = Files.newDirectoryStream(p)) {
+                    for (Path file : dir) {
+                        if (Files.isRegularFile(file)) {
+                            files.put(file.getFileName().toString(), file);
+                        }
+                    }
                 }
+            } else if (Files.isRegularFile(p)) {
+                files.put(p.getFileName().toString(), p);
+            } else {
+                log.error("File {} not found", path);
             }
+        }
 
-            // establish connection with ChunkServer A
-            TCPConnection chunkServerConnectionA;
-            Socket socketA = chunkServerSockets.get(0);
-            if (tcpConnectionsCache.containsConnection(socketA)) {
-                chunkServerConnectionA = tcpConnectionsCache.getConnection(socketA);
-            } else {
-                chunkServerConnectionA = new TCPConnection(socketA, this);
+        ByteArrayOutputStream container = new ByteArrayOutputStream(Constants.CHUNK_SIZE);
+        SendPackedFileInfo packedFileInfo = new SendPackedFileInfo();
+        int noOfPackedFiles = 0;
+        for (Map.Entry<String, Path> entry : files.entrySet()) {
+            if (Files.size(entry.getValue()) > Constants.Client.SMALL_FILE_THRESHOLD) {
+                addFile(entry.getValue().toString());
+                continue;
+            }
+
+            byte[] bytes = Files.readAllBytes(entry.getValue());
+            if (container.size() + bytes.length > Constants.CHUNK_SIZE) {
+                storeContainer(packedFileInfo, container.toByteArray());
+                container.reset();
+                packedFileInfo = new SendPackedFileInfo();
+            }
+            packedFileInfo.addFile(entry.getKey(), container.size(), bytes.length);
+            container.write(bytes);
+            noOfPackedFiles++;
+        }
+        if (!packedFileInfo.getFileNames().isEmpty()) {
+            storeContainer(packedFileInfo, container.toByteArray());
+        }
+        log.info("Packed {} small files", noOfPackedFiles);
+    }
+
+    /**
+     * Send the index of a container to the Controller, then store the container as its only chunk
+     */
+    private void storeContainer(SendPackedFileInfo packedFileInfo, byte[] container) throws IOException {
+        String containerName = Constants.Client.CONTAINER_PREFIX + UUID.randomUUID();
+        packedFileInfo.setContainerName(containerName);
+        packedFileInfo.setContainerSize(container.length);
+        controllerConnection.sendData(packedFileInfo.getBytes());
+
+        if (awaitWrites(containerName, Collections.singletonList(storeChunk(containerName, 1, container)))) {
+            log.info("Stored container {} ({} files, {} bytes)", containerName,
+                    packedFileInfo.getFileNames().size(), container.length);
+        } else {
+            log.error("Container {} could not be stored on all replicas", containerName);
+        }
+    }
+
+    /**
+     * Overwrite a region of a file already stored in the DFS with the contents of the local copy.
+     * Only the chunks overlapping the region (and, if the file grew, the chunks from its old end on) are uploaded
+     * again; the controller gives them a new version, so replicas still holding the old version stop being read.
+     *
+     * @param filePath local copy of the file, already modified
+     * @param offset   start of the modified region
+     * @param length   length of the modified region
+     */
+    public synchronized void updateFile(String filePath, int offset, int length) throws IOException {
+        log.info("updateFile: (file = {}, offset = {}, length = {})", filePath, offset, length);
+
+        if (!Files.exists(Path.of(filePath))) {
+            log.error("File {} not found", filePath);
+            return;
+        }
+        if (offset < 0 || length <= 0) {
+            log.error("Invalid region (offset={}, length={})", offset, length);
+            return;
+        }
+
+        String fileName = Paths.get(filePath).getFileName().toString();
+        byte[] bytes = FileUtil.readFileAsBytes(filePath);
+        List<byte[]> chunks = FileUtil.divideArray(bytes, Constants.CHUNK_SIZE);
+        int end = (int) Math.min(bytes.length, (long) offset + length);
+        if (offset >= end) {
+            log.error("Region (offset={}, length={}) is past the end of {} ({} bytes)", offset, length,
+                    filePath, bytes.length);
+            return;
+        }
+
+        RetrieveFileResponse stored = queryFile(fileName);
+        if (stored == null) {
+            log.error("{} is not stored in the DFS (or the Controller did not answer). Add it first", fileName);
+            return;
+        }
+        // the last chunk before the old end of the file, and the chunks after it, change when the file grows
+        int firstGrownChunk = bytes.length > stored.getFileSize() ? stored.getFileSize() / Constants.CHUNK_SIZE :
+                chunks.size();
+
+        // file size (and number of chunks) may have changed
+        sendInitialFileInfo(fileName, chunks.size(), bytes.length, 0, 0, 0);
+
+        int firstChunk = offset / Constants.CHUNK_SIZE;
+        int lastChunk = (end - 1) / Constants.CHUNK_SIZE;
+        List<PendingWrite> writes = new ArrayList<>();
+        for (int i = firstChunk; i < chunks.size(); i++) {
+            if (i <= lastChunk || i >= firstGrownChunk) {
+                writes.add(storeChunk(fileName, i + 1, chunks.get(i)));
             }
+        }
+        if (awaitWrites(fileName, writes)) {
+            int firstTrailingChunk = Math.max(firstGrownChunk, lastChunk + 1);
+            log.info("Updated chunks {}-{} of {}{}", firstChunk + 1, lastChunk + 1, fileName,
+                    firstTrailingChunk < chunks.size() ?
+                            " and chunks " + (firstTrailingChunk + 1) + "-" + chunks.size() + " it grew by" : "");
+        } else {
+            log.error("Some updated chunks of {} could not be stored on all replicas", fileName);
+        }
+    }
 
-            StoreChunk storeChunk = new StoreChunk();
-            storeChunk.setChunk(chunks.get(i));
-            storeChunk.setFileName(fileName);
-            storeChunk.setSequenceNumber(i + 1);
-            storeChunk.setVersion(1);
+    /**
+     * Ask the Controller where a file is stored, to learn its stored size and number of chunks
+     *
+     * @return the Controller's answer, or null if the file is not stored (the Controller does not answer)
+     */
+    private RetrieveFileResponse queryFile(String fileName) throws IOException {
+        CompletableFuture<RetrieveFileResponse> query = new CompletableFuture<>();
+        pendingFileQueries.put(fileName, query);
+        RetrieveFileRequest retrieveFileRequest = new RetrieveFileRequest();
+        retrieveFileRequest.setFileName(fileName);
+        controllerConnection.sendData(retrieveFileRequest.getBytes());
+        try {
+            return query.get(Constants.Client.READ_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            pendingFileQueries.remove(fileName, query);
+        }
+    }
 
-            String[] nextChunkServerHosts = new String[Constants.REPLICATION_LEVEL - 1];
-            int[] nextChunkServerPorts = new int[Constants.REPLICATION_LEVEL - 1];
+    private PendingWrite storeChunk(String fileName, int sequenceNumber, byte[] chunk) throws IOException {
+        return storeChunk(fileName, sequenceNumber, chunk, 1);
+    }
 
-            Socket socketB = chunkServerSockets.get(1);
-            Socket socketC = chunkServerSockets.get(2);
+    /**
+     * Store a single chunk: get its chain of chunk servers (and the chunk's version) from the controller
+     * and stream the chunk in packets to the first one, which forwards each packet along the chain as it arrives.
+     * Small chunks (or the chunks of a file written in fan-out mode) are sent to all the chunk servers instead.
+     * The chunk of an erasure-coded file is encoded instead, and each stripe sent to its own chunk server.
+     * Returns without waiting for the chain (or the stripes) to acknowledge the chunk
+     *
+     * @param attempt number of times the chunk has been sent (including this one)
+     */
+    private PendingWrite storeChunk(String fileName, int sequenceNumber, byte[] chunk, int attempt)
+            throws IOException {
+        log.debug("Writing chunk: {}", sequenceNumber);
+        // contact controller and get the chain of chunk servers (one per replica)
+        if (!requestChunkServers(fileName + Constants.ChunkServer.EXT_DATA_CHUNK + sequenceNumber, chunk.length)) {
+            return PendingWrite.unsent(fileName, sequenceNumber, chunk, attempt);
+        }
 
-            nextChunkServerHosts[0] = socketB.getInetAddress().getHostAddress();
-            nextChunkServerPorts[0] = socketB.getPort();
+        if (chunkDataStripes > 0) {
+            PendingWrite pendingWrite = storeStripes(fileName, sequenceNumber, chunk, attempt);
+            chunkServers.clear();
+            return pendingWrite;
+        }
+        if (chunkServers.size() > 1 && isFannedOut(fileName, chunk.length)) {
+            PendingWrite pendingWrite = fanOut(fileName, sequenceNumber, chunk, attempt);
+            chunkServers.clear();
+            return pendingWrite;
+        }
 
-            nextChunkServerHosts[1] = socketC.getInetAddress().getHostAddress();
-            nextChunkServerPorts[1] = socketC.getPort();
+        // the chain is made of the chunk servers that could be reached
+        List<TCPConnection> chain = new ArrayList<>();
+        for (TCPConnection connection : chunkServers) {
+            if (connection != null) {
+                chain.add(connection);
+            }
+        }
+        if (chain.isEmpty()) {
+            log.warn("None of the chunk servers for chunk {} could be reached", sequenceNumber);
+            chunkServers.clear();
+            return PendingWrite.unsent(fileName, sequenceNumber, chunk, attempt);
+        }
 
-            storeChunk.setNextChunkServerHosts(nextChunkServerHosts);
-            storeChunk.setNextChunkServerPorts(nextChunkServerPorts);
-            storeChunk.setNoOfNextChunkServers(Constants.REPLICATION_LEVEL - 1);
+        // ChunkServer A
+        TCPConnection chunkServerConnectionA = chain.get(0);
+
+        // the rest of the chain, in order
+        int replicas = chain.size();
+        String[] nextChunkServerHosts = new String[replicas - 1];
+        int[] nextChunkServerPorts = new int[replicas - 1];
+        for (int i = 1; i < replicas; i++) {
+            Socket socket = chain.get(i).getSocket();
+            nextChunkServerHosts[i - 1] = socket.getInetAddress().getHostAddress();
+            nextChunkServerPorts[i - 1] = socket.getPort();
+        }
 
-            chunkServerConnectionA.sendData(storeChunk.getBytes());
+        PendingWrite pendingWrite = new PendingWrite(fileName, sequenceNumber, chunk, chunkVersion, attempt,
+                replicas, 1, 1);
+        pendingWrites.put(pendingWrite.getChunkName(), pendingWrite);
+        sendPackets(chunkServerConnectionA, StoreChunkPacket.packetize(fileName, sequenceNumber, chunkVersion, chunk,
+                nextChunkServerHosts, nextChunkServerPorts));
 
-            log.info("Chunk {} processed. Proceeding to the next chunk.", i + 1);
-            chunkServerSockets.clear();
-        } // end for each chunk loop
+        log.info("Chunk {} (version {}) processed. Proceeding to the next chunk.", sequenceNumber, chunkVersion);
+        chunkServers.clear();
+        return pendingWrite;
+    }
 
-        log.info("Finished writing all chunks ({}) of {}", chunks.size(), fileName);
+    /**
+     * Ask the controller for the chunk servers to store a chunk on, and again every PLACEMENT_RETRY_INTERVAL while
+     * it has none to offer (e.g. chunk servers that have registered but not reported their free space yet)
+     *
+     * @return false if the controller offered no chunk servers within PLACEMENT_TIMEOUT
+     */
+    private boolean requestChunkServers(String chunkName, int chunkSize) throws IOException {
+        long deadline = System.currentTimeMillis() + Constants.Client.PLACEMENT_TIMEOUT;
+        try {
+            while (true) {
+                chunkServers = null;
+                chunkServersReceived = new CountDownLatch(1);
+                sendChunkServerRequestToController(chunkName, chunkSize);
+                if (!chunkServersReceived.await(Math.max(0, deadline - System.currentTimeMillis()),
+                        TimeUnit.MILLISECONDS)) {
+                    log.warn("The controller did not send chunk servers for {} in time", chunkName);
+                    return false;
+                }
+                if (!chunkServers.isEmpty()) {
+                    return true;
+                }
+                if (System.currentTimeMillis() + Constants.Client.PLACEMENT_RETRY_INTERVAL > deadline) {
+                    log.warn("The controller has no chunk servers to store {} on", chunkName);
+                    return false;
+                }
+                Thread.sleep(Constants.Client.PLACEMENT_RETRY_INTERVAL);
+            }
+        } catch (InterruptedException e) {
+            log.warn("Interrupted while waiting for chunk servers for {}", chunkName);
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
 
-        // contact the 3 chunk servers (A, B, C) to store the file
-        // Client only writes to the first chunk server A, which is responsible for forwarding the chunk to B,
-        // which in turn is responsible for forwarding it to C.
-        // After the first 64KB chunk of a file has been written, the client contacts the Controller
-        // to write the next chunk and repeat the process.
-        // Chunk data will be sent to the chunk servers and not the controller. The controller is only
-        // responsible for pointing the client to the chunk servers:
-        // chunk data should not flow through the controller.
+    /**
+     * Send a chunk to all of its chunk servers at once, each as a chain of one, so it is acknowledged one hop
+     * after it is sent whatever its number of replicas. The chunk is written once all replicas (or a majority
+     * of them, in quorum mode) have stored it: a replica missed by a quorum write is re-replicated by the
+     * controller. A chunk server that cannot be reached counts as a failed replica.
+     */
+    private PendingWrite fanOut(String fileName, int sequenceNumber, byte[] chunk, int attempt) {
+        // as many replicas as the controller placed, reachable or not
+        int replicas = chunkServers.size();
+        int required = fanOutQuorum ? replicas / 2 + 1 : replicas;
+        PendingWrite pendingWrite = new PendingWrite(fileName, sequenceNumber, chunk, chunkVersion, attempt, 1,
+                replicas, required);
+        pendingWrites.put(pendingWrite.getChunkName(), pendingWrite);
+        List<StoreChunkPacket> packets = StoreChunkPacket.packetize(fileName, sequenceNumber, chunkVersion, chunk,
+                new String[0], new int[0]);
+        for (int i = 0; i < replicas; i++) {
+            TCPConnection connection = chunkServers.get(i);
+            if (connection == null) {
+                log.error("Chunk server {} of {} cannot be reached", chunkServerAddresses[i],
+                        pendingWrite.getChunkName());
+                failReplica(fileName, sequenceNumber, chunkServerAddresses[i]);
+                continue;
+            }
+            try {
+                sendPackets(connection, packets);
+            } catch (IOException e) {
+                log.error("Error sending {} to {}: {}", pendingWrite.getChunkName(), chunkServerAddresses[i],
+                        e.getLocalizedMessage());
+                failReplica(fileName, sequenceNumber, chunkServerAddresses[i]);
+            }
+        }
+
+        log.info("Chunk {} (version {}) sent to {} chunk servers (waiting for {}). Proceeding to the next chunk.",
+                sequenceNumber, chunkVersion, replicas, required);
+        return pendingWrite;
+    }
+
+    /**
+     * Count a replica (or stripe) that could not be sent as failed, as if it had not acknowledged
+     *
+     * @param storedFileName name the replica is stored under (the stripe's file name, for a stripe)
+     * @param replica        host:port of its chunk server
+     */
+    private void failReplica(String storedFileName, int sequenceNumber, String replica) {
+        StoreChunkAck ack = new StoreChunkAck();
+        ack.setFileName(storedFileName);
+        ack.setSequenceNumber(sequenceNumber);
+        ack.setVersion(chunkVersion);
+        ack.addReplica(replica, StoreChunkAck.STATUS_NO_ACK, 0);
+        handleStoreChunkAck(ack);
+    }
+
+    /**
+     * Encode a chunk of an erasure-coded file and send stripe i to the i-th chunk server returned by the controller
+     * (a chain of one: each stripe is stored once). A stripe whose chunk server cannot be reached is failed
+     * rather than sent elsewhere, so that no two stripes share a chunk server the controller did not choose
+     */
+    private PendingWrite storeStripes(String fileName, int sequenceNumber, byte[] chunk, int attempt)
+            throws IOException {
+        ReedSolomon codec = new ReedSolomon(chunkDataStripes, chunkParityStripes);
+        byte[][] stripes = codec.encode(chunk, 0, chunk.length);
+
+        PendingWrite pendingWrite = new PendingWrite(fileName, sequenceNumber, chunk, chunkVersion, attempt, 1,
+                stripes.length, stripes.length);
+        pendingWrites.put(pendingWrite.getChunkName(), pendingWrite);
+        for (int i = 0; i < stripes.length; i++) {
+            String stripeFileName = FileUtil.getStripeFileName(fileName, i);
+            TCPConnection connection = i < chunkServers.size() ? chunkServers.get(i) : null;
+            String chunkServer = i < chunkServerAddresses.length ? chunkServerAddresses[i] : "";
+            if (connection == null) {
+                log.error("Chunk server {} of stripe {} of chunk {} cannot be reached", chunkServer, i,
+                        sequenceNumber);
+                failReplica(stripeFileName, sequenceNumber, chunkServer);
+                continue;
+            }
+            try {
+                sendPackets(connection, StoreChunkPacket.packetize(stripeFileName, sequenceNumber, chunkVersion,
+                        stripes[i], new String[0], new int[0]));
+            } catch (IOException e) {
+                log.error("Error sending stripe {} of chunk {} to {}: {}", i, sequenceNumber, chunkServer,
+                        e.getLocalizedMessage());
+                failReplica(stripeFileName, sequenceNumber, chunkServer);
+            }
+        }
+
+        log.info("Chunk {} (version {}) encoded into {} stripes of {} bytes. Proceeding to the next chunk.",
+                sequenceNumber, chunkVersion, stripes.length, codec.getStripeSize(chunk.length));
+        return pendingWrite;
     }
 
+    /**
+     * @return the connection to a chunk server (opened the first time, and shared with the chunks sent to it)
+     */
+    private TCPConnection getChunkServerConnection(String host, int port) throws IOException {
+        String key = host + ":" + port;
+        TCPConnection connection = chunkServerConnections.get(key);
+        if (connection == null || connection.getSocket().isClosed()) {
+            connection = new TCPConnection(new Socket(host, port), this);
+            TCPConnection existing = chunkServerConnections.put(key, connection);
+            if (existing != null) {
+                existing.getSocket().close();
+            }
+        }
+        return connection;
+    }
+
+    /**
+     * Send the packets of a chunk, closing the connection if they cannot be sent (it is opened again next time)
+     */
+    private void sendPackets(TCPConnection connection, List<StoreChunkPacket> packets) throws IOException {
+        try {
+            for (StoreChunkPacket packet : packets) {
+                connection.sendData(packet.getBytes());
+            }
+        } catch (IOException e) {
+            connection.getSocket().close();
+            throw e;
+        }
+    }
+
+    /**
+     * Wait until every chunk is stored on all of its replicas. A chunk is sent again (to a new chain)
+     * as soon as a replica reports a failure, or if the chain does not acknowledge it in time
+     *
+     * @return true if all chunks have been stored
+     */
+    private boolean awaitWrites(String fileName, List<PendingWrite> writes) throws IOException {
+        List<Long> latencies = new ArrayList<>();
+        // sum of the write times reported by the 1st, 2nd, 3rd... replica of the chains (microseconds),
+        // and the number of chains that had a replica at that position
+        long[] replicaMicros = new long[Constants.MAX_REPLICATION_LEVEL];
+        int[] replicaCounts = new int[Constants.MAX_REPLICATION_LEVEL];
+        int failed = 0;
+        ArrayDeque<PendingWrite> queue = new ArrayDeque<>(writes);
+        while (!queue.isEmpty()) {
+            PendingWrite write = queue.poll();
+            boolean acknowledged;
+            try {
+                long remaining = write.startNanos + TimeUnit.MILLISECONDS.toNanos(write.getAckTimeout()) -
+                        System.nanoTime();
+                acknowledged = write.acknowledged.await(Math.max(0, remaining), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                log.warn("Interrupted while waiting for the chunks of {} to be acknowledged", fileName);
+                Thread.currentThread().interrupt();
+                return false;
+            }
+
+            if (acknowledged && write.stored) {
+                latencies.add(write.latencyNanos);
+                // the acknowledgements of stripes are not positions in a chain
+                if (write.acks == 1) {
+                    for (int i = 0; i < replicaMicros.length && i < write.ack.getWriteMicros().size(); i++) {
+                        replicaMicros[i] += write.ack.getWriteMicros().get(i);
+                        replicaCounts[i]++;
+                    }
+                }
+                continue;
+            }
+
+            pendingWrites.remove(write.getChunkName(), write);
+            if (acknowledged && write.ack == null) {
+                log.warn("{} could not be sent: no chunk servers to store it on", write.getChunkName());
+            } else if (acknowledged) {
+                log.warn("{} (version {}) was not stored on all replicas: {} {}", write.getChunkName(), write.version,
+                        write.ack.getReplicas(), write.ack.getStatuses());
+            } else {
+                log.warn("{} (version {}) was not acknowledged within {} ms", write.getChunkName(), write.version,
+                        write.getAckTimeout());
+            }
+            if (write.attempt < Constants.Client.WRITE_ATTEMPTS) {
+                log.info("Storing {} again (attempt {})", write.getChunkName(), write.attempt + 1);
+                queue.add(storeChunk(write.fileName, write.sequenceNumber, write.chunk, write.attempt + 1));
+            } else {
+                log.error("Giving up on {} after {} attempts", write.getChunkName(), write.attempt);
+                failed++;
+            }
+        }
+
+        printWriteLatencies(fileName, latencies, replicaMicros, replicaCounts);
+        return failed == 0;
+    }
+
+    /**
+     * Print percentiles of the time from sending a chunk to all of its replicas being stored
+     */
+    private void printWriteLatencies(String fileName, List<Long> latencies, long[] replicaMicros,
+                                     int[] replicaCounts) {
+        if (latencies.isEmpty()) {
+            return;
+        }
+        Collections.sort(latencies);
+        System.out.printf("Write latency of %d chunks of %s: p50 = %.2f ms, p90 = %.2f ms, p99 = %.2f ms, " +
+                        "max = %.2f ms%n", latencies.size(), fileName, percentile(latencies, 0.50),
+                percentile(latencies, 0.90), percentile(latencies, 0.99), latencies.get(latencies.size() - 1) / 1e6);
+        StringBuilder replicas = new StringBuilder();
+        for (int i = 0; i < replicaMicros.length && replicaCounts[i] > 0; i++) {
+            replicas.append(String.format("%sreplica %d = %.2f ms", i == 0 ? "" : ", ", i + 1,
+                    replicaMicros[i] / 1e3 / replicaCounts[i]));
+        }
+        if (replicas.length() > 0) {
+            System.out.println("Average write time (first packet to commit): " + replicas);
+        }
+    }
+
+    private static double percentile(List<Long> sortedNanos, double p) {
+        int index = (int) Math.ceil(p * sortedNanos.size()) - 1;
+        return sortedNanos.get(Math.max(0, Math.min(index, sortedNanos.size() - 1))) / 1e6;
+    }
+
+    /**
+     * Acknowledgement of a chunk from the first chunk server of its chain, of a replica of a chunk fanned out,
+     * or of a stripe of a chunk of an erasure-coded file. The chunk is written once enough replicas (all stripes)
+     * have stored it, and failed as soon as too many replicas cannot store it for that to happen.
+     */
+    private void handleStoreChunkAck(Event event) {
+        StoreChunkAck ack = (StoreChunkAck) event;
+        String chunkName = ack.getFileName() + Constants.ChunkServer.EXT_DATA_CHUNK + ack.getSequenceNumber();
+        PendingWrite write = pendingWrites.get(chunkName);
+        if (write == null && FileUtil.getStripe(ack.getFileName()) >= 0) {
+            write = pendingWrites.get(FileUtil.getOriginalFileName(chunkName) +
+                    Constants.ChunkServer.EXT_DATA_CHUNK + ack.getSequenceNumber());
+        }
+        if (write == null || write.version != ack.getVersion()) {
+            log.debug("Ignoring acknowledgement of {} (version {})", chunkName, ack.getVersion());
+            return;
+        }
+
+        synchronized (write) {
+            if (write.ack == null) {
+                write.ack = ack;
+            } else {
+                for (int i = 0; i < ack.getReplicas().size(); i++) {
+                    write.ack.addReplica(ack.getReplicas().get(i), ack.getStatuses().get(i),
+                            ack.getWriteMicros().get(i));
+                }
+            }
+            if (ack.isStored()) {
+                write.storedAcks++;
+            } else {
+                write.failedAcks++;
+            }
+            if (write.storedAcks >= write.required || write.failedAcks > write.acks - write.required) {
+                write.stored = write.storedAcks >= write.required;
+                pendingWrites.remove(write.getChunkName(), write);
+                write.latencyNanos = System.nanoTime() - write.startNanos;
+                write.acknowledged.countDown();
+            }
+        }
+        log.debug("{} (version {}) acknowledged: {} {} {} us", chunkName, ack.getVersion(), ack.getReplicas(),
+                ack.getStatuses(), ack.getWriteMicros());
+    }
+
+    /**
+     * A chunk sent to a chain and not acknowledged yet
+     */
+    private static class PendingWrite {
+        private final String fileName;
+        private final int sequenceNumber;
+        private final byte[] chunk;
+        private final int version;
+        private final int attempt;
+        private final int replicas; // length of the chain the chunk was sent to
+        // acknowledgements expected: 1 for a chain, one per replica if fanned out, one per stripe if erasure-coded
+        private final int acks;
+        private final int required; // acknowledgements of a stored replica (or stripe) needed for the write
+        private final long startNanos;
+        private final CountDownLatch acknowledged; // released once the write has succeeded or failed
+        private volatile StoreChunkAck ack;
+        private volatile long latencyNanos;
+        private volatile boolean stored;
+        private int storedAcks;
+        private int failedAcks;
+
+        private PendingWrite(String fileName, int sequenceNumber, byte[] chunk, int version, int attempt,
+                             int replicas, int acks, int required) {
+            this.fileName = fileName;
+            this.sequenceNumber = sequenceNumber;
+            this.chunk = chunk;
+            this.version = version;
+            this.attempt = attempt;
+            this.replicas = replicas;
+            this.acks = acks;
+            this.required = required;
+            startNanos = System.nanoTime();
+            acknowledged = new CountDownLatch(1);
+        }
+
+        /**
+         * A write that failed before it was sent (no chunk servers to send it to)
+         */
+        private static PendingWrite unsent(String fileName, int sequenceNumber, byte[] chunk, int attempt) {
+            PendingWrite write = new PendingWrite(fileName, sequenceNumber, chunk, 0, attempt, 0, 1, 1);
+            write.acknowledged.countDown();
+            return write;
+        }
+
+        private String getChunkName() {
+            return fileName + Constants.ChunkServer.EXT_DATA_CHUNK + sequenceNumber;
+        }
+
+        /**
+         * Time to wait for the acknowledgement (ms): every chunk server of the chain waits for the next one,
+         * so longer chains take longer to report a failure
+         */
+        private long getAckTimeout() {
+            return (long) Constants.ChunkServer.ACK_TIMEOUT * (replicas + 1);
+        }
+    }
 
     /**
      * Retrieve stored file from the DFS
@@ -211,14 +902,56 @@ public class Client implements Node {
     }
 
     /**
-     * Request information about 3 Chunk Servers from Controller to store a new file
+     * Delete a file from the DFS. The Controller forgets the file right away; the space
+     * of its chunks is reclaimed by the chunk servers in the background.
      *
+     * @param fileName
+     */
+    public void deleteFile(String fileName) throws IOException {
+        DeleteFileRequest deleteFileRequest = new DeleteFileRequest();
+        deleteFileRequest.setFileName(fileName);
+        controllerConnection.sendData(deleteFileRequest.getBytes());
+    }
+
+    private void handleDeleteFileResponse(Event event) {
+        DeleteFileResponse deleteFileResponse = (DeleteFileResponse) event;
+        if (deleteFileResponse.isDeleted()) {
+            System.out.println(deleteFileResponse.getFileName() + " deleted");
+        } else {
+            System.out.println(deleteFileResponse.getFileName() + " not found");
+        }
+    }
+
+    /**
+     * Retrieve only a byte range of a stored file from the DFS.
+     * Only the chunks overlapping the range are contacted, and each of them returns just the bytes needed.
+     *
+     * @param fileName
+     * @param offset   offset within the file
+     * @param length   number of bytes to read
+     */
+    public synchronized void retrieveFileRange(String fileName, int offset, int length) throws IOException {
+        if (offset < 0 || length <= 0) {
+            log.error("Invalid range (offset={}, length={})", offset, length);
+            return;
+        }
+        pendingRangeReads.put(fileName, new int[]{offset, length});
+        retrieveFile(fileName);
+    }
+
+    /**
+     * Request information about 3 Chunk Servers from Controller to store a new chunk
+     *
+     * @param chunkName
+     * @param chunkSize size of the chunk in bytes (the Controller reserves that much space on each ChunkServer)
      * @throws IOException
      */
-    private synchronized void sendChunkServerRequestToController() throws IOException {
+    private synchronized void sendChunkServerRequestToController(String chunkName, int chunkSize) throws IOException {
         log.debug("sendChunkServerRequestToController()");
         ClientRequestsChunkServersFromController requestChunkServersEvent =
                 new ClientRequestsChunkServersFromController();
+        requestChunkServersEvent.setChunkName(chunkName);
+        requestChunkServersEvent.setChunkSize(chunkSize);
         //        requestChunkServersEvent.setSocket(controllerConnection.getSocket());
         controllerConnection.sendData(requestChunkServersEvent.getBytes());
     }
@@ -240,6 +973,13 @@ public class Client implements Node {
                 handleControllerSendsChunkServers(event);
                 break;
             case Protocol.RETRIEVE_FILE_RESPONSE:
+                // answers a query of updateFile (which holds the lock handleRetrieveFileResponse needs)
+                CompletableFuture<RetrieveFileResponse> query =
+                        pendingFileQueries.remove(((RetrieveFileResponse) event).getFileName());
+                if (query != null) {
+                    query.complete((RetrieveFileResponse) event);
+                    break;
+                }
                 try {
                     handleRetrieveFileResponse(event);
                 } catch (IOException e) {
@@ -250,6 +990,12 @@ public class Client implements Node {
             case Protocol.RETRIEVE_CHUNK_RESPONSE:
                 handleRetrieveChunkResponse(event);
                 break;
+            case Protocol.DELETE_FILE_RESPONSE:
+                handleDeleteFileResponse(event);
+                break;
+            case Protocol.STORE_CHUNK_ACK:
+                handleStoreChunkAck(event);
+                break;
             default:
                 log.warn("Unknown event type");
         }
@@ -261,20 +1007,104 @@ public class Client implements Node {
         byte[] chunk = response.getChunk();
         String expectedChunkHash = response.getChunkHash();
 
-        if (!FileUtil.hash(chunk).equals(expectedChunkHash)) {
-            log.warn(" {}'s hashes do not match (Corrupted)!!!! Please try again!", chunkName);
-            fileCorrupted = true;
-            //throw new NullPointerException();
-        } else {
-            log.info("{}'s integrity confirmed!", chunkName);
+        String storedFileName = FileUtil.getFileNameFromChunkName(chunkName);
+        int stripe = FileUtil.getStripe(storedFileName);
+        StripedRead stripedRead = stripe < 0 ? null : stripedReads.get(FileUtil.getOriginalFileName(chunkName) +
+                chunkName.substring(storedFileName.length()));
+        boolean valid = response.getStatus() == RetrieveChunkResponse.STATUS_OK &&
+                FileUtil.hash(chunk, response.getChunkHashType()).equals(expectedChunkHash);
+        if (stripedRead != null) {
+            handleStripe(stripedRead, stripe, chunk, valid);
+            return;
         }
 
-        if (readingChunksMap == null) {
-            log.warn("readingChunksMap has not been initialized");
-            throw new NullPointerException();
-        } else {
-            // if(FileUtil.hash(chunk).equals(expectedChunkHash))
+        ChunkRead read = chunkReads.get(chunkName);
+        if (read == null) {
+            // read from another replica already
+            log.debug("Ignoring late response for {}", chunkName);
+            return;
+        }
+        if (valid) {
+            log.info("{}'s integrity confirmed!", chunkName);
+            chunkReads.remove(chunkName, read);
             readingChunksMap.put(chunkName, chunk);
+            return;
+        }
+
+        int replica = read.getReplica(response.getSocket());
+        boolean missing = response.getStatus() == RetrieveChunkResponse.STATUS_NOT_FOUND;
+        log.warn("{} is {} on {}. Reading another replica", chunkName, missing ? "missing" : "corrupted",
+                replica < 0 ? "a replica" : read.hosts[replica] + ":" + read.ports[replica]);
+        // a ChunkServer reports the corruption it finds itself
+        if (replica >= 0 && response.getStatus() != RetrieveChunkResponse.STATUS_CORRUPTED) {
+            sendRepairHint(chunkName, read.hosts[replica], read.ports[replica], missing ?
+                    RetrieveChunkResponse.STATUS_NOT_FOUND : RetrieveChunkResponse.STATUS_CORRUPTED);
+        }
+        if (replica == read.replica) {
+            requestChunk(read);
+        }
+    }
+
+    /**
+     * Ask the next replica of a chunk for it, or give up on the chunk once it has been asked for too many times
+     */
+    private void requestChunk(ChunkRead read) {
+        String chunkName = read.request.getChunkName();
+        while (read.attempts < read.maxAttempts) {
+            int replica = read.attempts++ % read.hosts.length;
+            if (read.hosts[replica].isEmpty()) {
+                continue;
+            }
+            read.replica = replica;
+            read.sentAt = System.currentTimeMillis();
+            try {
+                read.connections[replica] = sendRetrieveChunkRequest(read.hosts[replica], read.ports[replica],
+                        read.request);
+                return;
+            } catch (IOException e) {
+                log.warn("Could not request {} from {}:{}: {}", chunkName, read.hosts[replica], read.ports[replica],
+                        e.getLocalizedMessage());
+            }
+        }
+        log.error("{} could not be read from any of its {} replicas", chunkName, read.hosts.length);
+        chunkReads.remove(chunkName, read);
+        fileCorrupted = true;
+        readingChunksMap.put(chunkName, new byte[0]);
+    }
+
+    /**
+     * Read the chunks (and stripes) not received in time from another replica (or other stripes)
+     */
+    private synchronized void expireReads() {
+        long now = System.currentTimeMillis();
+        for (ChunkRead read : new ArrayList<>(chunkReads.values())) {
+            if (now - read.sentAt > Constants.Client.READ_TIMEOUT) {
+                log.warn("{} was not received from {}:{} in time. Reading another replica",
+                        read.request.getChunkName(), read.hosts[read.replica], read.ports[read.replica]);
+                requestChunk(read);
+            }
+        }
+        for (StripedRead stripedRead : new ArrayList<>(stripedReads.values())) {
+            for (int stripe : stripedRead.expire(now)) {
+                log.warn("Stripe {} of {} was not received in time", stripe, stripedRead.chunkName);
+                handleStripe(stripedRead, stripe, null, false);
+            }
+        }
+    }
+
+    /**
+     * Tell the Controller that a replica is corrupted or missing, so that it is repaired from another one
+     */
+    private void sendRepairHint(String chunkName, String host, int port, int status) {
+        ReportBadReplica report = new ReportBadReplica();
+        report.setChunkName(chunkName);
+        report.setChunkServerHost(host);
+        report.setChunkServerPort(port);
+        report.setStatus(status);
+        try {
+            controllerConnection.sendData(report.getBytes());
+        } catch (IOException e) {
+            log.error("Error reporting the bad replica of {}: {}", chunkName, e.getLocalizedMessage());
         }
     }
 
@@ -283,15 +1113,21 @@ public class Client implements Node {
 
         private final String fileName;
         private final int noOfChunks;
+        private final List<String> chunkNames; // in file order
         private final TreeSet<String> expectedChunkNames;
 
         public FileAssembler(String fileName, int noOfChunks) {
+            this(fileName, getChunkNames(fileName, 0, noOfChunks));
+        }
+
+        /**
+         * Assemble the given chunks (or chunk ranges), in order, into fileName
+         */
+        public FileAssembler(String fileName, List<String> chunkNames) {
             this.fileName = fileName;
-            this.noOfChunks = noOfChunks;
-            expectedChunkNames = new TreeSet<>();
-            for (int i = 0; i < noOfChunks; i++) {
-                expectedChunkNames.add(fileName + Constants.ChunkServer.EXT_DATA_CHUNK + (i + 1));
-            }
+            this.noOfChunks = chunkNames.size();
+            this.chunkNames = chunkNames;
+            expectedChunkNames = new TreeSet<>(chunkNames);
         }
 
         @Override
@@ -309,7 +1145,7 @@ public class Client implements Node {
                 }
             }
             if (fileCorrupted) {
-                log.error(" File is Corrupted!!! Try again please.");
+                log.error("{} could not be read: a chunk is corrupted or missing on all of its replicas", fileName);
                 //new IOException();
             } else {
 
@@ -328,7 +1164,7 @@ public class Client implements Node {
                     // combine all chunks
                     byte[][] allChunks = new byte[noOfChunks][];
                     for (int i = 0; i < noOfChunks; i++) {
-                        allChunks[i] = readingChunksMap.get(fileName + Constants.ChunkServer.EXT_DATA_CHUNK + (i + 1));
+                        allChunks[i] = readingChunksMap.get(chunkNames.get(i));
                     }
                     byte[] combinedBytes = FileUtil.concat(allChunks);
 
@@ -374,30 +1210,365 @@ public class Client implements Node {
         assert (chunkServerHosts.length == chunkServerPorts.length &&
                 chunkServerHosts.length == chunkServerHostNames.length);
 
-        // contact chunk servers and retrieve the chunks
-        for (int i = 0; i < noOfChunks; i++) {
-            Socket socket = new Socket(chunkServerHosts[i], chunkServerPorts[i]);
-            TCPConnection tcpConnection;
-            if (tcpConnectionsCache.containsConnection(socket)) {
-                tcpConnection = tcpConnectionsCache.getConnection(socket);
-            } else {
-                tcpConnection = new TCPConnection(socket, this);
+        // a packed file is read from (its extent of) the chunk of its container
+        boolean packed = retrieveFileResponse.isPacked();
+        String storedFileName = packed ? retrieveFileResponse.getContainerName() : fileName;
+
+        // by default the whole file is read
+        int firstChunk = 0;
+        int lastChunk = noOfChunks - 1;
+        int rangeStart = 0;
+        int rangeEnd = fileSize;
+        String outputFileName = fileName;
+
+        int[] range = pendingRangeReads.remove(fileName);
+        if (range != null) {
+            rangeStart = Math.min(range[0], fileSize);
+            rangeEnd = (int) Math.min(fileSize, (long) range[0] + range[1]);
+            if (rangeStart >= rangeEnd) {
+                log.error("Range (offset={}, length={}) is outside of {} (size={})",
+                        range[0], range[1], fileName, fileSize);
+                return;
             }
-
-            RetrieveChunkRequest request = new RetrieveChunkRequest();
-            request.setChunkName(fileName + Constants.ChunkServer.EXT_DATA_CHUNK + (i + 1));
-
-            tcpConnection.sendData(request.getBytes());
+            firstChunk = rangeStart / Constants.CHUNK_SIZE;
+            lastChunk = (rangeEnd - 1) / Constants.CHUNK_SIZE;
+            outputFileName = fileName + "." + rangeStart + "-" + rangeEnd;
+        }
+        if (packed) {
+            firstChunk = 0;
+            lastChunk = 0;
         }
 
         // prepare readingChunks map for storing chunks sent by ChunkServers
         readingChunksMap = new ConcurrentHashMap<>();
 
+        chunkReads.clear();
+        if (retrieveFileResponse.isErasureCoded()) {
+            readStripes(retrieveFileResponse, firstChunk, lastChunk, rangeStart, rangeEnd);
+        } else {
+            // contact chunk servers and retrieve the chunks
+            for (int i = firstChunk; i <= lastChunk; i++) {
+                RetrieveChunkRequest request = new RetrieveChunkRequest();
+                request.setChunkName(storedFileName + Constants.ChunkServer.EXT_DATA_CHUNK + (i + 1));
+                if (packed) {
+                    request.setOffset(retrieveFileResponse.getContainerOffset() + rangeStart);
+                    request.setLength(rangeEnd - rangeStart);
+                } else if (range != null) {
+                    // only request the part of the chunk overlapping the range
+                    int chunkStart = i * Constants.CHUNK_SIZE;
+                    int offset = Math.max(rangeStart, chunkStart) - chunkStart;
+                    int end = Math.min(rangeEnd, chunkStart + Constants.CHUNK_SIZE) - chunkStart;
+                    request.setOffset(offset);
+                    request.setLength(end - offset);
+                }
+
+                ChunkRead read = new ChunkRead(request, getReplicaHosts(retrieveFileResponse, i),
+                        getReplicaPorts(retrieveFileResponse, i));
+                chunkReads.put(request.getChunkName(), read);
+                requestChunk(read);
+            }
+        }
+
         // start FileAssembler thread
-        FileAssembler assembler = new FileAssembler(fileName, noOfChunks);
+        FileAssembler assembler = new FileAssembler(outputFileName,
+                getChunkNames(storedFileName, firstChunk, lastChunk + 1));
         assembler.start();
     }
 
+    /**
+     * @return the connection the chunk was requested on (the response comes back on it)
+     */
+    private TCPConnection sendRetrieveChunkRequest(String host, int port, RetrieveChunkRequest request)
+            throws IOException {
+        TCPConnection connection = getChunkServerConnection(host, port);
+        try {
+            connection.sendData(request.getBytes());
+        } catch (IOException e) {
+            connection.getSocket().close();
+            throw e;
+        }
+        return connection;
+    }
+
+    /**
+     * @return the replica listed for the chunk at index i of the response, followed by its other replicas
+     */
+    private static String[] getReplicaHosts(RetrieveFileResponse response, int i) {
+        String[] others = response.getReplicaHosts()[i];
+        String[] hosts = new String[others.length + 1];
+        hosts[0] = response.getChunkServerHosts()[i];
+        System.arraycopy(others, 0, hosts, 1, others.length);
+        return hosts;
+    }
+
+    private static int[] getReplicaPorts(RetrieveFileResponse response, int i) {
+        int[] others = response.getReplicaPorts()[i];
+        int[] ports = new int[others.length + 1];
+        ports[0] = response.getChunkServerPorts()[i];
+        System.arraycopy(others, 0, ports, 1, others.length);
+        return ports;
+    }
+
+    /**
+     * Read chunks [firstChunk, lastChunk] of an erasure-coded file from their stripes
+     * (only bytes [rangeStart, rangeEnd) of the file are kept)
+     */
+    private void readStripes(RetrieveFileResponse response, int firstChunk, int lastChunk, int rangeStart,
+                             int rangeEnd) {
+        stripedReads.clear();
+        int stripesPerChunk = response.getDataStripes() + response.getParityStripes();
+        for (int i = firstChunk; i <= lastChunk; i++) {
+            String chunkName = response.getFileName() + Constants.ChunkServer.EXT_DATA_CHUNK + (i + 1);
+            int chunkStart = i * Constants.CHUNK_SIZE;
+            int chunkLength = Math.min(Constants.CHUNK_SIZE, response.getFileSize() - chunkStart);
+            StripedRead stripedRead = new StripedRead(chunkName,
+                    new ReedSolomon(response.getDataStripes(), response.getParityStripes()), chunkLength,
+                    Math.max(rangeStart, chunkStart) - chunkStart,
+                    Math.min(rangeEnd, chunkStart + chunkLength) - chunkStart,
+                    Arrays.copyOfRange(response.getChunkServerHosts(), i * stripesPerChunk,
+                            (i + 1) * stripesPerChunk),
+                    Arrays.copyOfRange(response.getChunkServerPorts(), i * stripesPerChunk,
+                            (i + 1) * stripesPerChunk));
+            stripedReads.put(chunkName, stripedRead);
+            if (!stripedRead.requestMore()) {
+                failStripedRead(stripedRead);
+            } else if (stripedRead.isComplete()) {
+                // nothing to read (empty range of the chunk)
+                stripedReads.remove(chunkName);
+                readingChunksMap.put(chunkName, stripedRead.decode());
+            }
+        }
+    }
+
+    /**
+     * A stripe of a chunk being read arrived: decode the chunk if there are enough stripes,
+     * or read another stripe instead of a corrupted one
+     */
+    private void handleStripe(StripedRead stripedRead, int stripe, byte[] data, boolean valid) {
+        if (!valid && data != null) {
+            log.warn("Stripe {} of {} is corrupted or missing. Reading another stripe instead", stripe,
+                    stripedRead.chunkName);
+        }
+        stripedRead.onStripe(stripe, data, valid);
+        if (stripedRead.isComplete()) {
+            stripedReads.remove(stripedRead.chunkName, stripedRead);
+            readingChunksMap.put(stripedRead.chunkName, stripedRead.decode());
+        } else if (!valid && !stripedRead.requestMore()) {
+            failStripedRead(stripedRead);
+        }
+    }
+
+    private void failStripedRead(StripedRead stripedRead) {
+        log.error("Not enough stripes of {} left to decode it", stripedRead.chunkName);
+        fileCorrupted = true;
+        stripedReads.remove(stripedRead.chunkName, stripedRead);
+        readingChunksMap.put(stripedRead.chunkName, new byte[0]);
+    }
+
+    /**
+     * A chunk being read from its replicas (nearest first), in turn until one of them returns it intact: the next
+     * replica is asked when one returns the chunk corrupted or missing, cannot be reached, or does not answer
+     * in time. The chunk is asked for at most Constants.Client.READ_ATTEMPTS times (once per replica if there are
+     * more replicas).
+     */
+    private static class ChunkRead {
+        private final RetrieveChunkRequest request;
+        private final String[] hosts;
+        private final int[] ports;
+        private final TCPConnection[] connections; // connection each replica was asked on (null until asked)
+        private final int maxAttempts;
+        private int attempts;
+        private int replica; // replica asked last
+        private long sentAt;
+
+        private ChunkRead(RetrieveChunkRequest request, String[] hosts, int[] ports) {
+            this.request = request;
+            this.hosts = hosts;
+            this.ports = ports;
+            connections = new TCPConnection[hosts.length];
+            maxAttempts = Math.max(Constants.Client.READ_ATTEMPTS, hosts.length);
+        }
+
+        /**
+         * @return the replica asked on the connection of the socket, -1 if none was
+         */
+        private int getReplica(Socket socket) {
+            for (int i = 0; i < connections.length; i++) {
+                if (connections[i] != null && connections[i].getSocket() == socket) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * A chunk of an erasure-coded file being read from its stripes. Only the data stripes covering the bytes
+     * wanted are requested at first; if one of them is lost (no chunk server has it) or arrives corrupted,
+     * more stripes (data stripes, then parity stripes) are requested until there are enough to decode the chunk.
+     */
+    private class StripedRead {
+        private final String chunkName;
+        private final ReedSolomon codec;
+        private final int stripeSize;
+        private final int from; // bytes [from, to) of the chunk are wanted
+        private final int to;
+        private final String[] hosts; // chunk server of each stripe (empty if it is lost)
+        private final int[] ports;
+        private final byte[][] stripes; // null until the stripe arrives
+        private final boolean[] requested;
+        private final boolean[] failed;
+        private final long[] requestedAt;
+
+        private StripedRead(String chunkName, ReedSolomon codec, int chunkLength, int from, int to, String[] hosts,
+                            int[] ports) {
+            this.chunkName = chunkName;
+            this.codec = codec;
+            this.from = from;
+            this.to = to;
+            this.hosts = hosts;
+            this.ports = ports;
+            stripeSize = codec.getStripeSize(chunkLength);
+            stripes = new byte[codec.getTotalStripes()][];
+            requested = new boolean[codec.getTotalStripes()];
+            failed = new boolean[codec.getTotalStripes()];
+            requestedAt = new long[codec.getTotalStripes()];
+        }
+
+        private boolean isWanted(int stripe) {
+            return stripe < codec.getDataStripes() && stripe * stripeSize < to && (stripe + 1) * stripeSize > from;
+        }
+
+        /**
+         * @return true if the stripes requested (and not failed) are enough to get the bytes wanted
+         */
+        private boolean isEnoughRequested() {
+            int outstanding = 0;
+            boolean wantedRequested = true;
+            for (int i = 0; i < stripes.length; i++) {
+                if (requested[i] && !failed[i]) {
+                    outstanding++;
+                } else if (isWanted(i)) {
+                    wantedRequested = false;
+                }
+            }
+            return wantedRequested || outstanding >= codec.getDataStripes();
+        }
+
+        /**
+         * Request stripes until enough are requested: the wanted data stripes first, then the other data stripes
+         * (no decoding needed for them), then parity stripes
+         *
+         * @return false if not enough stripes are left
+         */
+        private boolean requestMore() {
+            List<Integer> order = new ArrayList<>();
+            for (int i = 0; i < stripes.length; i++) {
+                if (isWanted(i)) {
+                    order.add(i);
+                }
+            }
+            for (int i = 0; i < stripes.length; i++) {
+                if (!isWanted(i)) {
+                    order.add(i);
+                }
+            }
+
+            for (int stripe : order) {
+                if (isEnoughRequested()) {
+                    return true;
+                }
+                if (requested[stripe] || hosts[stripe].isEmpty()) {
+                    continue;
+                }
+                requested[stripe] = true;
+                requestedAt[stripe] = System.currentTimeMillis();
+                RetrieveChunkRequest request = new RetrieveChunkRequest();
+                request.setChunkName(FileUtil.getStripeChunkName(chunkName, stripe));
+                try {
+                    sendRetrieveChunkRequest(hosts[stripe], ports[stripe], request);
+                } catch (IOException e) {
+                    log.warn("Could not request stripe {} of {} from {}:{}: {}", stripe, chunkName, hosts[stripe],
+                            ports[stripe], e.getLocalizedMessage());
+                    failed[stripe] = true;
+                }
+            }
+            return isEnoughRequested();
+        }
+
+        /**
+         * @return the stripes requested that have neither arrived nor failed in time
+         */
+        private List<Integer> expire(long now) {
+            List<Integer> expired = new ArrayList<>();
+            for (int i = 0; i < stripes.length; i++) {
+                if (requested[i] && !failed[i] && stripes[i] == null &&
+                        now - requestedAt[i] > Constants.Client.READ_TIMEOUT) {
+                    expired.add(i);
+                }
+            }
+            return expired;
+        }
+
+        private void onStripe(int stripe, byte[] data, boolean valid) {
+            if (valid && data.length == stripeSize) {
+                stripes[stripe] = data;
+            } else {
+                failed[stripe] = true;
+            }
+        }
+
+        /**
+         * @return true if the wanted data stripes, or enough stripes to decode them, have arrived
+         */
+        private boolean isComplete() {
+            int arrived = 0;
+            boolean wantedArrived = true;
+            for (int i = 0; i < stripes.length; i++) {
+                if (stripes[i] != null) {
+                    arrived++;
+                } else if (isWanted(i)) {
+                    wantedArrived = false;
+                }
+            }
+            return wantedArrived || arrived >= codec.getDataStripes();
+        }
+
+        /**
+         * @return bytes [from, to) of the chunk, decoding the wanted data stripes that did not arrive
+         */
+        private byte[] decode() {
+            for (int i = 0; i < codec.getDataStripes(); i++) {
+                if (isWanted(i) && stripes[i] == null) {
+                    log.info("Reconstructing {} from {} stripes", chunkName, codec.getDataStripes());
+                    codec.decodeData(stripes, stripeSize);
+                    break;
+                }
+            }
+            byte[] data = new byte[to - from];
+            for (int i = 0; i < codec.getDataStripes(); i++) {
+                if (!isWanted(i)) {
+                    continue;
+                }
+                int start = Math.max(from, i * stripeSize);
+                int end = Math.min(to, (i + 1) * stripeSize);
+                System.arraycopy(stripes[i], start - i * stripeSize, data, start - from, end - start);
+            }
+            return data;
+        }
+    }
+
+    /**
+     * Names of chunks [from, to) of a file (0-based)
+     */
+    private static List<String> getChunkNames(String fileName, int from, int to) {
+        List<String> chunkNames = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            chunkNames.add(fileName + Constants.ChunkServer.EXT_DATA_CHUNK + (i + 1));
+        }
+        return chunkNames;
+    }
+
     /**
      * Contact Controller for registration
      *
@@ -411,6 +1582,7 @@ public class Client implements Node {
         registerClient.setIpAddress(controllerConnection.getSocket()
                 .getLocalAddress().getAddress());
         registerClient.setPort(tcpServerThread.getListeningPort());
+        registerClient.setLocation(location);
         registerClient.setSocket(controllerConnection.getSocket());
 
         controllerConnection.sendData(registerClient.getBytes());
@@ -436,7 +1608,7 @@ public class Client implements Node {
     }
 
     /**
-     * Process response after the Controller sends information about 3 chunk servers
+     * Process response after the Controller sends the chunk servers to store a chunk on
      *
      * @param event
      * @return
@@ -449,20 +1621,32 @@ public class Client implements Node {
         String[] hostNames = sendsClientChunkServersEvent.getChunkServerHostNames();
         int[] ports = sendsClientChunkServersEvent.getChunkServerPorts();
 
-        ArrayList<Socket> chunkServers = new ArrayList<>();
+        ArrayList<TCPConnection> chunkServers = new ArrayList<>();
+        String[] chunkServerAddresses = new String[hosts.length];
         System.out.println("Chunk Servers Returned: ");
-        for (int i = 0; i < 3; i++) {
+        for (int i = 0; i < hosts.length; i++) {
             System.out.println(hostNames[i] + " (" + hosts[i] + ":" + ports[i] + ")");
+            chunkServerAddresses[i] = hosts[i] + ":" + ports[i];
             try {
-                chunkServers.add(new Socket(hosts[i], ports[i]));
+                chunkServers.add(getChunkServerConnection(hosts[i], ports[i]));
             } catch (IOException e) {
                 log.error("Error creating a Socket from returned Chunk Server (host={}, port={})",
                         hosts[i], ports[i]);
                 log.error(e.getLocalizedMessage());
-                e.printStackTrace();
+                // the chunk server keeps its position (the stripe placed on it, for an erasure-coded file)
+                chunkServers.add(null);
             }
         }
 
-        chunkServerSockets = chunkServers;
+        if (hosts.length == 0) {
+            System.out.println("None");
+        }
+
+        chunkVersion = sendsClientChunkServersEvent.getVersion();
+        chunkDataStripes = sendsClientChunkServersEvent.getDataStripes();
+        chunkParityStripes = sendsClientChunkServersEvent.getParityStripes();
+        this.chunkServerAddresses = chunkServerAddresses;
+        this.chunkServers = chunkServers;
+        chunkServersReceived.countDown();
     }
 }
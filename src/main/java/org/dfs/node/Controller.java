@@ -8,35 +8,55 @@ import org.dfs.transport.TCPServerThread;
 import org.dfs.util.Constants;
 import org.dfs.util.FileUtil;
 import org.dfs.util.controller.FileInfo;
+import org.dfs.util.controller.HotFileRanking;
+import org.dfs.util.controller.NetworkTopology;
+import org.dfs.util.controller.PlacementPolicy;
+import org.dfs.util.controller.ReReplicationManager;
+import org.dfs.util.controller.Rebalancer;
+import org.dfs.util.controller.SpaceReservations;
+import org.dfs.util.erasure.ReedSolomon;
+import org.dfs.wireformats.ClientRequestsChunkServersFromController;
 import org.dfs.wireformats.ControllerSendsClientChunkServers;
+import org.dfs.wireformats.DeleteFileRequest;
+import org.dfs.wireformats.DeleteFileResponse;
 import org.dfs.wireformats.Event;
 import org.dfs.wireformats.FixCorruptChunk;
+import org.dfs.wireformats.HeartbeatResponse;
 import org.dfs.wireformats.LivenessHeartbeat;
 import org.dfs.wireformats.Protocol;
 import org.dfs.wireformats.ProtocolLookup;
+import org.dfs.wireformats.RebuildStripe;
 import org.dfs.wireformats.RegisterChunkServer;
 import org.dfs.wireformats.RegisterClient;
+import org.dfs.wireformats.ReplicateChunk;
+import org.dfs.wireformats.ReplicateChunkResponse;
+import org.dfs.wireformats.ReportBadReplica;
 import org.dfs.wireformats.ReportChunkCorruption;
 import org.dfs.wireformats.ReportChunkServerRegistration;
 import org.dfs.wireformats.ReportClientRegistration;
+import org.dfs.wireformats.RetrieveChunkResponse;
 import org.dfs.wireformats.RetrieveFileRequest;
 import org.dfs.wireformats.RetrieveFileResponse;
 import org.dfs.wireformats.SendFileInfo;
 import org.dfs.wireformats.SendMajorHeartbeat;
 import org.dfs.wireformats.SendMinorHeartbeat;
+import org.dfs.wireformats.SendPackedFileInfo;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.IOException;
 import java.net.Socket;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Random;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.Vector;
@@ -70,16 +90,65 @@ public class Controller implements Node {
     // ChunkServerID, ChunkInfo
     private final ConcurrentHashMap<Integer, ArrayList<String>> chunkServerChunksMap;
 
+    // ChunkServerID, (chunkName, version) as of the last heartbeat
+    private final ConcurrentHashMap<Integer, HashMap<String, Integer>> chunkServerChunkVersionsMap;
+
+    // chunkName, latest version handed out for the chunk (bumped on every write)
+    private final ConcurrentHashMap<String, Integer> chunkVersions;
+
+    // chunkName, highest version reported by any chunk server (replicas with lower versions are stale)
+    private final ConcurrentHashMap<String, Integer> committedChunkVersions;
+
+    // ChunkServerID, free space in bytes (as of the last heartbeat)
     private final ConcurrentHashMap<Integer, Long> chunkServerFreeSpaceMap;
 
+    // ChunkServerID, used space in bytes (as of the last heartbeat)
+    private final ConcurrentHashMap<Integer, Long> chunkServerUsedSpaceMap;
+
+    // ChunkServerID, uncompressed bytes per byte on disk (as of the last heartbeat)
+    private final ConcurrentHashMap<Integer, Double> chunkServerCompressionRatioMap;
+
+    // space promised to chunks placed since the last heartbeat
+    private final SpaceReservations spaceReservations;
+
+    // most read files, from the hot chunks reported in major heartbeats
+    private final HotFileRanking hotFileRanking;
+
+    // under-replicated chunks and the copies restoring their replicas
+    private final ReReplicationManager reReplicationManager;
+
+    // chunks being moved from the fullest chunk servers to the emptiest
+    private final Rebalancer rebalancer;
+
+    // stripe chunkName, ChunkServerID that found it corrupted (the stripe is rebuilt onto it)
+    private final ConcurrentHashMap<String, Integer> corruptStripes;
+
     // ChunkServerID, Port
     private final ConcurrentHashMap<Integer, Integer> chunkServerListeningPortMap;
 
     // File names and number of chunks (for all files in the system)
     private final Vector<FileInfo> fileInfos;
 
+    // File name, time of deletion (tombstones of deleted files whose chunks are still being reclaimed)
+    private final ConcurrentHashMap<String, Long> deletedFiles;
+
+    // Container name, names of the small files packed into it that still exist
+    private final ConcurrentHashMap<String, Set<String>> containerFiles;
+
+    // location ("/zone/rack") of each ChunkServer
+    private final NetworkTopology topology;
+
+    // where the replicas of new chunks go
+    private volatile PlacementPolicy placementPolicy;
+
+    // location of the client (reads are served by the replica nearest to it)
+    private volatile String clientLocation;
+
     private final Random random;
 
+    // chunks of files the Controller does not know are reclaimed only once it has been up this long (see startTime)
+    private final long startTime;
+
     // singleton instance
     private static volatile Controller instance;
 
@@ -93,9 +162,28 @@ public class Controller implements Node {
         chunkServerSocketMap = new ConcurrentHashMap<>();
         chunkServerListeningPortMap = new ConcurrentHashMap<>();
         chunkServerChunksMap = new ConcurrentHashMap<>();
+        chunkServerChunkVersionsMap = new ConcurrentHashMap<>();
+        chunkVersions = new ConcurrentHashMap<>();
+        committedChunkVersions = new ConcurrentHashMap<>();
         chunkServerFreeSpaceMap = new ConcurrentHashMap<>();
+        chunkServerUsedSpaceMap = new ConcurrentHashMap<>();
+        chunkServerCompressionRatioMap = new ConcurrentHashMap<>();
+        spaceReservations = new SpaceReservations(Constants.Controller.SPACE_RESERVATION_TIMEOUT);
+        hotFileRanking = new HotFileRanking();
+        reReplicationManager = new ReReplicationManager(Constants.Controller.REREPLICATION_BANDWIDTH_MB,
+                Constants.CHUNK_SIZE, Constants.Controller.REREPLICATION_COPY_TIMEOUT);
+        rebalancer = new Rebalancer(Constants.Controller.REBALANCE_THRESHOLD, Constants.Controller.REBALANCE_BANDWIDTH_MB,
+                Constants.CHUNK_SIZE, Constants.Controller.REREPLICATION_COPY_TIMEOUT,
+                Constants.Controller.REBALANCE_MOVED_REPLICA_RETENTION);
+        corruptStripes = new ConcurrentHashMap<>();
         fileInfos = new Vector<>();
+        deletedFiles = new ConcurrentHashMap<>();
+        containerFiles = new ConcurrentHashMap<>();
+        topology = NetworkTopology.load(Paths.get(Constants.Controller.TOPOLOGY_FILE));
+        placementPolicy = PlacementPolicy.fromName(Constants.Controller.PLACEMENT_POLICY);
+        clientLocation = Constants.Controller.DEFAULT_LOCATION;
         random = new Random();
+        startTime = System.currentTimeMillis();
     }
 
     public void initialize() {
@@ -104,6 +192,18 @@ public class Controller implements Node {
 
         Timer minorTimer = new Timer();
         minorTimer.schedule(new LivenessCheck(), 0, Constants.ChunkServer.LIVENESS_HEARTBEAT_INTERVAL);
+
+        Timer tombstoneTimer = new Timer();
+        tombstoneTimer.schedule(new TombstoneExpiry(), Constants.Controller.TOMBSTONE_RETENTION,
+                Constants.Controller.TOMBSTONE_RETENTION);
+
+        Timer reReplicationTimer = new Timer();
+        reReplicationTimer.schedule(new ReReplication(), Constants.Controller.REREPLICATION_INTERVAL,
+                Constants.Controller.REREPLICATION_INTERVAL);
+
+        Timer rebalanceTimer = new Timer();
+        rebalanceTimer.schedule(new Rebalance(), Constants.Controller.REBALANCE_INTERVAL,
+                Constants.Controller.REBALANCE_INTERVAL);
     }
 
     public static void main(String[] args) throws IOException {
@@ -142,7 +242,8 @@ public class Controller implements Node {
             System.out.println("Chunk Server ID: " + id +
                     ", IP Address: " + socket.getInetAddress().getHostAddress() +
                     ", Hostname: " + socket.getInetAddress().getCanonicalHostName() +
-                    ", Port: " + socket.getPort());
+                    ", Port: " + socket.getPort() +
+                    ", Location: " + topology.getLocation(id));
         }
     }
 
@@ -181,12 +282,24 @@ public class Controller implements Node {
             case Protocol.SEND_FILE_INFO:
                 handleSendFileInfo(event);
                 break;
+            case Protocol.SEND_PACKED_FILE_INFO:
+                handleSendPackedFileInfo(event);
+                break;
             case Protocol.REPORT_CHUNK_CORRUPTION:
                 handleReportChunkCorruption(event);
                 break;
             case Protocol.LIVENESS_HEARTBEAT:
                 handleLivenessHeartbeat(event);
                 break;
+            case Protocol.DELETE_FILE_REQUEST:
+                handleDeleteFileRequest(event);
+                break;
+            case Protocol.REPLICATE_CHUNK_RESPONSE:
+                handleReplicateChunkResponse(event);
+                break;
+            case Protocol.REPORT_BAD_REPLICA:
+                handleReportBadReplica(event);
+                break;
             // case Protocol.FIX_CORRUPT_CHUNK:
             //     handleChunkFixRequest(event);
             //     break;
@@ -231,8 +344,22 @@ public class Controller implements Node {
                     // remove chunk server from all maps
                     chunkServerSocketMap.remove(chunkServerId);
                     chunkServerFreeSpaceMap.remove(chunkServerId);
+                    chunkServerUsedSpaceMap.remove(chunkServerId);
+                    chunkServerCompressionRatioMap.remove(chunkServerId);
+                    spaceReservations.releaseAll(chunkServerId);
+                    hotFileRanking.remove(chunkServerId);
                     chunkServerChunksMap.remove(chunkServerId);
+                    chunkServerChunkVersionsMap.remove(chunkServerId);
                     chunkServerListeningPortMap.remove(chunkServerId);
+                    topology.remove(chunkServerId);
+                    for (ReReplicationManager.Copy copy : reReplicationManager.removeChunkServer(chunkServerId)) {
+                        spaceReservations.release(copy.getTargetId(), copy.getChunkName(), copy.getVersion());
+                    }
+                    for (Rebalancer.Move move : rebalancer.removeChunkServer(chunkServerId)) {
+                        spaceReservations.release(move.getTargetId(), move.getChunkName(), move.getVersion());
+                    }
+                    corruptStripes.values().removeIf(id -> id == chunkServerId);
+                    log.warn("Chunks of ChunkServer {} will be re-replicated from their other replicas", hostName);
 
                     log.debug(e.getLocalizedMessage());
                 }
@@ -241,14 +368,906 @@ public class Controller implements Node {
     }
 
 
+    /**
+     * Periodically restore the replicas of under-replicated chunks
+     */
+    public class ReReplication extends TimerTask {
+        @Override
+        public void run() {
+            scheduleReReplication();
+        }
+    }
+
+    /**
+     * Find the chunks with fewer up-to-date replicas on live ChunkServers than the replication factor of their file,
+     * and copy them from a ChunkServer that has them to one that does not, most endangered chunks first and
+     * within the re-replication bandwidth budget. Replicas being written (space is reserved for them) count as
+     * replicas, so chunks being stored or copied are not copied again.
+     * A stripe of an erasure-coded file is stored once: a lost (or corrupted) stripe has nothing to be copied from,
+     * and is rebuilt from dataStripes of the other stripes instead, in the same order and within the same budget.
+     */
+    private synchronized void scheduleReReplication() {
+        // until every live ChunkServer has reported its chunks, the chunks it holds would look under-replicated
+        for (Integer chunkServerId : chunkServerSocketMap.keySet()) {
+            if (!chunkServerChunksMap.containsKey(chunkServerId)) {
+                return;
+            }
+        }
+        for (ReReplicationManager.Copy copy : reReplicationManager.expire()) {
+            spaceReservations.release(copy.getTargetId(), copy.getChunkName(), copy.getVersion());
+        }
+
+        // chunkName, live ChunkServers with an up-to-date replica
+        HashMap<String, List<Integer>> holders = new HashMap<>();
+        for (Map.Entry<Integer, ArrayList<String>> entry : chunkServerChunksMap.entrySet()) {
+            if (!chunkServerSocketMap.containsKey(entry.getKey())) {
+                continue;
+            }
+            for (String chunkName : entry.getValue()) {
+                if (!isStaleReplica(entry.getKey(), chunkName)) {
+                    holders.computeIfAbsent(chunkName, name -> new ArrayList<>()).add(entry.getKey());
+                }
+            }
+        }
+
+        int noOfLiveChunkServers = chunkServerSocketMap.size();
+        List<ReReplicationManager.UnderReplicatedChunk> underReplicatedChunks = new ArrayList<>();
+        int lostChunks = 0;
+        int lostStripes = 0;
+        for (FileInfo fileInfo : fileInfos) {
+            if (fileInfo.isPacked()) {
+                // stored in its container
+                continue;
+            }
+            for (int i = 1; i <= fileInfo.getNoOfChunks(); i++) {
+                String chunkName = fileInfo.getFileName() + Constants.ChunkServer.EXT_DATA_CHUNK + i;
+                if (fileInfo.isErasureCoded()) {
+                    int[] stripeHolders = new int[fileInfo.getDataStripes() + fileInfo.getParityStripes()];
+                    List<String> lost = new ArrayList<>();
+                    int stripesLeft = 0;
+                    for (int stripe = 0; stripe < stripeHolders.length; stripe++) {
+                        String stripeChunkName = FileUtil.getStripeChunkName(chunkName, stripe);
+                        // a corrupted stripe is lost, unless another ChunkServer has it
+                        List<Integer> stripeHolder = new ArrayList<>(
+                                holders.getOrDefault(stripeChunkName, Collections.emptyList()));
+                        stripeHolder.remove(corruptStripes.get(stripeChunkName));
+                        if (!stripeHolder.isEmpty()) {
+                            stripeHolders[stripe] = stripeHolder.get(0);
+                            stripesLeft++;
+                        } else if (committedChunkVersions.containsKey(stripeChunkName) &&
+                                !reReplicationManager.isInFlight(stripeChunkName) &&
+                                getReplicasBeingWritten(stripeChunkName, stripeHolder) == 0) {
+                            lost.add(stripeChunkName);
+                        }
+                    }
+                    if (stripesLeft < fileInfo.getDataStripes()) {
+                        lostStripes += lost.size();
+                        continue;
+                    }
+                    for (String stripeChunkName : lost) {
+                        underReplicatedChunks.add(new ReReplicationManager.UnderReplicatedChunk(stripeChunkName,
+                                committedChunkVersions.getOrDefault(stripeChunkName, 0), stripeHolders,
+                                fileInfo.getDataStripes()));
+                    }
+                    continue;
+                }
+
+                List<Integer> chunkHolders = holders.getOrDefault(chunkName, Collections.emptyList());
+                if (chunkHolders.isEmpty()) {
+                    if (isLost(chunkName, holders)) {
+                        lostChunks++;
+                    }
+                    continue;
+                }
+                int missing = Math.min(fileInfo.getReplicationFactor(), noOfLiveChunkServers) -
+                        chunkHolders.size() - getReplicasBeingWritten(chunkName, chunkHolders);
+                if (missing > 0) {
+                    underReplicatedChunks.add(new ReReplicationManager.UnderReplicatedChunk(chunkName,
+                            committedChunkVersions.getOrDefault(chunkName, 0), chunkHolders, missing));
+                }
+            }
+        }
+        reReplicationManager.update(underReplicatedChunks, lostChunks, lostStripes);
+
+        for (ReReplicationManager.UnderReplicatedChunk chunk : reReplicationManager.getBacklog()) {
+            if (chunk.isStripe()) {
+                int targetId = getStripeRebuildTarget(chunk);
+                if (targetId == 0) {
+                    continue;
+                }
+                if (!reReplicationManager.acquireBudget()) {
+                    return;
+                }
+                startStripeRebuild(chunk, targetId);
+                continue;
+            }
+            int missing = chunk.getMissing();
+            for (int i = 0; i < missing; i++) {
+                int sourceId = getReReplicationSource(chunk);
+                int targetId = getReReplicationTarget(chunk);
+                if (sourceId == 0 || targetId == 0) {
+                    break;
+                }
+                if (!reReplicationManager.acquireBudget()) {
+                    return;
+                }
+                startReReplication(chunk, sourceId, targetId);
+            }
+        }
+    }
+
+    /**
+     * A chunk is lost if it was stored (a ChunkServer reported a version of it), no live ChunkServer has an
+     * up-to-date replica and none is being written
+     */
+    private boolean isLost(String chunkName, Map<String, List<Integer>> holders) {
+        return committedChunkVersions.containsKey(chunkName) && !holders.containsKey(chunkName) &&
+                getReplicasBeingWritten(chunkName, Collections.emptyList()) == 0;
+    }
+
+    /**
+     * @return live ChunkServers other than the holders the chunk is being written or copied to
+     */
+    private int getReplicasBeingWritten(String chunkName, List<Integer> holders) {
+        int replicas = 0;
+        for (Integer chunkServerId : chunkServerSocketMap.keySet()) {
+            if (!holders.contains(chunkServerId) && spaceReservations.isReserved(chunkServerId, chunkName)) {
+                replicas++;
+            }
+        }
+        return replicas;
+    }
+
+    /**
+     * @return the holder of the chunk with the fewest copies in flight, 0 if all are busy
+     */
+    private int getReReplicationSource(ReReplicationManager.UnderReplicatedChunk chunk) {
+        int sourceId = 0;
+        int sourceCopies = Constants.Controller.REREPLICATION_COPIES_PER_CHUNK_SERVER;
+        for (Integer chunkServerId : chunk.getHolders()) {
+            int copies = reReplicationManager.getCopiesInFlight(chunkServerId);
+            if (copies < sourceCopies && chunkServerSocketMap.containsKey(chunkServerId)) {
+                sourceId = chunkServerId;
+                sourceCopies = copies;
+            }
+        }
+        return sourceId;
+    }
+
+    /**
+     * @return the ChunkServer the placement policy picks (given where the chunk's replicas and the copies in flight
+     * are) among the ones that neither hold nor are being sent the chunk, and are not busy with other copies
+     * (0 if there is none)
+     */
+    private int getReReplicationTarget(ReReplicationManager.UnderReplicatedChunk chunk) {
+        String chunkName = chunk.getChunkName();
+        List<Integer> replicas = new ArrayList<>(chunk.getHolders());
+        List<Integer> candidates = new ArrayList<>();
+        for (Integer chunkServerId : getChunkServersWithHighestFreeSpace(chunkServerSocketMap.size())) {
+            ArrayList<String> chunks = chunkServerChunksMap.get(chunkServerId);
+            if (spaceReservations.isReserved(chunkServerId, chunkName)) {
+                replicas.add(chunkServerId);
+            } else if (chunkServerSocketMap.containsKey(chunkServerId) && chunks != null &&
+                    !chunks.contains(chunkName) && reReplicationManager.getCopiesInFlight(chunkServerId) <
+                    Constants.Controller.REREPLICATION_COPIES_PER_CHUNK_SERVER) {
+                candidates.add(chunkServerId);
+            }
+        }
+        List<Integer> chosen = placementPolicy.choose(1, candidates, replicas, topology);
+        return chosen.isEmpty() ? 0 : chosen.get(0);
+    }
+
+    /**
+     * @return the ChunkServer that found the stripe corrupted (it is rebuilt in place) or else the one the placement
+     * policy picks among the ones that neither hold nor are being sent a stripe of the chunk, and are not busy with
+     * other copies (0 if there is none)
+     */
+    private int getStripeRebuildTarget(ReReplicationManager.UnderReplicatedChunk chunk) {
+        Integer corruptHolder = corruptStripes.get(chunk.getChunkName());
+        if (corruptHolder != null && chunkServerSocketMap.containsKey(corruptHolder)) {
+            return reReplicationManager.getCopiesInFlight(corruptHolder) <
+                    Constants.Controller.REREPLICATION_COPIES_PER_CHUNK_SERVER ? corruptHolder : 0;
+        }
+
+        List<String> placementGroup = getPlacementGroup(chunk.getChunkName());
+        List<Integer> replicas = new ArrayList<>(chunk.getHolders());
+        List<Integer> candidates = new ArrayList<>();
+        for (Integer chunkServerId : getChunkServersWithHighestFreeSpace(chunkServerSocketMap.size())) {
+            ArrayList<String> chunks = chunkServerChunksMap.get(chunkServerId);
+            if (!chunkServerSocketMap.containsKey(chunkServerId) || chunks == null ||
+                    replicas.contains(chunkServerId) || reReplicationManager.getCopiesInFlight(chunkServerId) >=
+                    Constants.Controller.REREPLICATION_COPIES_PER_CHUNK_SERVER) {
+                continue;
+            }
+            boolean holdsStripe = false;
+            for (String stripeChunkName : placementGroup) {
+                if (chunks.contains(stripeChunkName) ||
+                        spaceReservations.isReserved(chunkServerId, stripeChunkName)) {
+                    holdsStripe = true;
+                    break;
+                }
+            }
+            if (!holdsStripe) {
+                candidates.add(chunkServerId);
+            }
+        }
+        List<Integer> chosen = placementPolicy.choose(1, candidates, replicas, topology);
+        return chosen.isEmpty() ? 0 : chosen.get(0);
+    }
+
+    /**
+     * Tell the target ChunkServer to rebuild a lost stripe from the other stripes and store it. Space is reserved
+     * on the target like for a copy.
+     */
+    private void startStripeRebuild(ReReplicationManager.UnderReplicatedChunk chunk, int targetId) {
+        String chunkName = chunk.getChunkName();
+        FileInfo fileInfo = getFileInfo(FileUtil.getOriginalFileName(chunkName));
+        if (fileInfo == null) {
+            return;
+        }
+        Socket targetSocket = chunkServerSocketMap.get(targetId);
+        String targetHost = targetSocket.getInetAddress().getHostAddress();
+        int targetPort = chunkServerListeningPortMap.get(targetId);
+
+        int[] stripeHolders = chunk.getStripeHolders();
+        String[] stripeHosts = new String[stripeHolders.length];
+        int[] stripePorts = new int[stripeHolders.length];
+        for (int stripe = 0; stripe < stripeHolders.length; stripe++) {
+            Socket socket = chunkServerSocketMap.get(stripeHolders[stripe]);
+            stripeHosts[stripe] = socket == null ? "" : socket.getInetAddress().getHostAddress();
+            stripePorts[stripe] = chunkServerListeningPortMap.getOrDefault(stripeHolders[stripe], 0);
+        }
+
+        RebuildStripe rebuildStripe = new RebuildStripe();
+        rebuildStripe.setChunkName(chunkName);
+        rebuildStripe.setVersion(chunk.getVersion());
+        rebuildStripe.setDataStripes(fileInfo.getDataStripes());
+        rebuildStripe.setParityStripes(fileInfo.getParityStripes());
+        rebuildStripe.setTargetHost(targetHost);
+        rebuildStripe.setTargetPort(targetPort);
+        rebuildStripe.setStripeHosts(stripeHosts);
+        rebuildStripe.setStripePorts(stripePorts);
+        try {
+            tcpConnectionsCache.getConnection(targetSocket).sendData(rebuildStripe.getBytes());
+        } catch (IOException e) {
+            log.error("Error asking ChunkServer {} to rebuild {}: {}", targetId, chunkName, e.getLocalizedMessage());
+            return;
+        }
+        ReedSolomon codec = new ReedSolomon(fileInfo.getDataStripes(), fileInfo.getParityStripes());
+        spaceReservations.reserve(targetId, chunkName, chunk.getVersion(), codec.getStripeSize(Constants.CHUNK_SIZE));
+        log.info("Rebuilding {} ({} of {} stripes left) on ChunkServer {}", chunkName, chunk.getHolders().size(),
+                stripeHolders.length, targetId);
+        reReplicationManager.started(chunk, 0, targetId, targetHost + ":" + targetPort);
+    }
+
+    /**
+     * Tell the source ChunkServer to copy the chunk to the target. Space is reserved on the target until it reports
+     * the chunk, so the copy counts as a replica (and is not started again) meanwhile.
+     */
+    private void startReReplication(ReReplicationManager.UnderReplicatedChunk chunk, int sourceId, int targetId) {
+        String target = sendReplicateChunk(chunk.getChunkName(), chunk.getVersion(), sourceId, targetId);
+        if (target == null) {
+            return;
+        }
+        log.info("Re-replicating {} ({} of {} replicas left) from ChunkServer {} to ChunkServer {}",
+                chunk.getChunkName(), chunk.getReplicas(), chunk.getReplicas() + chunk.getMissing(), sourceId,
+                targetId);
+        reReplicationManager.started(chunk, sourceId, targetId, target);
+    }
+
+    /**
+     * Tell the source ChunkServer to copy a chunk to the target, and reserve space for it on the target
+     *
+     * @return host:port of the target the source was told to copy to, null if the source could not be told
+     */
+    private String sendReplicateChunk(String chunkName, int version, int sourceId, int targetId) {
+        Socket targetSocket = chunkServerSocketMap.get(targetId);
+        String targetHost = targetSocket.getInetAddress().getHostAddress();
+        int targetPort = chunkServerListeningPortMap.get(targetId);
+
+        ReplicateChunk replicateChunk = new ReplicateChunk();
+        replicateChunk.setChunkName(chunkName);
+        replicateChunk.setVersion(version);
+        replicateChunk.setTargetHost(targetHost);
+        replicateChunk.setTargetPort(targetPort);
+        try {
+            tcpConnectionsCache.getConnection(chunkServerSocketMap.get(sourceId)).sendData(replicateChunk.getBytes());
+        } catch (IOException e) {
+            log.error("Error asking ChunkServer {} to copy {}: {}", sourceId, chunkName, e.getLocalizedMessage());
+            return null;
+        }
+        spaceReservations.reserve(targetId, chunkName, version, Constants.CHUNK_SIZE);
+        return targetHost + ":" + targetPort;
+    }
+
+    /**
+     * A copy (of re-replication, or of a rebalancing move) is done. A stored copy keeps its reservation until
+     * the target reports the chunk in a heartbeat
+     */
+    private synchronized void handleReplicateChunkResponse(Event event) {
+        ReplicateChunkResponse response = (ReplicateChunkResponse) event;
+        String target = response.getTargetHost() + ":" + response.getTargetPort();
+        ReReplicationManager.Copy copy = reReplicationManager.completed(response.getChunkName(), target,
+                response.isStored(), response.getBytesCopied());
+        if (copy == null) {
+            Rebalancer.Move move = rebalancer.completed(response.getChunkName(), target, response.isStored(),
+                    response.getBytesCopied());
+            if (move != null) {
+                finishMove(move, response);
+            } else {
+                log.debug("Ignoring late report of the copy of {} to {}", response.getChunkName(), target);
+            }
+            return;
+        }
+        if (response.isStored()) {
+            log.info("Copied {} to {} ({} bytes)", response.getChunkName(), target, response.getBytesCopied());
+            corruptStripes.remove(response.getChunkName());
+        } else {
+            log.warn("Copy of {} to {} failed (status {})", response.getChunkName(), target, response.getStatus());
+            spaceReservations.release(copy.getTargetId(), copy.getChunkName(), copy.getVersion());
+        }
+    }
+
+    /**
+     * Periodically move chunks off the fullest chunk servers
+     */
+    public class Rebalance extends TimerTask {
+        @Override
+        public void run() {
+            scheduleRebalancing();
+        }
+    }
+
+    /**
+     * Move chunks from the ChunkServers whose disk utilization is more than the threshold above the cluster average
+     * to the ChunkServers below the average, fullest sources and emptiest targets first, within the rebalancing
+     * bandwidth budget. Placement stays valid: a ChunkServer never gets a second replica of a chunk, or a second
+     * stripe of the chunk of an erasure-coded file. Chunks being written, copied or re-replicated are left alone,
+     * and nothing is moved while chunks are under-replicated (restoring redundancy comes first).
+     */
+    private synchronized void scheduleRebalancing() {
+        for (Rebalancer.Move move : rebalancer.expire()) {
+            spaceReservations.release(move.getTargetId(), move.getChunkName(), move.getVersion());
+        }
+        if (!rebalancer.isEnabled() || reReplicationManager.isDegraded()) {
+            return;
+        }
+
+        HashMap<Integer, Double> utilizations = getUtilizations();
+        if (utilizations.size() < 2 || utilizations.size() < chunkServerSocketMap.size()) {
+            // the space of some live ChunkServer is not known yet
+            return;
+        }
+        double average = getAverageUtilization();
+        double threshold = rebalancer.getThreshold();
+
+        ArrayList<Integer> sources = new ArrayList<>();
+        ArrayList<Integer> targets = new ArrayList<>();
+        for (Map.Entry<Integer, Double> entry : utilizations.entrySet()) {
+            if (entry.getValue() > average + threshold) {
+                sources.add(entry.getKey());
+            } else if (entry.getValue() < average) {
+                targets.add(entry.getKey());
+            }
+        }
+        sources.sort((a, b) -> Double.compare(utilizations.get(b), utilizations.get(a)));
+        targets.sort((a, b) -> Double.compare(utilizations.get(a), utilizations.get(b)));
+
+        for (Integer sourceId : sources) {
+            for (String chunkName : new ArrayList<>(chunkServerChunksMap.getOrDefault(sourceId, new ArrayList<>()))) {
+                if (utilizations.get(sourceId) <= average + threshold ||
+                        rebalancer.getMovesInFlight(sourceId) >= Constants.Controller.REBALANCE_MOVES_PER_CHUNK_SERVER) {
+                    break;
+                }
+                if (!isMovable(sourceId, chunkName)) {
+                    continue;
+                }
+                int targetId = getRebalancingTarget(chunkName, sourceId, targets, utilizations, average);
+                if (targetId == 0) {
+                    continue;
+                }
+                if (!rebalancer.acquireBudget()) {
+                    return;
+                }
+                startMove(chunkName, sourceId, targetId);
+                // utilization once the move is done
+                utilizations.put(sourceId, utilizations.get(sourceId) - (double) Constants.CHUNK_SIZE /
+                        getCapacity(sourceId));
+                utilizations.put(targetId, utilizations.get(targetId) + (double) Constants.CHUNK_SIZE /
+                        getCapacity(targetId));
+            }
+        }
+    }
+
+    /**
+     * Disk utilization of each ChunkServer whose space is known: used (and reserved) bytes over its capacity,
+     * counting the replicas being moved away from it as gone
+     */
+    private HashMap<Integer, Double> getUtilizations() {
+        HashMap<Integer, Double> utilizations = new HashMap<>();
+        for (Integer chunkServerId : chunkServerSocketMap.keySet()) {
+            long capacity = getCapacity(chunkServerId);
+            if (capacity > 0) {
+                utilizations.put(chunkServerId, (double) getUsedBytes(chunkServerId) / capacity);
+            }
+        }
+        return utilizations;
+    }
+
+    /**
+     * @return used bytes over the capacity of all ChunkServers whose space is known
+     */
+    private double getAverageUtilization() {
+        long used = 0;
+        long capacity = 0;
+        for (Integer chunkServerId : chunkServerSocketMap.keySet()) {
+            if (getCapacity(chunkServerId) > 0) {
+                used += getUsedBytes(chunkServerId);
+                capacity += getCapacity(chunkServerId);
+            }
+        }
+        return capacity == 0 ? 0 : (double) used / capacity;
+    }
+
+    private long getUsedBytes(int chunkServerId) {
+        return Math.max(0, chunkServerUsedSpaceMap.getOrDefault(chunkServerId, 0L) +
+                spaceReservations.getReservedBytes(chunkServerId) - rebalancer.getBytesLeaving(chunkServerId));
+    }
+
+    /**
+     * @return disk space of a ChunkServer (used plus free bytes of its last heartbeat), 0 if not known yet
+     */
+    private long getCapacity(int chunkServerId) {
+        Long freeSpace = chunkServerFreeSpaceMap.get(chunkServerId);
+        return freeSpace == null ? 0 : freeSpace + chunkServerUsedSpaceMap.getOrDefault(chunkServerId, 0L);
+    }
+
+    /**
+     * A replica can be moved if it is an up-to-date replica of a chunk of a current file, and the chunk is not
+     * being written, copied or moved
+     */
+    private boolean isMovable(int chunkServerId, String chunkName) {
+        return getFileInfo(FileUtil.getOriginalFileName(chunkName)) != null && !isOfEarlierLayout(chunkName) &&
+                committedChunkVersions.containsKey(chunkName) && !isStaleReplica(chunkServerId, chunkName) &&
+                !rebalancer.isMoving(chunkName) &&
+                getReplicasBeingWritten(chunkName, Collections.emptyList()) == 0;
+    }
+
+    /**
+     * @return the emptiest target that would stay at or below the average with the chunk, holds no chunk of
+     * its placement group, is not busy with other moves, and that the placement policy allows the chunk to be moved
+     * to (0 if there is none)
+     */
+    private int getRebalancingTarget(String chunkName, int sourceId, List<Integer> targets,
+                                     Map<Integer, Double> utilizations, double average) {
+        List<String> placementGroup = getPlacementGroup(chunkName);
+        List<Integer> groupHolders = new ArrayList<>();
+        for (Map.Entry<Integer, ArrayList<String>> entry : chunkServerChunksMap.entrySet()) {
+            for (String groupChunkName : placementGroup) {
+                if (entry.getValue().contains(groupChunkName)) {
+                    groupHolders.add(entry.getKey());
+                    break;
+                }
+            }
+        }
+        int best = 0;
+        for (Integer targetId : targets) {
+            ArrayList<String> chunks = chunkServerChunksMap.get(targetId);
+            if (chunks == null || rebalancer.getMovesInFlight(targetId) >=
+                    Constants.Controller.REBALANCE_MOVES_PER_CHUNK_SERVER ||
+                    utilizations.get(targetId) + (double) Constants.CHUNK_SIZE / getCapacity(targetId) > average) {
+                continue;
+            }
+            boolean holdsGroup = false;
+            for (String groupChunkName : placementGroup) {
+                holdsGroup |= chunks.contains(groupChunkName);
+            }
+            if (!holdsGroup && placementPolicy.isMoveAllowed(groupHolders, sourceId, targetId, topology) &&
+                    (best == 0 || utilizations.get(targetId) < utilizations.get(best))) {
+                best = targetId;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Chunks that must not share a ChunkServer with the chunk: the chunk itself (one replica per ChunkServer)
+     * and, for the stripe of the chunk of an erasure-coded file, the other stripes of that chunk
+     */
+    private List<String> getPlacementGroup(String chunkName) {
+        String storedFileName = FileUtil.getFileNameFromChunkName(chunkName);
+        FileInfo fileInfo = getFileInfo(FileUtil.getOriginalFileName(chunkName));
+        if (FileUtil.getStripe(storedFileName) < 0 || fileInfo == null || !fileInfo.isErasureCoded()) {
+            return Collections.singletonList(chunkName);
+        }
+        String originalChunkName = fileInfo.getFileName() + chunkName.substring(storedFileName.length());
+        List<String> placementGroup = new ArrayList<>();
+        for (int stripe = 0; stripe < fileInfo.getDataStripes() + fileInfo.getParityStripes(); stripe++) {
+            placementGroup.add(FileUtil.getStripeChunkName(originalChunkName, stripe));
+        }
+        return placementGroup;
+    }
+
+    private void startMove(String chunkName, int sourceId, int targetId) {
+        int version = committedChunkVersions.getOrDefault(chunkName, 0);
+        String target = sendReplicateChunk(chunkName, version, sourceId, targetId);
+        if (target == null) {
+            return;
+        }
+        log.info("Moving {} from ChunkServer {} to ChunkServer {}", chunkName, sourceId, targetId);
+        rebalancer.started(chunkName, version, sourceId, targetId, target);
+    }
+
+    /**
+     * The target has stored the moved chunk: move the replica in the chunk index (added to the target before it
+     * is removed from the source, so the chunk is never missing from the index), and have the source delete its
+     * replica. The chunk lists are replaced rather than modified, so readers never see a list being changed.
+     */
+    private void finishMove(Rebalancer.Move move, ReplicateChunkResponse response) {
+        String chunkName = move.getChunkName();
+        if (!response.isStored()) {
+            log.warn("Move of {} to ChunkServer {} failed (status {})", chunkName, move.getTargetId(),
+                    response.getStatus());
+            spaceReservations.release(move.getTargetId(), chunkName, move.getVersion());
+            return;
+        }
+
+        ArrayList<String> targetChunks = chunkServerChunksMap.get(move.getTargetId());
+        if (targetChunks != null && !targetChunks.contains(chunkName)) {
+            targetChunks = new ArrayList<>(targetChunks);
+            targetChunks.add(chunkName);
+            HashMap<String, Integer> targetVersions =
+                    new HashMap<>(chunkServerChunkVersionsMap.getOrDefault(move.getTargetId(), new HashMap<>()));
+            targetVersions.put(chunkName, move.getVersion());
+            chunkServerChunkVersionsMap.put(move.getTargetId(), targetVersions);
+            chunkServerChunksMap.put(move.getTargetId(), targetChunks);
+        }
+        spaceReservations.release(move.getTargetId(), chunkName, move.getVersion());
+
+        ArrayList<String> sourceChunks = chunkServerChunksMap.get(move.getSourceId());
+        if (sourceChunks != null) {
+            sourceChunks = new ArrayList<>(sourceChunks);
+            sourceChunks.remove(chunkName);
+            HashMap<String, Integer> sourceVersions =
+                    new HashMap<>(chunkServerChunkVersionsMap.getOrDefault(move.getSourceId(), new HashMap<>()));
+            sourceVersions.remove(chunkName);
+            chunkServerChunkVersionsMap.put(move.getSourceId(), sourceVersions);
+            chunkServerChunksMap.put(move.getSourceId(), sourceChunks);
+        }
+
+        Socket sourceSocket = chunkServerSocketMap.get(move.getSourceId());
+        if (sourceSocket != null) {
+            HeartbeatResponse heartbeatResponse = new HeartbeatResponse();
+            heartbeatResponse.addOrphanChunk(chunkName, move.getVersion());
+            try {
+                tcpConnectionsCache.getConnection(sourceSocket).sendData(heartbeatResponse.getBytes());
+            } catch (IOException e) {
+                log.error(e.getLocalizedMessage());
+                e.printStackTrace();
+            }
+        }
+        log.info("Moved {} from ChunkServer {} to ChunkServer {} ({} bytes)", chunkName, move.getSourceId(),
+                move.getTargetId(), response.getBytesCopied());
+    }
+
+    public synchronized void printRebalancerStatus() {
+        rebalancer.printStatus();
+        HashMap<Integer, Double> utilizations = getUtilizations();
+        double average = getAverageUtilization();
+        System.out.printf("\t[+] average utilization = %.4f%%%n", average * 100);
+        ArrayList<Integer> ids = new ArrayList<>(utilizations.keySet());
+        Collections.sort(ids);
+        for (Integer id : ids) {
+            double utilization = utilizations.get(id);
+            System.out.printf("\t[+] ChunkServer %d: utilization = %.4f%%%s%n", id, utilization * 100,
+                    utilization > average + rebalancer.getThreshold() ? " (over-utilized)" :
+                            utilization < average - rebalancer.getThreshold() ? " (under-utilized)" : "");
+        }
+    }
+
+    public void setRebalancingEnabled(boolean enabled) {
+        rebalancer.setEnabled(enabled);
+    }
+
+    public void setRebalancingThresholdPercent(double thresholdPercent) {
+        rebalancer.setThresholdPercent(thresholdPercent);
+    }
+
+    public void setRebalancingBandwidthMB(long megabytesPerSecond) {
+        rebalancer.setBandwidthMB(megabytesPerSecond);
+    }
+
+    /**
+     * Print the live ChunkServers by location, and the placement policy
+     */
+    public void printTopology() {
+        HashMap<String, List<Integer>> locations = new HashMap<>();
+        Set<String> zones = new HashSet<>();
+        for (Integer chunkServerId : chunkServerSocketMap.keySet()) {
+            locations.computeIfAbsent(topology.getLocation(chunkServerId), location -> new ArrayList<>())
+                    .add(chunkServerId);
+            zones.add(topology.getZone(chunkServerId));
+        }
+        System.out.printf("Topology: {placementPolicy = %s, zones = %d, racks = %d, clientLocation = %s}%n",
+                placementPolicy.getName(), zones.size(), locations.size(), clientLocation);
+        ArrayList<String> sortedLocations = new ArrayList<>(locations.keySet());
+        Collections.sort(sortedLocations);
+        for (String location : sortedLocations) {
+            List<Integer> ids = locations.get(location);
+            Collections.sort(ids);
+            System.out.printf("\t[+] %s: ChunkServers %s%n", location, ids);
+        }
+    }
+
+    /**
+     * @param name "free-space", "rack-aware" or the name of a class implementing PlacementPolicy
+     * @return false if there is no such policy
+     */
+    public boolean setPlacementPolicy(String name) {
+        PlacementPolicy policy = PlacementPolicy.fromName(name);
+        if (policy == null) {
+            return false;
+        }
+        placementPolicy = policy;
+        log.info("Placement policy set to {}", policy.getName());
+        return true;
+    }
+
+    public void printReReplicationStatus() {
+        reReplicationManager.printStatus();
+    }
+
+    public void setReReplicationBandwidthMB(long megabytesPerSecond) {
+        reReplicationManager.setBandwidthMB(megabytesPerSecond);
+    }
+
+    /**
+     * Forget tombstones old enough for every live chunk server to have reclaimed the chunks
+     */
+    public class TombstoneExpiry extends TimerTask {
+        @Override
+        public void run() {
+            long now = System.currentTimeMillis();
+            deletedFiles.values().removeIf(deletedAt -> now - deletedAt > Constants.Controller.TOMBSTONE_RETENTION);
+        }
+    }
+
+    /**
+     * Delete a file. It is removed from fileInfos and tombstoned right away; its chunks are reclaimed lazily,
+     * by reporting them as orphans in heartbeat responses to the chunk servers that still hold them.
+     */
+    private void handleDeleteFileRequest(Event event) {
+        DeleteFileRequest deleteFileRequest = (DeleteFileRequest) event;
+        String fileName = deleteFileRequest.getFileName();
+
+        boolean deleted = removeFileInfo(fileName);
+        if (deleted) {
+            deletedFiles.put(fileName, System.currentTimeMillis());
+            log.info("Deleted file '{}'. Its chunks will be reclaimed in the background", fileName);
+        } else {
+            log.warn("File '{}' not found", fileName);
+        }
+
+        DeleteFileResponse deleteFileResponse = new DeleteFileResponse();
+        deleteFileResponse.setFileName(fileName);
+        deleteFileResponse.setDeleted(deleted);
+        try {
+            tcpConnectionsCache.getConnection(deleteFileRequest.getSocket()).sendData(deleteFileResponse.getBytes());
+        } catch (IOException e) {
+            log.error(e.getLocalizedMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Tell a chunk server which of the chunks it reported belong to deleted files, or are stale replicas
+     * (a newer version of the chunk has been reported by another chunk server), or are past the end of their
+     * file (it shrank).
+     * <p>
+     * File infos are kept in memory only, so a restarted Controller does not know any file. Chunks of files it
+     * does not know (deleted files whose tombstone expired while their chunk server was down) are therefore
+     * reclaimed only once the Controller has been up for TOMBSTONE_RETENTION, and are logged apart
+     */
+    private void sendOrphanChunks(Socket socket, ArrayList<String> chunks, ArrayList<Integer> versions) {
+        if (chunks == null) {
+            return;
+        }
+
+        HeartbeatResponse heartbeatResponse = new HeartbeatResponse();
+        boolean reclaimUnknownChunks =
+                System.currentTimeMillis() - startTime >= Constants.Controller.TOMBSTONE_RETENTION;
+        int unknownChunks = 0;
+        for (int i = 0; i < chunks.size(); i++) {
+            String chunkName = chunks.get(i);
+            int version = versions == null || i >= versions.size() ? 0 : versions.get(i);
+            if (deletedFiles.containsKey(FileUtil.getFileNameFromChunkName(chunkName)) ||
+                    deletedFiles.containsKey(FileUtil.getOriginalFileName(chunkName))) {
+                heartbeatResponse.addOrphanChunk(chunkName, Integer.MAX_VALUE);
+            } else if (getFileInfo(FileUtil.getOriginalFileName(chunkName)) == null) {
+                if (reclaimUnknownChunks) {
+                    heartbeatResponse.addOrphanChunk(chunkName, Integer.MAX_VALUE);
+                    unknownChunks++;
+                }
+            } else if (isPastEndOfFile(chunkName)) {
+                log.info("{} is past the end of its file", chunkName);
+                heartbeatResponse.addOrphanChunk(chunkName, Integer.MAX_VALUE);
+            } else if (isOfEarlierLayout(chunkName)) {
+                log.info("{} belongs to an earlier layout of its file (replicated or erasure-coded)", chunkName);
+                heartbeatResponse.addOrphanChunk(chunkName, Integer.MAX_VALUE);
+            } else if (version > 0 && version < committedChunkVersions.getOrDefault(chunkName, 0)) {
+                log.info("Stale replica of {} (version {}, current version {})", chunkName, version,
+                        committedChunkVersions.get(chunkName));
+                heartbeatResponse.addOrphanChunk(chunkName, version);
+            }
+        }
+        if (heartbeatResponse.getOrphanChunks().isEmpty()) {
+            return;
+        }
+
+        try {
+            tcpConnectionsCache.getConnection(socket).sendData(heartbeatResponse.getBytes());
+            log.info("Reported {} orphan chunks to ChunkServer '{}'", heartbeatResponse.getOrphanChunks().size(),
+                    socket.getInetAddress().getHostName());
+            if (unknownChunks > 0) {
+                log.warn("{} of them belong to no file known to the Controller (up for {} ms)", unknownChunks,
+                        System.currentTimeMillis() - startTime);
+            }
+        } catch (IOException e) {
+            log.error(e.getLocalizedMessage());
+            e.printStackTrace();
+        }
+    }
+
     private void handleSendFileInfo(Event event) {
         SendFileInfo sendFileInfo = (SendFileInfo) event;
         String fileName = sendFileInfo.getFileName();
         int noOfChunks = sendFileInfo.getNoOfChunks();
         int fileSize = sendFileInfo.getFileSize();
-        fileInfos.add(new FileInfo(fileName, noOfChunks, fileSize));
-        log.info("Added new file info: (name={}, #chunks={}, size={} KB)",
-                fileName, noOfChunks, fileSize);
+        if (deletedFiles.remove(fileName) != null) {
+            log.info("Re-adding deleted file '{}'", fileName);
+        }
+        // an updated file keeps its layout (erasure-coded, or its replication factor) unless a new one is given
+        FileInfo previous = getFileInfo(fileName);
+        FileInfo fileInfo;
+        if (sendFileInfo.isErasureCoded()) {
+            fileInfo = new FileInfo(fileName, noOfChunks, fileSize, sendFileInfo.getDataStripes(),
+                    sendFileInfo.getParityStripes());
+        } else if (sendFileInfo.getReplicationFactor() <= 0 && previous != null && previous.isErasureCoded()) {
+            fileInfo = new FileInfo(fileName, noOfChunks, fileSize, previous.getDataStripes(),
+                    previous.getParityStripes());
+        } else {
+            int replicationFactor = sendFileInfo.getReplicationFactor() > 0 ?
+                    Math.min(sendFileInfo.getReplicationFactor(), Constants.MAX_REPLICATION_LEVEL) :
+                    getReplicationFactor(fileName);
+            fileInfo = new FileInfo(fileName, noOfChunks, fileSize, replicationFactor);
+        }
+        // a file that is written again (updated) replaces its old info
+        if (removeFileInfo(fileName)) {
+            log.info("Updating file info of '{}'", fileName);
+        }
+        fileInfos.add(fileInfo);
+        log.info("Added new file info: (name={}, #chunks={}, size={} bytes, replicationFactor={}, " +
+                        "erasureCoding=RS({}, {}))", fileName, noOfChunks, fileSize, fileInfo.getReplicationFactor(),
+                fileInfo.getDataStripes(), fileInfo.getParityStripes());
+    }
+
+    /**
+     * @return the info of a file, or null if there is no such file
+     */
+    private FileInfo getFileInfo(String fileName) {
+        for (FileInfo fileInfo : fileInfos) {
+            if (fileInfo.getFileName().equals(fileName)) {
+                return fileInfo;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Number of chunk servers the chunks of a file are stored on (packed files are stored with their container;
+     * the default for unknown files; 1 for erasure-coded files, whose stripes are stored once)
+     */
+    private int getReplicationFactor(String fileName) {
+        FileInfo fileInfo = getFileInfo(fileName);
+        if (fileInfo == null) {
+            return Constants.REPLICATION_LEVEL;
+        }
+        return fileInfo.isPacked() ? getReplicationFactor(fileInfo.getContainerName()) :
+                fileInfo.getReplicationFactor();
+    }
+
+    /**
+     * A chunk is past the end of its file if its sequence number is greater than the number of chunks of the file
+     * (the file was updated to a smaller size)
+     */
+    private boolean isPastEndOfFile(String chunkName) {
+        FileInfo fileInfo = getFileInfo(FileUtil.getOriginalFileName(chunkName));
+        String storedFileName = FileUtil.getFileNameFromChunkName(chunkName);
+        try {
+            int sequence = Integer.parseInt(chunkName.substring(storedFileName.length() +
+                    Constants.ChunkServer.EXT_DATA_CHUNK.length()));
+            return fileInfo != null && sequence > fileInfo.getNoOfChunks();
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * A chunk is of an earlier layout of its file if it is a stripe of a file that is now replicated,
+     * or a replica of a file that is now erasure-coded (the file was added again with another layout)
+     */
+    private boolean isOfEarlierLayout(String chunkName) {
+        String storedFileName = FileUtil.getFileNameFromChunkName(chunkName);
+        FileInfo fileInfo = getFileInfo(storedFileName);
+        if (fileInfo != null) {
+            return fileInfo.isErasureCoded();
+        }
+        if (FileUtil.getStripe(storedFileName) < 0) {
+            return false;
+        }
+        fileInfo = getFileInfo(FileUtil.getOriginalFileName(chunkName));
+        return fileInfo != null && !fileInfo.isErasureCoded();
+    }
+
+    /**
+     * Record a container of packed small files: the container is stored like a file of one chunk,
+     * and each packed file is an extent (offset, length) of it
+     */
+    private void handleSendPackedFileInfo(Event event) {
+        SendPackedFileInfo packedFileInfo = (SendPackedFileInfo) event;
+        String containerName = packedFileInfo.getContainerName();
+        deletedFiles.remove(containerName);
+        removeFileInfo(containerName);
+        fileInfos.add(new FileInfo(containerName, 1, packedFileInfo.getContainerSize()));
+
+        Set<String> packedFiles = ConcurrentHashMap.newKeySet();
+        for (int i = 0; i < packedFileInfo.getFileNames().size(); i++) {
+            String fileName = packedFileInfo.getFileNames().get(i);
+            deletedFiles.remove(fileName);
+            removeFileInfo(fileName);
+            fileInfos.add(new FileInfo(fileName, 1, packedFileInfo.getLengths().get(i), containerName,
+                    packedFileInfo.getOffsets().get(i)));
+            packedFiles.add(fileName);
+        }
+        containerFiles.put(containerName, packedFiles);
+        log.info("Added container '{}' (size={}, #files={})", containerName, packedFileInfo.getContainerSize(),
+                packedFiles.size());
+    }
+
+    /**
+     * Forget a file. A container is deleted (and its chunk reclaimed) once no file packed into it is left;
+     * deleting a container deletes the files packed into it.
+     *
+     * @return false if the file was not found
+     */
+    private boolean removeFileInfo(String fileName) {
+        ArrayList<FileInfo> removed = new ArrayList<>();
+        fileInfos.removeIf(fileInfo -> {
+            if (fileInfo.getFileName().equals(fileName)) {
+                removed.add(fileInfo);
+                return true;
+            }
+            return false;
+        });
+
+        for (FileInfo fileInfo : removed) {
+            if (!fileInfo.isPacked()) {
+                continue;
+            }
+            String containerName = fileInfo.getContainerName();
+            Set<String> packedFiles = containerFiles.get(containerName);
+            if (packedFiles != null && packedFiles.remove(fileName) && packedFiles.isEmpty()) {
+                containerFiles.remove(containerName);
+                fileInfos.removeIf(containerInfo -> containerInfo.getFileName().equals(containerName));
+                deletedFiles.put(containerName, System.currentTimeMillis());
+                log.info("No files left in container '{}'. Its chunk will be reclaimed in the background",
+                        containerName);
+            }
+        }
+        if (containerFiles.remove(fileName) != null) {
+            fileInfos.removeIf(fileInfo -> fileName.equals(fileInfo.getContainerName()));
+        }
+        return !removed.isEmpty();
     }
 
     /**
@@ -263,11 +1282,23 @@ public class Controller implements Node {
         int noOfChunks = 0;
         int fileSize = 0;
         boolean fileFound = false;
+        // packed files are read from their container
+        String containerName = "";
+        int containerOffset = 0;
+        // erasure-coded files are read from the chunks of their stripes
+        int dataStripes = 0;
+        int parityStripes = 0;
         for (FileInfo fileInfo : fileInfos) {
             if (fileInfo.getFileName().equals(fileName)) {
                 fileFound = true;
                 noOfChunks = fileInfo.getNoOfChunks();
                 fileSize = fileInfo.getFileSize();
+                if (fileInfo.isPacked()) {
+                    containerName = fileInfo.getContainerName();
+                    containerOffset = fileInfo.getContainerOffset();
+                }
+                dataStripes = fileInfo.getDataStripes();
+                parityStripes = fileInfo.getParityStripes();
             }
         }
 
@@ -276,31 +1307,46 @@ public class Controller implements Node {
             return;
         }
 
-        // find chunk servers that contain each chunk of the file
-        String[] chunkServerHosts = new String[noOfChunks];
-        String[] chunkServerHostNames = new String[noOfChunks];
-        int[] chunkServerPorts = new int[noOfChunks];
-
+        // find chunk servers that contain each chunk (each stripe of each chunk) of the file
+        boolean erasureCoded = dataStripes > 0;
+        int stripesPerChunk = erasureCoded ? dataStripes + parityStripes : 1;
+        String[] chunkServerHosts = new String[noOfChunks * stripesPerChunk];
+        String[] chunkServerHostNames = new String[noOfChunks * stripesPerChunk];
+        int[] chunkServerPorts = new int[noOfChunks * stripesPerChunk];
+        String[][] replicaHosts = new String[noOfChunks * stripesPerChunk][];
+        int[][] replicaPorts = new int[noOfChunks * stripesPerChunk][];
+        Arrays.fill(chunkServerHosts, "");
+        Arrays.fill(chunkServerHostNames, "");
+
+        String storedFileName = containerName.isEmpty() ? fileName : containerName;
         for (int i = 0; i < noOfChunks; i++) {
-            String chunkName = fileName + Constants.ChunkServer.EXT_DATA_CHUNK + (i + 1);
-
-            // iterate through map <ChunkServerID, chunkNames>
-            for (Map.Entry<Integer, ArrayList<String>> entry : chunkServerChunksMap.entrySet()) {
-                if (entry.getValue().contains(chunkName)) {
-                    // found a chunk server containing the chunk we're looking for
-                    int chunkServerId = entry.getKey();
-                    Socket socket = chunkServerSocketMap.get(chunkServerId);
-                    chunkServerHosts[i] = socket.getInetAddress().getHostAddress();
-                    chunkServerHostNames[i] = socket.getInetAddress().getHostName();
-                    chunkServerPorts[i] = chunkServerListeningPortMap.get(chunkServerId);
+            for (int stripe = 0; stripe < stripesPerChunk; stripe++) {
+                String chunkName = (erasureCoded ? FileUtil.getStripeFileName(storedFileName, stripe) :
+                        storedFileName) + Constants.ChunkServer.EXT_DATA_CHUNK + (i + 1);
+                int index = i * stripesPerChunk + stripe;
+
+                // the nearest replica, and the others to fail over to
+                List<Integer> replicas = getReplicasNearestFirst(chunkName);
+                replicaHosts[index] = new String[Math.max(0, replicas.size() - 1)];
+                replicaPorts[index] = new int[Math.max(0, replicas.size() - 1)];
+                for (int r = 0; r < replicas.size(); r++) {
+                    Socket socket = chunkServerSocketMap.get(replicas.get(r));
+                    if (r == 0) {
+                        chunkServerHosts[index] = socket.getInetAddress().getHostAddress();
+                        chunkServerHostNames[index] = socket.getInetAddress().getHostName();
+                        chunkServerPorts[index] = chunkServerListeningPortMap.get(replicas.get(r));
+                    } else {
+                        replicaHosts[index][r - 1] = socket.getInetAddress().getHostAddress();
+                        replicaPorts[index][r - 1] = chunkServerListeningPortMap.get(replicas.get(r));
+                    }
+                }
+                if ("".equals(chunkServerHosts[index])) {
+                    if (erasureCoded) {
+                        log.warn("No ChunkServer with {} found. The client will reconstruct it", chunkName);
+                    } else {
+                        log.error("No ChunkServer with the needed chunk found.");
+                    }
                 }
-            }
-        }
-
-        // sanity check
-        for (String chunkServerHost : chunkServerHosts) {
-            if ("".equals(chunkServerHost)) {
-                log.error("No ChunkServer with the needed chunk found.");
             }
         }
 
@@ -312,6 +1358,12 @@ public class Controller implements Node {
         retrieveFileResponse.setChunkServerHosts(chunkServerHosts);
         retrieveFileResponse.setChunkServerHostNames(chunkServerHostNames);
         retrieveFileResponse.setChunkServerPorts(chunkServerPorts);
+        retrieveFileResponse.setContainerName(containerName);
+        retrieveFileResponse.setContainerOffset(containerOffset);
+        retrieveFileResponse.setDataStripes(dataStripes);
+        retrieveFileResponse.setParityStripes(parityStripes);
+        retrieveFileResponse.setReplicaHosts(replicaHosts);
+        retrieveFileResponse.setReplicaPorts(replicaPorts);
 
         try {
             clientConnection.sendData(retrieveFileResponse.getBytes());
@@ -321,6 +1373,33 @@ public class Controller implements Node {
         }
     }
 
+    /**
+     * @return the live ChunkServers with an up-to-date replica of the chunk, nearest to the client first
+     * (replicas as near as each other in random order, to spread reads)
+     */
+    private List<Integer> getReplicasNearestFirst(String chunkName) {
+        List<Integer> replicas = new ArrayList<>();
+        for (Map.Entry<Integer, ArrayList<String>> entry : chunkServerChunksMap.entrySet()) {
+            int chunkServerId = entry.getKey();
+            if (entry.getValue().contains(chunkName) && !isStaleReplica(chunkServerId, chunkName) &&
+                    chunkServerSocketMap.containsKey(chunkServerId)) {
+                replicas.add(chunkServerId);
+            }
+        }
+        Collections.shuffle(replicas, random);
+        replicas.sort(Comparator.comparingInt(this::getDistanceToClient));
+        return replicas;
+    }
+
+    private int getDistanceToClient(int chunkServerId) {
+        Socket chunkServerSocket = chunkServerSocketMap.get(chunkServerId);
+        if (clientSocket == null || chunkServerSocket == null) {
+            return Integer.MAX_VALUE;
+        }
+        return NetworkTopology.getDistance(clientSocket.getInetAddress().getHostAddress(), clientLocation,
+                chunkServerSocket.getInetAddress().getHostAddress(), topology.getLocation(chunkServerId));
+    }
+
     private synchronized void handleReportChunkCorruption(Event event) {
         ReportChunkCorruption reportChunkCorruption = (ReportChunkCorruption) event;
         String corruptedChunkName = reportChunkCorruption.getChunkName();
@@ -333,6 +1412,17 @@ public class Controller implements Node {
 
         //        String fileName = corruptionChunkName.split("_")[0]; //retrieveFileRequest.getFileName();
         String fileName = FileUtil.getFileNameFromChunkName(corruptedChunkName);
+        if (getFileInfo(fileName) == null && FileUtil.getStripe(fileName) >= 0) {
+            // a stripe is stored once: there is no replica to copy it from, it is rebuilt from the other stripes
+            for (Map.Entry<Integer, Socket> entry : chunkServerSocketMap.entrySet()) {
+                if (entry.getValue() == socket) {
+                    corruptStripes.put(corruptedChunkName, entry.getKey());
+                    log.warn("{} is a stripe of erasure-coded file '{}'. Rebuilding it from the other stripes",
+                            corruptedChunkName, FileUtil.getOriginalFileName(corruptedChunkName));
+                }
+            }
+            return;
+        }
 
         log.info("Trying to Recover....: {}", fileName);
 
@@ -352,8 +1442,14 @@ public class Controller implements Node {
             return;
         }
 
-        // find chunk servers that contain each chunk of the file
-        noOfChunks = 1; // only the corrupted chunk
+        sendFixCorruptChunk(socket, corruptedChunkName);
+    }
+
+    /**
+     * Tell the ChunkServer with a corrupted (or missing) replica of a chunk where another replica is,
+     * to repair its own from it
+     */
+    private void sendFixCorruptChunk(Socket chunkServerSocket, String corruptedChunkName) {
         String chunkServerHosts = ""; //new String();
         String chunkServerHostNames = "";// new String();
         int chunkServerPorts = 0;
@@ -363,7 +1459,8 @@ public class Controller implements Node {
 
         // iterate through map <ChunkServerID, chunkNames>
         for (Map.Entry<Integer, ArrayList<String>> entry : chunkServerChunksMap.entrySet()) {
-            if (entry.getValue().contains(chunkName) && chunkServerSocketMap.get(entry.getKey()) != reportChunkCorruption.getSocket()) {
+            if (entry.getValue().contains(chunkName) && chunkServerSocketMap.get(entry.getKey()) != chunkServerSocket
+                    && !isStaleReplica(entry.getKey(), chunkName)) {
                 // found a chunk server containing the chunk we're looking for
                 int chunkServerId = entry.getKey();
                 Socket socket2 = chunkServerSocketMap.get(chunkServerId);
@@ -375,6 +1472,7 @@ public class Controller implements Node {
 
         if ("".equals(chunkServerHosts)) {
             log.error("No Replica ChunkServer with the needed chunk found.");
+            return;
         }
 
         // send response to chunk Server
@@ -384,7 +1482,7 @@ public class Controller implements Node {
         fixCorruptChunkInfo.setChunkServerHostname(chunkServerHostNames);
         fixCorruptChunkInfo.setChunkServerPort(chunkServerPorts);
 
-        TCPConnection tcpConnection = tcpConnectionsCache.getConnection(reportChunkCorruption.getSocket());
+        TCPConnection tcpConnection = tcpConnectionsCache.getConnection(chunkServerSocket);
         try {
             tcpConnection.sendData(fixCorruptChunkInfo.getBytes());
         } catch (IOException e) {
@@ -394,6 +1492,37 @@ public class Controller implements Node {
     }
 
 
+    /**
+     * Repair hint from the client: a replica it read was corrupted or missing (the client has read another one).
+     * The ChunkServer holding it repairs it from another replica, as if it had found the corruption itself.
+     */
+    private synchronized void handleReportBadReplica(Event event) {
+        ReportBadReplica report = (ReportBadReplica) event;
+        String chunkName = report.getChunkName();
+        int chunkServerId = getChunkServerId(report.getChunkServerHost(), report.getChunkServerPort());
+        if (chunkServerId == 0) {
+            log.warn("Client reported a bad replica of {} on {}:{}, which is not a live ChunkServer", chunkName,
+                    report.getChunkServerHost(), report.getChunkServerPort());
+            return;
+        }
+        log.warn("Client found the replica of {} on ChunkServer {} {}. Repairing it", chunkName, chunkServerId,
+                report.getStatus() == RetrieveChunkResponse.STATUS_NOT_FOUND ? "missing" : "corrupted");
+        sendFixCorruptChunk(chunkServerSocketMap.get(chunkServerId), chunkName);
+    }
+
+    /**
+     * @return the ID of the live ChunkServer listening on host:port, 0 if there is none
+     */
+    private int getChunkServerId(String host, int port) {
+        for (Map.Entry<Integer, Socket> entry : chunkServerSocketMap.entrySet()) {
+            if (entry.getValue().getInetAddress().getHostAddress().equals(host) &&
+                    chunkServerListeningPortMap.getOrDefault(entry.getKey(), -1) == port) {
+                return entry.getKey();
+            }
+        }
+        return 0;
+    }
+
     private synchronized void handleMinorHeartbeat(Event event) {
         SendMinorHeartbeat heartbeat = (SendMinorHeartbeat) event;
         Socket socket = heartbeat.getSocket();
@@ -407,13 +1536,19 @@ public class Controller implements Node {
         ArrayList<String> chunks = heartbeat.getNewChunks();
         for (Map.Entry<Integer, Socket> entry : chunkServerSocketMap.entrySet()) {
             if (socket == entry.getValue()) {
-                chunkServerChunksMap.put(entry.getKey(), chunks);
-                chunkServerFreeSpaceMap.put(entry.getKey(), freeSpace);
+                chunkServerChunksMap.put(entry.getKey(), rebalancer.withoutMovedReplicas(entry.getKey(), chunks));
+                updateChunkVersions(entry.getKey(), chunks, heartbeat.getChunkVersions());
+                updateSpace(entry.getKey(), freeSpace, heartbeat.getUsedSpace(), heartbeat.getCompressionRatio(),
+                        chunks, heartbeat.getChunkVersions());
             }
         }
 
-        log.info("Minor Heartbeat received from ChunkServer '{}': (freeSpace={} KB, #chunks={}, #newChunks={})"
-                , chunkServerHostname, freeSpace, noOfChunks, noOfNewChunks);
+        log.info("Minor Heartbeat received from ChunkServer '{}': (freeSpace={} bytes, usedSpace={} bytes, " +
+                        "reservedSpace={} bytes, compressionRatio={}, #chunks={}, #newChunks={})", chunkServerHostname,
+                freeSpace, heartbeat.getUsedSpace(), heartbeat.getReservedSpace(), heartbeat.getCompressionRatio(),
+                noOfChunks, noOfNewChunks);
+
+        sendOrphanChunks(socket, chunks, heartbeat.getChunkVersions());
     }
 
     private synchronized void handleMajorHeartbeat(Event event) {
@@ -427,13 +1562,56 @@ public class Controller implements Node {
         ArrayList<String> chunks = heartbeat.getChunks();
         for (Map.Entry<Integer, Socket> entry : chunkServerSocketMap.entrySet()) {
             if (socket == entry.getValue()) {
-                chunkServerChunksMap.put(entry.getKey(), chunks);
-                chunkServerFreeSpaceMap.put(entry.getKey(), freeSpace);
+                chunkServerChunksMap.put(entry.getKey(), rebalancer.withoutMovedReplicas(entry.getKey(), chunks));
+                updateChunkVersions(entry.getKey(), chunks, heartbeat.getChunkVersions());
+                updateSpace(entry.getKey(), freeSpace, heartbeat.getUsedSpace(), heartbeat.getCompressionRatio(),
+                        chunks, heartbeat.getChunkVersions());
+                hotFileRanking.update(entry.getKey(), heartbeat.getHotChunks(), heartbeat.getHotChunkReads(),
+                        heartbeat.getHotChunkBytes());
+            }
+        }
+
+        log.info("Major Heartbeat received from ChunkServer '{}': (freeSpace={} bytes, usedSpace={} bytes, " +
+                        "reservedSpace={} bytes, compressionRatio={}, #chunks={})", chunkServerHostname, freeSpace,
+                heartbeat.getUsedSpace(), heartbeat.getReservedSpace(), heartbeat.getCompressionRatio(), noOfChunks);
+
+        sendOrphanChunks(socket, chunks, heartbeat.getChunkVersions());
+    }
+
+    /**
+     * Record the chunk versions reported by a ChunkServer (version 0: unknown)
+     */
+    private void updateChunkVersions(int chunkServerId, ArrayList<String> chunks, ArrayList<Integer> versions) {
+        HashMap<String, Integer> reportedVersions = new HashMap<>();
+        for (int i = 0; i < chunks.size() && i < versions.size(); i++) {
+            int version = versions.get(i);
+            reportedVersions.put(chunks.get(i), version);
+            if (version > 0) {
+                committedChunkVersions.merge(chunks.get(i), version, Math::max);
             }
         }
+        chunkServerChunkVersionsMap.put(chunkServerId, reportedVersions);
+    }
 
-        log.info("Major Heartbeat received from ChunkServer '{}': (freeSpace={} KB, #chunks={})",
-                chunkServerHostname, freeSpace, noOfChunks);
+    /**
+     * A replica is stale if another chunk server has reported a newer version of the chunk
+     */
+    private boolean isStaleReplica(int chunkServerId, String chunkName) {
+        HashMap<String, Integer> reportedVersions = chunkServerChunkVersionsMap.get(chunkServerId);
+        int version = reportedVersions == null ? 0 : reportedVersions.getOrDefault(chunkName, 0);
+        return version > 0 && version < committedChunkVersions.getOrDefault(chunkName, 0);
+    }
+
+    /**
+     * Record the space reported by a ChunkServer. Chunks it reports are now counted in its used space,
+     * so their reservations (of the reported version, or an earlier one) are released.
+     */
+    private void updateSpace(int chunkServerId, long freeSpace, long usedSpace, double compressionRatio,
+                             ArrayList<String> chunks, ArrayList<Integer> versions) {
+        chunkServerFreeSpaceMap.put(chunkServerId, freeSpace);
+        chunkServerUsedSpaceMap.put(chunkServerId, usedSpace);
+        chunkServerCompressionRatioMap.put(chunkServerId, compressionRatio);
+        spaceReservations.releaseStored(chunkServerId, chunks, versions);
     }
 
     private synchronized void registerChunkServer(Event event) {
@@ -477,12 +1655,14 @@ public class Controller implements Node {
             return;
         }
 
-        log.info("Registering ChunkServer (IPAddress: {}, Host: {}, Port: {})",
-                new String(ipAddress), chunkServerSocket.getInetAddress().getHostName(), port);
+        String location = topology.resolve(registerChunkServer.getLocation(), chunkServerSocket.getInetAddress());
+        log.info("Registering ChunkServer (IPAddress: {}, Host: {}, Port: {}, Location: {})",
+                new String(ipAddress), chunkServerSocket.getInetAddress().getHostName(), port, location);
 
         TCPConnection tcpConnection = tcpConnectionsCache.getConnection(chunkServerSocket);
         try {
             tcpConnection.sendData(responseEvent.getBytes());
+            topology.add(randomId, location);
             chunkServerSocketMap.put(randomId, chunkServerSocket);
             chunkServerListeningPortMap.put(randomId, registerChunkServer.getPort());
         } catch (IOException e) {
@@ -523,37 +1703,87 @@ public class Controller implements Node {
         }
 
         clientSocket = registerClient.getSocket();
+        clientLocation = topology.resolve(registerClient.getLocation(), clientSocket.getInetAddress());
 
-        log.info("Registering Client (IPAddress: {}, Host: {}, Port: {})",
-                new String(clientIpAddress), clientSocket.getInetAddress().getHostName(), clientPort);
+        log.info("Registering Client (IPAddress: {}, Host: {}, Port: {}, Location: {})",
+                new String(clientIpAddress), clientSocket.getInetAddress().getHostName(), clientPort, clientLocation);
 
         clientConnection = tcpConnectionsCache.getConnection(registerClient.getSocket());
         clientConnection.sendData(responseEvent.getBytes());
     }
 
     /**
-     * Send client information about 3 ChunkServers to store a new file
+     * Send client information about the ChunkServers to store a chunk on (as many as the replication factor
+     * of its file), chosen by the placement policy and in chain order (nearest to the client first).
+     * The chunk of an erasure-coded file gets a ChunkServer for each of its stripes, distinct ones as long as
+     * there are enough live ChunkServers.
      *
      * @param event
      */
     private synchronized void sendChunkServersToClient(Event event) {
         log.debug("sendChunkServerToClient(event): {}",
                 ProtocolLookup.getEventLiteral(event.getType()));
-
-        String[] chunkServerHosts = new String[Constants.REPLICATION_LEVEL];
-        String[] chunkServerHostNames = new String[Constants.REPLICATION_LEVEL];
-        int[] chunkServerPorts = new int[Constants.REPLICATION_LEVEL];
+        ClientRequestsChunkServersFromController request = (ClientRequestsChunkServersFromController) event;
+        String fileName = FileUtil.getFileNameFromChunkName(request.getChunkName());
+        FileInfo fileInfo = getFileInfo(fileName);
+        boolean erasureCoded = fileInfo != null && fileInfo.isErasureCoded();
+        int dataStripes = erasureCoded ? fileInfo.getDataStripes() : 0;
+        int parityStripes = erasureCoded ? fileInfo.getParityStripes() : 0;
+        int replicationFactor = erasureCoded ? dataStripes + parityStripes : getReplicationFactor(fileName);
+        // stripes that share a ChunkServer are lost together
+        int noOfDistinctChunkServers = replicationFactor;
 
         int noOfLiveChunkServers = chunkServerSocketMap.keySet().size();
-        if (noOfLiveChunkServers < Constants.REPLICATION_LEVEL) {
-            log.warn("No. of Live Chunk Servers is less than {}. Returning...", Constants.REPLICATION_LEVEL);
+        if (noOfLiveChunkServers == 0) {
+            log.warn("No Live Chunk Servers. Returning...");
+            sendNoChunkServersToClient();
             return;
+        } else if (noOfLiveChunkServers < replicationFactor && erasureCoded) {
+            log.warn("No. of Live Chunk Servers is less than {}. Storing the stripes of {} on {} Chunk Servers " +
+                    "(fewer failures are tolerated)", replicationFactor, request.getChunkName(), noOfLiveChunkServers);
+            noOfDistinctChunkServers = noOfLiveChunkServers;
+        } else if (noOfLiveChunkServers < replicationFactor) {
+            log.warn("No. of Live Chunk Servers is less than {}. Storing {} on {} Chunk Servers",
+                    replicationFactor, request.getChunkName(), noOfLiveChunkServers);
+            replicationFactor = noOfLiveChunkServers;
+            noOfDistinctChunkServers = noOfLiveChunkServers;
         }
 
-        ArrayList<Integer> selectedChunkServerIDs = getChunkServersWithHighestFreeSpace();
+        List<Integer> distinctChunkServerIDs = new ArrayList<>(placementPolicy.choose(noOfDistinctChunkServers,
+                getChunkServersWithHighestFreeSpace(noOfLiveChunkServers), Collections.emptyList(), topology));
+        distinctChunkServerIDs.sort(Comparator.comparingInt(this::getDistanceToClient));
+        if (distinctChunkServerIDs.size() < noOfDistinctChunkServers) {
+            log.warn("Free space of only {} Chunk Servers is known. Returning...", distinctChunkServerIDs.size());
+            sendNoChunkServersToClient();
+            return;
+        }
 
-        // select 3 registered chunk servers
-        for (int i = 0; i < Constants.REPLICATION_LEVEL; i++) {
+        // every write of a chunk gets a new version, higher than any replica's
+        int version = chunkVersions.compute(request.getChunkName(), (chunkName, latest) ->
+                Math.max(latest == null ? 0 : latest, committedChunkVersions.getOrDefault(chunkName, 0)) + 1);
+        ArrayList<Integer> selectedChunkServerIDs = new ArrayList<>();
+        for (int i = 0; i < replicationFactor; i++) {
+            selectedChunkServerIDs.add(distinctChunkServerIDs.get(i % distinctChunkServerIDs.size()));
+        }
+
+        // reserve space for the chunk (each stripe) until the chunk servers report it
+        for (int i = 0; i < replicationFactor; i++) {
+            if (erasureCoded) {
+                spaceReservations.reserve(selectedChunkServerIDs.get(i),
+                        FileUtil.getStripeChunkName(request.getChunkName(), i), version,
+                        (request.getChunkSize() + dataStripes - 1) / dataStripes);
+            } else {
+                spaceReservations.reserve(selectedChunkServerIDs.get(i), request.getChunkName(), version,
+                        request.getChunkSize());
+            }
+        }
+
+        String[] chunkServerHosts = new String[replicationFactor];
+        String[] chunkServerHostNames = new String[replicationFactor];
+        int[] chunkServerPorts = new int[replicationFactor];
+
+        // select registered chunk servers
+        for (int i = 0; i < replicationFactor; i++) {
             String chunkServerHost = chunkServerSocketMap.get(selectedChunkServerIDs.get(i))
                     .getInetAddress().getHostAddress();
             String chunkServerHostName = chunkServerSocketMap.get(selectedChunkServerIDs.get(i))
@@ -571,6 +1801,9 @@ public class Controller implements Node {
         responseEvent.setChunkServerHosts(chunkServerHosts);
         responseEvent.setChunkServerHostNames(chunkServerHostNames);
         responseEvent.setChunkServerPorts(chunkServerPorts);
+        responseEvent.setVersion(version);
+        responseEvent.setDataStripes(dataStripes);
+        responseEvent.setParityStripes(parityStripes);
 
         try {
             clientConnection.sendData(responseEvent.getBytes());
@@ -580,35 +1813,45 @@ public class Controller implements Node {
         }
     }
 
+    /**
+     * Tell the client there are no ChunkServers to store its chunk on (yet): an empty list of ChunkServers
+     */
+    private void sendNoChunkServersToClient() {
+        ControllerSendsClientChunkServers responseEvent = new ControllerSendsClientChunkServers();
+        responseEvent.setChunkServerHosts(new String[0]);
+        responseEvent.setChunkServerHostNames(new String[0]);
+        responseEvent.setChunkServerPorts(new int[0]);
+        try {
+            clientConnection.sendData(responseEvent.getBytes());
+        } catch (IOException e) {
+            log.error(e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
     /**
      * Get a list of ChunkServer IDs that have the highest free space available
+     * (free space of the last heartbeat, scaled by the ChunkServer's compression ratio since that is how much
+     * chunk data it can actually take, minus the space reserved for chunks placed since)
      *
+     * @param count number of ChunkServers wanted
      * @return
      */
-    private ArrayList<Integer> getChunkServersWithHighestFreeSpace() {
-        ArrayList<Integer> ids = new ArrayList<>();
-        ArrayList<Long> sortedFreeSpaces = new ArrayList<>(chunkServerFreeSpaceMap.values());
-        log.debug("freeSpaces (before sorting): {}", sortedFreeSpaces);
-        sortedFreeSpaces.sort(Comparator.reverseOrder());
-        log.debug("freeSpaces (after sorting): {}", sortedFreeSpaces);
-        List<Long> topNFreeSpaces = sortedFreeSpaces.subList(0, Constants.REPLICATION_LEVEL);
-
-        for (Long freeSpace : topNFreeSpaces) {
-            for (Map.Entry<Integer, Long> entry : chunkServerFreeSpaceMap.entrySet()) {
-                if (Objects.equals(entry.getValue(), freeSpace)) {
-                    if (!ids.contains(entry.getKey())) {
-                        ids.add(entry.getKey());
-                        break;
-                    }
-                }
-            }
+    private ArrayList<Integer> getChunkServersWithHighestFreeSpace(int count) {
+        HashMap<Integer, Long> availableSpaces = new HashMap<>();
+        for (Map.Entry<Integer, Long> entry : chunkServerFreeSpaceMap.entrySet()) {
+            double compressionRatio = Math.max(1.0, chunkServerCompressionRatioMap.getOrDefault(entry.getKey(), 1.0));
+            availableSpaces.put(entry.getKey(), (long) (entry.getValue() * compressionRatio) -
+                    spaceReservations.getReservedBytes(entry.getKey()));
         }
+        log.debug("availableSpaces: {}", availableSpaces);
 
-        assert ids.size() == topNFreeSpaces.size();
-        assert ids.size() == Constants.REPLICATION_LEVEL;
+        ArrayList<Integer> ids = new ArrayList<>(availableSpaces.keySet());
+        ids.sort((a, b) -> Long.compare(availableSpaces.get(b), availableSpaces.get(a)));
+        ArrayList<Integer> topIds = new ArrayList<>(ids.subList(0, Math.min(ids.size(), count)));
 
-        log.debug("topNFreeSpaces: {}, ids: {}", topNFreeSpaces, ids);
-        return ids;
+        log.debug("ids: {}", topIds);
+        return topIds;
     }
 
     /**
@@ -619,11 +1862,17 @@ public class Controller implements Node {
             Integer id = entry.getKey(); // ChunkServer ID
             String hostName = chunkServerSocketMap.get(id).getInetAddress().getHostName();
             System.out.println("-----------------------------------------");
-            System.out.printf("Chunk Server (%d): %s {freeSpace = %s MB, #chunks = %s}%n",
-                    id, hostName, chunkServerFreeSpaceMap.get(id), entry.getValue().size());
+            System.out.printf("Chunk Server (%d): %s {freeSpace = %d MB, usedSpace = %d MB, " +
+                            "reservedSpace = %d MB, compressionRatio = %.2f, #chunks = %s}%n",
+                    id, hostName, chunkServerFreeSpaceMap.getOrDefault(id, 0L) / 1_000_000,
+                    chunkServerUsedSpaceMap.getOrDefault(id, 0L) / 1_000_000,
+                    spaceReservations.getReservedBytes(id) / 1_000_000,
+                    chunkServerCompressionRatioMap.getOrDefault(id, 1.0), entry.getValue().size());
             if (printChunks) {
+                HashMap<String, Integer> versions = chunkServerChunkVersionsMap.getOrDefault(id, new HashMap<>());
                 for (String chunk : entry.getValue()) {
-                    System.out.println("[*] " + chunk);
+                    System.out.println("[*] " + chunk + " (version " + versions.getOrDefault(chunk, 0) +
+                            (isStaleReplica(id, chunk) ? ", stale)" : ")"));
                 }
             }
         }
@@ -635,8 +1884,39 @@ public class Controller implements Node {
     public void printFiles() {
         System.out.println("No. of files: " + fileInfos.size());
         for (FileInfo fileInfo : fileInfos) {
-            System.out.println(fileInfo.getFileName() + ": (size = " + fileInfo.getFileSize() +
-                    " KB, #chunks: " + fileInfo.getNoOfChunks() + ")");
+            if (fileInfo.isPacked()) {
+                System.out.println(fileInfo.getFileName() + ": (size = " + fileInfo.getFileSize() +
+                        " bytes, packed in " + fileInfo.getContainerName() + " at offset " +
+                        fileInfo.getContainerOffset() + ")");
+            } else if (containerFiles.containsKey(fileInfo.getFileName())) {
+                System.out.println(fileInfo.getFileName() + ": (container, size = " + fileInfo.getFileSize() +
+                        " bytes, #files: " + containerFiles.get(fileInfo.getFileName()).size() + ")");
+            } else if (fileInfo.isErasureCoded()) {
+                System.out.println(fileInfo.getFileName() + ": (size = " + fileInfo.getFileSize() +
+                        " bytes, #chunks: " + fileInfo.getNoOfChunks() + ", erasure-coded: RS(" +
+                        fileInfo.getDataStripes() + ", " + fileInfo.getParityStripes() + "))");
+            } else {
+                System.out.println(fileInfo.getFileName() + ": (size = " + fileInfo.getFileSize() +
+                        " bytes, #chunks: " + fileInfo.getNoOfChunks() + ", replicationFactor: " +
+                        fileInfo.getReplicationFactor() + ")");
+            }
+        }
+        if (!deletedFiles.isEmpty()) {
+            System.out.println("Deleted files (chunks being reclaimed): " + deletedFiles.keySet());
+        }
+    }
+
+    /**
+     * Print the most read files in the cluster (reads are decayed counts, reported by the ChunkServers)
+     */
+    public void printHotFiles() {
+        List<HotFileRanking.HotFile> hotFiles = hotFileRanking.getHotFiles(Constants.Controller.HOT_FILES_LISTED);
+        System.out.println("Hot files: " + hotFiles.size());
+        for (HotFileRanking.HotFile hotFile : hotFiles) {
+            System.out.println("\t[+] " + hotFile.getFileName() +
+                    (containerFiles.containsKey(hotFile.getFileName()) ? " (container)" : "") +
+                    ": (reads = " + hotFile.getReads() + ", bytes = " + hotFile.getBytes() +
+                    ", #hotChunks = " + hotFile.getChunks() + ")");
         }
     }
 
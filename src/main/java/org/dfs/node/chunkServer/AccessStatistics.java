@@ -0,0 +1,127 @@
+package org.dfs.node.chunkServer;
+
+import org.dfs.util.Constants;
+import org.dfs.util.sketch.CountMinSketch;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads and bytes served per chunk, as decaying counts in count-min sketches (constant memory regardless
+ * of the number of chunks), plus a small set of candidate keys from which the hottest chunks are reported.
+ * Counts are halved every decay interval, so they approximate recent load rather than all-time totals.
+ */
+public class AccessStatistics {
+    private final CountMinSketch reads;
+    private final CountMinSketch bytes;
+    // chunkName, estimated reads when last seen (the chunks that may be among the hottest)
+    private final HashMap<String, Double> candidates;
+    private final int maxCandidates;
+
+    public AccessStatistics(int maxCandidates) {
+        reads = new CountMinSketch(Constants.ChunkServer.ACCESS_SKETCH_DEPTH, Constants.ChunkServer.ACCESS_SKETCH_WIDTH);
+        bytes = new CountMinSketch(Constants.ChunkServer.ACCESS_SKETCH_DEPTH, Constants.ChunkServer.ACCESS_SKETCH_WIDTH);
+        candidates = new HashMap<>();
+        this.maxCandidates = maxCandidates;
+    }
+
+    public synchronized void recordRead(String chunkName, long bytesServed) {
+        double estimate = reads.add(chunkName, 1);
+        bytes.add(chunkName, bytesServed);
+
+        if (candidates.containsKey(chunkName) || candidates.size() < maxCandidates) {
+            candidates.put(chunkName, estimate);
+            return;
+        }
+        // replace the coldest candidate if this chunk is hotter
+        String coldest = null;
+        double coldestEstimate = Double.MAX_VALUE;
+        for (Map.Entry<String, Double> entry : candidates.entrySet()) {
+            if (entry.getValue() < coldestEstimate) {
+                coldest = entry.getKey();
+                coldestEstimate = entry.getValue();
+            }
+        }
+        if (estimate > coldestEstimate) {
+            candidates.remove(coldest);
+            candidates.put(chunkName, estimate);
+        }
+    }
+
+    /**
+     * Halve all counts (old reads count less and less)
+     */
+    public synchronized void decay() {
+        reads.decay(0.5);
+        bytes.decay(0.5);
+        Iterator<Map.Entry<String, Double>> it = candidates.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Double> entry = it.next();
+            double estimate = reads.estimate(entry.getKey());
+            if (estimate < Constants.ChunkServer.ACCESS_MIN_READS) {
+                it.remove();
+            } else {
+                entry.setValue(estimate);
+            }
+        }
+    }
+
+    /**
+     * Forget a chunk that is no longer stored here (its sketch counters decay away)
+     */
+    public synchronized void remove(String chunkName) {
+        candidates.remove(chunkName);
+    }
+
+    /**
+     * @return the k most read chunks, hottest first
+     */
+    public synchronized List<HotChunk> getHotChunks(int k) {
+        List<HotChunk> hotChunks = new ArrayList<>();
+        for (String chunkName : candidates.keySet()) {
+            hotChunks.add(new HotChunk(chunkName, Math.round(reads.estimate(chunkName)),
+                    Math.round(bytes.estimate(chunkName))));
+        }
+        hotChunks.sort((a, b) -> Long.compare(b.reads, a.reads));
+        return hotChunks.subList(0, Math.min(k, hotChunks.size()));
+    }
+
+    public void printStatus() {
+        List<HotChunk> hotChunks = getHotChunks(Constants.ChunkServer.HOT_CHUNKS_REPORTED);
+        synchronized (this) {
+            System.out.printf("Access statistics: {recentReads = %d, recentBytes = %d, candidates = %d}%n",
+                    Math.round(reads.getTotal()), Math.round(bytes.getTotal()), candidates.size());
+        }
+        for (HotChunk hotChunk : hotChunks) {
+            System.out.printf("\t[+] %s {reads = %d, bytes = %d}%n", hotChunk.chunkName, hotChunk.reads,
+                    hotChunk.bytes);
+        }
+    }
+
+    public static class HotChunk {
+        private final String chunkName;
+        private final long reads;
+        private final long bytes;
+
+        private HotChunk(String chunkName, long reads, long bytes) {
+            this.chunkName = chunkName;
+            this.reads = reads;
+            this.bytes = bytes;
+        }
+
+        public String getChunkName() {
+            return chunkName;
+        }
+
+        public long getReads() {
+            return reads;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+    }
+}
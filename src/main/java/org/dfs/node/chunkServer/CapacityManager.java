@@ -0,0 +1,132 @@
+package org.dfs.node.chunkServer;
+
+import org.dfs.util.Constants;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks used, reserved and free bytes of the data directory of a ChunkServer.
+ * <p>
+ * Space for an incoming chunk is reserved before it is written and released once the write completes,
+ * so concurrent writes cannot promise the same free bytes twice. Each version of a chunk has its own reservation:
+ * two versions of a chunk in flight (an overwrite racing a retry) each keep theirs until they finish.
+ * Used bytes are counted from the chunk and metadata files themselves rather than sampled from the file system
+ * at heartbeat time.
+ */
+public class CapacityManager {
+    private static final Logger log = LogManager.getLogger(CapacityManager.class);
+
+    private final Path dataDir;
+    private final AtomicLong usedBytes;
+    private final AtomicLong reservedBytes;
+    // chunkName#version, reserved bytes
+    private final ConcurrentHashMap<String, Long> reservations;
+
+    public CapacityManager(Path dataDir) {
+        this.dataDir = dataDir;
+        usedBytes = new AtomicLong();
+        reservedBytes = new AtomicLong();
+        reservations = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Count the bytes already stored in the data directory (upon start up)
+     */
+    public void initialize() {
+        long used = 0;
+        try {
+            Files.createDirectories(dataDir);
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dataDir)) {
+                for (Path file : files) {
+                    if (Files.isRegularFile(file)) {
+                        used += Files.size(file);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            log.error("Error reading {}: {}", dataDir, e.getLocalizedMessage());
+        }
+        usedBytes.set(used);
+        log.info("{} bytes in use in {}", used, dataDir);
+    }
+
+    /**
+     * Reserve space for a chunk about to be written
+     *
+     * @return false if there is not enough free space for it
+     */
+    public synchronized boolean reserve(String chunkName, int version, long bytes) {
+        long free = getFreeBytes();
+        if (free < bytes) {
+            log.warn("Not enough space for {} ({} bytes requested, {} bytes free)", chunkName, bytes, free);
+            return false;
+        }
+
+        Long previous = reservations.put(chunkName + "#" + version, bytes);
+        reservedBytes.addAndGet(bytes - (previous == null ? 0 : previous));
+        return true;
+    }
+
+    public void release(String chunkName, int version) {
+        Long bytes = reservations.remove(chunkName + "#" + version);
+        if (bytes != null) {
+            reservedBytes.addAndGet(-bytes);
+        }
+    }
+
+    /**
+     * Size of a chunk on disk, including its metadata file
+     */
+    public long sizeOnDisk(String chunkName) {
+        return sizeOf(dataDir.resolve(chunkName)) +
+                sizeOf(dataDir.resolve(chunkName + Constants.ChunkServer.EXT_METADATA));
+    }
+
+    /**
+     * Account for a chunk that has been (re)written, deleted or repaired
+     */
+    public void updateUsed(long sizeBefore, long sizeAfter) {
+        usedBytes.addAndGet(sizeAfter - sizeBefore);
+    }
+
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    public long getReservedBytes() {
+        return reservedBytes.get();
+    }
+
+    /**
+     * Usable space on the file system of the data directory, minus the space promised to in-flight writes
+     */
+    public long getFreeBytes() {
+        long usable;
+        try {
+            usable = Files.getFileStore(Files.exists(dataDir) ? dataDir : dataDir.getRoot()).getUsableSpace();
+        } catch (IOException e) {
+            log.error("Error reading free space of {}: {}", dataDir, e.getLocalizedMessage());
+            usable = 0;
+        }
+        return Math.max(0, usable - reservedBytes.get());
+    }
+
+    private static long sizeOf(Path path) {
+        try {
+            return Files.size(path);
+        } catch (NoSuchFileException e) {
+            return 0;
+        } catch (IOException e) {
+            log.warn("Could not read size of {}: {}", path, e.getLocalizedMessage());
+            return 0;
+        }
+    }
+}
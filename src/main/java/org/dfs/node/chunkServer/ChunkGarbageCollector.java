@@ -0,0 +1,114 @@
+package org.dfs.node.chunkServer;
+
+import org.dfs.util.Constants;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Background thread that deletes chunks of deleted files and stale replicas. The Controller reports them as orphans
+ * in its heartbeat responses; they are deleted in small batches with a pause in between
+ * (and not at all while client reads or writes are in progress), so reclaiming the space of a large
+ * file does not cause a burst of disk activity.
+ */
+public class ChunkGarbageCollector extends Thread {
+    private static final Logger log = LogManager.getLogger(ChunkGarbageCollector.class);
+
+    private final ChunkServer chunkServer;
+    // chunkName, time the Controller first reported it as an orphan
+    private final ConcurrentHashMap<String, Long> orphanChunks;
+    // chunkName, highest version that may be deleted (stale replicas)
+    private final ConcurrentHashMap<String, Integer> orphanVersions;
+
+    private volatile boolean running;
+
+    // statistics
+    private volatile long chunksDeleted;
+    private volatile long bytesReclaimed;
+
+    public ChunkGarbageCollector(ChunkServer chunkServer) {
+        super("ChunkGarbageCollector");
+        setDaemon(true);
+        setPriority(Thread.MIN_PRIORITY);
+        this.chunkServer = chunkServer;
+        orphanChunks = new ConcurrentHashMap<>();
+        orphanVersions = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Queue chunks for deletion (chunks already queued keep their original time)
+     *
+     * @param versions highest version of each chunk that may be deleted
+     */
+    public void addOrphans(List<String> chunkNames, List<Integer> versions) {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < chunkNames.size(); i++) {
+            String chunkName = chunkNames.get(i);
+            orphanVersions.put(chunkName, i < versions.size() ? versions.get(i) : Integer.MAX_VALUE);
+            orphanChunks.putIfAbsent(chunkName, now);
+        }
+        log.debug("{} orphan chunks queued for deletion", orphanChunks.size());
+    }
+
+    @Override
+    public void run() {
+        running = true;
+        try {
+            while (running) {
+                if (orphanChunks.isEmpty()) {
+                    Thread.sleep(Constants.ChunkServer.GC_IDLE_INTERVAL);
+                    continue;
+                }
+                while (chunkServer.isForegroundIoActive()) {
+                    Thread.sleep(Constants.ChunkServer.SCRUB_YIELD_INTERVAL);
+                }
+
+                deleteBatch();
+                Thread.sleep(Constants.ChunkServer.GC_BATCH_INTERVAL);
+            }
+        } catch (InterruptedException e) {
+            log.info("Garbage collector interrupted");
+        }
+    }
+
+    public void stopCollecting() {
+        running = false;
+        interrupt();
+    }
+
+    private void deleteBatch() {
+        List<String> batch = new ArrayList<>(Constants.ChunkServer.GC_BATCH_SIZE);
+        Iterator<String> it = orphanChunks.keySet().iterator();
+        while (it.hasNext() && batch.size() < Constants.ChunkServer.GC_BATCH_SIZE) {
+            batch.add(it.next());
+        }
+
+        for (String chunkName : batch) {
+            Long orphanedSince = orphanChunks.remove(chunkName);
+            Integer maxVersion = orphanVersions.remove(chunkName);
+            if (orphanedSince == null) {
+                continue;
+            }
+            try {
+                long bytes = chunkServer.deleteChunk(chunkName, orphanedSince,
+                        maxVersion == null ? Integer.MAX_VALUE : maxVersion);
+                if (bytes >= 0) {
+                    chunksDeleted++;
+                    bytesReclaimed += bytes;
+                }
+            } catch (IOException e) {
+                log.error("Error deleting {}: {}", chunkName, e.getLocalizedMessage());
+            }
+        }
+    }
+
+    public void printStatus() {
+        System.out.printf("Garbage collector: {pending = %d, chunksDeleted = %d, bytesReclaimed = %d}%n",
+                orphanChunks.size(), chunksDeleted, bytesReclaimed);
+    }
+}
@@ -0,0 +1,34 @@
+package org.dfs.node.chunkServer;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Lock striping keyed by chunk name. Operations on different chunks run in parallel, concurrent
+ * reads of the same chunk share a read lock, and a write excludes everything else on that chunk.
+ * Chunk names are hashed onto a fixed number of stripes, so memory does not grow with the number of chunks.
+ */
+public class ChunkLocks {
+    private final ReentrantReadWriteLock[] stripes;
+
+    public ChunkLocks(int noOfStripes) {
+        stripes = new ReentrantReadWriteLock[noOfStripes];
+        for (int i = 0; i < noOfStripes; i++) {
+            stripes[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    public Lock readLock(String chunkName) {
+        return stripe(chunkName).readLock();
+    }
+
+    public Lock writeLock(String chunkName) {
+        return stripe(chunkName).writeLock();
+    }
+
+    private ReentrantReadWriteLock stripe(String chunkName) {
+        int h = chunkName.hashCode();
+        h ^= (h >>> 16); // chunk names of a file differ only in the last characters
+        return stripes[(h & 0x7fffffff) % stripes.length];
+    }
+}
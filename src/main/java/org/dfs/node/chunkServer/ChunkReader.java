@@ -0,0 +1,90 @@
+package org.dfs.node.chunkServer;
+
+import org.dfs.models.Chunk;
+import org.dfs.util.FileUtil;
+import org.dfs.util.compression.CompressionCodec;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Reads chunks written by {@link ChunkWriter}. Compressed chunks are decompressed as they are streamed
+ * from disk, so a range read only inflates the data up to the end of the range.
+ * Chunks without metadata are treated as stored uncompressed.
+ */
+public class ChunkReader {
+
+    private ChunkReader() {
+
+    }
+
+    /**
+     * Open a stream of the uncompressed chunk data
+     */
+    public static InputStream open(Path path, Chunk metadata) throws IOException {
+        return open(path, metadata, false);
+    }
+
+    /**
+     * @param directIo read around the page cache (see {@link DirectIo})
+     */
+    public static InputStream open(Path path, Chunk metadata, boolean directIo) throws IOException {
+        return getCodec(metadata).decompress(new BufferedInputStream(DirectIo.newInputStream(path, directIo)));
+    }
+
+    /**
+     * Uncompressed size of the chunk in bytes
+     */
+    public static int getLength(Path path, Chunk metadata) throws IOException {
+        if (getCodec(metadata) == CompressionCodec.NONE || metadata.getLength() < 0) {
+            return (int) Files.size(path);
+        }
+        return metadata.getLength();
+    }
+
+    public static byte[] readChunk(Path path, Chunk metadata) throws IOException {
+        if (getCodec(metadata) == CompressionCodec.NONE) {
+            return Files.readAllBytes(path);
+        }
+        try (InputStream in = open(path, metadata)) {
+            return in.readNBytes(metadata.getLength());
+        }
+    }
+
+    /**
+     * Read up to length bytes of uncompressed data, starting at position
+     */
+    public static byte[] readRange(Path path, Chunk metadata, long position, int length) throws IOException {
+        if (getCodec(metadata) == CompressionCodec.NONE) {
+            try (FileChannel channel = FileChannel.open(path)) {
+                return FileUtil.readRange(channel, position, length);
+            }
+        }
+        try (InputStream in = open(path, metadata)) {
+            skipFully(in, position);
+            return in.readNBytes(length);
+        }
+    }
+
+    private static void skipFully(InputStream in, long n) throws IOException {
+        while (n > 0) {
+            long skipped = in.skip(n);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException("Position beyond the end of the chunk");
+                }
+                skipped = 1;
+            }
+            n -= skipped;
+        }
+    }
+
+    private static CompressionCodec getCodec(Chunk metadata) {
+        return metadata == null ? CompressionCodec.NONE : metadata.getCodec();
+    }
+}
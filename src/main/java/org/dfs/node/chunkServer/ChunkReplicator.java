@@ -0,0 +1,212 @@
+package org.dfs.node.chunkServer;
+
+import org.dfs.models.Chunk;
+import org.dfs.transport.TCPConnection;
+import org.dfs.util.Constants;
+import org.dfs.util.FileUtil;
+import org.dfs.wireformats.ReplicateChunk;
+import org.dfs.wireformats.ReplicateChunkResponse;
+import org.dfs.wireformats.StoreChunkAck;
+import org.dfs.wireformats.StoreChunkPacket;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.zip.ZipException;
+
+/**
+ * Copies chunks to other ChunkServers when the Controller re-replicates an under-replicated chunk.
+ * The chunk is read and verified here first (a corrupted replica is reported instead of being copied), then sent
+ * to the target as the packets of a chain with no next chunk server, so the target stores it through its
+ * {@link ReplicationPipeline} and acknowledges it back here. The outcome is reported to the Controller.
+ */
+public class ChunkReplicator {
+    private static final Logger log = LogManager.getLogger(ChunkReplicator.class);
+
+    private final ChunkServer chunkServer;
+    private final ReplicationPipeline replicationPipeline;
+    // copies are read and sent one at a time, the Controller limits how many it asks for
+    private final ExecutorService copier;
+    // chunkName#version, copy waiting for the target's acknowledgement
+    private final ConcurrentHashMap<String, PendingCopy> pendingCopies;
+
+    // statistics
+    private final LongAdder copiesStored = new LongAdder();
+    private final LongAdder copiesFailed = new LongAdder();
+    private final LongAdder bytesCopied = new LongAdder();
+
+    public ChunkReplicator(ChunkServer chunkServer, ReplicationPipeline replicationPipeline) {
+        this.chunkServer = chunkServer;
+        this.replicationPipeline = replicationPipeline;
+        pendingCopies = new ConcurrentHashMap<>();
+        copier = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ChunkReplicator");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void replicate(ReplicateChunk request) {
+        copier.execute(() -> copy(request));
+    }
+
+    @SuppressWarnings("try")
+    private void copy(ReplicateChunk request) {
+        String chunkName = request.getChunkName();
+        Chunk chunkMetadata = chunkServer.getChunkMetadata(chunkName);
+        if (chunkMetadata == null) {
+            log.warn("No metadata stored for {}. It cannot be verified, so it is not copied", chunkName);
+            respond(request, StoreChunkAck.STATUS_FAILED, 0);
+            return;
+        }
+        if (request.getVersion() > 0 && chunkMetadata.getVersion() != request.getVersion()) {
+            log.warn("{} is at version {}, not version {}. Not copying it", chunkName, chunkMetadata.getVersion(),
+                    request.getVersion());
+            respond(request, StoreChunkAck.STATUS_FAILED, 0);
+            return;
+        }
+
+        byte[] data;
+        Lock lock = chunkServer.getChunkLocks().readLock(chunkName);
+        try (IoScheduler.Permit permit = chunkServer.getIoScheduler().acquire(IoScheduler.IoClass.REPAIR,
+                Constants.CHUNK_SIZE)) {
+            lock.lock();
+            try {
+                data = ChunkReader.readChunk(chunkServer.getChunkDir().resolve(chunkName), chunkMetadata);
+            } finally {
+                lock.unlock();
+            }
+        } catch (ZipException e) {
+            log.warn("Could not decompress {}: {}", chunkName, e.getLocalizedMessage());
+            chunkServer.reportChunkCorruption(chunkName);
+            respond(request, StoreChunkAck.STATUS_FAILED, 0);
+            return;
+        } catch (IOException e) {
+            log.error("Error reading {} to copy it: {}", chunkName, e.getLocalizedMessage());
+            respond(request, StoreChunkAck.STATUS_FAILED, 0);
+            return;
+        } catch (InterruptedException e) {
+            log.warn("Interrupted while waiting to read {}", chunkName);
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        // a corrupted replica would only spread the corruption
+        if (!FileUtil.hash(data, chunkMetadata.getChunkChecksumType()).equals(chunkMetadata.getChunkHash())) {
+            log.warn("{} is corrupted. Not copying it", chunkName);
+            chunkServer.reportChunkCorruption(chunkName);
+            respond(request, StoreChunkAck.STATUS_FAILED, 0);
+            return;
+        }
+
+        send(request, chunkMetadata.getFileName(), chunkMetadata.getSequenceNumber(), chunkMetadata.getVersion(),
+                data);
+    }
+
+    /**
+     * Send a chunk to the target of a copy; the outcome is reported to the Controller once the target
+     * acknowledges it (or does not in time)
+     */
+    void send(ReplicateChunk request, String fileName, int sequenceNumber, int version, byte[] data) {
+        String chunkName = request.getChunkName();
+        String key = chunkName + "#" + version;
+        PendingCopy copy = new PendingCopy(request, data.length);
+        pendingCopies.put(key, copy);
+        try {
+            TCPConnection connection = replicationPipeline.getConnection(request.getTargetHost(),
+                    request.getTargetPort());
+            for (StoreChunkPacket packet : StoreChunkPacket.packetize(fileName, sequenceNumber, version, data,
+                    new String[0], new int[0])) {
+                connection.sendData(packet.getBytes());
+            }
+            log.info("Copying {} ({} bytes) to {}:{}", chunkName, data.length, request.getTargetHost(),
+                    request.getTargetPort());
+        } catch (IOException e) {
+            log.error("Error copying {} to {}:{}: {}", chunkName, request.getTargetHost(), request.getTargetPort(),
+                    e.getLocalizedMessage());
+            if (pendingCopies.remove(key, copy)) {
+                respond(request, StoreChunkAck.STATUS_NO_ACK, 0);
+            }
+        }
+    }
+
+    /**
+     * Acknowledgement of a copy from its target
+     *
+     * @return false if the acknowledgement is not of a copy (it belongs to the replication pipeline)
+     */
+    public boolean onAck(StoreChunkAck ack) {
+        String key = ack.getFileName() + Constants.ChunkServer.EXT_DATA_CHUNK + ack.getSequenceNumber() + "#" +
+                ack.getVersion();
+        PendingCopy copy = pendingCopies.remove(key);
+        if (copy == null) {
+            return false;
+        }
+        int status = ack.getStatuses().isEmpty() ? StoreChunkAck.STATUS_FAILED : ack.getStatuses().get(0);
+        respond(copy.request, status, copy.bytes);
+        return true;
+    }
+
+    /**
+     * Report the copies the target has not acknowledged in time as failed
+     */
+    public void expireStalled() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, PendingCopy>> it = pendingCopies.entrySet().iterator();
+        while (it.hasNext()) {
+            PendingCopy copy = it.next().getValue();
+            if (now - copy.sentAt > Constants.ChunkServer.ACK_TIMEOUT) {
+                it.remove();
+                log.warn("Copy of {} was not acknowledged by {}:{} in time", copy.request.getChunkName(),
+                        copy.request.getTargetHost(), copy.request.getTargetPort());
+                respond(copy.request, StoreChunkAck.STATUS_NO_ACK, 0);
+            }
+        }
+    }
+
+    void respond(ReplicateChunk request, int status, long bytes) {
+        if (status == StoreChunkAck.STATUS_STORED) {
+            copiesStored.increment();
+            bytesCopied.add(bytes);
+        } else {
+            copiesFailed.increment();
+        }
+
+        ReplicateChunkResponse response = new ReplicateChunkResponse();
+        response.setChunkName(request.getChunkName());
+        response.setVersion(request.getVersion());
+        response.setTargetHost(request.getTargetHost());
+        response.setTargetPort(request.getTargetPort());
+        response.setStatus(status);
+        response.setBytesCopied(bytes);
+        try {
+            chunkServer.getControllerConnection().sendData(response.getBytes());
+        } catch (IOException e) {
+            log.error("Error reporting the copy of {}: {}", request.getChunkName(), e.getLocalizedMessage());
+        }
+    }
+
+    public void printStatus() {
+        System.out.printf("Re-replication copies: {pending = %d, stored = %d, failed = %d, bytesCopied = %d}%n",
+                pendingCopies.size(), copiesStored.sum(), copiesFailed.sum(), bytesCopied.sum());
+    }
+
+    private static class PendingCopy {
+        private final ReplicateChunk request;
+        private final long bytes;
+        private final long sentAt;
+
+        private PendingCopy(ReplicateChunk request, long bytes) {
+            this.request = request;
+            this.bytes = bytes;
+            sentAt = System.currentTimeMillis();
+        }
+    }
+}
@@ -9,11 +9,19 @@ import org.dfs.transport.TCPConnectionsCache;
 import org.dfs.transport.TCPServerThread;
 import org.dfs.util.Constants;
 import org.dfs.util.FileUtil;
+import org.dfs.util.checksum.ChecksumType;
+import org.dfs.util.checksum.Checksums;
+import org.dfs.util.compression.CompressionCodec;
 import org.dfs.wireformats.Event;
 import org.dfs.wireformats.FixCorruptChunk;
+import org.dfs.wireformats.HeartbeatResponse;
 import org.dfs.wireformats.LivenessHeartbeat;
 import org.dfs.wireformats.Protocol;
+import org.dfs.wireformats.RebuildStripe;
 import org.dfs.wireformats.RegisterChunkServer;
+import org.dfs.wireformats.RepairSlicesRequest;
+import org.dfs.wireformats.RepairSlicesResponse;
+import org.dfs.wireformats.ReplicateChunk;
 import org.dfs.wireformats.ReportChunkCorruption;
 import org.dfs.wireformats.ReportChunkServerRegistration;
 import org.dfs.wireformats.RetrieveChunkRequest;
@@ -21,6 +29,8 @@ import org.dfs.wireformats.RetrieveChunkResponse;
 import org.dfs.wireformats.SendMajorHeartbeat;
 import org.dfs.wireformats.SendMinorHeartbeat;
 import org.dfs.wireformats.StoreChunk;
+import org.dfs.wireformats.StoreChunkAck;
+import org.dfs.wireformats.StoreChunkPacket;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -28,23 +38,33 @@ import java.io.File;
 import java.io.IOException;
 import java.net.Socket;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.zip.ZipException;
 
 /**
  * Each chunk server will maintain a list of the files that it manages.
  * For each file, the chunk server will maintain information about the chunks that it holds
  * A chunk server will regularly send heartbeats to the controller node.
  * A given chunk server cannot hold more than one replica of a given chunk.
+ * Chunk files are guarded by per-chunk striped locks ({@link ChunkLocks}) rather than the
+ * chunk server's monitor, so requests for different chunks are served in parallel.
  */
 public class ChunkServer implements Node {
     private static final Logger log = LogManager.getLogger(ChunkServer.class);
@@ -54,24 +74,86 @@ public class ChunkServer implements Node {
     private final TCPConnectionsCache tcpConnectionsCache;
     private final InteractiveCommandParser commandParser;
 
-    private final HashMap<String, StoredFile> filesMap;
-    private final ConcurrentHashMap<String, ArrayList<String>> sliceHashesMap;
-    private final ConcurrentHashMap<String, String> chunkHashesMap;
-    private final ArrayList<String> chunks;
-    private final ArrayList<String> newChunks;
+    private final ConcurrentHashMap<String, StoredFile> filesMap;
+    // chunkName, Chunk (checksums and the algorithms used to compute them)
+    private final ConcurrentHashMap<String, Chunk> chunkMetadataMap;
+    private final Set<String> chunks;
+    private final Queue<String> newChunks;
+    // guards chunk files on disk (a chunk is only ever written under its write lock)
+    private final ChunkLocks chunkLocks;
+    // chunks that passed a full verification recently (reads of unchanged chunks skip re-hashing)
+    private final VerifiedChunkCache verifiedChunks;
+    // used/reserved/free bytes of the chunk directory
+    private final CapacityManager capacityManager;
+    // codec for new chunks (per file if set, the default otherwise)
+    private final ConcurrentHashMap<String, CompressionCodec> fileCompressionCodecs;
+    private volatile CompressionCodec defaultCompressionCodec;
+    // bypass the page cache when writing ingested chunks and scrubbing
+    private volatile boolean directIo;
     private volatile int prevChunkSize;
 
+    // number of client reads/writes in progress (background work backs off while non-zero)
+    private final AtomicInteger foregroundIo;
+    // orders disk I/O by traffic class
+    private final IoScheduler ioScheduler;
+    private final IntegrityScrubber scrubber;
+    // prefetches the next chunks of files being read sequentially
+    private final ReadAheadManager readAhead;
+    // stores chunks packet by packet while forwarding them along the replication chain
+    private final ReplicationPipeline replicationPipeline;
+    // copies chunks to other chunk servers when the Controller re-replicates them
+    private final ChunkReplicator chunkReplicator;
+    // rebuilds lost stripes of erasure-coded files from the other stripes when the Controller asks for it
+    private final StripeRebuilder stripeRebuilder;
+    // repairs corrupted chunks from other replicas, fetching only their corrupted slices
+    private final SliceRepairer sliceRepairer;
+    // recent reads per chunk, the hottest are reported in major heartbeats
+    private final AccessStatistics accessStatistics;
+    private final ChunkGarbageCollector garbageCollector;
+
     private final String hostName;
+    // "/zone/rack" registered with the Controller (empty: the Controller looks the host up in its topology)
+    private final String location;
+    // directory the chunks (and their metadata) are stored in
+    private final Path chunkDir;
 
     public ChunkServer(Socket controllerSocket, int port) throws IOException {
+        this(controllerSocket, port, "");
+    }
+
+    public ChunkServer(Socket controllerSocket, int port, String location) throws IOException {
+        this(controllerSocket, port, location, Paths.get(Constants.CHUNK_DIR));
+    }
+
+    /**
+     * @param chunkDir directory to store chunks in (each ChunkServer needs its own when several run on one host)
+     */
+    public ChunkServer(Socket controllerSocket, int port, String location, Path chunkDir) throws IOException {
         log.info("Initializing ChunkServer on {}", System.getenv("HOSTNAME"));
+        this.location = location;
+        this.chunkDir = chunkDir;
         controllerConnection = new TCPConnection(controllerSocket, this);
-        filesMap = new HashMap<>();
-        chunks = new ArrayList<>();
-        newChunks = new ArrayList<>();
+        filesMap = new ConcurrentHashMap<>();
+        chunks = ConcurrentHashMap.newKeySet();
+        newChunks = new ConcurrentLinkedQueue<>();
+        chunkLocks = new ChunkLocks(Constants.ChunkServer.CHUNK_LOCK_STRIPES);
+        verifiedChunks = new VerifiedChunkCache(Constants.ChunkServer.VERIFIED_CHUNK_FRESHNESS);
+        capacityManager = new CapacityManager(chunkDir);
+        fileCompressionCodecs = new ConcurrentHashMap<>();
+        defaultCompressionCodec = Constants.ChunkServer.COMPRESSION_CODEC;
+        directIo = Constants.ChunkServer.DIRECT_IO;
         prevChunkSize = 0;
-        sliceHashesMap = new ConcurrentHashMap<>();
-        chunkHashesMap = new ConcurrentHashMap<>();
+        chunkMetadataMap = new ConcurrentHashMap<>();
+        foregroundIo = new AtomicInteger();
+        ioScheduler = new IoScheduler(Constants.ChunkServer.IO_SCHEDULER_SLOTS);
+        scrubber = new IntegrityScrubber(this);
+        readAhead = new ReadAheadManager(this);
+        replicationPipeline = new ReplicationPipeline(this);
+        chunkReplicator = new ChunkReplicator(this, replicationPipeline);
+        stripeRebuilder = new StripeRebuilder(replicationPipeline, chunkReplicator);
+        sliceRepairer = new SliceRepairer(this, replicationPipeline);
+        accessStatistics = new AccessStatistics(Constants.ChunkServer.ACCESS_CANDIDATES);
+        garbageCollector = new ChunkGarbageCollector(this);
         hostName = controllerSocket.getLocalAddress().getHostName();
 
         tcpConnectionsCache = new TCPConnectionsCache();
@@ -81,40 +163,83 @@ public class ChunkServer implements Node {
     }
 
     public void initialize() {
+        initFilesFromDisk();
+        capacityManager.initialize();
+
         tcpServerThread.start();
         commandParser.start();
-
-        // initFilesFromDisk();
+        scrubber.start();
+        garbageCollector.start();
 
         Timer minorTimer = new Timer();
         minorTimer.schedule(new MinorHeartbeat(), 0, Constants.ChunkServer.MINOR_HEARTBEAT_INTERVAL);
 
         Timer majorTimer = new Timer();
         majorTimer.schedule(new MajorHeartbeat(), 0, Constants.ChunkServer.MAJOR_HEARTBEAT_INTERVAL);
+
+        Timer accessDecayTimer = new Timer();
+        accessDecayTimer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                accessStatistics.decay();
+            }
+        }, Constants.ChunkServer.ACCESS_DECAY_INTERVAL, Constants.ChunkServer.ACCESS_DECAY_INTERVAL);
+
+        Timer pipelineTimer = new Timer();
+        pipelineTimer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                replicationPipeline.expireStalled();
+                chunkReplicator.expireStalled();
+                stripeRebuilder.expireStalled();
+                sliceRepairer.expireStalled();
+            }
+        }, Constants.ChunkServer.ACK_TIMEOUT, Constants.ChunkServer.ACK_TIMEOUT);
     }
 
     /**
-     * Read stored chunks upon start up
+     * Read stored chunks (and their checksum metadata) upon start up
      */
     private void initFilesFromDisk() {
         log.info("Reading files from disk");
-        File dir = new File(Constants.CHUNK_DIR);
+        File dir = chunkDir.toFile();
         String[] files = dir.list();
+        if (files != null) {
+            // before uncommitted chunks are removed: they tell which interrupted commits did not rename the chunk
+            for (String f : files) {
+                if (f.endsWith(Constants.ChunkServer.EXT_TEMP + Constants.ChunkServer.EXT_METADATA)) {
+                    recoverPendingMetadata(f);
+                }
+            }
+            files = dir.list();
+        }
         if (files != null) {
             for (String f : files) {
-                if (f.contains(Constants.ChunkServer.EXT_DATA_CHUNK)) {
+                if (f.endsWith(Constants.ChunkServer.EXT_TEMP)) {
+                    // write interrupted before it was committed. The previous version (if any) is intact
+                    log.info("Removing uncommitted chunk {}", f);
+                    try {
+                        Files.deleteIfExists(chunkDir.resolve(f));
+                    } catch (IOException e) {
+                        log.error("Error removing {}: {}", f, e.getLocalizedMessage());
+                    }
+                } else if (isChunkFile(f)) {
                     chunks.add(f);
 
-                    // populate filesMap
-                    /*
-                    String fileName = FileUtil.getFileNameFromChunkName(f);
-                    if (filesMap.containsKey(fileName)) {
-                        StoredFile storedFile = filesMap.get(fileName);
-                        ArrayList<Chunk> chunks = storedFile.getChunks();
-                    } else {
+                    Path metadataPath = chunkDir.resolve(f + Constants.ChunkServer.EXT_METADATA);
+                    if (!Files.exists(metadataPath)) {
+                        log.warn("No metadata found for {}. Its integrity cannot be verified", f);
+                        continue;
+                    }
 
+                    try {
+                        Chunk chunkObj = new Chunk(Files.readAllBytes(metadataPath));
+                        chunkMetadataMap.put(f, chunkObj);
+                        filesMap.computeIfAbsent(chunkObj.getFileName(), StoredFile::new).addChunk(chunkObj);
+                    } catch (IOException e) {
+                        log.error("Error reading metadata of {}", f);
+                        log.error(e.getLocalizedMessage());
                     }
-                     */
                 }
             }
             prevChunkSize = chunks.size();
@@ -123,17 +248,55 @@ public class ChunkServer implements Node {
         }
     }
 
+    /**
+     * Complete or undo a commit interrupted between renaming the chunk into place and renaming its metadata:
+     * the chunk has been renamed if its temporary file is gone
+     */
+    private void recoverPendingMetadata(String pendingName) {
+        Path pendingMetadataPath = chunkDir.resolve(pendingName);
+        Path tempPath = chunkDir.resolve(
+                pendingName.substring(0, pendingName.length() - Constants.ChunkServer.EXT_METADATA.length()));
+        try {
+            Chunk chunkObj;
+            try {
+                chunkObj = new Chunk(Files.readAllBytes(pendingMetadataPath));
+            } catch (IOException e) {
+                // only complete metadata (forced to disk) is ever followed by the rename of the chunk
+                log.info("Removing incomplete metadata {}", pendingName);
+                Files.delete(pendingMetadataPath);
+                return;
+            }
+            if (Files.exists(tempPath) || !Files.exists(chunkDir.resolve(chunkObj.getName()))) {
+                log.info("Removing metadata of uncommitted version {} of {}", chunkObj.getVersion(),
+                        chunkObj.getName());
+                Files.delete(pendingMetadataPath);
+                return;
+            }
+            log.info("Completing the commit of version {} of {}", chunkObj.getVersion(), chunkObj.getName());
+            Files.move(pendingMetadataPath, chunkDir.resolve(chunkObj.getName() + Constants.ChunkServer.EXT_METADATA),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error("Error recovering {}: {}", pendingName, e.getLocalizedMessage());
+        }
+    }
+
+    private static boolean isChunkFile(String fileName) {
+        return fileName.contains(Constants.ChunkServer.EXT_DATA_CHUNK) &&
+                !fileName.endsWith(Constants.ChunkServer.EXT_METADATA) &&
+                !fileName.endsWith(Constants.ChunkServer.EXT_TEMP);
+    }
+
 
     /**
      * Read stored chunks at any time by minorHeartBeat
      */
     private void ReadFilesFromDisk() {
         log.info("Reading files from disk");
-        File dir = new File(Constants.CHUNK_DIR);
+        File dir = chunkDir.toFile();
         String[] files = dir.list();
         if (files != null) {
             for (String f : files) {
-                if (f.contains(Constants.ChunkServer.EXT_DATA_CHUNK)) {
+                if (isChunkFile(f)) {
                     chunks.add(f);
 
                     // populate filesMap
@@ -156,17 +319,20 @@ public class ChunkServer implements Node {
     public static void main(String[] args) throws IOException {
         if (args.length < 3) {
             System.out.println("Not enough arguments to start ChunkServer. " +
-                    "Enter <controller-host> and <controller-port> <chunk-server-port>");
+                    "Enter <controller-host> and <controller-port> <chunk-server-port> [<location>]");
             System.exit(1);
-        } else if (args.length > 3) {
-            System.out.println("Invalid number of arguments. Provide <controller-host> <controller-port> <chunk-server-port>");
+        } else if (args.length > 4) {
+            System.out.println("Invalid number of arguments. " +
+                    "Provide <controller-host> <controller-port> <chunk-server-port> [<location>]");
         }
 
         String controllerHost = args[0];
         int controllerPort = Integer.parseInt(args[1]);
         int chunkServerPort = Integer.parseInt(args[2]);
+        // e.g. /zone-a/rack-1
+        String location = args.length > 3 ? args[3] : "";
         Socket controllerSocket = new Socket(controllerHost, controllerPort);
-        ChunkServer chunkServer = new ChunkServer(controllerSocket, chunkServerPort);
+        ChunkServer chunkServer = new ChunkServer(controllerSocket, chunkServerPort, location);
         chunkServer.initialize();
         TCPConnection tcpConnection;
         if (chunkServer.tcpConnectionsCache.containsConnection(controllerSocket)) {
@@ -186,6 +352,7 @@ public class ChunkServer implements Node {
         registerChunkServer.setIpAddress(controllerConnection.getSocket()
                 .getLocalAddress().getAddress());
         registerChunkServer.setPort(tcpServerThread.getListeningPort());
+        registerChunkServer.setLocation(location);
         registerChunkServer.setSocket(controllerConnection.getSocket());
 
         controllerConnection.sendData(registerChunkServer.getBytes());
@@ -205,27 +372,38 @@ public class ChunkServer implements Node {
                 handleControllerRegistrationResponse(event);
                 break;
             case Protocol.STORE_CHUNK:
-                try {
-                    handleStoreChunk(event);
-                } catch (IOException e) {
-                    log.error("Error storing chunk");
-                    log.error(e.getLocalizedMessage());
-                    e.printStackTrace();
+                handleStoreChunk(event);
+                break;
+            case Protocol.STORE_CHUNK_PACKET:
+                handleStoreChunkPacket(event);
+                break;
+            case Protocol.STORE_CHUNK_ACK:
+                if (!chunkReplicator.onAck((StoreChunkAck) event)) {
+                    replicationPipeline.onAck((StoreChunkAck) event);
                 }
                 break;
+            case Protocol.REPLICATE_CHUNK:
+                chunkReplicator.replicate((ReplicateChunk) event);
+                break;
+            case Protocol.REBUILD_STRIPE:
+                stripeRebuilder.rebuild((RebuildStripe) event);
+                break;
             case Protocol.RETRIEVE_CHUNK_REQUEST:
                 handleRetrieveChunkRequest(event);
                 break;
             case Protocol.FIX_CORRUPT_CHUNK:
-                try {
-                    handleFixCorruptChunk(event);
-                } catch (IOException e) {
-                    log.error("Error storing chunk");
-                    log.error(e.getLocalizedMessage());
-                    e.printStackTrace();
-                }
+                handleFixCorruptChunk(event);
+                break;
+            case Protocol.REPAIR_SLICES_REQUEST:
+                sliceRepairer.serve((RepairSlicesRequest) event);
+                break;
+            case Protocol.REPAIR_SLICES_RESPONSE:
+                sliceRepairer.onResponse((RepairSlicesResponse) event);
                 break;
             case Protocol.RETRIEVE_CHUNK_RESPONSE:
+                if (stripeRebuilder.onResponse((RetrieveChunkResponse) event)) {
+                    break;
+                }
                 try {
                     handleFixCorruptChunkResponse(event);
                 } catch (IOException e) {
@@ -237,11 +415,78 @@ public class ChunkServer implements Node {
             case Protocol.LIVENESS_HEARTBEAT:
                 handleLivenessHeartbeat(event);
                 break;
+            case Protocol.HEARTBEAT_RESPONSE:
+                handleHeartbeatResponse(event);
+                break;
             default:
                 log.warn("Unknown event type: {}", type);
         }
     }
 
+    /**
+     * Queue chunks of deleted files and stale replicas for deletion (they are deleted in the background)
+     */
+    private void handleHeartbeatResponse(Event event) {
+        HeartbeatResponse response = (HeartbeatResponse) event;
+        ArrayList<String> orphanChunks = response.getOrphanChunks();
+        if (!orphanChunks.isEmpty()) {
+            log.info("Controller reported {} orphan chunks", orphanChunks.size());
+            garbageCollector.addOrphans(orphanChunks, response.getOrphanVersions());
+        }
+    }
+
+    /**
+     * Delete a chunk and its metadata, unless it has been written again since the Controller reported it as
+     * an orphan (the file has been added again, or a newer version of a stale replica has been stored)
+     *
+     * @param maxVersion highest version of the chunk that may be deleted
+     * @return bytes reclaimed, -1 if the chunk was kept
+     */
+    long deleteChunk(String chunkName, long orphanedSince, int maxVersion) throws IOException {
+        Path chunkPath = chunkDir.resolve(chunkName);
+        Lock lock = chunkLocks.writeLock(chunkName);
+        lock.lock();
+        try {
+            if (Files.exists(chunkPath) && Files.getLastModifiedTime(chunkPath).toMillis() > orphanedSince) {
+                log.info("{} was written after it was reported as an orphan. Keeping it", chunkName);
+                return -1;
+            }
+            Chunk chunkMetadata = chunkMetadataMap.get(chunkName);
+            if (chunkMetadata != null && chunkMetadata.getVersion() > maxVersion) {
+                log.info("{} is at version {}, newer than the orphaned version {}. Keeping it",
+                        chunkName, chunkMetadata.getVersion(), maxVersion);
+                return -1;
+            }
+
+            long size = capacityManager.sizeOnDisk(chunkName);
+            Files.deleteIfExists(chunkPath);
+            Files.deleteIfExists(chunkDir.resolve(chunkName + Constants.ChunkServer.EXT_METADATA));
+            capacityManager.updateUsed(size, 0);
+
+            chunks.remove(chunkName);
+            chunkMetadataMap.remove(chunkName);
+            verifiedChunks.invalidate(chunkName);
+            readAhead.invalidate(chunkName);
+            accessStatistics.remove(chunkName);
+            String fileName = FileUtil.getFileNameFromChunkName(chunkName);
+            StoredFile storedFile = filesMap.get(fileName);
+            if (storedFile != null) {
+                storedFile.removeChunk(chunkName);
+                if (storedFile.getChunks().isEmpty()) {
+                    filesMap.remove(fileName, storedFile);
+                }
+            }
+            log.info("Deleted orphan chunk {} ({} bytes)", chunkName, size);
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void printGarbageCollectorStatus() {
+        garbageCollector.printStatus();
+    }
+
     private void handleLivenessHeartbeat(Event event) {
         log.debug("Liveness Heartbeat");
     }
@@ -252,8 +497,32 @@ public class ChunkServer implements Node {
      *
      * @param event
      */
-    private synchronized void handleRetrieveChunkRequest(Event event) {
+    private void handleRetrieveChunkRequest(Event event) {
         RetrieveChunkRequest request = (RetrieveChunkRequest) event;
+        Lock lock = chunkLocks.readLock(request.getChunkName());
+        long bytes = request.getLength() == RetrieveChunkRequest.TO_END_OF_CHUNK ?
+                Constants.CHUNK_SIZE : request.getLength();
+        foregroundIo.incrementAndGet();
+        try (IoScheduler.Permit permit = ioScheduler.acquire(IoScheduler.IoClass.FOREGROUND, bytes)) {
+            lock.lock();
+            try {
+                retrieveChunk(request, permit);
+            } finally {
+                lock.unlock();
+            }
+        } catch (InterruptedException e) {
+            log.warn("Interrupted while waiting to read {}", request.getChunkName());
+            Thread.currentThread().interrupt();
+        } finally {
+            foregroundIo.decrementAndGet();
+        }
+    }
+
+    /**
+     * @param permit disk permit of the read; it is released as soon as the chunk is read, so verifying the chunk
+     *               and sending it to the client do not keep other reads off the disk
+     */
+    private void retrieveChunk(RetrieveChunkRequest request, IoScheduler.Permit permit) {
         String chunkName = request.getChunkName();
         log.debug("Searching for Chunk: {}", chunkName);
         boolean chunkFound = chunks.contains(chunkName);
@@ -265,87 +534,318 @@ public class ChunkServer implements Node {
 
         // send requested chunk to client
         try {
-            byte[] chunkOnDisk = FileUtil.readFileAsBytes(Constants.CHUNK_DIR + File.separator + chunkName);
-
-            // verify the integrity of each slice of the chunks
-            // (verify slices on disks against the stored ones)
-            ArrayList<String> sliceHashes = FileUtil.getSliceHashesFromChunk(chunkOnDisk);
-            ArrayList<String> storedSliceHashes = sliceHashesMap.get(chunkName);  //if chunk server is restarted sliceHashMap might be empty
-            assert sliceHashes.size() == storedSliceHashes.size();
             boolean corrupted = false;
             boolean corruptedChunk = false;
-            int sliceHashSize = sliceHashes.size();
-            if (storedSliceHashes.size() < sliceHashSize) {  // if more information is deleted from the chunk there might not have 8 slices always
-                sliceHashSize = storedSliceHashes.size();
-            }
-
-            for (int i = 0; i < sliceHashSize; i++) {
-                if (!sliceHashes.get(i).equals(storedSliceHashes.get(i))) {
-                    log.warn("Slice {} of {} is corrupted", (i + 1), chunkName);
-                    corrupted = true;
+            int offset = request.getOffset();
+            byte[] data;
+            String expectedHash;
+            ChecksumType chunkHashType;
+
+            Chunk chunkMetadata = chunkMetadataMap.get(chunkName);
+            Path chunkPath = chunkDir.resolve(chunkName);
+            // identity of the file before reading it; any later change will not match the cached one
+            BasicFileAttributes attributes = Files.readAttributes(chunkPath, BasicFileAttributes.class);
+            // (uncompressed) chunk data if it was prefetched, and prefetch of the next chunks of the file
+            byte[] prefetched = readAhead.onRead(chunkName, attributes);
+            if (!request.isWholeChunk()) {
+                // read and verify only the 8KB slices overlapping the requested range
+                int chunkSize = ChunkReader.getLength(chunkPath, chunkMetadata);
+                int end = request.getLength() == RetrieveChunkRequest.TO_END_OF_CHUNK ? chunkSize :
+                        (int) Math.min(chunkSize, (long) offset + request.getLength());
+                offset = Math.min(offset, end);
+
+                int firstSlice = offset / Constants.SLICE_SIZE;
+                int alignedStart = firstSlice * Constants.SLICE_SIZE;
+                int alignedEnd = (int) Math.min(chunkSize,
+                        ((end + Constants.SLICE_SIZE - 1L) / Constants.SLICE_SIZE) * Constants.SLICE_SIZE);
+                // (compressed chunks are inflated only up to the end of the range)
+                byte[] slices = prefetched != null ? Arrays.copyOfRange(prefetched, alignedStart, alignedEnd) :
+                        ChunkReader.readRange(chunkPath, chunkMetadata, alignedStart, alignedEnd - alignedStart);
+                permit.close();
+
+                if (chunkMetadata == null) {
+                    log.warn("No checksums stored for {}. Skipping verification", chunkName);
+                } else if (verifiedChunks.isVerified(chunkName, attributes, slices.length)) {
+                    log.debug("{} was verified recently. Skipping slice verification", chunkName);
+                } else {
+                    long start = System.nanoTime();
+                    corrupted = !verifySlices(chunkName, chunkMetadata, slices, firstSlice);
+                    verifiedChunks.addVerificationCost(slices.length, System.nanoTime() - start);
                 }
-            }
-
-            if (!corrupted) {
-                log.debug("{}'s integrity confirmed through slices!", chunkName);
+                data = Arrays.copyOfRange(slices, offset - alignedStart, end - alignedStart);
+                log.debug("Read {} bytes at offset {} of {} (slices {}-{})", data.length, offset, chunkName,
+                        firstSlice + 1, alignedEnd / Constants.SLICE_SIZE);
+
+                // the full-chunk digest does not cover a partial read, so send a digest of the verified bytes
+                chunkHashType = chunkMetadata == null ?
+                        Constants.ChunkServer.CHUNK_CHECKSUM_TYPE : chunkMetadata.getChunkChecksumType();
+                expectedHash = FileUtil.hash(data, chunkHashType);
+            } else if (chunkMetadata == null) {
+                data = prefetched != null ? prefetched : ChunkReader.readChunk(chunkPath, null);
+                permit.close();
+
+                // chunk was stored without metadata; there is nothing to verify it against
+                log.warn("No checksums stored for {}. Skipping verification", chunkName);
+                chunkHashType = Constants.ChunkServer.CHUNK_CHECKSUM_TYPE;
+                expectedHash = FileUtil.hash(data, chunkHashType);
             } else {
-                log.warn("{} is corrupted", chunkName);
-            }
+                data = prefetched != null ? prefetched : ChunkReader.readChunk(chunkPath, chunkMetadata);
+                permit.close();
+                chunkHashType = chunkMetadata.getChunkChecksumType();
+                expectedHash = chunkMetadata.getChunkHash();
+
+                if (verifiedChunks.isVerified(chunkName, attributes, data.length)) {
+                    log.debug("{} was verified recently. Skipping verification", chunkName);
+                } else {
+                    long start = System.nanoTime();
+
+                    // verify the integrity of each slice of the chunks
+                    // (verify slices on disks against the stored ones, using the algorithm recorded for the chunk)
+                    corrupted = !verifySlices(chunkName, chunkMetadata, data, 0);
+
+                    // verity hash of the entire chunk
+                    String readHash = FileUtil.hash(data, chunkHashType);
+                    if (!expectedHash.equals(readHash)) {
+                        log.warn("Chunk hashes do not match for {}", chunkName);
+                        corruptedChunk = true;
+                    } else {
+                        log.debug("{}'s integrity confirmed!", chunkName);
+                    }
 
-            // verity hash of the entire chunk
-            String readHash = FileUtil.hash(chunkOnDisk);
-            String expectedHash = chunkHashesMap.get(chunkName);
-            if (!expectedHash.equals(readHash)) {
-                log.warn("Chunk hashes do not match for {}", chunkName);
-                corruptedChunk = true;
-            } else {
-                log.debug("{}'s integrity confirmed!", chunkName);
+                    verifiedChunks.addVerificationCost(data.length, System.nanoTime() - start);
+                    if (!corrupted && !corruptedChunk) {
+                        verifiedChunks.markVerified(chunkName, attributes);
+                    }
+                }
             }
 
             //Corruption handling.......
             //if(request.getSocket().getInetAddress().getHostName().contains("pollock")){
             if (corrupted | corruptedChunk) {
-                //notify Controller
-                ReportChunkCorruption reportChunkCorruption = new ReportChunkCorruption();
-                reportChunkCorruption.setChunkName(chunkName);
-                try {
-                    log.info("ChunkServer {} is notifying controller about chunk corruption", hostName);
-                    controllerConnection.sendData(reportChunkCorruption.getBytes());
-                } catch (IOException e) {
-                    log.error(e.getLocalizedMessage());
-                    e.printStackTrace();
-                }
+                reportChunkCorruption(chunkName);
+                // the client reads another replica instead
+                sendRetrieveChunkFailure(request, RetrieveChunkResponse.STATUS_CORRUPTED);
+                return;
             }
 
-            // Using a sleep time the chunk information can be again read for the corrected chunk
-            //Now the corrupted chunk will be passed to see the reflection from clientpull
-
             RetrieveChunkResponse response = new RetrieveChunkResponse();
             response.setChunkName(chunkName);
-            response.setChunk(chunkOnDisk);
+            response.setChunk(data);
+            response.setOffset(offset);
             //response.setChunkHash(readHash);
 
             response.setChunkHash(expectedHash);
+            response.setChunkHashType(chunkHashType);
+            response.setVersion(chunkMetadata == null ? 0 : chunkMetadata.getVersion());
 
-            Socket clientSocket = request.getSocket();
-            TCPConnection clientConnection;
-            if (tcpConnectionsCache.containsConnection(clientSocket)) {
-                clientConnection = tcpConnectionsCache.getConnection(clientSocket);
-            } else {
-                log.warn("Connection does not exist in cache");
-                clientConnection = new TCPConnection(clientSocket, this);
-            }
-
-            clientConnection.sendData(response.getBytes());
+            sendRetrieveChunkResponse(request, response);
+            accessStatistics.recordRead(chunkName, data.length);
             log.info("Sending {} to client", chunkName);
+        } catch (ZipException e) {
+            // compressed data on disk is damaged
+            log.warn("Could not decompress {}: {}", chunkName, e.getLocalizedMessage());
+            reportChunkCorruption(chunkName);
+            sendRetrieveChunkFailure(request, RetrieveChunkResponse.STATUS_CORRUPTED);
         } catch (IOException e) {
             log.error("Error reading {}", chunkName);
+            log.error(e.getLocalizedMessage());
+            sendRetrieveChunkFailure(request, RetrieveChunkResponse.STATUS_NOT_FOUND);
+        }
+    }
+
+    private void sendRetrieveChunkResponse(RetrieveChunkRequest request, RetrieveChunkResponse response)
+            throws IOException {
+        Socket clientSocket = request.getSocket();
+        TCPConnection clientConnection;
+        if (tcpConnectionsCache.containsConnection(clientSocket)) {
+            clientConnection = tcpConnectionsCache.getConnection(clientSocket);
+        } else {
+            log.warn("Connection does not exist in cache");
+            clientConnection = new TCPConnection(clientSocket, this);
+        }
+        clientConnection.sendData(response.getBytes());
+    }
+
+    /**
+     * Tell the reader right away that the chunk cannot be served from here, rather than leaving it waiting
+     */
+    private void sendRetrieveChunkFailure(RetrieveChunkRequest request, int status) {
+        RetrieveChunkResponse response = new RetrieveChunkResponse();
+        response.setChunkName(request.getChunkName());
+        response.setChunk(new byte[0]);
+        response.setChunkHash("");
+        response.setOffset(request.getOffset());
+        response.setStatus(status);
+        try {
+            sendRetrieveChunkResponse(request, response);
+        } catch (IOException e) {
+            log.error("Error telling the reader that {} cannot be read: {}", request.getChunkName(),
+                    e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Notify the Controller that a chunk is corrupted, so it can be fixed from another replica
+     */
+    void reportChunkCorruption(String chunkName) {
+        verifiedChunks.invalidate(chunkName);
+        readAhead.invalidate(chunkName);
+        ReportChunkCorruption reportChunkCorruption = new ReportChunkCorruption();
+        reportChunkCorruption.setChunkName(chunkName);
+        try {
+            log.info("ChunkServer {} is notifying controller about chunk corruption", hostName);
+            controllerConnection.sendData(reportChunkCorruption.getBytes());
+        } catch (IOException e) {
             log.error(e.getLocalizedMessage());
             e.printStackTrace();
         }
     }
 
-    private synchronized void handleFixCorruptChunk(Event event) throws IOException {
+    Chunk getChunkMetadata(String chunkName) {
+        return chunkMetadataMap.get(chunkName);
+    }
+
+    List<String> getChunkNames() {
+        return new ArrayList<>(chunks);
+    }
+
+    /**
+     * Sequence numbers of the chunks of a file stored on this ChunkServer, in ascending order
+     */
+    List<Integer> getStoredSequenceNumbers(String fileName) {
+        StoredFile storedFile = filesMap.get(fileName);
+        if (storedFile == null) {
+            return Collections.emptyList();
+        }
+        List<Integer> sequenceNumbers = new ArrayList<>();
+        for (Chunk chunk : storedFile.getChunks()) {
+            sequenceNumbers.add(chunk.getSequenceNumber());
+        }
+        Collections.sort(sequenceNumbers);
+        return sequenceNumbers;
+    }
+
+    public void printReadAheadStatus() {
+        readAhead.printStatus();
+    }
+
+    public void printAccessStatistics() {
+        accessStatistics.printStatus();
+    }
+
+    ChunkLocks getChunkLocks() {
+        return chunkLocks;
+    }
+
+    boolean isForegroundIoActive() {
+        return foregroundIo.get() > 0;
+    }
+
+    boolean isDirectIo() {
+        return directIo;
+    }
+
+    public void setDirectIo(boolean directIo) {
+        this.directIo = directIo;
+        log.info("Direct I/O for ingest and scrubbing {}", directIo ? "enabled" : "disabled");
+    }
+
+    public void printDirectIoStatus() {
+        DirectIo.printStatus(directIo);
+    }
+
+    IoScheduler getIoScheduler() {
+        return ioScheduler;
+    }
+
+    public void printIoSchedulerStatus() {
+        ioScheduler.printStatus();
+    }
+
+    public void setIoBandwidthCapMB(IoScheduler.IoClass ioClass, long megabytesPerSecond) {
+        ioScheduler.setBandwidthCapMB(ioClass, megabytesPerSecond);
+    }
+
+    public void printScrubStatus() {
+        scrubber.printStatus();
+    }
+
+    public void setScrubBandwidthMB(long megabytesPerSecond) {
+        scrubber.setBandwidthMB(megabytesPerSecond);
+    }
+
+    /**
+     * Codec for new chunks of a file: the file's own policy if one was set, the ChunkServer default otherwise
+     */
+    private CompressionCodec getCompressionCodec(String fileName) {
+        return fileCompressionCodecs.getOrDefault(fileName, defaultCompressionCodec);
+    }
+
+    /**
+     * @param fileName null to change the default for all files
+     */
+    public void setCompressionCodec(String fileName, CompressionCodec codec) {
+        if (fileName == null) {
+            defaultCompressionCodec = codec;
+            log.info("Compression codec for new chunks set to {}", codec);
+        } else {
+            fileCompressionCodecs.put(fileName, codec);
+            log.info("Compression codec for new chunks of {} set to {}", fileName, codec);
+        }
+    }
+
+    /**
+     * Uncompressed bytes per byte on disk, over all chunks of known size (1.0 if nothing is compressed)
+     */
+    double getCompressionRatio() {
+        long length = 0;
+        long storedLength = 0;
+        for (Chunk chunk : chunkMetadataMap.values()) {
+            if (chunk.getLength() >= 0 && chunk.getStoredLength() > 0) {
+                length += chunk.getLength();
+                storedLength += chunk.getStoredLength();
+            }
+        }
+        return storedLength == 0 ? 1.0 : (double) length / storedLength;
+    }
+
+    public void printVerificationStats() {
+        verifiedChunks.printStatus();
+    }
+
+    /**
+     * Verify consecutive slices (the first one being slice number firstSlice of the chunk)
+     * against the checksums stored for the chunk
+     *
+     * @return true if all slices are intact
+     */
+    private boolean verifySlices(String chunkName, Chunk chunkMetadata, byte[] slices, int firstSlice) {
+        ArrayList<String> storedSliceHashes = chunkMetadata.getSliceHashes();
+        boolean intact = true;
+
+        // if more information is deleted from the chunk there might not have 8 slices always
+        for (int i = firstSlice, pos = 0; pos < slices.length && i < storedSliceHashes.size();
+             i++, pos += Constants.SLICE_SIZE) {
+            int length = Math.min(Constants.SLICE_SIZE, slices.length - pos);
+            String sliceHash = Checksums.hash(chunkMetadata.getSliceChecksumType(), slices, pos, length);
+            if (!sliceHash.equals(storedSliceHashes.get(i))) {
+                log.warn("Slice {} of {} is corrupted", (i + 1), chunkName);
+                intact = false;
+            }
+        }
+
+        if (intact) {
+            log.debug("{}'s integrity confirmed through slices!", chunkName);
+        } else {
+            log.warn("{} is corrupted", chunkName);
+        }
+        return intact;
+    }
+
+    /**
+     * The Controller found a replica to fix a corrupted chunk from: fetch the corrupted slices from it
+     */
+    private void handleFixCorruptChunk(Event event) {
 
         FixCorruptChunk fixCorruptChunkInfo = (FixCorruptChunk) event;
 
@@ -363,12 +863,13 @@ public class ChunkServer implements Node {
         log.info("Replica ChunkServer information for Corrupted ChunkName '{}':  hosts={}, ports={}, hostNames={}",
                 chunkName, chunkServerHost, chunkServerPort, chunkServerHostName);
 
-        // sanity check
-        //  assert (chunkServerHosts.length == chunkServerPorts.length &&
-        //         chunkServerHosts.length == chunkServerHostNames.length);
-
-        // contact chunk servers and retrieve the chunks
+        sliceRepairer.repair(chunkName, chunkServerHost, chunkServerPort);
+    }
 
+    /**
+     * Fetch a whole chunk from another replica, to overwrite the local one with it
+     */
+    void fetchChunk(String chunkName, String chunkServerHost, int chunkServerPort) throws IOException {
         Socket socket = new Socket(chunkServerHost, chunkServerPort);
         TCPConnection tcpConnection;
         if (tcpConnectionsCache.containsConnection(socket)) {
@@ -394,108 +895,116 @@ public class ChunkServer implements Node {
     }
 
 
-    private synchronized void handleFixCorruptChunkResponse(Event event) throws IOException {
+    /**
+     * A replica sent a whole chunk to repair the local one with. It is stored like any new version of a chunk
+     * (written to a temporary file, synced and renamed into place with its metadata), so a crash during the repair
+     * leaves either the corrupted chunk or the repaired one. Only the version committed here is repaired: a copy of
+     * another version (the chunk was overwritten in the meantime, here or on the replica) is discarded
+     */
+    private void handleFixCorruptChunkResponse(Event event) throws IOException {
         RetrieveChunkResponse response = (RetrieveChunkResponse) event;
-        //FixCorruptChunkResponse fixResponse = (FixCorruptChunkResponse) event;
 
         String chunkName = response.getChunkName();
         byte[] chunk = response.getChunk();
         String chunkHash = response.getChunkHash();
-        if (!FileUtil.hash(chunk).equals(chunkHash)) {
+        Chunk current = chunkMetadataMap.get(chunkName);
+        if (response.getStatus() != RetrieveChunkResponse.STATUS_OK) {
+            log.warn("The replica could not send {} (status {})", chunkName, response.getStatus());
+        } else if (!FileUtil.hash(chunk, response.getChunkHashType()).equals(chunkHash)) {
             log.warn("{}'s hashes do not match!", chunkName);
+        } else if (current != null && current.getVersion() != response.getVersion()) {
+            log.warn("The replica sent version {} of {}, but version {} is stored here. Not repairing it",
+                    response.getVersion(), chunkName, current.getVersion());
         } else {
-            Files.createDirectories(Paths.get(Constants.CHUNK_DIR));
-            String outputFileName = Constants.CHUNK_DIR + File.separator + chunkName;
-
-            //Overwrite the corrupted chunk
-            Files.write(new File(outputFileName).toPath(), chunk);
+            IoScheduler.Permit permit;
+            try {
+                permit = ioScheduler.acquire(IoScheduler.IoClass.REPAIR, chunk.length);
+            } catch (InterruptedException e) {
+                log.warn("Interrupted while waiting to repair {}", chunkName);
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                storeRepairedChunk(chunkName, response.getVersion(), chunk);
+            } finally {
+                permit.close();
+            }
             log.info("{}'s integrity confirmed!", chunkName);
         }
 
     }
 
 
-    private synchronized void handleStoreChunk(Event event) throws IOException {
-        log.debug("handleStoreChunk(event)");
+    /**
+     * A whole chunk (from a client that does not stream chunks): store and forward it as packets.
+     * Such a client does not expect acknowledgements, so none are sent to it
+     */
+    private void handleStoreChunk(Event event) {
         StoreChunk storeChunk = (StoreChunk) event;
-        String fileName = storeChunk.getFileName();
-        int sequenceNumber = storeChunk.getSequenceNumber();
-        int version = storeChunk.getVersion();
-        byte[] chunk = storeChunk.getChunk();
+        for (StoreChunkPacket packet : StoreChunkPacket.packetize(storeChunk.getFileName(),
+                storeChunk.getSequenceNumber(), storeChunk.getVersion(), storeChunk.getChunk(),
+                storeChunk.getNextChunkServerHosts(), storeChunk.getNextChunkServerPorts())) {
+            handleStoreChunkPacket(packet);
+        }
+    }
 
+    private void handleStoreChunkPacket(Event event) {
+        foregroundIo.incrementAndGet();
         try {
-            writeChunkToDisk(fileName, chunk, sequenceNumber, version);
-        } catch (IOException e) {
-            log.error("Error writing chunk to disk: (fileName={}, sequence={})", fileName, sequenceNumber);
-            log.error(e.getLocalizedMessage());
-            e.printStackTrace();
+            replicationPipeline.onPacket((StoreChunkPacket) event);
+        } finally {
+            foregroundIo.decrementAndGet();
         }
+    }
 
-        // forward chunk (replication)
-        StoreChunk nextStoreChunkEvent = new StoreChunk();
-        nextStoreChunkEvent.setChunk(chunk);
-        nextStoreChunkEvent.setVersion(version);
-        nextStoreChunkEvent.setSequenceNumber(sequenceNumber);
-        nextStoreChunkEvent.setFileName(fileName);
-
-        int nextChunkServersSize = storeChunk.getNoOfNextChunkServers();
-        log.debug("nextChunkServersSize: {}", nextChunkServersSize);
-        String[] nextChunkServerHosts = storeChunk.getNextChunkServerHosts();
-        int[] nextChunkServerPorts = storeChunk.getNextChunkServerPorts();
-
-        Socket nextSocket;
-        TCPConnection nextConnection;
-        if (nextChunkServersSize == 2) {
-            // chunk has only been written once (on A). need to forward from A to B
-            log.info("Written on A: {}.{}{}", fileName, Constants.ChunkServer.EXT_DATA_CHUNK, sequenceNumber);
-            nextSocket = new Socket(nextChunkServerHosts[0], nextChunkServerPorts[0]);
-            String[] newNextChunkServerHosts = Arrays.copyOfRange(nextChunkServerHosts, 1, nextChunkServersSize);
-            int[] newNextChunkServerPorts = Arrays.copyOfRange(nextChunkServerPorts, 1, nextChunkServersSize);
-
-            nextStoreChunkEvent.setNoOfNextChunkServers(nextChunkServersSize - 1);
-            nextStoreChunkEvent.setNextChunkServerHosts(newNextChunkServerHosts);
-            nextStoreChunkEvent.setNextChunkServerPorts(newNextChunkServerPorts);
-
-            if (tcpConnectionsCache.containsConnection(nextSocket)) {
-                nextConnection = tcpConnectionsCache.getConnection(nextSocket);
-            } else {
-                nextConnection = new TCPConnection(nextSocket, this);
-            }
+    public void printSliceRepairStatus() {
+        sliceRepairer.printStatus();
+    }
 
-            log.info("Forwarding {}.{}{} to B", fileName, Constants.ChunkServer.EXT_DATA_CHUNK, sequenceNumber);
-            nextConnection.sendData(nextStoreChunkEvent.getBytes());
+    public void printReplicationPipelineStatus() {
+        replicationPipeline.printStatus();
+        chunkReplicator.printStatus();
+        stripeRebuilder.printStatus();
+    }
 
-        } else if (nextChunkServersSize == 1) {
-            // chunk has been written twice (on A and B). forward from B to C
-            log.info("Replicated on B: {}.{}{}", fileName, Constants.ChunkServer.EXT_DATA_CHUNK, sequenceNumber);
-            nextSocket = new Socket(nextChunkServerHosts[0], nextChunkServerPorts[0]);
+    /**
+     * @return the connection of an accepted socket (null if there is none)
+     */
+    TCPConnection getConnection(Socket socket) {
+        if (socket == null || !tcpConnectionsCache.containsConnection(socket)) {
+            return null;
+        }
+        return tcpConnectionsCache.getConnection(socket);
+    }
 
-            nextStoreChunkEvent.setNoOfNextChunkServers(0);
-            nextStoreChunkEvent.setNextChunkServerHosts(new String[0]);
-            nextStoreChunkEvent.setNextChunkServerPorts(new int[0]);
+    TCPConnection getControllerConnection() {
+        return controllerConnection;
+    }
 
-            if (tcpConnectionsCache.containsConnection(nextSocket)) {
-                nextConnection = tcpConnectionsCache.getConnection(nextSocket);
-            } else {
-                nextConnection = new TCPConnection(nextSocket, this);
-            }
+    String getHostName() {
+        return hostName;
+    }
 
-            log.info("Forwarding {}.{}{} to C", fileName, Constants.ChunkServer.EXT_DATA_CHUNK, sequenceNumber);
-            nextConnection.sendData(nextStoreChunkEvent.getBytes());
-        } else if (nextChunkServersSize == 0) {
-            // chunk on C
-            // already written to disk above
-            // replication complete
-            log.info("Replicated on C {}.{}{}", fileName, Constants.ChunkServer.EXT_DATA_CHUNK, sequenceNumber);
-        } else {
-            log.warn("Invalid number of nextChunkServers: {}", nextChunkServersSize);
-        }
+    Path getChunkDir() {
+        return chunkDir;
+    }
+
+    int getListeningPort() {
+        return tcpServerThread.getListeningPort();
+    }
+
+    boolean reserveSpace(String chunkName, int version, long bytes) {
+        return capacityManager.reserve(chunkName, version, bytes);
+    }
+
+    void releaseSpace(String chunkName, int version) {
+        capacityManager.release(chunkName, version);
     }
 
     /**
      * Print names of all chunks available at the ChunkServer
      */
-    public synchronized void printChunks() {
+    public void printChunks() {
         /*
         System.out.println("No. of Chunks: " + chunks.size());
         for (String chunk : chunks) {
@@ -507,7 +1016,7 @@ public class ChunkServer implements Node {
             String fileName = entry.getKey();
             System.out.println("[*] " + fileName);
             StoredFile storedFile = entry.getValue();
-            ArrayList<Chunk> chunks = storedFile.getChunks();
+            List<Chunk> chunks = storedFile.getChunks();
             for (Chunk chunk : chunks) {
                 System.out.printf("\t[+] %s {timestamp: %s, sequenceNo: %s, version: %s}%n",
                         chunk.getName(), chunk.getTimeStamp(), chunk.getSequenceNumber(), chunk.getVersion());
@@ -521,9 +1030,15 @@ public class ChunkServer implements Node {
         @Override
         public void run() {
             SendMajorHeartbeat heartbeat = new SendMajorHeartbeat();
-            heartbeat.setFreeSpace(getFreeSpaceMB());
-            heartbeat.setChunks(chunks);
-            heartbeat.setNoOfChunks(chunks.size());
+            setSpace(heartbeat);
+            ArrayList<String> chunkNames = new ArrayList<>(chunks);
+            heartbeat.setChunks(chunkNames);
+            heartbeat.setNoOfChunks(chunkNames.size());
+            heartbeat.setChunkVersions(getChunkVersions(chunkNames));
+            for (AccessStatistics.HotChunk hotChunk :
+                    accessStatistics.getHotChunks(Constants.ChunkServer.HOT_CHUNKS_REPORTED)) {
+                heartbeat.addHotChunk(hotChunk.getChunkName(), hotChunk.getReads(), hotChunk.getBytes());
+            }
             try {
                 log.info("ChunkServer {} sending major heartbeat", hostName);
                 controllerConnection.sendData(heartbeat.getBytes());
@@ -535,13 +1050,37 @@ public class ChunkServer implements Node {
     }
 
     /**
-     * Get free space on node's /tmp drive (in MB)
-     *
-     * @return
+     * Versions of the given chunks, in the same order (0 if a chunk has no metadata)
+     */
+    private ArrayList<Integer> getChunkVersions(List<String> chunkNames) {
+        ArrayList<Integer> versions = new ArrayList<>(chunkNames.size());
+        for (String chunkName : chunkNames) {
+            Chunk chunkMetadata = chunkMetadataMap.get(chunkName);
+            versions.add(chunkMetadata == null ? 0 : chunkMetadata.getVersion());
+        }
+        return versions;
+    }
+
+    /**
+     * Report this node's space in a major heartbeat: free, used and reserved bytes of the chunk directory, and the
+     * compression ratio of the chunks stored, which tells the Controller how much chunk data the free space holds
+     */
+    private void setSpace(SendMajorHeartbeat heartbeat) {
+        heartbeat.setFreeSpace(capacityManager.getFreeBytes());
+        heartbeat.setUsedSpace(capacityManager.getUsedBytes());
+        heartbeat.setReservedSpace(capacityManager.getReservedBytes());
+        heartbeat.setCompressionRatio(getCompressionRatio());
+    }
+
+    /**
+     * Report this node's space in a minor heartbeat (the same as in a major one), so the space the Controller
+     * places chunks by is at most one minor heartbeat interval old
      */
-    private static long getFreeSpaceMB() {
-        long freeSpaceKB = new File("/tmp").getFreeSpace();
-        return freeSpaceKB / 1000;
+    private void setSpace(SendMinorHeartbeat heartbeat) {
+        heartbeat.setFreeSpace(capacityManager.getFreeBytes());
+        heartbeat.setUsedSpace(capacityManager.getUsedBytes());
+        heartbeat.setReservedSpace(capacityManager.getReservedBytes());
+        heartbeat.setCompressionRatio(getCompressionRatio());
     }
 
     public class MinorHeartbeat extends TimerTask {
@@ -551,12 +1090,14 @@ public class ChunkServer implements Node {
         public void run() {
             SendMinorHeartbeat heartbeat = new SendMinorHeartbeat();
 
-            heartbeat.setNoOfChunks(chunks.size());
-            heartbeat.setFreeSpace(getFreeSpaceMB());
+            ArrayList<String> chunkNames = new ArrayList<>(chunks);
+            heartbeat.setNoOfChunks(chunkNames.size());
+            setSpace(heartbeat);
 
-            heartbeat.setNoOfNewChunks(chunks.size() - prevChunkSize);
-            prevChunkSize = chunks.size();
-            heartbeat.setNewChunks(chunks);
+            heartbeat.setNoOfNewChunks(chunkNames.size() - prevChunkSize);
+            prevChunkSize = chunkNames.size();
+            heartbeat.setNewChunks(chunkNames);
+            heartbeat.setChunkVersions(getChunkVersions(chunkNames));
 
 
             //heartbeat.setNewChunks(newChunks);
@@ -596,55 +1137,134 @@ public class ChunkServer implements Node {
     }
 
     /**
-     * Write Chunk to Disk
-     * Calculate and store hashes for 8KB slices
+     * Start writing a version of a chunk to disk.
+     * Slice checksums and the chunk digest are computed while the bytes are being written.
+     * A new version is written to a temporary file next to the chunk (copy-on-write) and replaces the
+     * current version only once it is complete, so readers never see a partially overwritten chunk.
+     *
+     * @return null if a newer version of the chunk is already stored
      */
-    private void writeChunkToDisk(String fileName, byte[] chunk, int sequenceNumber, int version) throws IOException {
-        Files.createDirectories(Paths.get(Constants.CHUNK_DIR));
-        String outputFileName = Constants.CHUNK_DIR + File.separator +
-                fileName + Constants.ChunkServer.EXT_DATA_CHUNK + sequenceNumber;
-        log.info("outputFileName: {}", outputFileName);
-        Files.write(new File(outputFileName).toPath(), chunk);
-        //Add file name to new chunk list
-        newChunks.add(outputFileName);
+    IncomingChunk startChunk(String fileName, int sequenceNumber, int version) throws IOException {
+        Files.createDirectories(chunkDir);
 
         Chunk chunkObj = new Chunk(sequenceNumber, version, fileName);
         chunkObj.setTimeStamp(new Date().toString());
+        chunkObj.setSliceChecksumType(Constants.ChunkServer.SLICE_CHECKSUM_TYPE);
+        chunkObj.setChunkChecksumType(Constants.ChunkServer.CHUNK_CHECKSUM_TYPE);
+        chunkObj.setCodec(getCompressionCodec(fileName));
+
+        Chunk current = chunkMetadataMap.get(chunkObj.getName());
+        if (current != null && current.getVersion() > version) {
+            log.warn("Ignoring version {} of {}: version {} is already stored", version, chunkObj.getName(),
+                    current.getVersion());
+            return null;
+        }
 
-        // create 8KB slices from 64KB chunk
-        List<byte[]> slices = FileUtil.splitFile(chunk, Constants.SLICE_SIZE);
-        ArrayList<String> hashes = new ArrayList<>();
-        for (byte[] slice : slices) {
-            hashes.add(FileUtil.hash(slice));
+        Path tempPath = Files.createTempFile(chunkDir, chunkObj.getName() + ".",
+                Constants.ChunkServer.EXT_TEMP);
+        try {
+            return new IncomingChunk(chunkObj, tempPath, directIo);
+        } catch (IOException e) {
+            Files.deleteIfExists(tempPath);
+            throw e;
         }
-        chunkObj.setSliceHashes(hashes);
-        log.info("Slice Hashes computed for Chunk({}, sequence-{}, version-{})", fileName, sequenceNumber, version);
+    }
 
-        // add entry chunkHashesMap
-        chunkHashesMap.put(chunkObj.getName(), Objects.requireNonNull(FileUtil.hash(chunk)));
+    /**
+     * Replace a chunk with a repaired copy of the same version, the way a new version is stored (see startChunk),
+     * so a crash during the repair leaves either the corrupted chunk or the repaired one
+     */
+    void storeRepairedChunk(String chunkName, int version, byte[] data) throws IOException {
+        String fileName = FileUtil.getFileNameFromChunkName(chunkName);
+        int sequenceNumber = Integer.parseInt(
+                chunkName.substring(fileName.length() + Constants.ChunkServer.EXT_DATA_CHUNK.length()));
+        IncomingChunk incoming = startChunk(fileName, sequenceNumber, version);
+        if (incoming == null) {
+            return;
+        }
+        try {
+            incoming.write(data, 0, data.length);
+            finishChunk(incoming);
+        } finally {
+            incoming.abort();
+        }
+    }
 
-        // add entry to sliceHashesMap
-        ArrayList<String> sliceHashes = FileUtil.getSliceHashesFromChunk(chunk);
-        sliceHashesMap.put(chunkObj.getName(), sliceHashes);
+    /**
+     * Complete a chunk whose data has all been written, and make it the stored version. The chunk is on disk
+     * (not only in the page cache) once this returns, so it can be acknowledged as stored
+     */
+    void finishChunk(IncomingChunk incoming) throws IOException {
+        Chunk chunkObj = incoming.getMetadata();
+        incoming.finish();
+        FileUtil.force(incoming.getTempPath());
+        log.info("Slice Hashes computed for Chunk({}, sequence-{}, version-{})", chunkObj.getFileName(),
+                chunkObj.getSequenceNumber(), chunkObj.getVersion());
+        commitChunk(chunkObj, incoming.getTempPath(), chunkDir.resolve(chunkObj.getName()));
+    }
 
-        if (!chunks.contains(chunkObj.getName())) {
-            chunks.add(chunkObj.getName());
-            log.info("{} added to chunks list", chunkObj.getName());
-        } else {
-            log.warn("{} already exists. Attempting to store the same chunk more than once.", chunkObj.getName());
-        }
+    /**
+     * Replace the current version of a chunk with a completely written one
+     */
+    private void commitChunk(Chunk chunkObj, Path tempPath, Path chunkPath) throws IOException {
+        Lock lock = chunkLocks.writeLock(chunkObj.getName());
+        lock.lock();
+        try {
+            // a newer version may have been committed while this one was being written
+            Chunk current = chunkMetadataMap.get(chunkObj.getName());
+            if (current != null && current.getVersion() > chunkObj.getVersion()) {
+                log.warn("Discarding version {} of {}: version {} has been stored in the meantime",
+                        chunkObj.getVersion(), chunkObj.getName(), current.getVersion());
+                return;
+            }
 
-        if (filesMap.containsKey(fileName)) {
-            StoredFile storedFile = filesMap.get(fileName);
-            storedFile.addChunk(chunkObj);
-        } else {
-            StoredFile storedFile = new StoredFile(fileName);
-            storedFile.addChunk(chunkObj);
-            filesMap.put(fileName, storedFile);
+            verifiedChunks.invalidate(chunkObj.getName());
+            readAhead.invalidate(chunkObj.getName());
+            long sizeBefore = capacityManager.sizeOnDisk(chunkObj.getName());
+
+            // record checksums (and the algorithms used) next to the chunk so they survive restarts. The metadata
+            // is written next to the temporary chunk and renamed after it: a crash in between leaves either the
+            // previous version, or the new chunk with its metadata still to be renamed (see initFilesFromDisk)
+            Path pendingMetadataPath = getPendingMetadataPath(tempPath);
+            Files.write(pendingMetadataPath, chunkObj.getMetadataBytes());
+            FileUtil.force(pendingMetadataPath);
+            FileUtil.forceDirectory(chunkPath.getParent());
+            try {
+                Files.move(tempPath, chunkPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                Files.deleteIfExists(pendingMetadataPath);
+                throw e;
+            }
+            Files.move(pendingMetadataPath, chunkDir.resolve(chunkObj.getName() + Constants.ChunkServer.EXT_METADATA),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            FileUtil.forceDirectory(chunkPath.getParent());
+            //Add file name to new chunk list
+            newChunks.add(chunkPath.toString());
+
+            // add entry to chunkMetadataMap
+            chunkMetadataMap.put(chunkObj.getName(), chunkObj);
+            capacityManager.updateUsed(sizeBefore, capacityManager.sizeOnDisk(chunkObj.getName()));
+
+            if (chunks.add(chunkObj.getName())) {
+                log.info("{} added to chunks list", chunkObj.getName());
+            } else {
+                log.info("{} replaced with version {}", chunkObj.getName(), chunkObj.getVersion());
+            }
+
+            filesMap.computeIfAbsent(chunkObj.getFileName(), StoredFile::new).addChunk(chunkObj);
+        } finally {
+            lock.unlock();
         }
     }
 
 
+    /**
+     * Metadata of a chunk being committed, until the chunk has been renamed into place
+     */
+    private static Path getPendingMetadataPath(Path tempPath) {
+        return tempPath.resolveSibling(tempPath.getFileName() + Constants.ChunkServer.EXT_METADATA);
+    }
+
     private void handleControllerRegistrationResponse(Event event) {
         log.info("handleControllerRegistrationResponse(event)");
         ReportChunkServerRegistration registrationEvent = (ReportChunkServerRegistration) event;
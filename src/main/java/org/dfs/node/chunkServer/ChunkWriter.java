@@ -0,0 +1,143 @@
+package org.dfs.node.chunkServer;
+
+import org.dfs.util.Constants;
+import org.dfs.util.checksum.ChecksumEngine;
+import org.dfs.util.checksum.ChecksumType;
+import org.dfs.util.checksum.Checksums;
+import org.dfs.util.compression.CompressionCodec;
+
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+/**
+ * Writes a chunk to disk in a single pass: every slice is written out and fed to the slice
+ * checksum and the chunk digest while it is still hot in cache, so the chunk is never split
+ * into intermediate slice arrays or read back to be hashed.
+ * <p>
+ * Data can be appended in pieces of any size; slice boundaries are tracked across calls.
+ * If a compression codec is given, the chunk is compressed on its way to disk while the
+ * checksums are still computed over the uncompressed data.
+ */
+public class ChunkWriter implements Closeable {
+    private final CountingOutputStream fileOut;
+    private final OutputStream out;
+    private final ChecksumEngine sliceEngine;
+    private final ChecksumEngine chunkEngine;
+    private final ArrayList<String> sliceHashes;
+
+    private int sliceBytes; // bytes of the current (unfinished) slice
+    private long length;
+    private String chunkHash;
+
+    public ChunkWriter(Path path, ChecksumType sliceChecksumType, ChecksumType chunkChecksumType)
+            throws IOException {
+        this(path, sliceChecksumType, chunkChecksumType, CompressionCodec.NONE);
+    }
+
+    public ChunkWriter(Path path, ChecksumType sliceChecksumType, ChecksumType chunkChecksumType,
+                       CompressionCodec codec) throws IOException {
+        this(path, sliceChecksumType, chunkChecksumType, codec, false);
+    }
+
+    /**
+     * @param directIo write around the page cache (see {@link DirectIo})
+     */
+    public ChunkWriter(Path path, ChecksumType sliceChecksumType, ChecksumType chunkChecksumType,
+                       CompressionCodec codec, boolean directIo) throws IOException {
+        fileOut = new CountingOutputStream(DirectIo.newOutputStream(path, directIo));
+        out = codec.compress(fileOut);
+        sliceEngine = Checksums.newEngine(sliceChecksumType);
+        chunkEngine = Checksums.newEngine(chunkChecksumType);
+        sliceHashes = new ArrayList<>();
+    }
+
+    public void write(byte[] data) throws IOException {
+        write(data, 0, data.length);
+    }
+
+    public void write(byte[] data, int offset, int length) throws IOException {
+        int end = offset + length;
+        while (offset < end) {
+            int n = Math.min(end - offset, Constants.SLICE_SIZE - sliceBytes);
+            out.write(data, offset, n);
+            sliceEngine.update(data, offset, n);
+            chunkEngine.update(data, offset, n);
+
+            sliceBytes += n;
+            offset += n;
+            this.length += n;
+            if (sliceBytes == Constants.SLICE_SIZE) {
+                sliceHashes.add(sliceEngine.digestHex());
+                sliceBytes = 0;
+            }
+        }
+    }
+
+    /**
+     * Flush the chunk to disk and finish the checksums of the last (partial) slice and the whole chunk
+     */
+    @Override
+    public void close() throws IOException {
+        if (chunkHash != null) {
+            return;
+        }
+        if (sliceBytes > 0) {
+            sliceHashes.add(sliceEngine.digestHex());
+            sliceBytes = 0;
+        }
+        chunkHash = chunkEngine.digestHex();
+        out.close();
+    }
+
+    /**
+     * Only available after {@link #close()}
+     */
+    public ArrayList<String> getSliceHashes() {
+        return sliceHashes;
+    }
+
+    /**
+     * Only available after {@link #close()}
+     */
+    public String getChunkHash() {
+        return chunkHash;
+    }
+
+    /**
+     * Number of (uncompressed) bytes written
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Number of bytes on disk. Only final after {@link #close()}
+     */
+    public long getStoredLength() {
+        return fileOut.count;
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        private CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package org.dfs.node.chunkServer;
+
+import com.sun.nio.file.ExtendedOpenOption;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Streams that read and write chunk files with O_DIRECT, bypassing the page cache.
+ * Used for bulk ingest and scrubbing, which touch every byte once and would otherwise evict the
+ * hot chunks clients are reading.
+ * <p>
+ * Direct I/O needs buffers, file positions and transfer sizes aligned to the block size of the file system,
+ * so data is staged in an aligned direct buffer and the last (partial) block of a file is padded and
+ * truncated afterwards. Where the file system (or platform) does not support O_DIRECT, the first failure
+ * is logged and regular buffered I/O is used for the files of that file system from then on. Other errors opening
+ * a file (too many open files, permissions...) only fall back for that file, and buffered I/O reports them
+ * if they are not specific to O_DIRECT.
+ */
+public class DirectIo {
+    private static final Logger log = LogManager.getLogger(DirectIo.class);
+
+    // blocks staged per transfer
+    private static final int BLOCKS_PER_BUFFER = 16;
+
+    // file stores found not to support O_DIRECT
+    private static final Set<FileStore> unsupportedStores = ConcurrentHashMap.newKeySet();
+
+    // statistics
+    private static final LongAdder directBytesWritten = new LongAdder();
+    private static final LongAdder directBytesRead = new LongAdder();
+    private static final LongAdder fallbacks = new LongAdder();
+
+    private DirectIo() {
+
+    }
+
+    /**
+     * Open a chunk file for writing (created or truncated), bypassing the page cache if direct is true and supported
+     */
+    public static OutputStream newOutputStream(Path path, boolean direct) throws IOException {
+        if (direct) {
+            FileStore store = null;
+            try {
+                store = getFileStore(path);
+                if (!unsupportedStores.contains(store)) {
+                    int blockSize = blockSize(store);
+                    FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                            StandardOpenOption.TRUNCATE_EXISTING, ExtendedOpenOption.DIRECT);
+                    return new DirectOutputStream(channel, blockSize);
+                }
+            } catch (UnsupportedOperationException | IOException e) {
+                fallBack(store, path, e);
+            }
+        }
+        return Files.newOutputStream(path);
+    }
+
+    /**
+     * Open a chunk file for reading, bypassing the page cache if direct is true and supported
+     */
+    public static InputStream newInputStream(Path path, boolean direct) throws IOException {
+        if (direct) {
+            FileStore store = null;
+            try {
+                store = getFileStore(path);
+                if (!unsupportedStores.contains(store)) {
+                    int blockSize = blockSize(store);
+                    FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, ExtendedOpenOption.DIRECT);
+                    return new DirectInputStream(channel, blockSize);
+                }
+            } catch (NoSuchFileException e) {
+                throw e;
+            } catch (UnsupportedOperationException | IOException e) {
+                fallBack(store, path, e);
+            }
+        }
+        return Files.newInputStream(path);
+    }
+
+    public static void write(Path path, byte[] data, boolean direct) throws IOException {
+        try (OutputStream out = newOutputStream(path, direct)) {
+            out.write(data);
+        }
+    }
+
+    /**
+     * @return false if a file store has been found not to support O_DIRECT
+     */
+    public static boolean isSupported() {
+        return unsupportedStores.isEmpty();
+    }
+
+    public static void printStatus(boolean enabled) {
+        System.out.printf("Direct I/O: {enabled = %s, supported = %s, bytesWritten = %d, bytesRead = %d, " +
+                        "fallbacks = %d}%n",
+                enabled, unsupportedStores.isEmpty() ? "true" : "not on " + unsupportedStores,
+                directBytesWritten.sum(), directBytesRead.sum(), fallbacks.sum());
+    }
+
+    /**
+     * Use buffered I/O for a file that could not be opened with O_DIRECT, and for all the files of its file store
+     * if that is because the file store does not support O_DIRECT
+     *
+     * @param store file store of the file (null if it could not be found)
+     */
+    private static void fallBack(FileStore store, Path path, Exception e) {
+        fallbacks.increment();
+        if (store != null && isUnsupported(e) && !canOpenDirect(path.toAbsolutePath().getParent())) {
+            if (unsupportedStores.add(store)) {
+                log.warn("Direct I/O is not supported on {} ({}). Using buffered I/O for its files", store,
+                        e.getLocalizedMessage());
+            }
+        } else {
+            log.warn("Could not open {} for direct I/O ({}). Using buffered I/O for it", path,
+                    e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * O_DIRECT may not be supported: by the platform (no such open option), or by the file system (EINVAL, which
+     * is also what opening a directory gives)
+     */
+    private static boolean isUnsupported(Exception e) {
+        return e instanceof UnsupportedOperationException ||
+                (e.getMessage() != null && e.getMessage().contains("Invalid argument"));
+    }
+
+    /**
+     * Tell whether O_DIRECT is supported in a directory by opening a new file of its own with it
+     *
+     * @return false only if it is not supported (true if it could not be told)
+     */
+    private static boolean canOpenDirect(Path dir) {
+        Path probe;
+        try {
+            probe = Files.createTempFile(dir, ".direct-io-probe.", ".tmp");
+        } catch (IOException e) {
+            return true;
+        }
+        try {
+            FileChannel.open(probe, StandardOpenOption.WRITE, ExtendedOpenOption.DIRECT).close();
+            return true;
+        } catch (UnsupportedOperationException | IOException e) {
+            return !isUnsupported(e);
+        } finally {
+            try {
+                Files.deleteIfExists(probe);
+            } catch (IOException e) {
+                log.debug("Error removing {}: {}", probe, e.getLocalizedMessage());
+            }
+        }
+    }
+
+    private static FileStore getFileStore(Path path) throws IOException {
+        return Files.getFileStore(path.toAbsolutePath().getParent());
+    }
+
+    private static int blockSize(FileStore store) throws IOException {
+        return (int) Math.max(512, store.getBlockSize());
+    }
+
+    private static ByteBuffer alignedBuffer(int blockSize) {
+        int capacity = blockSize * BLOCKS_PER_BUFFER;
+        return ByteBuffer.allocateDirect(capacity + blockSize).alignedSlice(blockSize);
+    }
+
+    private static class DirectOutputStream extends OutputStream {
+        private final FileChannel channel;
+        private final int blockSize;
+        private final ByteBuffer buffer;
+        private long length;
+        private boolean closed;
+
+        private DirectOutputStream(FileChannel channel, int blockSize) {
+            this.channel = channel;
+            this.blockSize = blockSize;
+            buffer = alignedBuffer(blockSize);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int n = Math.min(len, buffer.remaining());
+                buffer.put(b, off, n);
+                off += n;
+                len -= n;
+                length += n;
+                if (!buffer.hasRemaining()) {
+                    drain();
+                }
+            }
+        }
+
+        /**
+         * Write the staged whole blocks. Only the final block of the file may be partial
+         */
+        private void drain() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            directBytesWritten.add(buffer.limit());
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                int tail = buffer.position() % blockSize;
+                if (tail > 0) {
+                    // pad the last block; the file is truncated to its real length below
+                    while (buffer.position() % blockSize != 0) {
+                        buffer.put((byte) 0);
+                    }
+                }
+                if (buffer.position() > 0) {
+                    drain();
+                }
+                if (tail > 0) {
+                    channel.truncate(length);
+                }
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    private static class DirectInputStream extends InputStream {
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+        private long position; // file position of the next block to read
+        private boolean eof;
+
+        private DirectInputStream(FileChannel channel, int blockSize) {
+            this.channel = channel;
+            buffer = alignedBuffer(blockSize);
+            buffer.limit(0);
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return buffer.get() & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+        private boolean fill() throws IOException {
+            if (buffer.hasRemaining()) {
+                return true;
+            }
+            if (eof) {
+                return false;
+            }
+            buffer.clear();
+            // a short read only happens at the end of the file, so the position stays block aligned
+            int n = channel.read(buffer, position);
+            if (n <= 0) {
+                eof = true;
+                buffer.limit(0);
+                return false;
+            }
+            if (n < buffer.capacity()) {
+                eof = true;
+            }
+            position += n;
+            directBytesRead.add(n);
+            buffer.flip();
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package org.dfs.node.chunkServer;
+
+import org.dfs.models.Chunk;
+import org.dfs.util.compression.CompressionCodec;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A chunk version being written to a temporary file. Data is appended as it arrives (all at once, or packet
+ * by packet from the replication chain) and checksummed on the way; the stored version is only replaced
+ * when the chunk is committed.
+ */
+class IncomingChunk {
+    private static final Logger log = LogManager.getLogger(IncomingChunk.class);
+
+    private final Chunk metadata;
+    private final Path tempPath;
+    private final ChunkWriter writer;
+    private final boolean directIo;
+    // copy of the data, kept for compressed chunks in case they do not compress
+    private final ByteArrayOutputStream uncompressed;
+
+    IncomingChunk(Chunk metadata, Path tempPath, boolean directIo) throws IOException {
+        this.metadata = metadata;
+        this.tempPath = tempPath;
+        this.directIo = directIo;
+        // ingested chunks are not read back soon, so they should not evict hot chunks from the page cache
+        writer = new ChunkWriter(tempPath, metadata.getSliceChecksumType(), metadata.getChunkChecksumType(),
+                metadata.getCodec(), directIo);
+        uncompressed = metadata.getCodec() == CompressionCodec.NONE ? null : new ByteArrayOutputStream();
+    }
+
+    void write(byte[] data, int offset, int length) throws IOException {
+        writer.write(data, offset, length);
+        if (uncompressed != null) {
+            uncompressed.write(data, offset, length);
+        }
+    }
+
+    /**
+     * Flush the data and record its length and checksums in the metadata
+     */
+    void finish() throws IOException {
+        writer.close();
+        int length = (int) writer.getLength();
+        metadata.setLength(length);
+        metadata.setStoredLength((int) writer.getStoredLength());
+        if (uncompressed != null && writer.getStoredLength() >= length) {
+            // incompressible chunk: store it as is (checksums are the same)
+            log.debug("{} does not compress. Storing it uncompressed", metadata.getName());
+            DirectIo.write(tempPath, uncompressed.toByteArray(), directIo);
+            metadata.setCodec(CompressionCodec.NONE);
+            metadata.setStoredLength(length);
+        }
+        metadata.setSliceHashes(writer.getSliceHashes());
+        metadata.setChunkHash(writer.getChunkHash());
+    }
+
+    /**
+     * Discard the temporary file (a no-op once the chunk has been committed)
+     */
+    void abort() {
+        try {
+            writer.close();
+        } catch (IOException e) {
+            log.debug("Error closing {}: {}", tempPath, e.getLocalizedMessage());
+        }
+        try {
+            Files.deleteIfExists(tempPath);
+        } catch (IOException e) {
+            log.error("Error removing {}: {}", tempPath, e.getLocalizedMessage());
+        }
+    }
+
+    Chunk getMetadata() {
+        return metadata;
+    }
+
+    Path getTempPath() {
+        return tempPath;
+    }
+
+    long getLength() {
+        return writer.getLength();
+    }
+}
@@ -0,0 +1,202 @@
+package org.dfs.node.chunkServer;
+
+import org.dfs.models.Chunk;
+import org.dfs.util.Constants;
+import org.dfs.util.checksum.Checksums;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.TreeSet;
+import java.util.concurrent.locks.Lock;
+import java.util.zip.ZipException;
+
+/**
+ * Background thread that walks all chunks stored on the ChunkServer (in chunk name order),
+ * verifies their slice checksums and reports corrupted chunks to the Controller,
+ * so cold data gets repaired before every replica goes bad.
+ * <p>
+ * Disk bandwidth is limited to a configurable budget (the cap of the SCRUB class of the {@link IoScheduler})
+ * and the scrubber backs off while client reads or writes are in progress. The last scrubbed chunk is checkpointed to disk,
+ * so a restarted ChunkServer resumes the pass where it left off.
+ */
+public class IntegrityScrubber extends Thread {
+    private static final Logger log = LogManager.getLogger(IntegrityScrubber.class);
+
+    private final ChunkServer chunkServer;
+    private final IoScheduler ioScheduler;
+    private final Path progressFile;
+
+    private volatile boolean running;
+    private String lastScrubbedChunk; // chunk name order, "" at the start of a pass
+    private int chunksSinceCheckpoint;
+
+    // statistics
+    private volatile long passesCompleted;
+    private volatile long chunksScrubbed;
+    private volatile long bytesScrubbed;
+    private volatile long corruptChunksFound;
+
+    public IntegrityScrubber(ChunkServer chunkServer) {
+        super("IntegrityScrubber");
+        setDaemon(true);
+        setPriority(Thread.MIN_PRIORITY);
+        this.chunkServer = chunkServer;
+        ioScheduler = chunkServer.getIoScheduler();
+        progressFile = chunkServer.getChunkDir().resolve(Constants.ChunkServer.SCRUB_PROGRESS_FILE);
+        lastScrubbedChunk = readProgress();
+    }
+
+    @Override
+    public void run() {
+        running = true;
+        log.info("Starting scrubber (budget={} MB/s, resuming after '{}')",
+                ioScheduler.getBandwidthCapMB(IoScheduler.IoClass.SCRUB), lastScrubbedChunk);
+        try {
+            while (running) {
+                TreeSet<String> remaining = new TreeSet<>(chunkServer.getChunkNames());
+                for (String chunkName : remaining.tailSet(lastScrubbedChunk, false)) {
+                    if (!running) {
+                        return;
+                    }
+                    scrubChunk(chunkName);
+                    lastScrubbedChunk = chunkName;
+                    if (++chunksSinceCheckpoint >= Constants.ChunkServer.SCRUB_CHECKPOINT_INTERVAL) {
+                        writeProgress();
+                    }
+                }
+
+                passesCompleted++;
+                log.info("Scrub pass complete (chunks={}, bytes={}, corrupt={})",
+                        chunksScrubbed, bytesScrubbed, corruptChunksFound);
+                lastScrubbedChunk = "";
+                writeProgress();
+                Thread.sleep(Constants.ChunkServer.SCRUB_PASS_INTERVAL);
+            }
+        } catch (InterruptedException e) {
+            log.info("Scrubber interrupted");
+        }
+    }
+
+    public void stopScrubbing() {
+        running = false;
+        interrupt();
+    }
+
+    /**
+     * Verify all slices of a chunk; report it to the Controller if any slice does not match
+     */
+    @SuppressWarnings("try")
+    private void scrubChunk(String chunkName) throws InterruptedException {
+        Chunk chunkMetadata = chunkServer.getChunkMetadata(chunkName);
+        if (chunkMetadata == null) {
+            log.debug("No checksums stored for {}. Skipping", chunkName);
+            return;
+        }
+
+        ArrayList<String> storedSliceHashes = chunkMetadata.getSliceHashes();
+        boolean corrupted = false;
+        Path chunkPath = chunkServer.getChunkDir().resolve(chunkName);
+        // compressed chunks are inflated slice by slice as they are read.
+        // a pass reads every chunk once, so it should not push the hot chunks out of the page cache
+        try (InputStream in = ChunkReader.open(chunkPath, chunkMetadata, chunkServer.isDirectIo())) {
+            long chunkSize = ChunkReader.getLength(chunkPath, chunkMetadata);
+            long expectedSlices = (chunkSize + Constants.SLICE_SIZE - 1) / Constants.SLICE_SIZE;
+            if (expectedSlices != storedSliceHashes.size()) {
+                log.warn("{} has {} slices on disk, {} expected", chunkName, expectedSlices, storedSliceHashes.size());
+                corrupted = true;
+            }
+
+            for (int i = 0; i < storedSliceHashes.size() && !corrupted; i++) {
+                // never compete with clients for the disk
+                while (chunkServer.isForegroundIoActive()) {
+                    Thread.sleep(Constants.ChunkServer.SCRUB_YIELD_INTERVAL);
+                }
+
+                byte[] slice;
+                try (IoScheduler.Permit permit = ioScheduler.acquire(IoScheduler.IoClass.SCRUB, Constants.SLICE_SIZE)) {
+                    Lock lock = chunkServer.getChunkLocks().readLock(chunkName);
+                    lock.lock();
+                    try {
+                        slice = in.readNBytes(Constants.SLICE_SIZE);
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+                bytesScrubbed += slice.length;
+                String sliceHash = Checksums.hash(chunkMetadata.getSliceChecksumType(), slice);
+                if (!sliceHash.equals(storedSliceHashes.get(i))) {
+                    log.warn("Scrubber: slice {} of {} is corrupted", (i + 1), chunkName);
+                    corrupted = true;
+                }
+            }
+        } catch (NoSuchFileException e) {
+            log.warn("Scrubber: {} is missing on disk", chunkName);
+            corrupted = true;
+        } catch (ZipException e) {
+            log.warn("Scrubber: {} cannot be decompressed", chunkName);
+            corrupted = true;
+        } catch (IOException e) {
+            log.error("Scrubber: error reading {}", chunkName);
+            log.error(e.getLocalizedMessage());
+            return;
+        }
+
+        chunksScrubbed++;
+        if (corrupted) {
+            corruptChunksFound++;
+            chunkServer.reportChunkCorruption(chunkName);
+        }
+    }
+
+    private String readProgress() {
+        try {
+            return new String(Files.readAllBytes(progressFile), StandardCharsets.UTF_8).trim();
+        } catch (NoSuchFileException e) {
+            return "";
+        } catch (IOException e) {
+            log.warn("Could not read scrub progress: {}", e.getLocalizedMessage());
+            return "";
+        }
+    }
+
+    /**
+     * Checkpoint the last scrubbed chunk (written to a temporary file first so a crash cannot leave it half written)
+     */
+    private void writeProgress() {
+        chunksSinceCheckpoint = 0;
+        try {
+            Files.createDirectories(progressFile.getParent());
+            Path tmp = progressFile.resolveSibling(progressFile.getFileName() + ".tmp");
+            Files.write(tmp, lastScrubbedChunk.getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, progressFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Could not save scrub progress: {}", e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * @param megabytesPerSecond the scrub budget, which must be positive (the scrubber is never unthrottled)
+     */
+    public void setBandwidthMB(long megabytesPerSecond) {
+        if (megabytesPerSecond <= 0) {
+            throw new IllegalArgumentException("Scrub budget must be positive: " + megabytesPerSecond);
+        }
+        ioScheduler.setBandwidthCapMB(IoScheduler.IoClass.SCRUB, megabytesPerSecond);
+        log.info("Scrub budget set to {} MB/s", megabytesPerSecond);
+    }
+
+    public void printStatus() {
+        System.out.printf("Scrubber: {budget = %d MB/s, passes = %d, position = '%s', " +
+                        "chunksScrubbed = %d, bytesScrubbed = %d, corruptChunks = %d}%n",
+                ioScheduler.getBandwidthCapMB(IoScheduler.IoClass.SCRUB), passesCompleted, lastScrubbedChunk,
+                chunksScrubbed, bytesScrubbed, corruptChunksFound);
+    }
+}
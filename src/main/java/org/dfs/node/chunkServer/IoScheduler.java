@@ -0,0 +1,245 @@
+package org.dfs.node.chunkServer;
+
+import org.dfs.util.Constants;
+import org.dfs.util.Throttler;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Orders the disk I/O of a ChunkServer by traffic class. At most a fixed number of operations use the disk at
+ * a time; when one finishes, the next is picked by weighted fair queueing (start-time fair queueing over bytes),
+ * so client reads get most of the disk while replication, repair and scrubbing keep making steady progress.
+ * Each class can additionally be capped to a bandwidth, which is enforced before the operation is queued.
+ * <p>
+ * Callers take a permit before taking any chunk lock and hold it for the duration of the I/O:
+ * <pre>
+ * try (IoScheduler.Permit permit = ioScheduler.acquire(IoClass.FOREGROUND, bytes)) {
+ *     ...
+ * }
+ * </pre>
+ * The permit is only held, not used in the block, so methods doing this suppress the "try" lint warning.
+ */
+public class IoScheduler {
+    private static final Logger log = LogManager.getLogger(IoScheduler.class);
+
+    public enum IoClass {
+        FOREGROUND(Constants.ChunkServer.IO_WEIGHT_FOREGROUND, 0),  // client reads
+        REPLICATION(Constants.ChunkServer.IO_WEIGHT_REPLICATION, 0), // chunk writes along the replication chain
+        PREFETCH(Constants.ChunkServer.IO_WEIGHT_PREFETCH, 0),       // read-ahead of sequentially read files
+        REPAIR(Constants.ChunkServer.IO_WEIGHT_REPAIR, 0),           // rewriting corrupted chunks from a replica
+        SCRUB(Constants.ChunkServer.IO_WEIGHT_SCRUB, Constants.ChunkServer.SCRUB_BANDWIDTH_MB); // background verification
+
+        private final int weight;
+        private final long bandwidthCapMB;
+
+        IoClass(int weight, long bandwidthCapMB) {
+            this.weight = weight;
+            this.bandwidthCapMB = bandwidthCapMB;
+        }
+    }
+
+    private final int slots;
+    private final ReentrantLock lock;
+    private final EnumMap<IoClass, ClassQueue> queues;
+    private int inFlight;
+    private double virtualTime;
+
+    public IoScheduler(int slots) {
+        this.slots = slots;
+        lock = new ReentrantLock();
+        queues = new EnumMap<>(IoClass.class);
+        for (IoClass ioClass : IoClass.values()) {
+            queues.put(ioClass, new ClassQueue(ioClass));
+        }
+    }
+
+    /**
+     * Wait until an operation of the class may use the disk
+     *
+     * @param bytes (estimated) number of bytes read or written
+     */
+    public Permit acquire(IoClass ioClass, long bytes) throws InterruptedException {
+        ClassQueue queue = queues.get(ioClass);
+        long start = System.nanoTime();
+        queue.throttler.acquire(bytes);
+
+        Request request;
+        lock.lock();
+        try {
+            request = new Request(Math.max(1, bytes), lock.newCondition());
+            queue.requests.add(request);
+            dispatch();
+            try {
+                while (!request.granted) {
+                    request.condition.await();
+                }
+            } catch (InterruptedException e) {
+                if (request.granted) {
+                    release(queue);
+                } else {
+                    queue.requests.remove(request);
+                }
+                throw e;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        queue.completed.increment();
+        queue.bytes.add(bytes);
+        queue.recordWait(System.nanoTime() - start);
+        return new Permit(queue);
+    }
+
+    /**
+     * Grant free slots to the queued requests with the smallest start tags. Called with the lock held
+     */
+    private void dispatch() {
+        while (inFlight < slots) {
+            ClassQueue next = null;
+            double nextStart = 0;
+            for (ClassQueue queue : queues.values()) {
+                if (queue.requests.isEmpty()) {
+                    continue;
+                }
+                // a class that was idle does not get credit for the time it was idle
+                double start = Math.max(queue.finishTag, virtualTime);
+                if (next == null || start < nextStart) {
+                    next = queue;
+                    nextStart = start;
+                }
+            }
+            if (next == null) {
+                return;
+            }
+
+            Request request = next.requests.poll();
+            virtualTime = nextStart;
+            next.finishTag = nextStart + (double) request.bytes / next.ioClass.weight;
+            next.inFlight++;
+            inFlight++;
+            request.granted = true;
+            request.condition.signal();
+        }
+    }
+
+    private void release(ClassQueue queue) {
+        lock.lock();
+        try {
+            queue.inFlight--;
+            inFlight--;
+            dispatch();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param megabytesPerSecond zero or less removes the cap
+     */
+    public void setBandwidthCapMB(IoClass ioClass, long megabytesPerSecond) {
+        queues.get(ioClass).throttler.setBytesPerSecond(megabytesPerSecond * 1_000_000L);
+        log.info("Bandwidth cap of {} I/O set to {} MB/s", ioClass, megabytesPerSecond);
+    }
+
+    public long getBandwidthCapMB(IoClass ioClass) {
+        return queues.get(ioClass).throttler.getBytesPerSecond() / 1_000_000;
+    }
+
+    public int getQueueDepth(IoClass ioClass) {
+        lock.lock();
+        try {
+            return queues.get(ioClass).requests.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void printStatus() {
+        lock.lock();
+        try {
+            System.out.printf("I/O scheduler: {slots = %d, inFlight = %d}%n", slots, inFlight);
+            for (Map.Entry<IoClass, ClassQueue> entry : queues.entrySet()) {
+                ClassQueue queue = entry.getValue();
+                long completed = queue.completed.sum();
+                System.out.printf("\t[+] %s {weight = %d, cap = %d MB/s, queueDepth = %d, inFlight = %d, " +
+                                "operations = %d, bytes = %d, avgWait = %.2f ms, maxWait = %.2f ms}%n",
+                        entry.getKey(), entry.getKey().weight, queue.throttler.getBytesPerSecond() / 1_000_000,
+                        queue.requests.size(), queue.inFlight, completed, queue.bytes.sum(),
+                        completed == 0 ? 0.0 : queue.waitNanos.sum() / 1e6 / completed,
+                        queue.maxWaitNanos / 1e6);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Use of the disk by one operation; closing it lets the next queued operation start
+     */
+    public class Permit implements AutoCloseable {
+        private final ClassQueue queue;
+        private boolean released;
+
+        private Permit(ClassQueue queue) {
+            this.queue = queue;
+        }
+
+        @Override
+        public void close() {
+            if (!released) {
+                released = true;
+                release(queue);
+            }
+        }
+    }
+
+    private static class ClassQueue {
+        private final IoClass ioClass;
+        private final ArrayDeque<Request> requests;
+        private final Throttler throttler;
+        private double finishTag;
+        private int inFlight;
+
+        // statistics
+        private final LongAdder completed = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder waitNanos = new LongAdder();
+        private volatile long maxWaitNanos;
+
+        private ClassQueue(IoClass ioClass) {
+            this.ioClass = ioClass;
+            requests = new ArrayDeque<>();
+            throttler = new Throttler(ioClass.bandwidthCapMB * 1_000_000L);
+        }
+
+        private void recordWait(long nanos) {
+            waitNanos.add(nanos);
+            if (nanos > maxWaitNanos) {
+                maxWaitNanos = nanos;
+            }
+            if (nanos > TimeUnit.SECONDS.toNanos(1)) {
+                log.debug("{} I/O waited {} ms", ioClass, TimeUnit.NANOSECONDS.toMillis(nanos));
+            }
+        }
+    }
+
+    private static class Request {
+        private final long bytes;
+        private final Condition condition;
+        private boolean granted;
+
+        private Request(long bytes, Condition condition) {
+            this.bytes = bytes;
+            this.condition = condition;
+        }
+    }
+}
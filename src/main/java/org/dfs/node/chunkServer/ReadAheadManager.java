@@ -0,0 +1,252 @@
+package org.dfs.node.chunkServer;
+
+import org.dfs.models.Chunk;
+import org.dfs.util.Constants;
+import org.dfs.util.FileUtil;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Detects clients reading a file sequentially and prefetches the next chunks of the file stored on this
+ * ChunkServer into memory, so the following RetrieveChunkRequests do not wait for the disk.
+ * <p>
+ * Chunks of a file are spread over the chunk servers, so a read is sequential if it is for the next
+ * locally stored chunk after the previous read of the same file. The prefetch window of a file starts at
+ * one chunk, doubles while prefetched chunks are being used and halves when they are evicted unused;
+ * a non-sequential read stops prefetching for the file until it is read sequentially again.
+ * Prefetched data is only served while the chunk file is unchanged (size, modification time, file key).
+ */
+public class ReadAheadManager {
+    private static final Logger log = LogManager.getLogger(ReadAheadManager.class);
+
+    private final ChunkServer chunkServer;
+    private final ExecutorService prefetcher;
+
+    // fileName, read stream (access order, the least recently read files are forgotten)
+    private final LinkedHashMap<String, ReadStream> streams;
+    // chunkName, prefetched chunk (access order, the least recently used chunks are evicted)
+    private final LinkedHashMap<String, PrefetchedChunk> cache;
+
+    // statistics
+    private final LongAdder chunksPrefetched = new LongAdder();
+    private final LongAdder bytesPrefetched = new LongAdder();
+    private final LongAdder prefetchHits = new LongAdder();
+    private final LongAdder prefetchWasted = new LongAdder();
+    private final LongAdder sequentialReads = new LongAdder();
+    private final LongAdder randomReads = new LongAdder();
+
+    public ReadAheadManager(ChunkServer chunkServer) {
+        this.chunkServer = chunkServer;
+        streams = new LinkedHashMap<>(16, 0.75f, true);
+        cache = new LinkedHashMap<>(16, 0.75f, true);
+        prefetcher = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ReadAhead");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Record a client read of a chunk and start prefetching the following chunks if the file is read sequentially
+     *
+     * @return the chunk's (uncompressed) data if it was prefetched and the file has not changed since, null otherwise
+     */
+    public byte[] onRead(String chunkName, BasicFileAttributes attributes) {
+        String fileName = FileUtil.getFileNameFromChunkName(chunkName);
+        int sequenceNumber = getSequenceNumber(chunkName);
+        List<Integer> storedSequenceNumbers = chunkServer.getStoredSequenceNumbers(fileName);
+
+        byte[] data = null;
+        List<String> toPrefetch = new ArrayList<>();
+        synchronized (this) {
+            PrefetchedChunk prefetched = cache.remove(chunkName);
+            if (prefetched != null && prefetched.matches(attributes)) {
+                prefetchHits.increment();
+                data = prefetched.data;
+            } else if (prefetched != null) {
+                prefetchWasted.increment();
+            }
+
+            ReadStream stream = streams.get(fileName);
+            if (isSequential(stream, sequenceNumber, storedSequenceNumbers)) {
+                sequentialReads.increment();
+                if (stream == null) {
+                    stream = new ReadStream();
+                    streams.put(fileName, stream);
+                    trimStreams();
+                } else if (data != null) {
+                    stream.window = Math.min(stream.window * 2, Constants.ChunkServer.READ_AHEAD_MAX_WINDOW);
+                }
+                stream.lastSequenceNumber = sequenceNumber;
+
+                // the next chunks of the file stored here, not prefetched yet
+                for (int next : storedSequenceNumbers) {
+                    if (next > sequenceNumber && toPrefetch.size() < stream.window) {
+                        String nextChunkName = fileName + Constants.ChunkServer.EXT_DATA_CHUNK + next;
+                        if (!cache.containsKey(nextChunkName)) {
+                            toPrefetch.add(nextChunkName);
+                        }
+                    }
+                }
+            } else {
+                randomReads.increment();
+                streams.remove(fileName);
+            }
+        }
+
+        for (String nextChunkName : toPrefetch) {
+            prefetcher.execute(() -> prefetch(nextChunkName));
+        }
+        return data;
+    }
+
+    /**
+     * Drop a prefetched chunk (it has been rewritten, repaired or deleted)
+     */
+    public synchronized void invalidate(String chunkName) {
+        cache.remove(chunkName);
+    }
+
+    public void shutdown() {
+        prefetcher.shutdownNow();
+    }
+
+    private boolean isSequential(ReadStream stream, int sequenceNumber, List<Integer> storedSequenceNumbers) {
+        if (stream == null) {
+            // a read of the first chunk stored here starts a stream
+            return !storedSequenceNumbers.isEmpty() && storedSequenceNumbers.get(0) == sequenceNumber;
+        }
+        if (sequenceNumber <= stream.lastSequenceNumber) {
+            return false;
+        }
+        // no chunk stored here was skipped
+        for (int stored : storedSequenceNumbers) {
+            if (stored > stream.lastSequenceNumber && stored < sequenceNumber) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void prefetch(String chunkName) {
+        Path chunkPath = chunkServer.getChunkDir().resolve(chunkName);
+        Chunk chunkMetadata = chunkServer.getChunkMetadata(chunkName);
+        IoScheduler.Permit permit;
+        try {
+            permit = chunkServer.getIoScheduler().acquire(IoScheduler.IoClass.PREFETCH, Constants.CHUNK_SIZE);
+        } catch (InterruptedException e) {
+            return;
+        }
+        Lock lock = chunkServer.getChunkLocks().readLock(chunkName);
+        lock.lock();
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(chunkPath, BasicFileAttributes.class);
+            byte[] data = ChunkReader.readChunk(chunkPath, chunkMetadata);
+            chunksPrefetched.increment();
+            bytesPrefetched.add(data.length);
+            synchronized (this) {
+                cache.put(chunkName, new PrefetchedChunk(data, attributes));
+                evict();
+            }
+            log.debug("Prefetched {}", chunkName);
+        } catch (NoSuchFileException e) {
+            log.debug("{} was removed before it could be prefetched", chunkName);
+        } catch (IOException e) {
+            log.warn("Error prefetching {}: {}", chunkName, e.getLocalizedMessage());
+        } finally {
+            lock.unlock();
+            permit.close();
+        }
+    }
+
+    /**
+     * Evict the least recently used chunks above the cache size. Prefetching too far ahead shrinks the window
+     */
+    private void evict() {
+        Iterator<Map.Entry<String, PrefetchedChunk>> it = cache.entrySet().iterator();
+        while (cache.size() > Constants.ChunkServer.READ_AHEAD_CACHE_CHUNKS && it.hasNext()) {
+            String chunkName = it.next().getKey();
+            it.remove();
+            prefetchWasted.increment();
+            ReadStream stream = streams.get(FileUtil.getFileNameFromChunkName(chunkName));
+            if (stream != null) {
+                stream.window = Math.max(1, stream.window / 2);
+            }
+        }
+    }
+
+    private void trimStreams() {
+        Iterator<String> it = streams.keySet().iterator();
+        while (streams.size() > Constants.ChunkServer.READ_AHEAD_STREAMS && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    private static int getSequenceNumber(String chunkName) {
+        String sequence = chunkName.substring(chunkName.lastIndexOf(Constants.ChunkServer.EXT_DATA_CHUNK) +
+                Constants.ChunkServer.EXT_DATA_CHUNK.length());
+        return Integer.parseInt(sequence);
+    }
+
+    /**
+     * Share of prefetched chunks that were read by a client (1.0 if nothing was prefetched)
+     */
+    public double getAccuracy() {
+        long prefetched = chunksPrefetched.sum();
+        return prefetched == 0 ? 1.0 : (double) prefetchHits.sum() / prefetched;
+    }
+
+    public synchronized void printStatus() {
+        System.out.printf("Read-ahead: {streams = %d, cachedChunks = %d, chunksPrefetched = %d, bytesPrefetched = %d, " +
+                        "hits = %d, wasted = %d, accuracy = %.2f, sequentialReads = %d, randomReads = %d}%n",
+                streams.size(), cache.size(), chunksPrefetched.sum(), bytesPrefetched.sum(), prefetchHits.sum(),
+                prefetchWasted.sum(), getAccuracy(), sequentialReads.sum(), randomReads.sum());
+        for (Map.Entry<String, ReadStream> entry : streams.entrySet()) {
+            System.out.printf("\t[+] %s {lastChunk = %d, window = %d}%n", entry.getKey(),
+                    entry.getValue().lastSequenceNumber, entry.getValue().window);
+        }
+    }
+
+    private static class ReadStream {
+        private int lastSequenceNumber;
+        private int window = 1;
+    }
+
+    private static class PrefetchedChunk {
+        private final byte[] data;
+        private final long size;
+        private final FileTime lastModifiedTime;
+        private final Object fileKey;
+
+        private PrefetchedChunk(byte[] data, BasicFileAttributes attributes) {
+            this.data = data;
+            size = attributes.size();
+            lastModifiedTime = attributes.lastModifiedTime();
+            fileKey = attributes.fileKey();
+        }
+
+        private boolean matches(BasicFileAttributes attributes) {
+            return size == attributes.size() &&
+                    lastModifiedTime.equals(attributes.lastModifiedTime()) &&
+                    Objects.equals(fileKey, attributes.fileKey());
+        }
+    }
+}
@@ -0,0 +1,366 @@
+package org.dfs.node.chunkServer;
+
+import org.dfs.transport.TCPConnection;
+import org.dfs.util.Constants;
+import org.dfs.wireformats.StoreChunkAck;
+import org.dfs.wireformats.StoreChunkPacket;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cut-through chain replication: every packet of a chunk is forwarded to the next chunk server in the chain
+ * as soon as it arrives, and only then written locally, so all replicas are written at the same time and a
+ * chunk is stored on the whole chain about one packet after it is stored on the first chunk server.
+ * <p>
+ * Packets of a chunk arrive in order on one connection. A chunk is committed locally when its last packet
+ * has been written; a failure to store it here does not stop it from being forwarded, and writes whose
+ * packets stop arriving are discarded after a timeout.
+ * <p>
+ * Once the chunk is committed here and the next chunk server has acknowledged it (the tail of the chain does not
+ * wait), a {@link StoreChunkAck} with the status of this replica and all replicas after it is sent back to the
+ * sender. A next chunk server that cannot be reached or does not acknowledge in time is reported as such.
+ */
+public class ReplicationPipeline {
+    private static final Logger log = LogManager.getLogger(ReplicationPipeline.class);
+
+    private final ChunkServer chunkServer;
+    // chunkName#version, chunk being received
+    private final ConcurrentHashMap<String, PipelineWrite> writes;
+    // chunkName#version, chunk not acknowledged to the sender yet
+    private final ConcurrentHashMap<String, PipelineWrite> unacknowledged;
+    // host:port, connection to a next chunk server
+    private final ConcurrentHashMap<String, TCPConnection> downstreamConnections;
+
+    // statistics
+    private final LongAdder packetsReceived = new LongAdder();
+    private final LongAdder packetsForwarded = new LongAdder();
+    private final LongAdder chunksStored = new LongAdder();
+    private final LongAdder chunksFailed = new LongAdder();
+    private final LongAdder acksSent = new LongAdder();
+    private final LongAdder acksMissing = new LongAdder();
+
+    public ReplicationPipeline(ChunkServer chunkServer) {
+        this.chunkServer = chunkServer;
+        writes = new ConcurrentHashMap<>();
+        unacknowledged = new ConcurrentHashMap<>();
+        downstreamConnections = new ConcurrentHashMap<>();
+    }
+
+    public void onPacket(StoreChunkPacket packet) {
+        packetsReceived.increment();
+        String chunkName = packet.getFileName() + Constants.ChunkServer.EXT_DATA_CHUNK + packet.getSequenceNumber();
+        String key = chunkName + "#" + packet.getVersion();
+
+        PipelineWrite write;
+        if (packet.getOffset() == 0) {
+            PipelineWrite previous = writes.remove(key);
+            unacknowledged.remove(key);
+            if (previous != null) {
+                log.warn("{} (version {}) is being sent again. Discarding the incomplete copy", chunkName,
+                        packet.getVersion());
+                previous.abort();
+                chunksFailed.increment();
+            }
+            write = new PipelineWrite(key, chunkName, packet);
+            writes.put(key, write);
+            unacknowledged.put(key, write);
+        } else {
+            write = writes.get(key);
+            if (write == null) {
+                log.warn("Dropping packet at offset {} of {}: the start of the chunk was not received",
+                        packet.getOffset(), chunkName);
+                return;
+            }
+        }
+
+        synchronized (write) {
+            write.forward(packet);
+            write.writeLocally(packet);
+            if (packet.isLast()) {
+                writes.remove(key, write);
+                write.complete();
+                write.acknowledge();
+            }
+        }
+    }
+
+    /**
+     * Acknowledgement of a chunk from the next chunk server
+     */
+    public void onAck(StoreChunkAck ack) {
+        String key = ack.getFileName() + Constants.ChunkServer.EXT_DATA_CHUNK + ack.getSequenceNumber() + "#" +
+                ack.getVersion();
+        PipelineWrite write = unacknowledged.get(key);
+        if (write == null) {
+            log.debug("Ignoring late acknowledgement of {}", key);
+            return;
+        }
+        synchronized (write) {
+            write.downstreamAck = ack;
+            write.acknowledge();
+        }
+    }
+
+    /**
+     * Discard the chunks whose packets stopped arriving (the sender failed), and acknowledge the chunks
+     * the next chunk server has not acknowledged in time
+     */
+    public void expireStalled() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, PipelineWrite>> it = writes.entrySet().iterator();
+        while (it.hasNext()) {
+            PipelineWrite write = it.next().getValue();
+            if (now - write.lastPacketTime > Constants.ChunkServer.PIPELINE_TIMEOUT) {
+                it.remove();
+                unacknowledged.remove(write.key, write);
+                log.warn("No packets of {} received for {} ms. Discarding it", write.chunkName,
+                        Constants.ChunkServer.PIPELINE_TIMEOUT);
+                write.abort();
+                chunksFailed.increment();
+            }
+        }
+
+        for (PipelineWrite write : unacknowledged.values()) {
+            synchronized (write) {
+                // the chunk servers further down the chain time out first
+                if (write.completed && now - write.lastPacketTime >
+                        (long) Constants.ChunkServer.ACK_TIMEOUT * write.nextHosts.length) {
+                    log.warn("{} was not acknowledged by {}:{} in time", write.chunkName, write.nextHosts[0],
+                            write.nextPorts[0]);
+                    acksMissing.increment();
+                    write.downstream = null;
+                    write.acknowledge();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the connection to a chunk server (opened the first time, and shared with the chunks forwarded to it)
+     */
+    TCPConnection getConnection(String host, int port) throws IOException {
+        String key = host + ":" + port;
+        TCPConnection connection = downstreamConnections.get(key);
+        if (connection == null) {
+            connection = new TCPConnection(new Socket(host, port), chunkServer);
+            TCPConnection existing = downstreamConnections.putIfAbsent(key, connection);
+            if (existing != null) {
+                connection.getSocket().close();
+                connection = existing;
+            }
+        }
+        return connection;
+    }
+
+    public void printStatus() {
+        System.out.printf("Replication pipeline: {inProgress = %d, unacknowledged = %d, downstreamConnections = %d, " +
+                        "packetsReceived = %d, packetsForwarded = %d, chunksStored = %d, chunksFailed = %d, " +
+                        "acksSent = %d, acksMissing = %d}%n", writes.size(), unacknowledged.size(),
+                downstreamConnections.size(), packetsReceived.sum(), packetsForwarded.sum(), chunksStored.sum(),
+                chunksFailed.sum(), acksSent.sum(), acksMissing.sum());
+        for (PipelineWrite write : writes.values()) {
+            System.out.printf("\t[+] %s {received = %d of %d bytes, replicasDownstream = %d}%n", write.chunkName,
+                    write.received, write.chunkLength, write.nextHosts.length);
+        }
+    }
+
+    /**
+     * A chunk being received: forwarded to the next chunk server and written to a temporary file
+     */
+    private class PipelineWrite {
+        private final String key;
+        private final String chunkName;
+        private final String fileName;
+        private final int sequenceNumber;
+        private final int version;
+        private final int chunkLength;
+        private final String[] nextHosts;
+        private final int[] nextPorts;
+        // sender of the packets (null if it does not expect an acknowledgement)
+        private final TCPConnection upstream;
+        private final String replica; // host:port of this chunk server, as addressed by the sender
+        private final long startNanos;
+        private TCPConnection downstream;
+        private IncomingChunk incoming;
+        private boolean reserved;
+        private int received;
+        private volatile long lastPacketTime;
+        private boolean completed;
+        private int status = StoreChunkAck.STATUS_FAILED;
+        private long writeMicros;
+        private StoreChunkAck downstreamAck;
+
+        private PipelineWrite(String key, String chunkName, StoreChunkPacket first) {
+            this.key = key;
+            this.chunkName = chunkName;
+            fileName = first.getFileName();
+            sequenceNumber = first.getSequenceNumber();
+            version = first.getVersion();
+            chunkLength = first.getChunkLength();
+            nextHosts = first.getNextChunkServerHosts();
+            nextPorts = first.getNextChunkServerPorts();
+            upstream = chunkServer.getConnection(first.getSocket());
+            replica = first.getSocket() == null ? chunkServer.getHostName() + ":" + chunkServer.getListeningPort() :
+                    first.getSocket().getLocalAddress().getHostAddress() + ":" + chunkServer.getListeningPort();
+            startNanos = System.nanoTime();
+            lastPacketTime = System.currentTimeMillis();
+
+            if (nextHosts.length > 0) {
+                try {
+                    downstream = getConnection(nextHosts[0], nextPorts[0]);
+                } catch (IOException e) {
+                    log.error("Cannot connect to {}:{} to forward {}: {}", nextHosts[0], nextPorts[0], chunkName,
+                            e.getLocalizedMessage());
+                }
+            }
+
+            if (!chunkServer.reserveSpace(chunkName, version, chunkLength)) {
+                log.error("Not enough space to store {}. Forwarding it without storing", chunkName);
+                return;
+            }
+            reserved = true;
+            try {
+                incoming = chunkServer.startChunk(first.getFileName(), first.getSequenceNumber(), first.getVersion());
+            } catch (IOException e) {
+                log.error("Error creating {}: {}", chunkName, e.getLocalizedMessage());
+            }
+            if (incoming == null) {
+                releaseSpace();
+            }
+        }
+
+        private void forward(StoreChunkPacket packet) {
+            if (downstream == null) {
+                return;
+            }
+            StoreChunkPacket next = new StoreChunkPacket();
+            next.setFileName(packet.getFileName());
+            next.setSequenceNumber(packet.getSequenceNumber());
+            next.setVersion(packet.getVersion());
+            next.setChunkLength(packet.getChunkLength());
+            next.setOffset(packet.getOffset());
+            next.setData(packet.getData());
+            next.setNoOfNextChunkServers(nextHosts.length - 1);
+            next.setNextChunkServerHosts(Arrays.copyOfRange(nextHosts, 1, nextHosts.length));
+            next.setNextChunkServerPorts(Arrays.copyOfRange(nextPorts, 1, nextPorts.length));
+            try {
+                downstream.sendData(next.getBytes());
+                packetsForwarded.increment();
+            } catch (IOException e) {
+                log.error("Error forwarding {} to {}:{}: {}", chunkName, nextHosts[0], nextPorts[0],
+                        e.getLocalizedMessage());
+                downstreamConnections.remove(nextHosts[0] + ":" + nextPorts[0], downstream);
+                downstream = null;
+            }
+        }
+
+        @SuppressWarnings("try")
+        private void writeLocally(StoreChunkPacket packet) {
+            lastPacketTime = System.currentTimeMillis();
+            if (incoming == null) {
+                return;
+            }
+            if (packet.getOffset() != received) {
+                log.error("Expected {} at offset {}, received offset {}. Discarding it", chunkName, received,
+                        packet.getOffset());
+                abort();
+                return;
+            }
+            byte[] data = packet.getData();
+            try (IoScheduler.Permit permit = chunkServer.getIoScheduler().acquire(IoScheduler.IoClass.REPLICATION,
+                    data.length)) {
+                incoming.write(data, 0, data.length);
+                received += data.length;
+            } catch (IOException e) {
+                log.error("Error writing {} to disk: {}", chunkName, e.getLocalizedMessage());
+                abort();
+            } catch (InterruptedException e) {
+                log.warn("Interrupted while waiting to write {}", chunkName);
+                abort();
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void complete() {
+            completed = true;
+            if (incoming == null) {
+                chunksFailed.increment();
+                return;
+            }
+            try {
+                chunkServer.finishChunk(incoming);
+                status = StoreChunkAck.STATUS_STORED;
+                writeMicros = (System.nanoTime() - startNanos) / 1000;
+                chunksStored.increment();
+                log.info("Stored {} (version {}), {} more replicas downstream", chunkName,
+                        incoming.getMetadata().getVersion(), downstream == null ? 0 : nextHosts.length);
+            } catch (IOException e) {
+                log.error("Error committing {}: {}", chunkName, e.getLocalizedMessage());
+                chunksFailed.increment();
+            } finally {
+                incoming.abort();
+                incoming = null;
+                releaseSpace();
+            }
+        }
+
+        /**
+         * Send the status of this replica and of the replicas after it to the sender, once the chunk is
+         * committed here and the next chunk server has acknowledged it (or cannot)
+         */
+        private void acknowledge() {
+            if (!completed || (downstream != null && downstreamAck == null) || !unacknowledged.remove(key, this)) {
+                return;
+            }
+            StoreChunkAck ack = new StoreChunkAck();
+            ack.setFileName(fileName);
+            ack.setSequenceNumber(sequenceNumber);
+            ack.setVersion(version);
+            ack.addReplica(replica, status, writeMicros);
+            if (downstreamAck != null) {
+                for (int i = 0; i < downstreamAck.getReplicas().size(); i++) {
+                    ack.addReplica(downstreamAck.getReplicas().get(i), downstreamAck.getStatuses().get(i),
+                            downstreamAck.getWriteMicros().get(i));
+                }
+            } else {
+                for (int i = 0; i < nextHosts.length; i++) {
+                    ack.addReplica(nextHosts[i] + ":" + nextPorts[i], StoreChunkAck.STATUS_NO_ACK, 0);
+                }
+            }
+
+            if (upstream == null) {
+                return;
+            }
+            try {
+                upstream.sendData(ack.getBytes());
+                acksSent.increment();
+                log.debug("Acknowledged {} (version {}): {}", chunkName, version, ack.getStatuses());
+            } catch (IOException e) {
+                log.error("Error acknowledging {}: {}", chunkName, e.getLocalizedMessage());
+            }
+        }
+
+        private synchronized void abort() {
+            if (incoming != null) {
+                incoming.abort();
+                incoming = null;
+            }
+            releaseSpace();
+        }
+
+        private void releaseSpace() {
+            if (reserved) {
+                reserved = false;
+                chunkServer.releaseSpace(chunkName, version);
+            }
+        }
+    }
+}
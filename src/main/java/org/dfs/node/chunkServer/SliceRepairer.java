@@ -0,0 +1,368 @@
+package org.dfs.node.chunkServer;
+
+import org.dfs.models.Chunk;
+import org.dfs.transport.TCPConnection;
+import org.dfs.util.Constants;
+import org.dfs.util.FileUtil;
+import org.dfs.util.checksum.Checksums;
+import org.dfs.util.compression.CompressionCodec;
+import org.dfs.wireformats.RepairSlicesRequest;
+import org.dfs.wireformats.RepairSlicesResponse;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Repairs a corrupted chunk from another replica one slice at a time: the corrupted slices are found by
+ * checking the local chunk against its slice checksums, and only those are requested from the replica.
+ * A slice is patched only if it matches both the checksum the replica sent for it and the one stored here,
+ * so a bad replica (or a different version) cannot make things worse.
+ * <p>
+ * The slices are patched into a copy of the chunk, which is checked against the chunk digest and then
+ * committed like a new version of the chunk (synced, and renamed over the chunk). Readers, including ones that
+ * do not take the chunk lock, see the chunk either before or after the repair, and a crash leaves one or the
+ * other. Chunks that cannot be patched slice by slice (compressed, without slice checksums, or corrupted in a
+ * way the slices do not show) are fetched whole instead, and committed the same way.
+ */
+public class SliceRepairer {
+    private static final Logger log = LogManager.getLogger(SliceRepairer.class);
+
+    private final ChunkServer chunkServer;
+    private final ReplicationPipeline replicationPipeline;
+    // chunks are scanned and patched one at a time
+    private final ExecutorService repairer;
+    // chunkName, repair waiting for the replica's slices
+    private final ConcurrentHashMap<String, PendingRepair> pendingRepairs;
+
+    // statistics
+    private final LongAdder chunksRepaired = new LongAdder();
+    private final LongAdder slicesRepaired = new LongAdder();
+    private final LongAdder bytesFetched = new LongAdder();
+    private final LongAdder wholeChunkBytes = new LongAdder(); // what fetching the repaired chunks whole would take
+    private final LongAdder wholeChunkFetches = new LongAdder();
+    private final LongAdder repairsFailed = new LongAdder();
+
+    public SliceRepairer(ChunkServer chunkServer, ReplicationPipeline replicationPipeline) {
+        this.chunkServer = chunkServer;
+        this.replicationPipeline = replicationPipeline;
+        pendingRepairs = new ConcurrentHashMap<>();
+        repairer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "SliceRepairer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Repair a corrupted chunk from the replica on host:port
+     */
+    public void repair(String chunkName, String host, int port) {
+        repairer.execute(() -> requestSlices(chunkName, host, port));
+    }
+
+    /**
+     * Send the slices of a replica requested by another ChunkServer
+     */
+    public void serve(RepairSlicesRequest request) {
+        repairer.execute(() -> sendSlices(request));
+    }
+
+    public void onResponse(RepairSlicesResponse response) {
+        repairer.execute(() -> patchSlices(response));
+    }
+
+    private void requestSlices(String chunkName, String host, int port) {
+        Chunk chunkMetadata = chunkServer.getChunkMetadata(chunkName);
+        if (chunkMetadata == null || chunkMetadata.getCodec() != CompressionCodec.NONE ||
+                chunkMetadata.getSliceHashes() == null || chunkMetadata.getSliceHashes().isEmpty()) {
+            // compressed slices cannot be patched in place
+            fetchWholeChunk(chunkName, host, port);
+            return;
+        }
+
+        ArrayList<Integer> corruptedSlices;
+        try {
+            corruptedSlices = findCorruptedSlices(chunkName, chunkMetadata);
+        } catch (IOException e) {
+            log.error("Error reading {} to find its corrupted slices: {}", chunkName, e.getLocalizedMessage());
+            fetchWholeChunk(chunkName, host, port);
+            return;
+        } catch (InterruptedException e) {
+            log.warn("Interrupted while waiting to read {}", chunkName);
+            Thread.currentThread().interrupt();
+            return;
+        }
+        if (corruptedSlices == null) {
+            // the slices are intact but the chunk is not
+            fetchWholeChunk(chunkName, host, port);
+            return;
+        }
+        if (corruptedSlices.isEmpty()) {
+            log.info("{} is intact. Nothing to repair", chunkName);
+            return;
+        }
+
+        RepairSlicesRequest request = new RepairSlicesRequest();
+        request.setChunkName(chunkName);
+        request.setVersion(chunkMetadata.getVersion());
+        request.setSlices(corruptedSlices);
+        PendingRepair repair = new PendingRepair(chunkName, chunkMetadata.getVersion(), host, port);
+        pendingRepairs.put(chunkName, repair);
+        try {
+            replicationPipeline.getConnection(host, port).sendData(request.getBytes());
+            log.info("Requesting {} corrupted slices {} of {} from {}:{}", corruptedSlices.size(), corruptedSlices,
+                    chunkName, host, port);
+        } catch (IOException e) {
+            log.error("Error requesting slices of {} from {}:{}: {}", chunkName, host, port,
+                    e.getLocalizedMessage());
+            pendingRepairs.remove(chunkName, repair);
+            repairsFailed.increment();
+        }
+    }
+
+    /**
+     * @return numbers of the slices that do not match their checksums (missing slices of a truncated chunk
+     * included), or null if the chunk is corrupted although its slices are not (it has extra data)
+     */
+    @SuppressWarnings("try")
+    private ArrayList<Integer> findCorruptedSlices(String chunkName, Chunk chunkMetadata)
+            throws IOException, InterruptedException {
+        byte[] data;
+        Lock lock = chunkServer.getChunkLocks().readLock(chunkName);
+        try (IoScheduler.Permit permit = chunkServer.getIoScheduler().acquire(IoScheduler.IoClass.REPAIR,
+                Constants.CHUNK_SIZE)) {
+            lock.lock();
+            try {
+                data = Files.readAllBytes(chunkServer.getChunkDir().resolve(chunkName));
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        List<String> sliceHashes = chunkMetadata.getSliceHashes();
+        ArrayList<Integer> corruptedSlices = new ArrayList<>();
+        for (int i = 0; i < sliceHashes.size(); i++) {
+            int offset = i * Constants.SLICE_SIZE;
+            int length = Math.max(0, Math.min(Constants.SLICE_SIZE, data.length - offset));
+            if (length == 0 || !Checksums.hash(chunkMetadata.getSliceChecksumType(), data, offset, length)
+                    .equals(sliceHashes.get(i))) {
+                corruptedSlices.add(i);
+            }
+        }
+        if (corruptedSlices.isEmpty() &&
+                !FileUtil.hash(data, chunkMetadata.getChunkChecksumType()).equals(chunkMetadata.getChunkHash())) {
+            return null;
+        }
+        return corruptedSlices;
+    }
+
+    private void sendSlices(RepairSlicesRequest request) {
+        String chunkName = request.getChunkName();
+        RepairSlicesResponse response = new RepairSlicesResponse();
+        response.setChunkName(chunkName);
+        response.setVersion(request.getVersion());
+
+        Chunk chunkMetadata = chunkServer.getChunkMetadata(chunkName);
+        if (chunkMetadata == null || chunkMetadata.getVersion() != request.getVersion()) {
+            log.warn("{} (version {}) is not stored here. Cannot send its slices", chunkName, request.getVersion());
+        } else {
+            readSlices(request, chunkMetadata, response);
+        }
+
+        TCPConnection connection = chunkServer.getConnection(request.getSocket());
+        if (connection == null) {
+            log.warn("No connection to send the slices of {} on", chunkName);
+            return;
+        }
+        try {
+            connection.sendData(response.getBytes());
+        } catch (IOException e) {
+            log.error("Error sending the slices of {}: {}", chunkName, e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Read the requested slices into the response, verified against the checksums stored here
+     */
+    @SuppressWarnings("try")
+    private void readSlices(RepairSlicesRequest request, Chunk chunkMetadata, RepairSlicesResponse response) {
+        String chunkName = request.getChunkName();
+        Path chunkPath = chunkServer.getChunkDir().resolve(chunkName);
+        List<String> sliceHashes = chunkMetadata.getSliceHashes();
+        Lock lock = chunkServer.getChunkLocks().readLock(chunkName);
+        try (IoScheduler.Permit permit = chunkServer.getIoScheduler().acquire(IoScheduler.IoClass.REPAIR,
+                (long) request.getSlices().size() * Constants.SLICE_SIZE)) {
+            lock.lock();
+            try {
+                int chunkLength = ChunkReader.getLength(chunkPath, chunkMetadata);
+                for (int slice : request.getSlices()) {
+                    byte[] data = ChunkReader.readRange(chunkPath, chunkMetadata,
+                            (long) slice * Constants.SLICE_SIZE, Constants.SLICE_SIZE);
+                    if (slice >= sliceHashes.size() || data.length == 0 ||
+                            !FileUtil.hash(data, chunkMetadata.getSliceChecksumType()).equals(sliceHashes.get(slice))) {
+                        log.warn("Slice {} of {} is corrupted here too. Not sending it", slice + 1, chunkName);
+                        chunkServer.reportChunkCorruption(chunkName);
+                        return;
+                    }
+                    response.addSlice(slice, data, sliceHashes.get(slice));
+                }
+                response.setChunkLength(chunkLength);
+                response.setSliceChecksumType(chunkMetadata.getSliceChecksumType());
+                response.setFound(true);
+            } finally {
+                lock.unlock();
+            }
+            log.info("Sending {} slices of {} for repair", response.getSlices().size(), chunkName);
+        } catch (IOException e) {
+            log.error("Error reading slices of {}: {}", chunkName, e.getLocalizedMessage());
+        } catch (InterruptedException e) {
+            log.warn("Interrupted while waiting to read {}", chunkName);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @SuppressWarnings("try")
+    private void patchSlices(RepairSlicesResponse response) {
+        String chunkName = response.getChunkName();
+        PendingRepair repair = pendingRepairs.get(chunkName);
+        if (repair == null || repair.version != response.getVersion() || !pendingRepairs.remove(chunkName, repair)) {
+            log.debug("Ignoring late slices of {}", chunkName);
+            return;
+        }
+        if (!response.isFound()) {
+            log.warn("{}:{} could not send the slices of {}", repair.host, repair.port, chunkName);
+            repairsFailed.increment();
+            return;
+        }
+        Chunk chunkMetadata = chunkServer.getChunkMetadata(chunkName);
+        if (chunkMetadata == null || chunkMetadata.getVersion() != response.getVersion()) {
+            log.warn("{} has changed since its slices were requested. Not patching it", chunkName);
+            repairsFailed.increment();
+            return;
+        }
+
+        long bytes = 0;
+        List<String> sliceHashes = chunkMetadata.getSliceHashes();
+        for (int i = 0; i < response.getSlices().size(); i++) {
+            int slice = response.getSlices().get(i);
+            byte[] data = response.getSliceData().get(i);
+            int expectedLength = Math.min(Constants.SLICE_SIZE,
+                    response.getChunkLength() - slice * Constants.SLICE_SIZE);
+            // the slice must be what the replica stores, and what this chunk should contain
+            if (data.length != expectedLength || slice >= sliceHashes.size() ||
+                    !FileUtil.hash(data, response.getSliceChecksumType()).equals(response.getSliceHashes().get(i)) ||
+                    !FileUtil.hash(data, chunkMetadata.getSliceChecksumType()).equals(sliceHashes.get(slice))) {
+                log.warn("Slice {} of {} from {}:{} does not match its checksums. Fetching the chunk whole", slice + 1,
+                        chunkName, repair.host, repair.port);
+                fetchWholeChunk(chunkName, repair.host, repair.port);
+                return;
+            }
+            bytes += data.length;
+        }
+
+        // the slices are patched into a copy of the chunk, which replaces the chunk as a whole
+        Path chunkPath = chunkServer.getChunkDir().resolve(chunkName);
+        Lock lock = chunkServer.getChunkLocks().readLock(chunkName);
+        try (IoScheduler.Permit permit = chunkServer.getIoScheduler().acquire(IoScheduler.IoClass.REPAIR,
+                2L * response.getChunkLength())) {
+            byte[] chunk;
+            lock.lock();
+            try {
+                chunk = Files.readAllBytes(chunkPath);
+            } finally {
+                lock.unlock();
+            }
+            chunk = Arrays.copyOf(chunk, response.getChunkLength());
+            for (int i = 0; i < response.getSlices().size(); i++) {
+                byte[] data = response.getSliceData().get(i);
+                System.arraycopy(data, 0, chunk, response.getSlices().get(i) * Constants.SLICE_SIZE, data.length);
+            }
+            if (!FileUtil.hash(chunk, chunkMetadata.getChunkChecksumType()).equals(chunkMetadata.getChunkHash())) {
+                log.warn("{} would still be corrupted after patching {} slices. Fetching it whole", chunkName,
+                        response.getSlices().size());
+                fetchWholeChunk(chunkName, repair.host, repair.port);
+                return;
+            }
+            chunkServer.storeRepairedChunk(chunkName, response.getVersion(), chunk);
+        } catch (IOException e) {
+            log.error("Error patching {}: {}", chunkName, e.getLocalizedMessage());
+            repairsFailed.increment();
+            return;
+        } catch (InterruptedException e) {
+            log.warn("Interrupted while waiting to repair {}", chunkName);
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        chunksRepaired.increment();
+        slicesRepaired.add(response.getSlices().size());
+        bytesFetched.add(bytes);
+        wholeChunkBytes.add(response.getChunkLength());
+        log.info("Repaired {} slices ({} of {} bytes) of {} from {}:{}", response.getSlices().size(), bytes,
+                response.getChunkLength(), chunkName, repair.host, repair.port);
+    }
+
+    private void fetchWholeChunk(String chunkName, String host, int port) {
+        wholeChunkFetches.increment();
+        try {
+            chunkServer.fetchChunk(chunkName, host, port);
+        } catch (IOException e) {
+            log.error("Error fetching {} from {}:{}: {}", chunkName, host, port, e.getLocalizedMessage());
+            repairsFailed.increment();
+        }
+    }
+
+    /**
+     * Give up on the repairs the replica has not answered in time (the corruption is found and reported again)
+     */
+    public void expireStalled() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, PendingRepair>> it = pendingRepairs.entrySet().iterator();
+        while (it.hasNext()) {
+            PendingRepair repair = it.next().getValue();
+            if (now - repair.requestedAt > Constants.ChunkServer.ACK_TIMEOUT) {
+                it.remove();
+                log.warn("{}:{} did not send the slices of {} in time", repair.host, repair.port, repair.chunkName);
+                repairsFailed.increment();
+            }
+        }
+    }
+
+    public void printStatus() {
+        long wholeBytes = wholeChunkBytes.sum();
+        System.out.printf("Slice repair: {pending = %d, chunksRepaired = %d, slicesRepaired = %d, " +
+                        "bytesFetched = %d (%.1f%% of the repaired chunks), wholeChunkFetches = %d, failed = %d}%n",
+                pendingRepairs.size(), chunksRepaired.sum(), slicesRepaired.sum(), bytesFetched.sum(),
+                wholeBytes == 0 ? 0 : 100.0 * bytesFetched.sum() / wholeBytes, wholeChunkFetches.sum(),
+                repairsFailed.sum());
+    }
+
+    private static class PendingRepair {
+        private final String chunkName;
+        private final int version;
+        private final String host;
+        private final int port;
+        private final long requestedAt;
+
+        private PendingRepair(String chunkName, int version, String host, int port) {
+            this.chunkName = chunkName;
+            this.version = version;
+            this.host = host;
+            this.port = port;
+            requestedAt = System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package org.dfs.node.chunkServer;
+
+import org.dfs.util.Constants;
+import org.dfs.util.FileUtil;
+import org.dfs.util.erasure.ReedSolomon;
+import org.dfs.wireformats.RebuildStripe;
+import org.dfs.wireformats.ReplicateChunk;
+import org.dfs.wireformats.RetrieveChunkRequest;
+import org.dfs.wireformats.RetrieveChunkResponse;
+import org.dfs.wireformats.StoreChunkAck;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Rebuilds a lost (or corrupted) stripe of the chunk of an erasure-coded file when the Controller asks for it.
+ * A stripe is stored once, so there is no replica to copy it from: dataStripes of the other stripes are fetched
+ * from the ChunkServers holding them (another one for each that cannot be fetched, or does not match its digest),
+ * and the lost stripe is decoded from them. It is then sent to the target like a re-replication copy
+ * ({@link ChunkReplicator}): through the target's {@link ReplicationPipeline}, which acknowledges it, and the
+ * outcome is reported to the Controller.
+ */
+public class StripeRebuilder {
+    private static final Logger log = LogManager.getLogger(StripeRebuilder.class);
+
+    private final ReplicationPipeline replicationPipeline;
+    private final ChunkReplicator chunkReplicator;
+    // stripes are decoded one chunk at a time, the Controller limits how many rebuilds it asks for
+    private final ExecutorService rebuilder;
+    // chunkName of a stripe being fetched, rebuild waiting for it
+    private final ConcurrentHashMap<String, PendingRebuild> pendingFetches;
+
+    // statistics
+    private final LongAdder stripesRebuilt = new LongAdder();
+    private final LongAdder rebuildsFailed = new LongAdder();
+    private final LongAdder bytesFetched = new LongAdder();
+
+    public StripeRebuilder(ReplicationPipeline replicationPipeline, ChunkReplicator chunkReplicator) {
+        this.replicationPipeline = replicationPipeline;
+        this.chunkReplicator = chunkReplicator;
+        pendingFetches = new ConcurrentHashMap<>();
+        rebuilder = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "StripeRebuilder");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void rebuild(RebuildStripe request) {
+        rebuilder.execute(() -> start(request));
+    }
+
+    /**
+     * A stripe fetched from another ChunkServer
+     *
+     * @return false if the stripe was not fetched for a rebuild (the chunk is fetched to repair a local one)
+     */
+    public boolean onResponse(RetrieveChunkResponse response) {
+        PendingRebuild rebuild = pendingFetches.remove(response.getChunkName());
+        if (rebuild == null) {
+            return false;
+        }
+        rebuilder.execute(() -> onStripe(rebuild, response));
+        return true;
+    }
+
+    /**
+     * Give up on the stripes their ChunkServers have not sent in time, and fetch others instead
+     */
+    public void expireStalled() {
+        long now = System.currentTimeMillis();
+        for (PendingRebuild rebuild : new ArrayList<>(pendingFetches.values())) {
+            rebuilder.execute(() -> {
+                for (int i = 0; i < rebuild.stripeNames.length; i++) {
+                    if (rebuild.requestedAt[i] > 0 && rebuild.stripes[i] == null &&
+                            now - rebuild.requestedAt[i] > Constants.ChunkServer.ACK_TIMEOUT &&
+                            pendingFetches.remove(rebuild.stripeNames[i], rebuild)) {
+                        log.warn("{} was not sent in time to rebuild {}", rebuild.stripeNames[i],
+                                rebuild.request.getChunkName());
+                        rebuild.requestedAt[i] = 0;
+                        rebuild.outstanding--;
+                    }
+                }
+                fetchStripes(rebuild);
+            });
+        }
+    }
+
+    private void start(RebuildStripe request) {
+        String chunkName = request.getChunkName();
+        String storedFileName = FileUtil.getFileNameFromChunkName(chunkName);
+        int lostStripe = FileUtil.getStripe(storedFileName);
+        if (lostStripe < 0 || lostStripe >= request.getStripeHosts().length) {
+            log.error("{} is not a stripe of a chunk of {} stripes", chunkName, request.getStripeHosts().length);
+            fail(new PendingRebuild(request, -1, new String[0]));
+            return;
+        }
+        String originalFileName = FileUtil.getOriginalFileName(chunkName);
+        String originalChunkName = originalFileName + chunkName.substring(storedFileName.length());
+        String[] stripeNames = new String[request.getStripeHosts().length];
+        for (int i = 0; i < stripeNames.length; i++) {
+            stripeNames[i] = FileUtil.getStripeChunkName(originalChunkName, i);
+        }
+
+        PendingRebuild rebuild = new PendingRebuild(request, lostStripe, stripeNames);
+        log.info("Rebuilding {} (version {}) from {} of the other stripes", chunkName, request.getVersion(),
+                request.getDataStripes());
+        fetchStripes(rebuild);
+    }
+
+    /**
+     * Request stripes until enough are fetched or being fetched to decode the lost one, data stripes first
+     * (they decode cheaper); give up if there are no more to request
+     */
+    private void fetchStripes(PendingRebuild rebuild) {
+        if (rebuild.done) {
+            return;
+        }
+        RebuildStripe request = rebuild.request;
+        for (int i = 0; i < rebuild.stripeNames.length && rebuild.present + rebuild.outstanding <
+                request.getDataStripes(); i++) {
+            if (i == rebuild.lostStripe || rebuild.tried[i] || request.getStripeHosts()[i].isEmpty()) {
+                continue;
+            }
+            rebuild.tried[i] = true;
+            RetrieveChunkRequest retrieveChunkRequest = new RetrieveChunkRequest();
+            retrieveChunkRequest.setChunkName(rebuild.stripeNames[i]);
+            pendingFetches.put(rebuild.stripeNames[i], rebuild);
+            try {
+                replicationPipeline.getConnection(request.getStripeHosts()[i], request.getStripePorts()[i])
+                        .sendData(retrieveChunkRequest.getBytes());
+                rebuild.requestedAt[i] = System.currentTimeMillis();
+                rebuild.outstanding++;
+            } catch (IOException e) {
+                log.warn("Error requesting {} from {}:{}: {}", rebuild.stripeNames[i], request.getStripeHosts()[i],
+                        request.getStripePorts()[i], e.getLocalizedMessage());
+                pendingFetches.remove(rebuild.stripeNames[i], rebuild);
+            }
+        }
+        if (rebuild.present + rebuild.outstanding < request.getDataStripes()) {
+            log.error("Only {} stripes of the chunk of {} can be fetched. {} are needed to rebuild it",
+                    rebuild.present + rebuild.outstanding, request.getChunkName(), request.getDataStripes());
+            fail(rebuild);
+        }
+    }
+
+    private void onStripe(PendingRebuild rebuild, RetrieveChunkResponse response) {
+        int stripe = rebuild.indexOf(response.getChunkName());
+        if (rebuild.done || stripe < 0 || rebuild.requestedAt[stripe] == 0) {
+            log.debug("Ignoring late stripe {}", response.getChunkName());
+            return;
+        }
+        rebuild.requestedAt[stripe] = 0;
+        rebuild.outstanding--;
+
+        byte[] data = response.getChunk();
+        if (response.getStatus() != RetrieveChunkResponse.STATUS_OK) {
+            log.warn("{} could not be fetched (status {})", response.getChunkName(), response.getStatus());
+        } else if (response.getVersion() != rebuild.request.getVersion()) {
+            log.warn("{} is at version {}, not version {}. Not rebuilding from it", response.getChunkName(),
+                    response.getVersion(), rebuild.request.getVersion());
+        } else if (!FileUtil.hash(data, response.getChunkHashType()).equals(response.getChunkHash())) {
+            log.warn("{} does not match its digest. Not rebuilding from it", response.getChunkName());
+        } else if (rebuild.stripeSize >= 0 && data.length != rebuild.stripeSize) {
+            log.warn("{} is {} bytes, other stripes are {} bytes. Not rebuilding from it", response.getChunkName(),
+                    data.length, rebuild.stripeSize);
+        } else {
+            rebuild.stripes[stripe] = data;
+            rebuild.stripeSize = data.length;
+            rebuild.present++;
+            bytesFetched.add(data.length);
+        }
+
+        if (rebuild.present < rebuild.request.getDataStripes()) {
+            fetchStripes(rebuild);
+            return;
+        }
+
+        // every stripe is rebuilt from the data stripes, so the lost one is decoded whether it is data or parity
+        RebuildStripe request = rebuild.request;
+        rebuild.done = true;
+        ReedSolomon codec = new ReedSolomon(request.getDataStripes(), request.getParityStripes());
+        rebuild.stripes[rebuild.lostStripe] = null;
+        codec.decode(rebuild.stripes, rebuild.stripeSize);
+        byte[] rebuilt = rebuild.stripes[rebuild.lostStripe];
+
+        String chunkName = request.getChunkName();
+        String storedFileName = FileUtil.getFileNameFromChunkName(chunkName);
+        int sequenceNumber = Integer.parseInt(
+                chunkName.substring(storedFileName.length() + Constants.ChunkServer.EXT_DATA_CHUNK.length()));
+        stripesRebuilt.increment();
+        log.info("Rebuilt {} ({} bytes). Storing it on {}:{}", chunkName, rebuilt.length, request.getTargetHost(),
+                request.getTargetPort());
+        chunkReplicator.send(rebuild.replicateChunk, storedFileName, sequenceNumber, request.getVersion(), rebuilt);
+    }
+
+    private void fail(PendingRebuild rebuild) {
+        rebuild.done = true;
+        for (String stripeName : rebuild.stripeNames) {
+            pendingFetches.remove(stripeName, rebuild);
+        }
+        rebuildsFailed.increment();
+        chunkReplicator.respond(rebuild.replicateChunk, StoreChunkAck.STATUS_FAILED, 0);
+    }
+
+    public void printStatus() {
+        List<String> rebuilding = new ArrayList<>();
+        for (PendingRebuild rebuild : pendingFetches.values()) {
+            if (!rebuilding.contains(rebuild.request.getChunkName())) {
+                rebuilding.add(rebuild.request.getChunkName());
+            }
+        }
+        System.out.printf("Stripe rebuilds: {inProgress = %s, rebuilt = %d, failed = %d, bytesFetched = %d}%n",
+                rebuilding, stripesRebuilt.sum(), rebuildsFailed.sum(), bytesFetched.sum());
+    }
+
+    /**
+     * A stripe being rebuilt. Only the rebuilder thread changes it
+     */
+    private static class PendingRebuild {
+        private final RebuildStripe request;
+        // the copy the rebuilt stripe is sent (and reported to the Controller) as
+        private final ReplicateChunk replicateChunk;
+        private final int lostStripe;
+        private final String[] stripeNames;
+        private final byte[][] stripes;
+        private final boolean[] tried;
+        private final long[] requestedAt; // 0 unless being fetched
+        private int stripeSize = -1;
+        private int present;
+        private int outstanding;
+        private boolean done;
+
+        private PendingRebuild(RebuildStripe request, int lostStripe, String[] stripeNames) {
+            this.request = request;
+            this.lostStripe = lostStripe;
+            this.stripeNames = stripeNames;
+            stripes = new byte[stripeNames.length][];
+            tried = new boolean[stripeNames.length];
+            requestedAt = new long[stripeNames.length];
+
+            replicateChunk = new ReplicateChunk();
+            replicateChunk.setChunkName(request.getChunkName());
+            replicateChunk.setVersion(request.getVersion());
+            replicateChunk.setTargetHost(request.getTargetHost());
+            replicateChunk.setTargetPort(request.getTargetPort());
+        }
+
+        private int indexOf(String stripeName) {
+            for (int i = 0; i < stripeNames.length; i++) {
+                if (stripeNames[i].equals(stripeName)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+}
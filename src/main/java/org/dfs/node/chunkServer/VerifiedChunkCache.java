@@ -0,0 +1,103 @@
+package org.dfs.node.chunkServer;
+
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers which chunks passed a full checksum verification, together with the identity of the
+ * chunk file at that time (size, modification time and file key, i.e. the inode where the file system has one).
+ * Reads of a chunk verified within the freshness window whose file has not changed since are served
+ * without re-hashing; silent corruption of unchanged files is left to the {@link IntegrityScrubber}.
+ */
+public class VerifiedChunkCache {
+    private final ConcurrentHashMap<String, Entry> entries;
+    private final long freshnessMillis;
+
+    // statistics
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder bytesSkipped = new LongAdder();
+    private final LongAdder bytesVerified = new LongAdder();
+    private final LongAdder verificationNanos = new LongAdder();
+
+    public VerifiedChunkCache(long freshnessMillis) {
+        this.freshnessMillis = freshnessMillis;
+        entries = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * @param bytes number of bytes that would have to be hashed if the chunk is not verified
+     * @return true if the chunk was verified recently and its file has not changed since
+     */
+    public boolean isVerified(String chunkName, BasicFileAttributes attributes, long bytes) {
+        Entry entry = entries.get(chunkName);
+        if (entry != null && entry.matches(attributes) &&
+                System.currentTimeMillis() - entry.verifiedAt < freshnessMillis) {
+            hits.increment();
+            bytesSkipped.add(bytes);
+            return true;
+        }
+
+        if (entry != null) {
+            entries.remove(chunkName, entry);
+        }
+        misses.increment();
+        return false;
+    }
+
+    public void markVerified(String chunkName, BasicFileAttributes attributes) {
+        entries.put(chunkName, new Entry(attributes, System.currentTimeMillis()));
+    }
+
+    public void invalidate(String chunkName) {
+        entries.remove(chunkName);
+    }
+
+    /**
+     * Record the time spent hashing, used to estimate the CPU time saved by cache hits
+     */
+    public void addVerificationCost(long bytes, long nanos) {
+        bytesVerified.add(bytes);
+        verificationNanos.add(nanos);
+    }
+
+    public long getEstimatedNanosSaved() {
+        long verified = bytesVerified.sum();
+        if (verified == 0) {
+            return 0;
+        }
+        return (long) ((double) verificationNanos.sum() / verified * bytesSkipped.sum());
+    }
+
+    public void printStatus() {
+        System.out.printf("Verification cache: {entries = %d, hits = %d, misses = %d, bytesSkipped = %d, " +
+                        "bytesVerified = %d, verificationTime = %d ms, estimatedTimeSaved = %d ms}%n",
+                entries.size(), hits.sum(), misses.sum(), bytesSkipped.sum(), bytesVerified.sum(),
+                TimeUnit.NANOSECONDS.toMillis(verificationNanos.sum()),
+                TimeUnit.NANOSECONDS.toMillis(getEstimatedNanosSaved()));
+    }
+
+    private static class Entry {
+        private final long size;
+        private final FileTime lastModifiedTime;
+        private final Object fileKey;
+        private final long verifiedAt;
+
+        private Entry(BasicFileAttributes attributes, long verifiedAt) {
+            size = attributes.size();
+            lastModifiedTime = attributes.lastModifiedTime();
+            fileKey = attributes.fileKey();
+            this.verifiedAt = verifiedAt;
+        }
+
+        private boolean matches(BasicFileAttributes attributes) {
+            return size == attributes.size() &&
+                    lastModifiedTime.equals(attributes.lastModifiedTime()) &&
+                    Objects.equals(fileKey, attributes.fileKey());
+        }
+    }
+}
@@ -16,6 +16,9 @@ public class TCPSender {
 
     public TCPSender(Socket socket) throws IOException {
         this.socket = socket;
+        // every message is flushed whole: waiting to coalesce its length with its body (Nagle's algorithm)
+        // only delays it until the peer's delayed ACK, up to ~40 ms per message
+        socket.setTcpNoDelay(true);
         dout = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
     }
 
@@ -1,22 +1,70 @@
 package org.dfs.util;
 
+import org.dfs.util.checksum.ChecksumType;
+import org.dfs.util.compression.CompressionCodec;
+
 public class Constants {
     public static final String CHUNK_DIR = "/tmp/menukaw";
     public static final int CHUNK_SIZE = 64 * 1000; // chunk size in bytes
     public static final int SLICE_SIZE = 8 * 1000; // slice size in bytes
-    public static final int REPLICATION_LEVEL = 3;
+    public static final int PACKET_SIZE = SLICE_SIZE; // bytes of a chunk per packet sent down the replication chain
+    public static final int REPLICATION_LEVEL = 3; // default replication factor of a file
+    public static final int MAX_REPLICATION_LEVEL = 10;
+    // Reed-Solomon layout of erasure-coded files: each chunk is split into data stripes plus parity stripes
+    public static final int DATA_STRIPES = 6;
+    public static final int PARITY_STRIPES = 3;
 
     public static class Controller {
         public static final String HOST = "arkansas";
         public static final String PORT = "9000";
         public static final String CMD_GET_HOST = "get-host";
         public static final String CMD_LIST_CHUNK_SERVERS = "list-chunk-servers";
+        public static final int TOMBSTONE_RETENTION = 24 * 60 * 60 * 1000; // 1 day (deleted files' chunks are reported as orphans)
+        public static final int SPACE_RESERVATION_TIMEOUT = 2 * 60 * 1000; // 2 minutes (> minor heartbeat interval)
+        public static final String CMD_HOT_FILES = "hot-files";
+        public static final int HOT_FILES_LISTED = 10;
+        public static final String CMD_REREPLICATION_STATUS = "re-replication-status";
+        public static final String CMD_REREPLICATION_RATE = "re-replication-rate";
+        public static final int REREPLICATION_INTERVAL = 1000; // under-replicated chunks are looked for every second
+        public static final long REREPLICATION_BANDWIDTH_MB = 50; // cluster-wide budget of re-replication copies (MB/s)
+        public static final int REREPLICATION_COPIES_PER_CHUNK_SERVER = 4; // copies in flight from or to a chunk server
+        public static final int REREPLICATION_COPY_TIMEOUT = 3 * ChunkServer.ACK_TIMEOUT; // copies not reported are retried
+        public static final String CMD_REBALANCE = "rebalance";
+        public static final int REBALANCE_INTERVAL = 5 * 1000;
+        public static final double REBALANCE_THRESHOLD = 10; // % of its disk a chunk server may be above the average
+        public static final long REBALANCE_BANDWIDTH_MB = 10; // cluster-wide budget of rebalancing moves (MB/s)
+        public static final int REBALANCE_MOVES_PER_CHUNK_SERVER = 2; // moves in flight from or to a chunk server
+        public static final int REBALANCE_MOVED_REPLICA_RETENTION = 10 * 60 * 1000; // moved replicas not deleted by then are reported again
+        public static final String CMD_TOPOLOGY = "topology";
+        public static final String CMD_PLACEMENT = "placement";
+        public static final String TOPOLOGY_FILE = "topology.txt"; // "host location" per line
+        public static final String DEFAULT_LOCATION = "/default-zone/default-rack"; // nodes of no known location
+        public static final String PLACEMENT_POLICY = "rack-aware"; // "free-space", "rack-aware" or a class name
     }
 
     public static class Client {
         public static final String CMD_ADD_FILE = "add-file";
         public static final String CMD_GET_HOST = "get-host";
         public static final String CMD_RETRIEVE = "retrieve";
+        public static final String CMD_READ_RANGE = "read-range";
+        public static final String CMD_DELETE_FILE = "delete-file";
+        public static final String CMD_UPDATE_FILE = "update-file";
+        public static final String CMD_PACK_FILES = "pack-files";
+        public static final int SMALL_FILE_THRESHOLD = CHUNK_SIZE / 4; // larger files are not packed (bytes)
+        public static final String CONTAINER_PREFIX = "container-";
+        public static final int WRITE_ATTEMPTS = 3; // times a chunk is sent before giving up on it
+        // time to get chunk servers for a chunk from the controller, asked again while it has none (ms)
+        public static final int PLACEMENT_TIMEOUT = 10 * 1000;
+        public static final int PLACEMENT_RETRY_INTERVAL = 1000;
+        public static final String ERASURE_CODED = "ec"; // add-file argument to store a file erasure-coded
+        public static final String CMD_WRITE_MODE = "write-mode";
+        public static final String FAN_OUT_QUORUM = "quorum"; // write-mode argument to wait for a majority
+        // chunks no larger than this are sent to all replicas at once in auto write mode (bytes)
+        public static final int FAN_OUT_MAX_CHUNK_SIZE = CHUNK_SIZE / 4;
+        // times a chunk is requested (from its replicas in turn) before giving up
+        public static final int READ_ATTEMPTS = 3;
+        // a chunk not received by then is read from another replica (ms)
+        public static final int READ_TIMEOUT = 5 * 1000;
     }
 
     public static class ChunkServer {
@@ -24,8 +72,56 @@ public class Constants {
         public static final String CMD_GET_HOST = "get-host";
         public static final int MAX_NODES = 30;
         public static final String EXT_DATA_CHUNK = "_chunk";
+        // stripe of an erasure-coded file (stored as the chunks of "<fileName>_stripe<i>")
+        public static final String EXT_STRIPE = "_stripe";
+        public static final String EXT_METADATA = ".meta";
+        // chunk version being written (copy-on-write)
+        public static final String EXT_TEMP = ".tmp";
+        public static final ChecksumType SLICE_CHECKSUM_TYPE = ChecksumType.CRC32C;
+        public static final ChecksumType CHUNK_CHECKSUM_TYPE = ChecksumType.SHA256;
         public static final int MAJOR_HEARTBEAT_INTERVAL = 5 * 60 * 1000;  // 5 minute
         public static final int MINOR_HEARTBEAT_INTERVAL = 30 * 1000; // 30 seconds
         public static final int LIVENESS_HEARTBEAT_INTERVAL = 10 * 1000; // 10 seconds
+        public static final String CMD_SCRUB_STATUS = "scrub-status";
+        public static final String CMD_SCRUB_RATE = "scrub-rate";
+        public static final long SCRUB_BANDWIDTH_MB = 5; // disk budget of the background scrubber (MB/s)
+        public static final int SCRUB_PASS_INTERVAL = 60 * 60 * 1000; // 1 hour between full passes
+        public static final int SCRUB_YIELD_INTERVAL = 50; // back-off while client I/O is in progress (ms)
+        public static final int SCRUB_CHECKPOINT_INTERVAL = 16; // chunks between progress checkpoints
+        public static final String SCRUB_PROGRESS_FILE = ".scrub-progress";
+        public static final int CHUNK_LOCK_STRIPES = 64;
+        public static final String CMD_VERIFY_STATS = "verify-stats";
+        public static final String CMD_COMPRESSION = "compression";
+        public static final String CMD_GC_STATUS = "gc-status";
+        public static final int GC_BATCH_SIZE = 16; // orphan chunks deleted at a time
+        public static final int GC_BATCH_INTERVAL = 500; // pause between batches (ms)
+        public static final int GC_IDLE_INTERVAL = 5 * 1000; // poll interval while nothing is to be deleted (ms)
+        public static final CompressionCodec COMPRESSION_CODEC = CompressionCodec.NONE; // default for new chunks
+        public static final String CMD_DIRECT_IO = "direct-io";
+        public static final boolean DIRECT_IO = true; // bypass the page cache for ingest and scrubbing
+        public static final String CMD_IO_STATS = "io-stats";
+        public static final String CMD_IO_CAP = "io-cap";
+        public static final int IO_SCHEDULER_SLOTS = 2; // disk operations in progress at a time
+        public static final int IO_WEIGHT_FOREGROUND = 16;
+        public static final int IO_WEIGHT_REPLICATION = 8;
+        public static final int IO_WEIGHT_PREFETCH = 4;
+        public static final int IO_WEIGHT_REPAIR = 2;
+        public static final int IO_WEIGHT_SCRUB = 1;
+        public static final String CMD_READ_AHEAD = "read-ahead";
+        public static final int READ_AHEAD_MAX_WINDOW = 8; // chunks prefetched ahead of a sequential reader
+        public static final int READ_AHEAD_CACHE_CHUNKS = 64; // prefetched chunks kept in memory
+        public static final int READ_AHEAD_STREAMS = 256; // files whose access pattern is tracked
+        public static final String CMD_HOT_CHUNKS = "hot-chunks";
+        public static final String CMD_PIPELINE_STATUS = "pipeline-status";
+        public static final String CMD_REPAIR_STATUS = "repair-status";
+        public static final int PIPELINE_TIMEOUT = 60 * 1000; // chunks whose packets stop arriving are discarded
+        public static final int ACK_TIMEOUT = 10 * 1000; // wait for the acknowledgement of each next chunk server
+        public static final int HOT_CHUNKS_REPORTED = 10; // hottest chunks sent in each major heartbeat
+        public static final int ACCESS_CANDIDATES = 4 * HOT_CHUNKS_REPORTED; // chunks tracked as possibly hottest
+        public static final int ACCESS_SKETCH_DEPTH = 4;
+        public static final int ACCESS_SKETCH_WIDTH = 1024;
+        public static final int ACCESS_DECAY_INTERVAL = 60 * 1000; // read counts are halved every minute
+        public static final double ACCESS_MIN_READS = 0.5; // colder candidates are forgotten
+        public static final int VERIFIED_CHUNK_FRESHNESS = 10 * 60 * 1000; // 10 minutes before a chunk is re-hashed on read
     }
 }
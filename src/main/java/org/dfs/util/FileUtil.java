@@ -1,16 +1,19 @@
 package org.dfs.util;
 
+import org.dfs.util.checksum.ChecksumType;
+import org.dfs.util.checksum.Checksums;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Formatter;
 import java.util.List;
 
 public class FileUtil {
@@ -25,11 +28,57 @@ public class FileUtil {
         return Files.readAllBytes(Paths.get(filePath));
     }
 
+    /**
+     * Read length bytes starting at position (fewer if the file ends first)
+     */
+    public static byte[] readRange(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                break;
+            }
+        }
+        return buffer.hasRemaining() ? Arrays.copyOf(buffer.array(), buffer.position()) : buffer.array();
+    }
+
+    /**
+     * Force the data (and size) of a file to disk
+     */
+    public static void force(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Force the entries of a directory (files created or renamed in it) to disk. Platforms that cannot open
+     * a directory (Windows) do not need it
+     */
+    public static void forceDirectory(Path dir) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(dir, StandardOpenOption.READ);
+        } catch (IOException e) {
+            log.debug("Cannot open directory {} to force it to disk: {}", dir, e.getLocalizedMessage());
+            return;
+        }
+        try (channel) {
+            channel.force(true);
+        }
+    }
+
     public static ArrayList<String> getSliceHashesFromChunk(byte[] chunk) {
-        List<byte[]> slices = splitFile(chunk, Constants.SLICE_SIZE);
+        return getSliceHashesFromChunk(chunk, ChecksumType.SHA1);
+    }
+
+    /**
+     * Checksum each 8KB slice of the chunk in place (without copying the slices out)
+     */
+    public static ArrayList<String> getSliceHashesFromChunk(byte[] chunk, ChecksumType type) {
         ArrayList<String> hashes = new ArrayList<>();
-        for (byte[] slice : slices) {
-            hashes.add(hash(slice));
+        for (int offset = 0; offset < chunk.length; offset += Constants.SLICE_SIZE) {
+            int length = Math.min(Constants.SLICE_SIZE, chunk.length - offset);
+            hashes.add(Checksums.hash(type, chunk, offset, length));
         }
 
         return hashes;
@@ -37,7 +86,8 @@ public class FileUtil {
 
     public static String getCleanedHostName(String hostName) {
         int i = hostName.indexOf(".");
-        return hostName.substring(0, i);
+        // unqualified (or empty, if no chunk server was found) host names are already clean
+        return i < 0 ? hostName : hostName.substring(0, i);
     }
 
     public static byte[] concat(byte[]... arrays) {
@@ -60,6 +110,47 @@ public class FileUtil {
         return chunkName.substring(0, i);
     }
 
+    /**
+     * Name the stripe of an erasure-coded file is stored as (its chunks are the stripe of each chunk of the file)
+     */
+    public static String getStripeFileName(String fileName, int stripe) {
+        return fileName + Constants.ChunkServer.EXT_STRIPE + stripe;
+    }
+
+    /**
+     * Name of the chunk that stores a stripe of the chunk of an erasure-coded file
+     */
+    public static String getStripeChunkName(String chunkName, int stripe) {
+        String fileName = getFileNameFromChunkName(chunkName);
+        return getStripeFileName(fileName, stripe) + chunkName.substring(fileName.length());
+    }
+
+    /**
+     * @return the stripe a stored file is, or -1 if it is not a stripe of an erasure-coded file
+     */
+    public static int getStripe(String storedFileName) {
+        int i = storedFileName.lastIndexOf(Constants.ChunkServer.EXT_STRIPE);
+        if (i < 0) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(storedFileName.substring(i + Constants.ChunkServer.EXT_STRIPE.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Name of the file a chunk belongs to (the erasure-coded file, for the chunk of a stripe)
+     */
+    public static String getOriginalFileName(String chunkName) {
+        String storedFileName = getFileNameFromChunkName(chunkName);
+        if (getStripe(storedFileName) < 0) {
+            return storedFileName;
+        }
+        return storedFileName.substring(0, storedFileName.lastIndexOf(Constants.ChunkServer.EXT_STRIPE));
+    }
+
     /**
      * Alternative to splitFile()
      * splitFile() has some bugs
@@ -91,24 +182,15 @@ public class FileUtil {
         return chunks;
     }
 
+    /**
+     * SHA-1 hash of the data (the original chunk hash format)
+     */
     public static String hash(byte[] data) {
-        MessageDigest md;
-        try {
-            md = MessageDigest.getInstance("SHA-1");
-            return byteArray2Hex(md.digest(data));
-        } catch (NoSuchAlgorithmException e) {
-            log.error(e.getLocalizedMessage());
-            e.printStackTrace();
-            return null;
-        }
+        return hash(data, ChecksumType.SHA1);
     }
 
-    private static String byteArray2Hex(final byte[] hash) {
-        Formatter formatter = new Formatter();
-        for (byte b : hash) {
-            formatter.format("%02x", b);
-        }
-        return formatter.toString();
+    public static String hash(byte[] data, ChecksumType type) {
+        return Checksums.hash(type, data);
     }
 
 }
@@ -0,0 +1,66 @@
+package org.dfs.util;
+
+/**
+ * Limits throughput to a configurable number of bytes per second.
+ * Callers that go over the budget are put to sleep until the budget catches up (at most one second of burst).
+ */
+public class Throttler {
+    private volatile long bytesPerSecond;
+    private double available;
+    private long lastRefill;
+
+    /**
+     * @param bytesPerSecond budget; zero or less disables throttling
+     */
+    public Throttler(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        lastRefill = System.nanoTime();
+    }
+
+    public synchronized void acquire(long bytes) throws InterruptedException {
+        long rate = bytesPerSecond;
+        if (rate <= 0) {
+            return;
+        }
+
+        long now = System.nanoTime();
+        available = Math.min(rate, available + (now - lastRefill) * rate / 1e9);
+        lastRefill = now;
+
+        available -= bytes;
+        if (available < 0) {
+            long sleepNanos = (long) (-available * 1e9 / rate);
+            Thread.sleep(sleepNanos / 1_000_000, (int) (sleepNanos % 1_000_000));
+        }
+    }
+
+    /**
+     * Take bytes from the budget without waiting, if any budget is left (the budget may go negative,
+     * so work of any size can start; the next callers wait until the budget catches up)
+     *
+     * @return false if the budget is used up
+     */
+    public synchronized boolean tryAcquire(long bytes) {
+        long rate = bytesPerSecond;
+        if (rate <= 0) {
+            return true;
+        }
+
+        long now = System.nanoTime();
+        available = Math.min(rate, available + (now - lastRefill) * rate / 1e9);
+        lastRefill = now;
+        if (available <= 0) {
+            return false;
+        }
+        available -= bytes;
+        return true;
+    }
+
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public void setBytesPerSecond(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+}
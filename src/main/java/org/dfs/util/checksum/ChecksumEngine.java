@@ -0,0 +1,18 @@
+package org.dfs.util.checksum;
+
+/**
+ * Incremental checksum computation. Implementations are not thread-safe;
+ * use {@link Checksums} to get an instance owned by the calling thread.
+ */
+public interface ChecksumEngine {
+    ChecksumType getType();
+
+    void update(byte[] data, int offset, int length);
+
+    /**
+     * Finish the computation, return the checksum as a hex string and reset the engine for reuse
+     */
+    String digestHex();
+
+    void reset();
+}
@@ -0,0 +1,36 @@
+package org.dfs.util.checksum;
+
+/**
+ * Algorithms available for slice and chunk integrity checks.
+ * The id is written to the wire and to chunk metadata, so existing ids must never change.
+ */
+public enum ChecksumType {
+    SHA1((byte) 1, "SHA-1"),
+    SHA256((byte) 2, "SHA-256"),
+    CRC32C((byte) 3, "CRC32C");
+
+    private final byte id;
+    private final String algorithm;
+
+    ChecksumType(byte id, String algorithm) {
+        this.id = id;
+        this.algorithm = algorithm;
+    }
+
+    public byte getId() {
+        return id;
+    }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    public static ChecksumType fromId(byte id) {
+        for (ChecksumType type : values()) {
+            if (type.id == id) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("Unknown checksum type: " + id);
+    }
+}
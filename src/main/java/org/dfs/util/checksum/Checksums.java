@@ -0,0 +1,49 @@
+package org.dfs.util.checksum;
+
+import java.util.EnumMap;
+
+/**
+ * Entry point for computing checksums. Engines are cached per thread, so hashing
+ * does not allocate a new {@link java.security.MessageDigest} for every slice.
+ */
+public class Checksums {
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private static final ThreadLocal<EnumMap<ChecksumType, ChecksumEngine>> engines =
+            ThreadLocal.withInitial(() -> new EnumMap<>(ChecksumType.class));
+
+    private Checksums() {
+
+    }
+
+    /**
+     * Create a new engine, for callers that need to keep it across calls (e.g. streaming writers)
+     */
+    public static ChecksumEngine newEngine(ChecksumType type) {
+        if (type == ChecksumType.CRC32C) {
+            return new Crc32cEngine();
+        }
+        return new MessageDigestEngine(type);
+    }
+
+    public static String hash(ChecksumType type, byte[] data) {
+        return hash(type, data, 0, data.length);
+    }
+
+    public static String hash(ChecksumType type, byte[] data, int offset, int length) {
+        ChecksumEngine engine = engines.get().computeIfAbsent(type, Checksums::newEngine);
+        engine.reset();
+        engine.update(data, offset, length);
+        return engine.digestHex();
+    }
+
+    public static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int b = bytes[i] & 0xff;
+            chars[2 * i] = HEX_DIGITS[b >>> 4];
+            chars[2 * i + 1] = HEX_DIGITS[b & 0x0f];
+        }
+        return new String(chars);
+    }
+}
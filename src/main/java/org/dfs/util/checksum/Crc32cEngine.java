@@ -0,0 +1,33 @@
+package org.dfs.util.checksum;
+
+import java.util.zip.CRC32C;
+
+/**
+ * CRC32C (Castagnoli) backed by the JDK intrinsic, which uses the CPU's crc32 instructions where available.
+ */
+public class Crc32cEngine implements ChecksumEngine {
+    private final CRC32C crc = new CRC32C();
+
+    @Override
+    public ChecksumType getType() {
+        return ChecksumType.CRC32C;
+    }
+
+    @Override
+    public void update(byte[] data, int offset, int length) {
+        crc.update(data, offset, length);
+    }
+
+    @Override
+    public String digestHex() {
+        int value = (int) crc.getValue();
+        crc.reset();
+        return Checksums.toHex(new byte[]{
+                (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value});
+    }
+
+    @Override
+    public void reset() {
+        crc.reset();
+    }
+}
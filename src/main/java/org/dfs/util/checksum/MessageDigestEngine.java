@@ -0,0 +1,42 @@
+package org.dfs.util.checksum;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Cryptographic digests (SHA-1, SHA-256) wrapping a reusable {@link MessageDigest}.
+ */
+public class MessageDigestEngine implements ChecksumEngine {
+    private final ChecksumType type;
+    private final MessageDigest md;
+
+    public MessageDigestEngine(ChecksumType type) {
+        this.type = type;
+        try {
+            md = MessageDigest.getInstance(type.getAlgorithm());
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-1 and SHA-256 are mandatory on every Java platform
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public ChecksumType getType() {
+        return type;
+    }
+
+    @Override
+    public void update(byte[] data, int offset, int length) {
+        md.update(data, offset, length);
+    }
+
+    @Override
+    public String digestHex() {
+        return Checksums.toHex(md.digest());
+    }
+
+    @Override
+    public void reset() {
+        md.reset();
+    }
+}
@@ -0,0 +1,90 @@
+package org.dfs.util.compression;
+
+import org.dfs.util.Constants;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Codecs available for storing chunks on disk.
+ * The id is written to chunk metadata, so existing ids must never change.
+ */
+public enum CompressionCodec {
+    NONE((byte) 0) {
+        @Override
+        public OutputStream compress(OutputStream out) {
+            return out;
+        }
+
+        @Override
+        public InputStream decompress(InputStream in) {
+            return in;
+        }
+    },
+    DEFLATE((byte) 1) {
+        @Override
+        public OutputStream compress(OutputStream out) {
+            // fastest level: ingest throughput matters more than the last few percent of space
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            return new DeflaterOutputStream(out, deflater, Constants.SLICE_SIZE) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        deflater.end();
+                    }
+                }
+            };
+        }
+
+        @Override
+        public InputStream decompress(InputStream in) {
+            Inflater inflater = new Inflater();
+            return new InflaterInputStream(in, inflater, Constants.SLICE_SIZE) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        inflater.end();
+                    }
+                }
+            };
+        }
+    };
+
+    private final byte id;
+
+    CompressionCodec(byte id) {
+        this.id = id;
+    }
+
+    /**
+     * Wrap a stream so that data written to it is stored compressed. Closing the returned stream closes out.
+     */
+    public abstract OutputStream compress(OutputStream out) throws IOException;
+
+    /**
+     * Wrap a stream of compressed data so that reading it yields the original data. Closing the returned stream closes in.
+     */
+    public abstract InputStream decompress(InputStream in) throws IOException;
+
+    public byte getId() {
+        return id;
+    }
+
+    public static CompressionCodec fromId(byte id) {
+        for (CompressionCodec codec : values()) {
+            if (codec.id == id) {
+                return codec;
+            }
+        }
+        throw new IllegalArgumentException("Unknown compression codec: " + id);
+    }
+}
@@ -1,5 +1,6 @@
 package org.dfs.util.controller;
 
+import org.dfs.util.Constants;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -12,11 +13,50 @@ public class FileInfo {
     private final String fileName;
     private final int noOfChunks;
     private final int fileSize; // file size in KB
+    // small files are packed into a container (a file of one chunk) at containerOffset
+    private final String containerName;
+    private final int containerOffset;
+    // number of chunk servers each chunk of the file is stored on (packed files: the container's)
+    private final int replicationFactor;
+    // Reed-Solomon layout of an erasure-coded file (0 data stripes: replicated). Each chunk is stored as
+    // dataStripes + parityStripes stripes, each on one chunk server
+    private final int dataStripes;
+    private final int parityStripes;
 
     public FileInfo(String fileName, int noOfChunks, int fileSize) {
+        this(fileName, noOfChunks, fileSize, Constants.REPLICATION_LEVEL);
+    }
+
+    public FileInfo(String fileName, int noOfChunks, int fileSize, int replicationFactor) {
+        this(fileName, noOfChunks, fileSize, null, 0, replicationFactor);
+    }
+
+    public FileInfo(String fileName, int noOfChunks, int fileSize, String containerName, int containerOffset) {
+        this(fileName, noOfChunks, fileSize, containerName, containerOffset, Constants.REPLICATION_LEVEL);
+    }
+
+    public FileInfo(String fileName, int noOfChunks, int fileSize, String containerName, int containerOffset,
+                    int replicationFactor) {
+        this(fileName, noOfChunks, fileSize, containerName, containerOffset, replicationFactor, 0, 0);
+    }
+
+    /**
+     * An erasure-coded file (every stripe is stored once)
+     */
+    public FileInfo(String fileName, int noOfChunks, int fileSize, int dataStripes, int parityStripes) {
+        this(fileName, noOfChunks, fileSize, null, 0, 1, dataStripes, parityStripes);
+    }
+
+    private FileInfo(String fileName, int noOfChunks, int fileSize, String containerName, int containerOffset,
+                     int replicationFactor, int dataStripes, int parityStripes) {
         this.fileName = fileName;
         this.noOfChunks = noOfChunks;
         this.fileSize = fileSize;
+        this.containerName = containerName;
+        this.containerOffset = containerOffset;
+        this.replicationFactor = replicationFactor;
+        this.dataStripes = dataStripes;
+        this.parityStripes = parityStripes;
     }
 
     public String getFileName() {
@@ -30,4 +70,32 @@ public class FileInfo {
     public int getFileSize() {
         return fileSize;
     }
+
+    public boolean isPacked() {
+        return containerName != null;
+    }
+
+    public String getContainerName() {
+        return containerName;
+    }
+
+    public int getContainerOffset() {
+        return containerOffset;
+    }
+
+    public int getReplicationFactor() {
+        return replicationFactor;
+    }
+
+    public boolean isErasureCoded() {
+        return dataStripes > 0;
+    }
+
+    public int getDataStripes() {
+        return dataStripes;
+    }
+
+    public int getParityStripes() {
+        return parityStripes;
+    }
 }
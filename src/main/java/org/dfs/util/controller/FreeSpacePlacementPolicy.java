@@ -0,0 +1,38 @@
+package org.dfs.util.controller;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The ChunkServers with the most free space, wherever they are (several replicas may share a rack)
+ */
+public class FreeSpacePlacementPolicy implements PlacementPolicy {
+    public static final String NAME = "free-space";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public List<Integer> choose(int count, List<Integer> candidates, Collection<Integer> holders,
+                                NetworkTopology topology) {
+        List<Integer> chosen = new ArrayList<>();
+        for (Integer chunkServerId : candidates) {
+            if (chosen.size() == count) {
+                break;
+            }
+            if (!holders.contains(chunkServerId)) {
+                chosen.add(chunkServerId);
+            }
+        }
+        return chosen;
+    }
+
+    @Override
+    public boolean isMoveAllowed(Collection<Integer> holders, int sourceId, int targetId,
+                                 NetworkTopology topology) {
+        return true;
+    }
+}
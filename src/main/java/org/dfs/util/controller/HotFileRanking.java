@@ -0,0 +1,81 @@
+package org.dfs.util.controller;
+
+import org.dfs.util.FileUtil;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cluster-wide view of the most read files, built from the hottest chunks each ChunkServer reports in its
+ * major heartbeats. The counts are decayed on the ChunkServers, so the ranking follows recent load;
+ * a file's reads are the sum over its reported chunks (or stripes) on all ChunkServers.
+ */
+public class HotFileRanking {
+    // ChunkServerID, (chunkName, recent reads and bytes read) as of its last major heartbeat
+    private final ConcurrentHashMap<Integer, Map<String, long[]>> reportedChunks;
+
+    public HotFileRanking() {
+        reportedChunks = new ConcurrentHashMap<>();
+    }
+
+    public void update(int chunkServerId, List<String> chunkNames, List<Long> reads, List<Long> bytes) {
+        HashMap<String, long[]> chunks = new HashMap<>();
+        for (int i = 0; i < chunkNames.size() && i < reads.size() && i < bytes.size(); i++) {
+            chunks.put(chunkNames.get(i), new long[]{reads.get(i), bytes.get(i)});
+        }
+        reportedChunks.put(chunkServerId, chunks);
+    }
+
+    public void remove(int chunkServerId) {
+        reportedChunks.remove(chunkServerId);
+    }
+
+    /**
+     * @return the k most read files, hottest first
+     */
+    public List<HotFile> getHotFiles(int k) {
+        HashMap<String, HotFile> files = new HashMap<>();
+        for (Map<String, long[]> chunks : reportedChunks.values()) {
+            for (Map.Entry<String, long[]> entry : chunks.entrySet()) {
+                String fileName = FileUtil.getOriginalFileName(entry.getKey());
+                HotFile hotFile = files.computeIfAbsent(fileName, HotFile::new);
+                hotFile.reads += entry.getValue()[0];
+                hotFile.bytes += entry.getValue()[1];
+                hotFile.chunks++;
+            }
+        }
+        List<HotFile> hotFiles = new ArrayList<>(files.values());
+        hotFiles.sort((a, b) -> Long.compare(b.reads, a.reads));
+        return hotFiles.subList(0, Math.min(k, hotFiles.size()));
+    }
+
+    public static class HotFile {
+        private final String fileName;
+        private long reads;
+        private long bytes;
+        private int chunks; // hot chunks (replicas) reported for the file
+
+        private HotFile(String fileName) {
+            this.fileName = fileName;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public long getReads() {
+            return reads;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public int getChunks() {
+            return chunks;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package org.dfs.util.controller;
+
+import org.dfs.util.Constants;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Where nodes sit in the network, as a location path "/zone/rack" (the rack being the failure domain that fails
+ * together, and the zone the larger one that holds racks). A node's location is the one it registered with,
+ * else the one of its host in the topology file, else {@link Constants.Controller#DEFAULT_LOCATION}.
+ * <p>
+ * The topology file has a line "host location" per host (host name, short host name or IP address), and
+ * comments starting with '#'.
+ */
+public class NetworkTopology {
+    private static final Logger log = LogManager.getLogger(NetworkTopology.class);
+
+    // host name or IP address, location
+    private final Map<String, String> hostLocations;
+
+    // ChunkServerID, location
+    private final ConcurrentHashMap<Integer, String> chunkServerLocations;
+
+    public NetworkTopology(Map<String, String> hostLocations) {
+        this.hostLocations = new HashMap<>(hostLocations);
+        chunkServerLocations = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * @return the topology of the file, or an empty one (every node in the default location) if there is no file
+     */
+    public static NetworkTopology load(Path file) {
+        Map<String, String> hostLocations = new HashMap<>();
+        if (!Files.exists(file)) {
+            log.info("No topology file {}. Nodes are in the location they register with, or in {}", file,
+                    Constants.Controller.DEFAULT_LOCATION);
+            return new NetworkTopology(hostLocations);
+        }
+        try {
+            for (String line : Files.readAllLines(file)) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\\s+");
+                if (fields.length < 2) {
+                    log.warn("Ignoring topology line without a location: '{}'", line);
+                    continue;
+                }
+                hostLocations.put(fields[0], normalize(fields[1]));
+            }
+            log.info("Loaded the locations of {} hosts from {}", hostLocations.size(), file);
+        } catch (IOException e) {
+            log.error("Error reading topology file {}: {}", file, e.getLocalizedMessage());
+        }
+        return new NetworkTopology(hostLocations);
+    }
+
+    /**
+     * @param registeredLocation location the node registered with (empty if none)
+     * @param address            address the node connected from
+     */
+    public String resolve(String registeredLocation, InetAddress address) {
+        if (registeredLocation != null && !registeredLocation.trim().isEmpty()) {
+            return normalize(registeredLocation);
+        }
+        String hostName = address.getHostName();
+        String location = hostLocations.get(address.getHostAddress());
+        if (location == null) {
+            location = hostLocations.get(hostName);
+        }
+        if (location == null && hostName.contains(".")) {
+            location = hostLocations.get(hostName.substring(0, hostName.indexOf('.')));
+        }
+        return location == null ? Constants.Controller.DEFAULT_LOCATION : location;
+    }
+
+    public void add(int chunkServerId, String location) {
+        chunkServerLocations.put(chunkServerId, location);
+    }
+
+    public void remove(int chunkServerId) {
+        chunkServerLocations.remove(chunkServerId);
+    }
+
+    public String getLocation(int chunkServerId) {
+        return chunkServerLocations.getOrDefault(chunkServerId, Constants.Controller.DEFAULT_LOCATION);
+    }
+
+    /**
+     * @return the rack of a ChunkServer (its whole location)
+     */
+    public String getRack(int chunkServerId) {
+        return getLocation(chunkServerId);
+    }
+
+    /**
+     * @return the zone of a ChunkServer (its location without the rack, "/" if the location has a single level)
+     */
+    public String getZone(int chunkServerId) {
+        String location = getLocation(chunkServerId);
+        int end = location.lastIndexOf('/');
+        return end <= 0 ? "/" : location.substring(0, end);
+    }
+
+    /**
+     * Network distance between two nodes: 0 on the same host, 2 in the same rack, and 2 more for each level
+     * of the location the racks differ at (4 for another rack of the zone, 6 for another zone)
+     */
+    public static int getDistance(String hostA, String locationA, String hostB, String locationB) {
+        if (hostA.equals(hostB)) {
+            return 0;
+        }
+        String[] levelsA = locationA.substring(1).split("/");
+        String[] levelsB = locationB.substring(1).split("/");
+        int common = 0;
+        while (common < levelsA.length && common < levelsB.length && levelsA[common].equals(levelsB[common])) {
+            common++;
+        }
+        return 2 + (levelsA.length - common) + (levelsB.length - common);
+    }
+
+    /**
+     * "zone-a/rack-1/" -> "/zone-a/rack-1"
+     */
+    public static String normalize(String location) {
+        StringBuilder normalized = new StringBuilder();
+        for (String level : location.trim().split("/")) {
+            if (!level.isEmpty()) {
+                normalized.append('/').append(level);
+            }
+        }
+        return normalized.length() == 0 ? Constants.Controller.DEFAULT_LOCATION : normalized.toString();
+    }
+}
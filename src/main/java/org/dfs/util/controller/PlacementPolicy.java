@@ -0,0 +1,46 @@
+package org.dfs.util.controller;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Chooses the ChunkServers replicas (or stripes) of a chunk are placed on: when the chunk is written, when a lost
+ * replica is re-replicated, and when the rebalancer moves a replica.
+ * <p>
+ * Built-in policies are picked by name, others by the name of a class implementing this interface (with a public
+ * no-argument constructor).
+ */
+public interface PlacementPolicy {
+
+    String getName();
+
+    /**
+     * @param count      ChunkServers wanted
+     * @param candidates ChunkServers that may be chosen, most free space first
+     * @param holders    ChunkServers that already hold (or are being sent) the chunk
+     * @return up to count of the candidates, none of them a holder
+     */
+    List<Integer> choose(int count, List<Integer> candidates, Collection<Integer> holders, NetworkTopology topology);
+
+    /**
+     * @param holders ChunkServers holding the chunk, the source among them
+     * @return false if moving the source's replica to the target would make the chunk's placement worse
+     */
+    boolean isMoveAllowed(Collection<Integer> holders, int sourceId, int targetId, NetworkTopology topology);
+
+    /**
+     * @return the policy, or null if there is no policy by that name
+     */
+    static PlacementPolicy fromName(String name) {
+        if (FreeSpacePlacementPolicy.NAME.equalsIgnoreCase(name)) {
+            return new FreeSpacePlacementPolicy();
+        } else if (RackAwarePlacementPolicy.NAME.equalsIgnoreCase(name)) {
+            return new RackAwarePlacementPolicy();
+        }
+        try {
+            return Class.forName(name).asSubclass(PlacementPolicy.class).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package org.dfs.util.controller;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Spreads the replicas of a chunk over as many failure domains as there are: each replica goes to a zone
+ * no replica is in yet, else to a rack no replica is in yet, else anywhere, taking the ChunkServer with the most
+ * free space among the ones that spread the chunk the most. A rack (or a zone) that goes down then takes
+ * at most its share of the replicas with it.
+ */
+public class RackAwarePlacementPolicy implements PlacementPolicy {
+    public static final String NAME = "rack-aware";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public List<Integer> choose(int count, List<Integer> candidates, Collection<Integer> holders,
+                                NetworkTopology topology) {
+        Set<String> zones = new HashSet<>();
+        Set<String> racks = new HashSet<>();
+        for (Integer holder : holders) {
+            zones.add(topology.getZone(holder));
+            racks.add(topology.getRack(holder));
+        }
+
+        List<Integer> remaining = new ArrayList<>(candidates);
+        remaining.removeAll(holders);
+        List<Integer> chosen = new ArrayList<>();
+        while (chosen.size() < count && !remaining.isEmpty()) {
+            int best = 0;
+            int bestSpread = -1;
+            for (int i = 0; i < remaining.size() && bestSpread < 2; i++) {
+                int spread = getSpread(remaining.get(i), zones, racks, topology);
+                if (spread > bestSpread) {
+                    best = i;
+                    bestSpread = spread;
+                }
+            }
+            Integer chunkServerId = remaining.remove(best);
+            chosen.add(chunkServerId);
+            zones.add(topology.getZone(chunkServerId));
+            racks.add(topology.getRack(chunkServerId));
+        }
+        return chosen;
+    }
+
+    /**
+     * @return 2 for a new zone, 1 for a new rack of a zone already used, 0 for a rack already used
+     */
+    private static int getSpread(int chunkServerId, Set<String> zones, Set<String> racks,
+                                 NetworkTopology topology) {
+        if (!zones.contains(topology.getZone(chunkServerId))) {
+            return 2;
+        }
+        return racks.contains(topology.getRack(chunkServerId)) ? 0 : 1;
+    }
+
+    /**
+     * A move must not leave the chunk in fewer zones or racks than before
+     */
+    @Override
+    public boolean isMoveAllowed(Collection<Integer> holders, int sourceId, int targetId,
+                                 NetworkTopology topology) {
+        List<Integer> after = new ArrayList<>(holders);
+        after.remove(Integer.valueOf(sourceId));
+        after.add(targetId);
+        return countDomains(after, topology, true) >= countDomains(holders, topology, true) &&
+                countDomains(after, topology, false) >= countDomains(holders, topology, false);
+    }
+
+    private static int countDomains(Collection<Integer> chunkServerIds, NetworkTopology topology, boolean zones) {
+        Set<String> domains = new HashSet<>();
+        for (Integer chunkServerId : chunkServerIds) {
+            domains.add(zones ? topology.getZone(chunkServerId) : topology.getRack(chunkServerId));
+        }
+        return domains.size();
+    }
+}
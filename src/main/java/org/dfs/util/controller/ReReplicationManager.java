@@ -0,0 +1,367 @@
+package org.dfs.util.controller;
+
+import org.dfs.util.Throttler;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Bookkeeping of re-replication: the under-replicated chunks waiting to be copied (most endangered first, i.e.
+ * fewest replicas left), the copies in flight, and a cluster-wide bandwidth budget copies are started within.
+ * The Controller rebuilds the backlog from its chunk index, picks the source and target of each copy, and reports
+ * the copies back as the ChunkServers finish them.
+ * <p>
+ * Progress is tracked from the moment the cluster is found degraded until every chunk is fully replicated again:
+ * bytes copied, bytes left, and the time to full redundancy at the observed copy rate (the budget, until a copy
+ * has completed). Chunk sizes are not known to the Controller, so chunks count as {@code chunkBytes} until copied.
+ * <p>
+ * A lost stripe of the chunk of an erasure-coded file has no replica to be copied from: it is rebuilt from the
+ * other stripes by the ChunkServer it is stored on (the target, the copy has no source). Its priority counts the
+ * stripes that can still be lost, plus one, as replicas left: a stripe that can lose no more other stripes ranks
+ * with a chunk that has a single replica left.
+ */
+public class ReReplicationManager {
+    private static final Logger log = LogManager.getLogger(ReReplicationManager.class);
+
+    // fewest replicas left first, then most replicas missing
+    private static final Comparator<UnderReplicatedChunk> PRIORITY =
+            Comparator.comparingInt(UnderReplicatedChunk::getReplicas)
+                    .thenComparing(Comparator.comparingInt(UnderReplicatedChunk::getMissing).reversed());
+
+    private final long chunkBytes;
+    private final long copyTimeout;
+    private List<UnderReplicatedChunk> backlog;
+    private final List<Copy> inFlight;
+    private int lostChunks; // no live replica left: nothing to copy from
+    private int lostStripes; // erasure-coded stripes with too few other stripes left to rebuild them from
+
+    private final Throttler budget;
+
+    // progress since the cluster was found degraded (0 while fully replicated)
+    private long degradedSince;
+    private long firstCopyStartedAt;
+    private long bytesCopied;
+    private long chunksCopied;
+    private long copiesFailed;
+
+    public ReReplicationManager(long bandwidthMB, long chunkBytes, long copyTimeout) {
+        this.chunkBytes = chunkBytes;
+        this.copyTimeout = copyTimeout;
+        backlog = new ArrayList<>();
+        inFlight = new ArrayList<>();
+        budget = new Throttler(bandwidthMB * 1_000_000);
+    }
+
+    /**
+     * Replace the backlog with the chunks found under-replicated in the chunk index (copies in flight are counted
+     * as replicas by the caller, so they are not in it)
+     */
+    public synchronized void update(List<UnderReplicatedChunk> underReplicatedChunks, int lostChunks,
+                                    int lostStripes) {
+        backlog = new ArrayList<>(underReplicatedChunks);
+        backlog.sort(PRIORITY);
+        this.lostChunks = lostChunks;
+        this.lostStripes = lostStripes;
+
+        long now = System.currentTimeMillis();
+        if (backlog.isEmpty() && inFlight.isEmpty()) {
+            if (degradedSince > 0) {
+                log.info("All chunks are fully replicated again after {} s ({} chunks, {} bytes copied)",
+                        (now - degradedSince) / 1000, chunksCopied, bytesCopied);
+            }
+            degradedSince = 0;
+        } else if (degradedSince == 0) {
+            log.warn("{} chunks are under-replicated. Re-replicating them", backlog.size());
+            degradedSince = now;
+            firstCopyStartedAt = 0;
+            bytesCopied = 0;
+            chunksCopied = 0;
+            copiesFailed = 0;
+        }
+    }
+
+    /**
+     * @return the chunks waiting to be copied, in the order they should be copied
+     */
+    public synchronized List<UnderReplicatedChunk> getBacklog() {
+        return new ArrayList<>(backlog);
+    }
+
+    /**
+     * Take the budget of a copy of a chunk, if there is budget left
+     */
+    public boolean acquireBudget() {
+        return budget.tryAcquire(chunkBytes);
+    }
+
+    public synchronized void started(UnderReplicatedChunk chunk, int sourceId, int targetId, String target) {
+        if (firstCopyStartedAt == 0) {
+            firstCopyStartedAt = System.currentTimeMillis();
+        }
+        inFlight.add(new Copy(chunk.chunkName, chunk.version, sourceId, targetId, target));
+        // the copy is in flight, not waiting any more
+        if (--chunk.missing == 0) {
+            backlog.remove(chunk);
+        }
+    }
+
+    /**
+     * @param target host:port of the target ChunkServer
+     * @return the copy, or null if it is not in flight any more (it timed out, or a ChunkServer failed)
+     */
+    public synchronized Copy completed(String chunkName, String target, boolean stored, long bytes) {
+        for (Iterator<Copy> it = inFlight.iterator(); it.hasNext(); ) {
+            Copy copy = it.next();
+            if (copy.chunkName.equals(chunkName) && copy.target.equals(target)) {
+                it.remove();
+                if (stored) {
+                    chunksCopied++;
+                    bytesCopied += bytes;
+                } else {
+                    copiesFailed++;
+                }
+                return copy;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Give up on the copies that did not complete in time (they are scheduled again if still needed)
+     *
+     * @return the copies given up on
+     */
+    public synchronized List<Copy> expire() {
+        long now = System.currentTimeMillis();
+        List<Copy> expired = new ArrayList<>();
+        for (Iterator<Copy> it = inFlight.iterator(); it.hasNext(); ) {
+            Copy copy = it.next();
+            if (now - copy.startedAt > copyTimeout) {
+                log.warn("Copy of {} to {} did not complete in time", copy.chunkName, copy.target);
+                it.remove();
+                copiesFailed++;
+                expired.add(copy);
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * Give up on the copies from or to a failed ChunkServer
+     *
+     * @return the copies given up on
+     */
+    public synchronized List<Copy> removeChunkServer(int chunkServerId) {
+        List<Copy> removed = new ArrayList<>();
+        for (Iterator<Copy> it = inFlight.iterator(); it.hasNext(); ) {
+            Copy copy = it.next();
+            if (copy.sourceId == chunkServerId || copy.targetId == chunkServerId) {
+                it.remove();
+                copiesFailed++;
+                removed.add(copy);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * @return true if the chunk is being copied (or, a stripe, rebuilt)
+     */
+    public synchronized boolean isInFlight(String chunkName) {
+        for (Copy copy : inFlight) {
+            if (copy.chunkName.equals(chunkName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return copies in flight from or to a ChunkServer
+     */
+    public synchronized int getCopiesInFlight(int chunkServerId) {
+        int copies = 0;
+        for (Copy copy : inFlight) {
+            if (copy.sourceId == chunkServerId || copy.targetId == chunkServerId) {
+                copies++;
+            }
+        }
+        return copies;
+    }
+
+    public void setBandwidthMB(long megabytesPerSecond) {
+        budget.setBytesPerSecond(Math.max(1, megabytesPerSecond) * 1_000_000);
+        log.info("Re-replication bandwidth set to {} MB/s", Math.max(1, megabytesPerSecond));
+    }
+
+    /**
+     * @return true while chunks are under-replicated or being copied
+     */
+    public synchronized boolean isDegraded() {
+        return !backlog.isEmpty() || !inFlight.isEmpty();
+    }
+
+    /**
+     * @return estimated seconds until every chunk is fully replicated again (-1 if it cannot be estimated)
+     */
+    public synchronized long getSecondsToFullRedundancy() {
+        long remaining = getRemainingBytes();
+        if (remaining == 0) {
+            return 0;
+        }
+        // the rate copies have completed at since the first one started, capped by the budget
+        long elapsed = firstCopyStartedAt == 0 ? 0 : System.currentTimeMillis() - firstCopyStartedAt;
+        double rate = bytesCopied > 0 && elapsed > 0 ?
+                Math.min(budget.getBytesPerSecond(), bytesCopied * 1000.0 / elapsed) : budget.getBytesPerSecond();
+        return (long) Math.ceil(remaining / rate);
+    }
+
+    private long getRemainingBytes() {
+        long remaining = (long) inFlight.size() * chunkBytes;
+        for (UnderReplicatedChunk chunk : backlog) {
+            remaining += chunk.missing * chunkBytes;
+        }
+        return remaining;
+    }
+
+    public synchronized void printStatus() {
+        int[] byReplicas = new int[4]; // 1, 2, 3 and more replicas left
+        long missingReplicas = 0;
+        for (UnderReplicatedChunk chunk : backlog) {
+            byReplicas[Math.min(chunk.replicas, byReplicas.length) - 1]++;
+            missingReplicas += chunk.missing;
+        }
+
+        System.out.printf("Re-replication: {status = %s, underReplicatedChunks = %d, missingReplicas = %d, " +
+                        "copiesInFlight = %d, bandwidth = %d MB/s}%n",
+                degradedSince == 0 ? "fully replicated" : "degraded for " +
+                        (System.currentTimeMillis() - degradedSince) / 1000 + " s",
+                backlog.size(), missingReplicas, inFlight.size(), budget.getBytesPerSecond() / 1_000_000);
+        System.out.printf("\t[+] chunks with replicas left {1 = %d, 2 = %d, 3 = %d, more = %d}%n",
+                byReplicas[0], byReplicas[1], byReplicas[2], byReplicas[3]);
+        if (degradedSince > 0) {
+            System.out.printf("\t[+] progress {chunksCopied = %d, bytesCopied = %d, copiesFailed = %d, " +
+                            "bytesLeft ~ %d, timeToFullRedundancy ~ %d s}%n", chunksCopied, bytesCopied, copiesFailed,
+                    getRemainingBytes(), getSecondsToFullRedundancy());
+        }
+        if (lostChunks > 0) {
+            System.out.printf("\t[!] %d chunks have no live replica to copy from%n", lostChunks);
+        }
+        if (lostStripes > 0) {
+            System.out.printf("\t[!] %d stripes of erasure-coded files are lost " +
+                    "(too few other stripes are left to rebuild them from)%n", lostStripes);
+        }
+        for (Copy copy : inFlight) {
+            System.out.printf("\t[>] %s%s -> %s (%d ms)%n", copy.chunkName, copy.sourceId == 0 ? " (rebuilt)" : "",
+                    copy.target, System.currentTimeMillis() - copy.startedAt);
+        }
+    }
+
+    /**
+     * A chunk with fewer up-to-date replicas on live ChunkServers than its file's replication factor, or a lost
+     * stripe of the chunk of an erasure-coded file
+     */
+    public static class UnderReplicatedChunk {
+        private final String chunkName;
+        private final int version;
+        private final List<Integer> holders; // live ChunkServers with an up-to-date replica (of the other stripes)
+        private final int[] stripeHolders; // ChunkServer holding each stripe, 0 where lost (null unless a stripe)
+        private final int replicas;
+        private int missing;
+
+        public UnderReplicatedChunk(String chunkName, int version, List<Integer> holders, int missing) {
+            this.chunkName = chunkName;
+            this.version = version;
+            this.holders = Collections.unmodifiableList(new ArrayList<>(holders));
+            this.stripeHolders = null;
+            this.replicas = holders.size();
+            this.missing = missing;
+        }
+
+        /**
+         * A lost stripe, rebuilt from dataStripes of the others
+         *
+         * @param stripeHolders ChunkServer holding each stripe of the chunk, 0 where lost
+         */
+        public UnderReplicatedChunk(String chunkName, int version, int[] stripeHolders, int dataStripes) {
+            this.chunkName = chunkName;
+            this.version = version;
+            this.stripeHolders = stripeHolders.clone();
+            List<Integer> holders = new ArrayList<>();
+            for (int holder : stripeHolders) {
+                if (holder != 0) {
+                    holders.add(holder);
+                }
+            }
+            this.holders = Collections.unmodifiableList(holders);
+            this.replicas = holders.size() - dataStripes + 1;
+            this.missing = 1;
+        }
+
+        public String getChunkName() {
+            return chunkName;
+        }
+
+        public int getVersion() {
+            return version;
+        }
+
+        public List<Integer> getHolders() {
+            return holders;
+        }
+
+        public boolean isStripe() {
+            return stripeHolders != null;
+        }
+
+        public int[] getStripeHolders() {
+            return stripeHolders.clone();
+        }
+
+        public int getReplicas() {
+            return replicas;
+        }
+
+        public int getMissing() {
+            return missing;
+        }
+    }
+
+    /**
+     * A copy of a chunk from one ChunkServer to another
+     */
+    public static class Copy {
+        private final String chunkName;
+        private final int version;
+        private final int sourceId;
+        private final int targetId;
+        private final String target; // host:port the source was told to copy to
+        private final long startedAt;
+
+        private Copy(String chunkName, int version, int sourceId, int targetId, String target) {
+            this.chunkName = chunkName;
+            this.version = version;
+            this.sourceId = sourceId;
+            this.targetId = targetId;
+            this.target = target;
+            startedAt = System.currentTimeMillis();
+        }
+
+        public String getChunkName() {
+            return chunkName;
+        }
+
+        public int getVersion() {
+            return version;
+        }
+
+        public int getTargetId() {
+            return targetId;
+        }
+    }
+}
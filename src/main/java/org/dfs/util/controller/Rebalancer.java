@@ -0,0 +1,259 @@
+package org.dfs.util.controller;
+
+import org.dfs.util.Throttler;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bookkeeping of the background rebalancer, which moves chunks from ChunkServers whose disk utilization is more
+ * than a threshold above the cluster average to ChunkServers below the average. A move is a copy to the target
+ * followed by the deletion of the source's replica, so a chunk never has fewer replicas than before while moving.
+ * Moves are started within their own bandwidth budget, lower than the one of re-replication.
+ * <p>
+ * A source keeps reporting a moved replica until it has deleted it, so moved replicas are left out of what
+ * the source reports for a while.
+ */
+public class Rebalancer {
+    private static final Logger log = LogManager.getLogger(Rebalancer.class);
+
+    private final long chunkBytes;
+    private final long moveTimeout;
+    private final long movedReplicaRetention;
+    private final Throttler budget;
+    private final List<Move> inFlight;
+    // ChunkServerID, (chunkName, time the replica was moved away)
+    private final ConcurrentHashMap<Integer, ConcurrentHashMap<String, Long>> movedReplicas;
+    private volatile boolean enabled;
+    private volatile double threshold; // fraction of the disk
+
+    // statistics
+    private long movesCompleted;
+    private long movesFailed;
+    private long bytesMoved;
+
+    public Rebalancer(double thresholdPercent, long bandwidthMB, long chunkBytes, long moveTimeout,
+                      long movedReplicaRetention) {
+        this.chunkBytes = chunkBytes;
+        this.moveTimeout = moveTimeout;
+        this.movedReplicaRetention = movedReplicaRetention;
+        budget = new Throttler(bandwidthMB * 1_000_000);
+        inFlight = new ArrayList<>();
+        movedReplicas = new ConcurrentHashMap<>();
+        threshold = thresholdPercent / 100;
+        enabled = true;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        log.info("Rebalancing {}", enabled ? "enabled" : "disabled");
+    }
+
+    /**
+     * @return how far above the cluster average a ChunkServer's utilization may be (fraction of its disk)
+     */
+    public double getThreshold() {
+        return threshold;
+    }
+
+    public void setThresholdPercent(double thresholdPercent) {
+        threshold = Math.max(0, thresholdPercent) / 100;
+        log.info("Rebalancing threshold set to {}%", Math.max(0, thresholdPercent));
+    }
+
+    public void setBandwidthMB(long megabytesPerSecond) {
+        budget.setBytesPerSecond(Math.max(1, megabytesPerSecond) * 1_000_000);
+        log.info("Rebalancing bandwidth set to {} MB/s", Math.max(1, megabytesPerSecond));
+    }
+
+    public long getChunkBytes() {
+        return chunkBytes;
+    }
+
+    /**
+     * Take the budget of a move, if there is budget left
+     */
+    public boolean acquireBudget() {
+        return budget.tryAcquire(chunkBytes);
+    }
+
+    public synchronized void started(String chunkName, int version, int sourceId, int targetId, String target) {
+        inFlight.add(new Move(chunkName, version, sourceId, targetId, target));
+    }
+
+    /**
+     * @param target host:port of the target ChunkServer
+     * @return the move, or null if it is not in flight (it is not a move, it timed out, or a ChunkServer failed)
+     */
+    public synchronized Move completed(String chunkName, String target, boolean stored, long bytes) {
+        for (Iterator<Move> it = inFlight.iterator(); it.hasNext(); ) {
+            Move move = it.next();
+            if (move.chunkName.equals(chunkName) && move.target.equals(target)) {
+                it.remove();
+                if (stored) {
+                    movesCompleted++;
+                    bytesMoved += bytes;
+                    movedReplicas.computeIfAbsent(move.sourceId, id -> new ConcurrentHashMap<>())
+                            .put(chunkName, System.currentTimeMillis());
+                } else {
+                    movesFailed++;
+                }
+                return move;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Give up on the moves that did not complete in time
+     *
+     * @return the moves given up on
+     */
+    public synchronized List<Move> expire() {
+        long now = System.currentTimeMillis();
+        List<Move> expired = new ArrayList<>();
+        for (Iterator<Move> it = inFlight.iterator(); it.hasNext(); ) {
+            Move move = it.next();
+            if (now - move.startedAt > moveTimeout) {
+                log.warn("Move of {} to {} did not complete in time", move.chunkName, move.target);
+                it.remove();
+                movesFailed++;
+                expired.add(move);
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * Give up on the moves from or to a failed ChunkServer
+     *
+     * @return the moves given up on
+     */
+    public synchronized List<Move> removeChunkServer(int chunkServerId) {
+        movedReplicas.remove(chunkServerId);
+        List<Move> removed = new ArrayList<>();
+        for (Iterator<Move> it = inFlight.iterator(); it.hasNext(); ) {
+            Move move = it.next();
+            if (move.sourceId == chunkServerId || move.targetId == chunkServerId) {
+                it.remove();
+                movesFailed++;
+                removed.add(move);
+            }
+        }
+        return removed;
+    }
+
+    public synchronized boolean isMoving(String chunkName) {
+        for (Move move : inFlight) {
+            if (move.chunkName.equals(chunkName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return moves in flight from or to a ChunkServer
+     */
+    public synchronized int getMovesInFlight(int chunkServerId) {
+        int moves = 0;
+        for (Move move : inFlight) {
+            if (move.sourceId == chunkServerId || move.targetId == chunkServerId) {
+                moves++;
+            }
+        }
+        return moves;
+    }
+
+    /**
+     * @return bytes that will leave a ChunkServer: replicas being moved away from it, or moved and not deleted yet
+     */
+    public synchronized long getBytesLeaving(int chunkServerId) {
+        long bytes = 0;
+        for (Move move : inFlight) {
+            if (move.sourceId == chunkServerId) {
+                bytes += chunkBytes;
+            }
+        }
+        Map<String, Long> moved = movedReplicas.get(chunkServerId);
+        return moved == null ? bytes : bytes + moved.size() * chunkBytes;
+    }
+
+    /**
+     * Chunks reported by a ChunkServer, without the replicas moved away from it. A moved replica is forgotten once
+     * the ChunkServer stops reporting it (it has been deleted), or after a while (the deletion did not happen)
+     */
+    public ArrayList<String> withoutMovedReplicas(int chunkServerId, ArrayList<String> chunks) {
+        Map<String, Long> moved = movedReplicas.get(chunkServerId);
+        if (moved == null || moved.isEmpty()) {
+            return chunks;
+        }
+        long now = System.currentTimeMillis();
+        moved.entrySet().removeIf(entry -> !chunks.contains(entry.getKey()) ||
+                now - entry.getValue() > movedReplicaRetention);
+        ArrayList<String> remaining = new ArrayList<>(chunks);
+        remaining.removeAll(moved.keySet());
+        return remaining;
+    }
+
+    public synchronized void printStatus() {
+        int movedNotDeleted = 0;
+        for (Map<String, Long> moved : movedReplicas.values()) {
+            movedNotDeleted += moved.size();
+        }
+        System.out.printf("Rebalancer: {enabled = %s, threshold = %.2f%%, bandwidth = %d MB/s, movesInFlight = %d, " +
+                        "movesCompleted = %d, movesFailed = %d, bytesMoved = %d, movedReplicasNotDeletedYet = %d}%n",
+                enabled, threshold * 100, budget.getBytesPerSecond() / 1_000_000, inFlight.size(), movesCompleted,
+                movesFailed, bytesMoved, movedNotDeleted);
+        for (Move move : inFlight) {
+            System.out.printf("\t[>] %s: ChunkServer %d -> %s (%d ms)%n", move.chunkName, move.sourceId, move.target,
+                    System.currentTimeMillis() - move.startedAt);
+        }
+    }
+
+    /**
+     * A chunk being moved from one ChunkServer to another
+     */
+    public static class Move {
+        private final String chunkName;
+        private final int version;
+        private final int sourceId;
+        private final int targetId;
+        private final String target; // host:port the source was told to copy to
+        private final long startedAt;
+
+        private Move(String chunkName, int version, int sourceId, int targetId, String target) {
+            this.chunkName = chunkName;
+            this.version = version;
+            this.sourceId = sourceId;
+            this.targetId = targetId;
+            this.target = target;
+            startedAt = System.currentTimeMillis();
+        }
+
+        public String getChunkName() {
+            return chunkName;
+        }
+
+        public int getVersion() {
+            return version;
+        }
+
+        public int getSourceId() {
+            return sourceId;
+        }
+
+        public int getTargetId() {
+            return targetId;
+        }
+    }
+}
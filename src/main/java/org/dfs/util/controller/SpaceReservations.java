@@ -0,0 +1,124 @@
+package org.dfs.util.controller;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Space promised on each ChunkServer to chunks that have been placed there but are not
+ * reported by the ChunkServer yet. Placement subtracts it from the free space of the last heartbeat,
+ * so a burst of writes does not pile onto the node that looked emptiest.
+ * A reservation is released when a heartbeat lists the chunk at its version (or a later one), or when it times out
+ * (the write never arrived). Reservations are per version of a chunk: while an overwrite of a chunk is in flight,
+ * heartbeats still list the older version, which must not release the space of the newer one.
+ */
+public class SpaceReservations {
+    private static final Logger log = LogManager.getLogger(SpaceReservations.class);
+
+    // ChunkServerID, (chunkName#version, Reservation)
+    private final ConcurrentHashMap<Integer, ConcurrentHashMap<String, Reservation>> reservations;
+    private final long timeout;
+
+    public SpaceReservations(long timeout) {
+        this.timeout = timeout;
+        reservations = new ConcurrentHashMap<>();
+    }
+
+    public void reserve(int chunkServerId, String chunkName, int version, long bytes) {
+        reservations.computeIfAbsent(chunkServerId, id -> new ConcurrentHashMap<>()).put(getKey(chunkName, version),
+                new Reservation(chunkName, version, bytes, System.currentTimeMillis() + timeout));
+    }
+
+    /**
+     * @return bytes reserved on the ChunkServer (expired reservations are released)
+     */
+    public long getReservedBytes(int chunkServerId) {
+        Map<String, Reservation> chunkServerReservations = reservations.get(chunkServerId);
+        if (chunkServerReservations == null) {
+            return 0;
+        }
+
+        long now = System.currentTimeMillis();
+        long reserved = 0;
+        for (Map.Entry<String, Reservation> entry : chunkServerReservations.entrySet()) {
+            if (entry.getValue().expiresAt < now) {
+                log.warn("Reservation for {} on ChunkServer {} timed out", entry.getKey(), chunkServerId);
+                chunkServerReservations.remove(entry.getKey(), entry.getValue());
+            } else {
+                reserved += entry.getValue().bytes;
+            }
+        }
+        return reserved;
+    }
+
+    /**
+     * Release the reservations of chunks the ChunkServer reports as stored (their space is part of its used space now)
+     *
+     * @param versions versions of the stored chunks, in the same order (a chunk without one releases all its
+     *                 reservations)
+     */
+    public void releaseStored(int chunkServerId, List<String> storedChunks, List<Integer> versions) {
+        Map<String, Reservation> chunkServerReservations = reservations.get(chunkServerId);
+        if (chunkServerReservations == null || storedChunks == null) {
+            return;
+        }
+
+        HashMap<String, Integer> stored = new HashMap<>();
+        for (int i = 0; i < storedChunks.size(); i++) {
+            int version = versions == null || i >= versions.size() ? 0 : versions.get(i);
+            stored.put(storedChunks.get(i), version <= 0 ? Integer.MAX_VALUE : version);
+        }
+        chunkServerReservations.values().removeIf(reservation ->
+                reservation.version <= stored.getOrDefault(reservation.chunkName, Integer.MIN_VALUE));
+    }
+
+    /**
+     * @return true if space is reserved for any version of the chunk on the ChunkServer (it is being written there)
+     */
+    public boolean isReserved(int chunkServerId, String chunkName) {
+        Map<String, Reservation> chunkServerReservations = reservations.get(chunkServerId);
+        if (chunkServerReservations == null) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        for (Reservation reservation : chunkServerReservations.values()) {
+            if (reservation.chunkName.equals(chunkName) && reservation.expiresAt >= now) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void release(int chunkServerId, String chunkName, int version) {
+        Map<String, Reservation> chunkServerReservations = reservations.get(chunkServerId);
+        if (chunkServerReservations != null) {
+            chunkServerReservations.remove(getKey(chunkName, version));
+        }
+    }
+
+    public void releaseAll(int chunkServerId) {
+        reservations.remove(chunkServerId);
+    }
+
+    private static String getKey(String chunkName, int version) {
+        return chunkName + "#" + version;
+    }
+
+    private static class Reservation {
+        private final String chunkName;
+        private final int version;
+        private final long bytes;
+        private final long expiresAt;
+
+        private Reservation(String chunkName, int version, long bytes, long expiresAt) {
+            this.chunkName = chunkName;
+            this.version = version;
+            this.bytes = bytes;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
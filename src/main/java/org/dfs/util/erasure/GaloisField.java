@@ -0,0 +1,69 @@
+package org.dfs.util.erasure;
+
+/**
+ * Arithmetic in GF(2^8) with the primitive polynomial x^8 + x^4 + x^3 + x^2 + 1 (0x11d).
+ * Addition and subtraction are XOR; multiplication and division go through log/exp tables.
+ * {@link #MULTIPLICATION_TABLE} holds every product, so the encode/decode inner loops are a single lookup per byte.
+ */
+public final class GaloisField {
+    private static final int POLYNOMIAL = 0x11d;
+
+    // exp table is doubled so log(a) + log(b) never needs a modulo
+    private static final byte[] EXP_TABLE = new byte[510];
+    private static final int[] LOG_TABLE = new int[256];
+
+    // MULTIPLICATION_TABLE[a][b] = a * b
+    static final byte[][] MULTIPLICATION_TABLE = new byte[256][256];
+
+    static {
+        int x = 1;
+        for (int i = 0; i < 255; i++) {
+            EXP_TABLE[i] = (byte) x;
+            EXP_TABLE[i + 255] = (byte) x;
+            LOG_TABLE[x] = i;
+            x <<= 1;
+            if (x >= 256) {
+                x ^= POLYNOMIAL;
+            }
+        }
+        for (int a = 0; a < 256; a++) {
+            for (int b = 0; b < 256; b++) {
+                MULTIPLICATION_TABLE[a][b] = multiply((byte) a, (byte) b);
+            }
+        }
+    }
+
+    private GaloisField() {
+
+    }
+
+    public static byte multiply(byte a, byte b) {
+        if (a == 0 || b == 0) {
+            return 0;
+        }
+        return EXP_TABLE[LOG_TABLE[a & 0xff] + LOG_TABLE[b & 0xff]];
+    }
+
+    public static byte divide(byte a, byte b) {
+        if (b == 0) {
+            throw new ArithmeticException("Division by zero in GF(256)");
+        }
+        if (a == 0) {
+            return 0;
+        }
+        return EXP_TABLE[LOG_TABLE[a & 0xff] - LOG_TABLE[b & 0xff] + 255];
+    }
+
+    /**
+     * @return a^n
+     */
+    public static byte exp(byte a, int n) {
+        if (n == 0) {
+            return 1;
+        }
+        if (a == 0) {
+            return 0;
+        }
+        return EXP_TABLE[(LOG_TABLE[a & 0xff] * n) % 255];
+    }
+}
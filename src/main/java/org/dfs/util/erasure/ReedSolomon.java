@@ -0,0 +1,241 @@
+package org.dfs.util.erasure;
+
+import java.util.Arrays;
+
+/**
+ * Systematic Reed-Solomon code over GF(256): data is split into dataStripes equal stripes, and parityStripes
+ * parity stripes are computed from them, so any dataStripes of the dataStripes + parityStripes stripes are
+ * enough to rebuild the rest. RS(6, 3) tolerates the loss of any 3 stripes for 1.5x the size of the data,
+ * where 3 replicas tolerate the loss of 2 for 3x.
+ * <p>
+ * The encoding matrix is a Vandermonde matrix multiplied by the inverse of its top square, so its top rows are
+ * the identity (data stripes are stored as is) and every square submatrix of it stays invertible.
+ * Instances are immutable and thread safe.
+ */
+public class ReedSolomon {
+    private final int dataStripes;
+    private final int parityStripes;
+    // (dataStripes + parityStripes) x dataStripes: stripe r = sum over c of matrix[r][c] * data stripe c
+    private final byte[][] matrix;
+
+    public ReedSolomon(int dataStripes, int parityStripes) {
+        if (dataStripes <= 0 || parityStripes < 0 || dataStripes + parityStripes > 256) {
+            throw new IllegalArgumentException("Invalid Reed-Solomon code RS(" + dataStripes + ", " +
+                    parityStripes + ")");
+        }
+        this.dataStripes = dataStripes;
+        this.parityStripes = parityStripes;
+
+        int totalStripes = dataStripes + parityStripes;
+        byte[][] vandermonde = new byte[totalStripes][dataStripes];
+        for (int r = 0; r < totalStripes; r++) {
+            for (int c = 0; c < dataStripes; c++) {
+                vandermonde[r][c] = GaloisField.exp((byte) r, c);
+            }
+        }
+        matrix = multiply(vandermonde, invert(Arrays.copyOf(vandermonde, dataStripes)));
+    }
+
+    public int getDataStripes() {
+        return dataStripes;
+    }
+
+    public int getParityStripes() {
+        return parityStripes;
+    }
+
+    public int getTotalStripes() {
+        return dataStripes + parityStripes;
+    }
+
+    /**
+     * @return size of each stripe of length bytes of data
+     */
+    public int getStripeSize(int length) {
+        return (length + dataStripes - 1) / dataStripes;
+    }
+
+    /**
+     * Split data into data stripes (the last one is padded with zeros) and compute the parity stripes
+     *
+     * @return all stripes, data stripes first, of getStripeSize(length) bytes each
+     */
+    public byte[][] encode(byte[] data, int offset, int length) {
+        int stripeSize = getStripeSize(length);
+        byte[][] stripes = new byte[getTotalStripes()][];
+        for (int i = 0; i < dataStripes; i++) {
+            int start = Math.min(length, i * stripeSize);
+            int end = Math.min(length, start + stripeSize);
+            stripes[i] = new byte[stripeSize];
+            System.arraycopy(data, offset + start, stripes[i], 0, end - start);
+        }
+        for (int i = dataStripes; i < stripes.length; i++) {
+            stripes[i] = new byte[stripeSize];
+        }
+        encodeParity(stripes, stripeSize);
+        return stripes;
+    }
+
+    /**
+     * Compute the parity stripes of stripes from its data stripes (overwriting them)
+     */
+    public void encodeParity(byte[][] stripes, int stripeSize) {
+        for (int p = dataStripes; p < stripes.length; p++) {
+            Arrays.fill(stripes[p], 0, stripeSize, (byte) 0);
+            for (int c = 0; c < dataStripes; c++) {
+                multiplyAdd(matrix[p][c], stripes[c], stripes[p], stripeSize);
+            }
+        }
+    }
+
+    /**
+     * Rebuild the missing data stripes (missing parity stripes are left null)
+     *
+     * @param stripes all stripes, null where missing
+     * @throws IllegalArgumentException if fewer than dataStripes stripes are present
+     */
+    public void decodeData(byte[][] stripes, int stripeSize) {
+        boolean dataMissing = false;
+        for (int i = 0; i < dataStripes; i++) {
+            dataMissing |= stripes[i] == null;
+        }
+        if (!dataMissing) {
+            return;
+        }
+
+        // the first dataStripes present stripes, and their rows of the encoding matrix
+        int[] present = new int[dataStripes];
+        int found = 0;
+        for (int i = 0; i < stripes.length && found < dataStripes; i++) {
+            if (stripes[i] != null) {
+                present[found++] = i;
+            }
+        }
+        if (found < dataStripes) {
+            throw new IllegalArgumentException("Only " + found + " of " + stripes.length + " stripes present. " +
+                    dataStripes + " are needed to decode");
+        }
+        byte[][] subMatrix = new byte[dataStripes][];
+        for (int i = 0; i < dataStripes; i++) {
+            subMatrix[i] = matrix[present[i]];
+        }
+
+        // data stripe d = sum over j of decodeMatrix[d][j] * present stripe j
+        byte[][] decodeMatrix = invert(subMatrix);
+        for (int d = 0; d < dataStripes; d++) {
+            if (stripes[d] != null) {
+                continue;
+            }
+            byte[] stripe = new byte[stripeSize];
+            for (int j = 0; j < dataStripes; j++) {
+                multiplyAdd(decodeMatrix[d][j], stripes[present[j]], stripe, stripeSize);
+            }
+            stripes[d] = stripe;
+        }
+    }
+
+    /**
+     * Rebuild all missing stripes (data and parity)
+     *
+     * @param stripes all stripes, null where missing
+     * @throws IllegalArgumentException if fewer than dataStripes stripes are present
+     */
+    public void decode(byte[][] stripes, int stripeSize) {
+        decodeData(stripes, stripeSize);
+        for (int p = dataStripes; p < stripes.length; p++) {
+            if (stripes[p] != null) {
+                continue;
+            }
+            stripes[p] = new byte[stripeSize];
+            for (int c = 0; c < dataStripes; c++) {
+                multiplyAdd(matrix[p][c], stripes[c], stripes[p], stripeSize);
+            }
+        }
+    }
+
+    /**
+     * @return the first length bytes of the data stripes, concatenated
+     */
+    public byte[] join(byte[][] stripes, int length) {
+        byte[] data = new byte[length];
+        for (int i = 0, offset = 0; i < dataStripes && offset < length; i++) {
+            int n = Math.min(stripes[i].length, length - offset);
+            System.arraycopy(stripes[i], 0, data, offset, n);
+            offset += n;
+        }
+        return data;
+    }
+
+    /**
+     * output += coefficient * input (over the first length bytes)
+     */
+    private static void multiplyAdd(byte coefficient, byte[] input, byte[] output, int length) {
+        if (coefficient == 0) {
+            return;
+        }
+        byte[] products = GaloisField.MULTIPLICATION_TABLE[coefficient & 0xff];
+        for (int i = 0; i < length; i++) {
+            output[i] ^= products[input[i] & 0xff];
+        }
+    }
+
+    private static byte[][] multiply(byte[][] a, byte[][] b) {
+        byte[][] product = new byte[a.length][b[0].length];
+        for (int r = 0; r < a.length; r++) {
+            for (int c = 0; c < b[0].length; c++) {
+                byte value = 0;
+                for (int i = 0; i < b.length; i++) {
+                    value ^= GaloisField.multiply(a[r][i], b[i][c]);
+                }
+                product[r][c] = value;
+            }
+        }
+        return product;
+    }
+
+    /**
+     * Invert a square matrix by Gauss-Jordan elimination
+     */
+    private static byte[][] invert(byte[][] square) {
+        int n = square.length;
+        // [square | identity], reduced to [identity | inverse]
+        byte[][] work = new byte[n][2 * n];
+        for (int r = 0; r < n; r++) {
+            System.arraycopy(square[r], 0, work[r], 0, n);
+            work[r][n + r] = 1;
+        }
+
+        for (int c = 0; c < n; c++) {
+            int pivot = c;
+            while (pivot < n && work[pivot][c] == 0) {
+                pivot++;
+            }
+            if (pivot == n) {
+                throw new IllegalArgumentException("Matrix is singular");
+            }
+            byte[] swap = work[c];
+            work[c] = work[pivot];
+            work[pivot] = swap;
+
+            byte scale = work[c][c];
+            for (int i = 0; i < 2 * n; i++) {
+                work[c][i] = GaloisField.divide(work[c][i], scale);
+            }
+            for (int r = 0; r < n; r++) {
+                byte factor = work[r][c];
+                if (r == c || factor == 0) {
+                    continue;
+                }
+                for (int i = 0; i < 2 * n; i++) {
+                    work[r][i] ^= GaloisField.multiply(factor, work[c][i]);
+                }
+            }
+        }
+
+        byte[][] inverse = new byte[n][];
+        for (int r = 0; r < n; r++) {
+            inverse[r] = Arrays.copyOfRange(work[r], n, 2 * n);
+        }
+        return inverse;
+    }
+}
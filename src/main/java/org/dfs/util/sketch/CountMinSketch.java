@@ -0,0 +1,94 @@
+package org.dfs.util.sketch;
+
+/**
+ * Count-min sketch over string keys with exponential decay: a fixed depth x width table of counters,
+ * so memory does not grow with the number of keys. An estimate never undercounts; it overcounts
+ * by at most ~(e / width) of the total with probability 1 - e^-depth.
+ * <p>
+ * Updates are conservative (only the counters at the current minimum are raised), which keeps
+ * overcounting low for skewed workloads. {@link #decay(double)} scales every counter, so estimates
+ * weigh recent events more than old ones. Not thread safe.
+ */
+public class CountMinSketch {
+    private final int depth;
+    private final int width;
+    private final double[][] counters;
+    private double total;
+
+    public CountMinSketch(int depth, int width) {
+        if (depth <= 0 || width <= 0) {
+            throw new IllegalArgumentException("depth and width must be positive");
+        }
+        this.depth = depth;
+        this.width = width;
+        counters = new double[depth][width];
+    }
+
+    /**
+     * @return the estimate for key after adding amount
+     */
+    public double add(String key, double amount) {
+        int[] index = indexes(key);
+        double estimate = estimate(index);
+        double target = estimate + amount;
+        for (int row = 0; row < depth; row++) {
+            if (counters[row][index[row]] < target) {
+                counters[row][index[row]] = target;
+            }
+        }
+        total += amount;
+        return target;
+    }
+
+    public double estimate(String key) {
+        return estimate(indexes(key));
+    }
+
+    /**
+     * Multiply all counters by factor (0 < factor < 1)
+     */
+    public void decay(double factor) {
+        for (double[] row : counters) {
+            for (int i = 0; i < width; i++) {
+                row[i] *= factor;
+            }
+        }
+        total *= factor;
+    }
+
+    public double getTotal() {
+        return total;
+    }
+
+    private double estimate(int[] index) {
+        double min = Double.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            min = Math.min(min, counters[row][index[row]]);
+        }
+        return min;
+    }
+
+    /**
+     * One counter per row, from two halves of a mixed 64-bit hash (double hashing)
+     */
+    private int[] indexes(String key) {
+        long hash = mix(key.hashCode());
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        int[] index = new int[depth];
+        for (int row = 0; row < depth; row++) {
+            index[row] = Math.floorMod(h1 + row * h2, width);
+        }
+        return index;
+    }
+
+    // finalizer of MurmurHash3 (fmix64)
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -15,6 +15,10 @@ import java.io.IOException;
 public class ClientRequestsChunkServersFromController extends Event {
     private static final Logger log = LogManager.getLogger(ClientRequestsChunkServersFromController.class);
 
+    // chunk to be placed and its size, so the Controller can reserve space for it
+    private String chunkName;
+    private int chunkSize;
+
     public ClientRequestsChunkServersFromController() {
 
     }
@@ -27,6 +31,15 @@ public class ClientRequestsChunkServersFromController extends Event {
 
         EventValidator.validateEventType(messageType, getType(), log);
 
+        // read chunk name
+        int chunkNameLength = din.readInt();
+        byte[] chunkNameBytes = new byte[chunkNameLength];
+        din.readFully(chunkNameBytes, 0, chunkNameLength);
+        chunkName = new String(chunkNameBytes);
+
+        // read chunk size
+        chunkSize = din.readInt();
+
         baInputStream.close();
         din.close();
     }
@@ -39,6 +52,14 @@ public class ClientRequestsChunkServersFromController extends Event {
 
         try {
             dout.writeByte(getType());
+
+            // write chunk name
+            dout.writeInt(chunkName.getBytes().length);
+            dout.write(chunkName.getBytes());
+
+            // write chunk size
+            dout.writeInt(chunkSize);
+
             dout.flush();
 
             marshalledBytes = baOutputStream.toByteArray();
@@ -58,6 +79,22 @@ public class ClientRequestsChunkServersFromController extends Event {
         return marshalledBytes;
     }
 
+    public String getChunkName() {
+        return chunkName;
+    }
+
+    public void setChunkName(String chunkName) {
+        this.chunkName = chunkName;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
     @Override
     public int getType() {
         return Protocol.CLIENT_REQUESTS_CHUNK_SERVERS_FROM_CONTROLLER;
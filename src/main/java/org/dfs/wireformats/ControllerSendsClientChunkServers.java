@@ -15,9 +15,15 @@ import java.io.IOException;
 public class ControllerSendsClientChunkServers extends Event {
     private static final Logger log = LogManager.getLogger(ControllerSendsClientChunkServers.class);
 
+    // none if the controller has no chunk servers to store the chunk on (the client asks again later)
     private String[] chunkServerHosts;
     private String[] chunkServerHostNames;
     private int[] chunkServerPorts;
+    private int version; // version the chunk is to be stored with
+    // if the chunk's file is erasure-coded, its Reed-Solomon layout: stripe i goes to chunk server i
+    // (otherwise 0 data stripes, and the chunk servers are the replication chain)
+    private int dataStripes;
+    private int parityStripes;
 
     public ControllerSendsClientChunkServers() {
 
@@ -30,11 +36,13 @@ public class ControllerSendsClientChunkServers extends Event {
         byte messageType = din.readByte();
         EventValidator.validateEventType(messageType, getType(), log);
 
-        chunkServerHosts = new String[3];
-        chunkServerHostNames = new String[3];
-        chunkServerPorts = new int[3];
+        // read number of chunk servers (the chunk's replication factor)
+        int noOfChunkServers = din.readInt();
+        chunkServerHosts = new String[noOfChunkServers];
+        chunkServerHostNames = new String[noOfChunkServers];
+        chunkServerPorts = new int[noOfChunkServers];
 
-        for (int i = 0; i < 3; i++) {
+        for (int i = 0; i < noOfChunkServers; i++) {
             // read host IP
             int hostLength = din.readByte();
             byte[] host = new byte[hostLength];
@@ -52,6 +60,13 @@ public class ControllerSendsClientChunkServers extends Event {
             chunkServerPorts[i] = port;
         }
 
+        // read chunk version
+        version = din.readInt();
+
+        // read erasure coding layout
+        dataStripes = din.readInt();
+        parityStripes = din.readInt();
+
         baInputStream.close();
         din.close();
     }
@@ -66,7 +81,8 @@ public class ControllerSendsClientChunkServers extends Event {
             dout.writeByte(getType());
 
             // write chunk server hosts and ports
-            for (int i = 0; i < 3; i++) {
+            dout.writeInt(chunkServerHosts.length);
+            for (int i = 0; i < chunkServerHosts.length; i++) {
                 // write host IP address
                 int hostLength = (byte) chunkServerHosts[i].getBytes().length;
                 dout.writeByte(hostLength);
@@ -81,6 +97,13 @@ public class ControllerSendsClientChunkServers extends Event {
                 dout.writeInt(chunkServerPorts[i]);
             }
 
+            // write chunk version
+            dout.writeInt(version);
+
+            // write erasure coding layout
+            dout.writeInt(dataStripes);
+            dout.writeInt(parityStripes);
+
             dout.flush();
 
             marshalledBytes = baOutputStream.toByteArray();
@@ -101,6 +124,14 @@ public class ControllerSendsClientChunkServers extends Event {
     }
 
 
+    public int getVersion() {
+        return version;
+    }
+
+    public void setVersion(int version) {
+        this.version = version;
+    }
+
     public String[] getChunkServerHosts() {
         return chunkServerHosts;
     }
@@ -129,4 +160,24 @@ public class ControllerSendsClientChunkServers extends Event {
     public void setChunkServerHostNames(String[] chunkServerHostNames) {
         this.chunkServerHostNames = chunkServerHostNames;
     }
+
+    public boolean isErasureCoded() {
+        return dataStripes > 0;
+    }
+
+    public int getDataStripes() {
+        return dataStripes;
+    }
+
+    public void setDataStripes(int dataStripes) {
+        this.dataStripes = dataStripes;
+    }
+
+    public int getParityStripes() {
+        return parityStripes;
+    }
+
+    public void setParityStripes(int parityStripes) {
+        this.parityStripes = parityStripes;
+    }
 }
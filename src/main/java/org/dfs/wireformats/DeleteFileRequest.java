@@ -0,0 +1,87 @@
+package org.dfs.wireformats;
+
+import org.dfs.util.EventValidator;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Client asks the Controller to delete a file
+ */
+public class DeleteFileRequest extends Event {
+    private static final Logger log = LogManager.getLogger(DeleteFileRequest.class);
+
+    private String fileName;
+
+    public DeleteFileRequest() {
+
+    }
+
+    public DeleteFileRequest(byte[] marshalledBytes) throws IOException {
+        ByteArrayInputStream baInputStream = new ByteArrayInputStream(marshalledBytes);
+        DataInputStream din = new DataInputStream(new BufferedInputStream(baInputStream));
+
+        byte messageType = din.readByte();
+        EventValidator.validateEventType(messageType, getType(), log);
+
+        // read file name
+        int fileNameLength = din.readInt();
+        byte[] fileNameBytes = new byte[fileNameLength];
+        din.readFully(fileNameBytes, 0, fileNameLength);
+        fileName = new String(fileNameBytes);
+
+        baInputStream.close();
+        din.close();
+    }
+
+    @Override
+    public byte[] getBytes() {
+        byte[] marshalledBytes = null;
+        ByteArrayOutputStream baOutputStream = new ByteArrayOutputStream();
+        DataOutputStream dout = new DataOutputStream(new BufferedOutputStream(baOutputStream));
+
+        try {
+            dout.writeByte(getType());
+
+            // write file name
+            dout.writeInt(fileName.getBytes().length);
+            dout.write(fileName.getBytes());
+
+            dout.flush();
+            marshalledBytes = baOutputStream.toByteArray();
+        } catch (IOException e) {
+            log.error(e.getLocalizedMessage());
+            e.printStackTrace();
+        } finally {
+            try {
+                baOutputStream.close();
+                dout.close();
+            } catch (IOException e) {
+                log.error(e.getLocalizedMessage());
+                e.printStackTrace();
+            }
+        }
+
+        return marshalledBytes;
+    }
+
+    @Override
+    public int getType() {
+        return Protocol.DELETE_FILE_REQUEST;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+}
@@ -0,0 +1,100 @@
+package org.dfs.wireformats;
+
+import org.dfs.util.EventValidator;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Controller tells the Client whether a file was deleted (its chunks are reclaimed later)
+ */
+public class DeleteFileResponse extends Event {
+    private static final Logger log = LogManager.getLogger(DeleteFileResponse.class);
+
+    private String fileName;
+    private boolean deleted;
+
+    public DeleteFileResponse() {
+
+    }
+
+    public DeleteFileResponse(byte[] marshalledBytes) throws IOException {
+        ByteArrayInputStream baInputStream = new ByteArrayInputStream(marshalledBytes);
+        DataInputStream din = new DataInputStream(new BufferedInputStream(baInputStream));
+
+        byte messageType = din.readByte();
+        EventValidator.validateEventType(messageType, getType(), log);
+
+        // read file name
+        int fileNameLength = din.readInt();
+        byte[] fileNameBytes = new byte[fileNameLength];
+        din.readFully(fileNameBytes, 0, fileNameLength);
+        fileName = new String(fileNameBytes);
+
+        deleted = din.readBoolean();
+
+        baInputStream.close();
+        din.close();
+    }
+
+    @Override
+    public byte[] getBytes() {
+        byte[] marshalledBytes = null;
+        ByteArrayOutputStream baOutputStream = new ByteArrayOutputStream();
+        DataOutputStream dout = new DataOutputStream(new BufferedOutputStream(baOutputStream));
+
+        try {
+            dout.writeByte(getType());
+
+            // write file name
+            dout.writeInt(fileName.getBytes().length);
+            dout.write(fileName.getBytes());
+
+            dout.writeBoolean(deleted);
+
+            dout.flush();
+            marshalledBytes = baOutputStream.toByteArray();
+        } catch (IOException e) {
+            log.error(e.getLocalizedMessage());
+            e.printStackTrace();
+        } finally {
+            try {
+                baOutputStream.close();
+                dout.close();
+            } catch (IOException e) {
+                log.error(e.getLocalizedMessage());
+                e.printStackTrace();
+            }
+        }
+
+        return marshalledBytes;
+    }
+
+    @Override
+    public int getType() {
+        return Protocol.DELETE_FILE_RESPONSE;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    public boolean isDeleted() {
+        return deleted;
+    }
+
+    public void setDeleted(boolean deleted) {
+        this.deleted = deleted;
+    }
+}
@@ -100,6 +100,54 @@ public class EventFactory {
                 LivenessHeartbeat livenessHeartbeat = new LivenessHeartbeat(data);
                 livenessHeartbeat.setSocket(socket);
                 return livenessHeartbeat;
+            case Protocol.DELETE_FILE_REQUEST:
+                DeleteFileRequest deleteFileRequest = new DeleteFileRequest(data);
+                deleteFileRequest.setSocket(socket);
+                return deleteFileRequest;
+            case Protocol.DELETE_FILE_RESPONSE:
+                DeleteFileResponse deleteFileResponse = new DeleteFileResponse(data);
+                deleteFileResponse.setSocket(socket);
+                return deleteFileResponse;
+            case Protocol.HEARTBEAT_RESPONSE:
+                HeartbeatResponse heartbeatResponse = new HeartbeatResponse(data);
+                heartbeatResponse.setSocket(socket);
+                return heartbeatResponse;
+            case Protocol.SEND_PACKED_FILE_INFO:
+                SendPackedFileInfo sendPackedFileInfo = new SendPackedFileInfo(data);
+                sendPackedFileInfo.setSocket(socket);
+                return sendPackedFileInfo;
+            case Protocol.STORE_CHUNK_PACKET:
+                StoreChunkPacket storeChunkPacket = new StoreChunkPacket(data);
+                storeChunkPacket.setSocket(socket);
+                return storeChunkPacket;
+            case Protocol.STORE_CHUNK_ACK:
+                StoreChunkAck storeChunkAck = new StoreChunkAck(data);
+                storeChunkAck.setSocket(socket);
+                return storeChunkAck;
+            case Protocol.REPLICATE_CHUNK:
+                ReplicateChunk replicateChunk = new ReplicateChunk(data);
+                replicateChunk.setSocket(socket);
+                return replicateChunk;
+            case Protocol.REPLICATE_CHUNK_RESPONSE:
+                ReplicateChunkResponse replicateChunkResponse = new ReplicateChunkResponse(data);
+                replicateChunkResponse.setSocket(socket);
+                return replicateChunkResponse;
+            case Protocol.REPAIR_SLICES_REQUEST:
+                RepairSlicesRequest repairSlicesRequest = new RepairSlicesRequest(data);
+                repairSlicesRequest.setSocket(socket);
+                return repairSlicesRequest;
+            case Protocol.REPAIR_SLICES_RESPONSE:
+                RepairSlicesResponse repairSlicesResponse = new RepairSlicesResponse(data);
+                repairSlicesResponse.setSocket(socket);
+                return repairSlicesResponse;
+            case Protocol.REPORT_BAD_REPLICA:
+                ReportBadReplica reportBadReplica = new ReportBadReplica(data);
+                reportBadReplica.setSocket(socket);
+                return reportBadReplica;
+            case Protocol.REBUILD_STRIPE:
+                RebuildStripe rebuildStripe = new RebuildStripe(data);
+                rebuildStripe.setSocket(socket);
+                return rebuildStripe;
             //FixCorruptChunk fixCorruptChunk = new FixCorruptChunk(data);
             //fixCorruptChunk.setSocket(socket);
             //return fixCorruptChunk;
@@ -0,0 +1,116 @@
+package org.dfs.wireformats;
+
+import org.dfs.util.EventValidator;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Controller's reply to a major/minor heartbeat.
+ * Includes: chunks reported by the chunk server that belong to deleted files or are stale replicas
+ * (to be garbage collected), each with the highest version that may be deleted.
+ */
+public class HeartbeatResponse extends Event {
+    private static final Logger log = LogManager.getLogger(HeartbeatResponse.class);
+
+    private ArrayList<String> orphanChunks;
+    private ArrayList<Integer> orphanVersions;
+
+    public HeartbeatResponse() {
+        orphanChunks = new ArrayList<>();
+        orphanVersions = new ArrayList<>();
+    }
+
+    public HeartbeatResponse(byte[] marshalledBytes) throws IOException {
+        ByteArrayInputStream baInputStream = new ByteArrayInputStream(marshalledBytes);
+        DataInputStream din = new DataInputStream(new BufferedInputStream(baInputStream));
+
+        byte messageType = din.readByte();
+        EventValidator.validateEventType(messageType, getType(), log);
+
+        // read orphan chunks
+        int noOfOrphanChunks = din.readInt();
+        orphanChunks = new ArrayList<>(noOfOrphanChunks);
+        orphanVersions = new ArrayList<>(noOfOrphanChunks);
+        for (int i = 0; i < noOfOrphanChunks; i++) {
+            int chunkNameLength = din.readInt();
+            byte[] chunkName = new byte[chunkNameLength];
+            din.readFully(chunkName, 0, chunkNameLength);
+            orphanChunks.add(new String(chunkName));
+            orphanVersions.add(din.readInt());
+        }
+
+        baInputStream.close();
+        din.close();
+    }
+
+    @Override
+    public byte[] getBytes() {
+        byte[] marshalledBytes = null;
+        ByteArrayOutputStream baOutputStream = new ByteArrayOutputStream();
+        DataOutputStream dout = new DataOutputStream(new BufferedOutputStream(baOutputStream));
+
+        try {
+            dout.writeByte(getType());
+
+            // write orphan chunks
+            dout.writeInt(orphanChunks.size());
+            for (int i = 0; i < orphanChunks.size(); i++) {
+                String chunkName = orphanChunks.get(i);
+                dout.writeInt(chunkName.getBytes().length);
+                dout.write(chunkName.getBytes());
+                dout.writeInt(orphanVersions.get(i));
+            }
+
+            dout.flush();
+            marshalledBytes = baOutputStream.toByteArray();
+        } catch (IOException e) {
+            log.error(e.getLocalizedMessage());
+            e.printStackTrace();
+        } finally {
+            try {
+                baOutputStream.close();
+                dout.close();
+            } catch (IOException e) {
+                log.error(e.getLocalizedMessage());
+                e.printStackTrace();
+            }
+        }
+
+        return marshalledBytes;
+    }
+
+    @Override
+    public int getType() {
+        return Protocol.HEARTBEAT_RESPONSE;
+    }
+
+    public ArrayList<String> getOrphanChunks() {
+        return orphanChunks;
+    }
+
+    public void setOrphanChunks(ArrayList<String> orphanChunks) {
+        this.orphanChunks = orphanChunks;
+    }
+
+    public ArrayList<Integer> getOrphanVersions() {
+        return orphanVersions;
+    }
+
+    public void setOrphanVersions(ArrayList<Integer> orphanVersions) {
+        this.orphanVersions = orphanVersions;
+    }
+
+    public void addOrphanChunk(String chunkName, int version) {
+        orphanChunks.add(chunkName);
+        orphanVersions.add(version);
+    }
+}
@@ -20,4 +20,16 @@ public interface Protocol {
     int FIX_CORRUPT_CHUNK = 18;
     int FIX_CORRUPT_CHUNK_RESPONSE = 19;
     int LIVENESS_HEARTBEAT = 20;
+    int DELETE_FILE_REQUEST = 21;
+    int DELETE_FILE_RESPONSE = 22;
+    int HEARTBEAT_RESPONSE = 23;
+    int SEND_PACKED_FILE_INFO = 24;
+    int STORE_CHUNK_PACKET = 25;
+    int STORE_CHUNK_ACK = 26;
+    int REPLICATE_CHUNK = 27;
+    int REPLICATE_CHUNK_RESPONSE = 28;
+    int REPAIR_SLICES_REQUEST = 29;
+    int REPAIR_SLICES_RESPONSE = 30;
+    int REPORT_BAD_REPLICA = 31;
+    int REBUILD_STRIPE = 32;
 }
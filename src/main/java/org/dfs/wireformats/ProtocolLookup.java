@@ -37,6 +37,30 @@ public class ProtocolLookup {
                 return "FIX_CORRUPT_CHUNK";
             case Protocol.LIVENESS_HEARTBEAT:
                 return "LIVENESS_HEARTBEAT";
+            case Protocol.DELETE_FILE_REQUEST:
+                return "DELETE_FILE_REQUEST";
+            case Protocol.DELETE_FILE_RESPONSE:
+                return "DELETE_FILE_RESPONSE";
+            case Protocol.HEARTBEAT_RESPONSE:
+                return "HEARTBEAT_RESPONSE";
+            case Protocol.SEND_PACKED_FILE_INFO:
+                return "SEND_PACKED_FILE_INFO";
+            case Protocol.STORE_CHUNK_PACKET:
+                return "STORE_CHUNK_PACKET";
+            case Protocol.STORE_CHUNK_ACK:
+                return "STORE_CHUNK_ACK";
+            case Protocol.REPLICATE_CHUNK:
+                return "REPLICATE_CHUNK";
+            case Protocol.REPLICATE_CHUNK_RESPONSE:
+                return "REPLICATE_CHUNK_RESPONSE";
+            case Protocol.REPAIR_SLICES_REQUEST:
+                return "REPAIR_SLICES_REQUEST";
+            case Protocol.REPAIR_SLICES_RESPONSE:
+                return "REPAIR_SLICES_RESPONSE";
+            case Protocol.REPORT_BAD_REPLICA:
+                return "REPORT_BAD_REPLICA";
+            case Protocol.REBUILD_STRIPE:
+                return "REBUILD_STRIPE";
             default:
                 return "ERROR: Unknown Event: " + type;
         }
@@ -0,0 +1,200 @@
+package org.dfs.wireformats;
+
+import org.dfs.util.EventValidator;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Sent by the Controller to a ChunkServer holding no stripe of the chunk of an erasure-coded file:
+ * rebuild a lost (or corrupted) stripe of the chunk (at the given version) from the other stripes, and store it
+ * on the target ChunkServer (the ChunkServer itself, as the Controller addresses it). The ChunkServers holding
+ * the other stripes are given per stripe, with an empty host where a stripe is not available.
+ */
+public class RebuildStripe extends Event {
+    private static final Logger log = LogManager.getLogger(RebuildStripe.class);
+
+    private String chunkName; // name of the stripe's chunk
+    private int version;
+    private int dataStripes;
+    private int parityStripes;
+    private String targetHost;
+    private int targetPort;
+    // ChunkServer holding each stripe of the chunk
+    private String[] stripeHosts;
+    private int[] stripePorts;
+
+    public RebuildStripe() {
+
+    }
+
+    public RebuildStripe(byte[] marshalledBytes) throws IOException {
+        ByteArrayInputStream baInputStream = new ByteArrayInputStream(marshalledBytes);
+        DataInputStream din = new DataInputStream(new BufferedInputStream(baInputStream));
+
+        byte messageType = din.readByte();
+        EventValidator.validateEventType(messageType, getType(), log);
+
+        // read chunk name
+        int chunkNameLength = din.readInt();
+        byte[] chunkNameBytes = new byte[chunkNameLength];
+        din.readFully(chunkNameBytes, 0, chunkNameLength);
+        chunkName = new String(chunkNameBytes);
+
+        // read version and code
+        version = din.readInt();
+        dataStripes = din.readInt();
+        parityStripes = din.readInt();
+
+        // read targetHost
+        int hostLength = din.readInt();
+        byte[] hostBytes = new byte[hostLength];
+        din.readFully(hostBytes, 0, hostLength);
+        targetHost = new String(hostBytes);
+
+        // read targetPort
+        targetPort = din.readInt();
+
+        // read the holders of the stripes
+        int noOfStripes = din.readInt();
+        stripeHosts = new String[noOfStripes];
+        stripePorts = new int[noOfStripes];
+        for (int i = 0; i < noOfStripes; i++) {
+            int stripeHostLength = din.readInt();
+            byte[] stripeHostBytes = new byte[stripeHostLength];
+            din.readFully(stripeHostBytes, 0, stripeHostLength);
+            stripeHosts[i] = new String(stripeHostBytes);
+            stripePorts[i] = din.readInt();
+        }
+
+        baInputStream.close();
+        din.close();
+    }
+
+    @Override
+    public byte[] getBytes() {
+        byte[] marshalledBytes = null;
+        ByteArrayOutputStream baOutputStream = new ByteArrayOutputStream();
+        DataOutputStream dout = new DataOutputStream(new BufferedOutputStream(baOutputStream));
+
+        try {
+            dout.writeByte(getType());
+
+            // write chunkName
+            dout.writeInt(chunkName.getBytes().length);
+            dout.write(chunkName.getBytes());
+
+            // write version and code
+            dout.writeInt(version);
+            dout.writeInt(dataStripes);
+            dout.writeInt(parityStripes);
+
+            // write targetHost
+            dout.writeInt(targetHost.getBytes().length);
+            dout.write(targetHost.getBytes());
+
+            // write targetPort
+            dout.writeInt(targetPort);
+
+            // write the holders of the stripes
+            dout.writeInt(stripeHosts.length);
+            for (int i = 0; i < stripeHosts.length; i++) {
+                dout.writeInt(stripeHosts[i].getBytes().length);
+                dout.write(stripeHosts[i].getBytes());
+                dout.writeInt(stripePorts[i]);
+            }
+
+            dout.flush();
+            marshalledBytes = baOutputStream.toByteArray();
+        } catch (IOException e) {
+            log.error(e.getLocalizedMessage());
+            e.printStackTrace();
+        } finally {
+            try {
+                baOutputStream.close();
+                dout.close();
+            } catch (IOException e) {
+                log.error(e.getLocalizedMessage());
+                e.printStackTrace();
+            }
+        }
+
+        return marshalledBytes;
+    }
+
+    @Override
+    public int getType() {
+        return Protocol.REBUILD_STRIPE;
+    }
+
+    public String getChunkName() {
+        return chunkName;
+    }
+
+    public void setChunkName(String chunkName) {
+        this.chunkName = chunkName;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public void setVersion(int version) {
+        this.version = version;
+    }
+
+    public int getDataStripes() {
+        return dataStripes;
+    }
+
+    public void setDataStripes(int dataStripes) {
+        this.dataStripes = dataStripes;
+    }
+
+    public int getParityStripes() {
+        return parityStripes;
+    }
+
+    public void setParityStripes(int parityStripes) {
+        this.parityStripes = parityStripes;
+    }
+
+    public String getTargetHost() {
+        return targetHost;
+    }
+
+    public void setTargetHost(String targetHost) {
+        this.targetHost = targetHost;
+    }
+
+    public int getTargetPort() {
+        return targetPort;
+    }
+
+    public void setTargetPort(int targetPort) {
+        this.targetPort = targetPort;
+    }
+
+    public String[] getStripeHosts() {
+        return stripeHosts;
+    }
+
+    public void setStripeHosts(String[] stripeHosts) {
+        this.stripeHosts = stripeHosts;
+    }
+
+    public int[] getStripePorts() {
+        return stripePorts;
+    }
+
+    public void setStripePorts(int[] stripePorts) {
+        this.stripePorts = stripePorts;
+    }
+}
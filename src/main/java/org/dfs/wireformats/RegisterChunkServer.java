@@ -18,6 +18,7 @@ public class RegisterChunkServer extends Event {
     private byte ipAddressLength;
     private byte[] ipAddress;
     private int port;
+    private String location = ""; // "/zone/rack" the node is in (empty if not configured)
 
     public RegisterChunkServer() {
 
@@ -36,6 +37,11 @@ public class RegisterChunkServer extends Event {
         din.readFully(ipAddress, 0, ipAddressLength);
         port = din.readInt();
 
+        int locationLength = din.readInt();
+        byte[] locationBytes = new byte[locationLength];
+        din.readFully(locationBytes, 0, locationLength);
+        location = new String(locationBytes);
+
         baInputStream.close();
         din.close();
     }
@@ -64,6 +70,14 @@ public class RegisterChunkServer extends Event {
         this.port = port;
     }
 
+    public String getLocation() {
+        return location;
+    }
+
+    public void setLocation(String location) {
+        this.location = location;
+    }
+
     @Override
     public byte[] getBytes() {
         byte[] marshalledBytes = null;
@@ -75,6 +89,8 @@ public class RegisterChunkServer extends Event {
             dout.writeByte(ipAddressLength);
             dout.write(ipAddress);
             dout.writeInt(port);
+            dout.writeInt(location.getBytes().length);
+            dout.write(location.getBytes());
             dout.flush();
 
             marshalledBytes = baOutputStream.toByteArray();
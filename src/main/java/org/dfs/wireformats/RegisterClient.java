@@ -19,6 +19,7 @@ public class RegisterClient extends Event {
     private byte ipAddressLength;
     private byte[] ipAddress;
     private int port;
+    private String location = ""; // "/zone/rack" the node is in (empty if not configured)
 
     public RegisterClient() {
 
@@ -37,6 +38,11 @@ public class RegisterClient extends Event {
         din.readFully(ipAddress, 0, ipAddressLength);
         port = din.readInt();
 
+        int locationLength = din.readInt();
+        byte[] locationBytes = new byte[locationLength];
+        din.readFully(locationBytes, 0, locationLength);
+        location = new String(locationBytes);
+
         baInputStream.close();
         din.close();
     }
@@ -65,6 +71,14 @@ public class RegisterClient extends Event {
         this.port = port;
     }
 
+    public String getLocation() {
+        return location;
+    }
+
+    public void setLocation(String location) {
+        this.location = location;
+    }
+
     @Override
     public byte[] getBytes() {
         byte[] marshalledBytes = null;
@@ -76,6 +90,8 @@ public class RegisterClient extends Event {
             dout.writeByte(ipAddressLength);
             dout.write(ipAddress);
             dout.writeInt(port);
+            dout.writeInt(location.getBytes().length);
+            dout.write(location.getBytes());
             dout.flush();
 
             marshalledBytes = baOutputStream.toByteArray();
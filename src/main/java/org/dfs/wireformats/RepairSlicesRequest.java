@@ -0,0 +1,126 @@
+package org.dfs.wireformats;
+
+import org.dfs.util.EventValidator;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Request from a ChunkServer with corrupted slices of a chunk to a ChunkServer with another replica of it,
+ * for those slices only (slice numbers start at 0)
+ */
+public class RepairSlicesRequest extends Event {
+    private static final Logger log = LogManager.getLogger(RepairSlicesRequest.class);
+
+    private String chunkName;
+    private int version;
+    private ArrayList<Integer> slices;
+
+    public RepairSlicesRequest() {
+        slices = new ArrayList<>();
+    }
+
+    public RepairSlicesRequest(byte[] marshalledBytes) throws IOException {
+        ByteArrayInputStream baInputStream = new ByteArrayInputStream(marshalledBytes);
+        DataInputStream din = new DataInputStream(new BufferedInputStream(baInputStream));
+
+        byte messageType = din.readByte();
+        EventValidator.validateEventType(messageType, getType(), log);
+
+        // read chunk name
+        int chunkNameLength = din.readInt();
+        byte[] chunkNameBytes = new byte[chunkNameLength];
+        din.readFully(chunkNameBytes, 0, chunkNameLength);
+        chunkName = new String(chunkNameBytes);
+
+        // read version
+        version = din.readInt();
+
+        // read slices
+        int noOfSlices = din.readInt();
+        slices = new ArrayList<>(noOfSlices);
+        for (int i = 0; i < noOfSlices; i++) {
+            slices.add(din.readInt());
+        }
+
+        baInputStream.close();
+        din.close();
+    }
+
+    @Override
+    public byte[] getBytes() {
+        byte[] marshalledBytes = null;
+        ByteArrayOutputStream baOutputStream = new ByteArrayOutputStream();
+        DataOutputStream dout = new DataOutputStream(new BufferedOutputStream(baOutputStream));
+
+        try {
+            dout.writeByte(getType());
+
+            // write chunkName
+            dout.writeInt(chunkName.getBytes().length);
+            dout.write(chunkName.getBytes());
+
+            // write version
+            dout.writeInt(version);
+
+            // write slices
+            dout.writeInt(slices.size());
+            for (int slice : slices) {
+                dout.writeInt(slice);
+            }
+
+            dout.flush();
+            marshalledBytes = baOutputStream.toByteArray();
+        } catch (IOException e) {
+            log.error(e.getLocalizedMessage());
+            e.printStackTrace();
+        } finally {
+            try {
+                baOutputStream.close();
+                dout.close();
+            } catch (IOException e) {
+                log.error(e.getLocalizedMessage());
+                e.printStackTrace();
+            }
+        }
+
+        return marshalledBytes;
+    }
+
+    @Override
+    public int getType() {
+        return Protocol.REPAIR_SLICES_REQUEST;
+    }
+
+    public String getChunkName() {
+        return chunkName;
+    }
+
+    public void setChunkName(String chunkName) {
+        this.chunkName = chunkName;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public void setVersion(int version) {
+        this.version = version;
+    }
+
+    public ArrayList<Integer> getSlices() {
+        return slices;
+    }
+
+    public void setSlices(ArrayList<Integer> slices) {
+        this.slices = slices;
+    }
+}
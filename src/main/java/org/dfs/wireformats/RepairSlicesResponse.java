@@ -0,0 +1,193 @@
+package org.dfs.wireformats;
+
+import org.dfs.util.EventValidator;
+import org.dfs.util.checksum.ChecksumType;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Slices of a replica requested by a {@link RepairSlicesRequest}, with the checksums the replica stores for
+ * them (already verified against them by the replica). Not found if the replica does not have the chunk at the
+ * requested version, or could not read all of the slices intact.
+ */
+public class RepairSlicesResponse extends Event {
+    private static final Logger log = LogManager.getLogger(RepairSlicesResponse.class);
+
+    private String chunkName;
+    private int version;
+    private boolean found;
+    private int chunkLength; // uncompressed size of the replica
+    private ChecksumType sliceChecksumType = ChecksumType.SHA1;
+    private ArrayList<Integer> slices;
+    private ArrayList<byte[]> sliceData;
+    private ArrayList<String> sliceHashes;
+
+    public RepairSlicesResponse() {
+        slices = new ArrayList<>();
+        sliceData = new ArrayList<>();
+        sliceHashes = new ArrayList<>();
+    }
+
+    public RepairSlicesResponse(byte[] marshalledBytes) throws IOException {
+        ByteArrayInputStream baInputStream = new ByteArrayInputStream(marshalledBytes);
+        DataInputStream din = new DataInputStream(new BufferedInputStream(baInputStream));
+
+        byte messageType = din.readByte();
+        EventValidator.validateEventType(messageType, getType(), log);
+
+        // read chunk name
+        int chunkNameLength = din.readInt();
+        byte[] chunkNameBytes = new byte[chunkNameLength];
+        din.readFully(chunkNameBytes, 0, chunkNameLength);
+        chunkName = new String(chunkNameBytes);
+
+        // read version, found, chunkLength and sliceChecksumType
+        version = din.readInt();
+        found = din.readBoolean();
+        chunkLength = din.readInt();
+        sliceChecksumType = ChecksumType.fromId(din.readByte());
+
+        // read slices
+        int noOfSlices = din.readInt();
+        slices = new ArrayList<>(noOfSlices);
+        sliceData = new ArrayList<>(noOfSlices);
+        sliceHashes = new ArrayList<>(noOfSlices);
+        for (int i = 0; i < noOfSlices; i++) {
+            slices.add(din.readInt());
+
+            int dataLength = din.readInt();
+            byte[] data = new byte[dataLength];
+            din.readFully(data, 0, dataLength);
+            sliceData.add(data);
+
+            int hashLength = din.readInt();
+            byte[] hash = new byte[hashLength];
+            din.readFully(hash, 0, hashLength);
+            sliceHashes.add(new String(hash));
+        }
+
+        baInputStream.close();
+        din.close();
+    }
+
+    @Override
+    public byte[] getBytes() {
+        byte[] marshalledBytes = null;
+        ByteArrayOutputStream baOutputStream = new ByteArrayOutputStream();
+        DataOutputStream dout = new DataOutputStream(new BufferedOutputStream(baOutputStream));
+
+        try {
+            dout.writeByte(getType());
+
+            // write chunkName
+            dout.writeInt(chunkName.getBytes().length);
+            dout.write(chunkName.getBytes());
+
+            // write version, found, chunkLength and sliceChecksumType
+            dout.writeInt(version);
+            dout.writeBoolean(found);
+            dout.writeInt(chunkLength);
+            dout.writeByte(sliceChecksumType.getId());
+
+            // write slices
+            dout.writeInt(slices.size());
+            for (int i = 0; i < slices.size(); i++) {
+                dout.writeInt(slices.get(i));
+
+                dout.writeInt(sliceData.get(i).length);
+                dout.write(sliceData.get(i));
+
+                dout.writeInt(sliceHashes.get(i).getBytes().length);
+                dout.write(sliceHashes.get(i).getBytes());
+            }
+
+            dout.flush();
+            marshalledBytes = baOutputStream.toByteArray();
+        } catch (IOException e) {
+            log.error(e.getLocalizedMessage());
+            e.printStackTrace();
+        } finally {
+            try {
+                baOutputStream.close();
+                dout.close();
+            } catch (IOException e) {
+                log.error(e.getLocalizedMessage());
+                e.printStackTrace();
+            }
+        }
+
+        return marshalledBytes;
+    }
+
+    @Override
+    public int getType() {
+        return Protocol.REPAIR_SLICES_RESPONSE;
+    }
+
+    public void addSlice(int slice, byte[] data, String hash) {
+        slices.add(slice);
+        sliceData.add(data);
+        sliceHashes.add(hash);
+    }
+
+    public String getChunkName() {
+        return chunkName;
+    }
+
+    public void setChunkName(String chunkName) {
+        this.chunkName = chunkName;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public void setVersion(int version) {
+        this.version = version;
+    }
+
+    public boolean isFound() {
+        return found;
+    }
+
+    public void setFound(boolean found) {
+        this.found = found;
+    }
+
+    public int getChunkLength() {
+        return chunkLength;
+    }
+
+    public void setChunkLength(int chunkLength) {
+        this.chunkLength = chunkLength;
+    }
+
+    public ChecksumType getSliceChecksumType() {
+        return sliceChecksumType;
+    }
+
+    public void setSliceChecksumType(ChecksumType sliceChecksumType) {
+        this.sliceChecksumType = sliceChecksumType;
+    }
+
+    public ArrayList<Integer> getSlices() {
+        return slices;
+    }
+
+    public ArrayList<byte[]> getSliceData() {
+        return sliceData;
+    }
+
+    public ArrayList<String> getSliceHashes() {
+        return sliceHashes;
+    }
+}
@@ -0,0 +1,137 @@
+package org.dfs.wireformats;
+
+import org.dfs.util.EventValidator;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Sent by the Controller to a ChunkServer holding a replica of an under-replicated chunk:
+ * copy the chunk (at the given version) to the target ChunkServer
+ */
+public class ReplicateChunk extends Event {
+    private static final Logger log = LogManager.getLogger(ReplicateChunk.class);
+
+    private String chunkName;
+    private int version;
+    private String targetHost;
+    private int targetPort;
+
+    public ReplicateChunk() {
+
+    }
+
+    public ReplicateChunk(byte[] marshalledBytes) throws IOException {
+        ByteArrayInputStream baInputStream = new ByteArrayInputStream(marshalledBytes);
+        DataInputStream din = new DataInputStream(new BufferedInputStream(baInputStream));
+
+        byte messageType = din.readByte();
+        EventValidator.validateEventType(messageType, getType(), log);
+
+        // read chunk name
+        int chunkNameLength = din.readInt();
+        byte[] chunkNameBytes = new byte[chunkNameLength];
+        din.readFully(chunkNameBytes, 0, chunkNameLength);
+        chunkName = new String(chunkNameBytes);
+
+        // read version
+        version = din.readInt();
+
+        // read targetHost
+        int hostLength = din.readInt();
+        byte[] hostBytes = new byte[hostLength];
+        din.readFully(hostBytes, 0, hostLength);
+        targetHost = new String(hostBytes);
+
+        // read targetPort
+        targetPort = din.readInt();
+
+        baInputStream.close();
+        din.close();
+    }
+
+    @Override
+    public byte[] getBytes() {
+        byte[] marshalledBytes = null;
+        ByteArrayOutputStream baOutputStream = new ByteArrayOutputStream();
+        DataOutputStream dout = new DataOutputStream(new BufferedOutputStream(baOutputStream));
+
+        try {
+            dout.writeByte(getType());
+
+            // write chunkName
+            dout.writeInt(chunkName.getBytes().length);
+            dout.write(chunkName.getBytes());
+
+            // write version
+            dout.writeInt(version);
+
+            // write targetHost
+            dout.writeInt(targetHost.getBytes().length);
+            dout.write(targetHost.getBytes());
+
+            // write targetPort
+            dout.writeInt(targetPort);
+
+            dout.flush();
+            marshalledBytes = baOutputStream.toByteArray();
+        } catch (IOException e) {
+            log.error(e.getLocalizedMessage());
+            e.printStackTrace();
+        } finally {
+            try {
+                baOutputStream.close();
+                dout.close();
+            } catch (IOException e) {
+                log.error(e.getLocalizedMessage());
+                e.printStackTrace();
+            }
+        }
+
+        return marshalledBytes;
+    }
+
+    @Override
+    public int getType() {
+        return Protocol.REPLICATE_CHUNK;
+    }
+
+    public String getChunkName() {
+        return chunkName;
+    }
+
+    public void setChunkName(String chunkName) {
+        this.chunkName = chunkName;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public void setVersion(int version) {
+        this.version = version;
+    }
+
+    public String getTargetHost() {
+        return targetHost;
+    }
+
+    public void setTargetHost(String targetHost) {
+        this.targetHost = targetHost;
+    }
+
+    public int getTargetPort() {
+        return targetPort;
+    }
+
+    public void setTargetPort(int targetPort) {
+        this.targetPort = targetPort;
+    }
+}
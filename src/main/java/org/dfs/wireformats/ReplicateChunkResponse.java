@@ -0,0 +1,166 @@
+package org.dfs.wireformats;
+
+import org.dfs.util.EventValidator;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Outcome of a {@link ReplicateChunk}, sent by the source ChunkServer to the Controller once the target has
+ * acknowledged the copy (or failed to). The status is one of the {@link StoreChunkAck} statuses.
+ */
+public class ReplicateChunkResponse extends Event {
+    private static final Logger log = LogManager.getLogger(ReplicateChunkResponse.class);
+
+    private String chunkName;
+    private int version;
+    private String targetHost;
+    private int targetPort;
+    private int status;
+    private long bytesCopied; // size of the chunk copied
+
+    public ReplicateChunkResponse() {
+
+    }
+
+    public ReplicateChunkResponse(byte[] marshalledBytes) throws IOException {
+        ByteArrayInputStream baInputStream = new ByteArrayInputStream(marshalledBytes);
+        DataInputStream din = new DataInputStream(new BufferedInputStream(baInputStream));
+
+        byte messageType = din.readByte();
+        EventValidator.validateEventType(messageType, getType(), log);
+
+        // read chunk name
+        int chunkNameLength = din.readInt();
+        byte[] chunkNameBytes = new byte[chunkNameLength];
+        din.readFully(chunkNameBytes, 0, chunkNameLength);
+        chunkName = new String(chunkNameBytes);
+
+        // read version
+        version = din.readInt();
+
+        // read targetHost
+        int hostLength = din.readInt();
+        byte[] hostBytes = new byte[hostLength];
+        din.readFully(hostBytes, 0, hostLength);
+        targetHost = new String(hostBytes);
+
+        // read targetPort, status and bytesCopied
+        targetPort = din.readInt();
+        status = din.readInt();
+        bytesCopied = din.readLong();
+
+        baInputStream.close();
+        din.close();
+    }
+
+    @Override
+    public byte[] getBytes() {
+        byte[] marshalledBytes = null;
+        ByteArrayOutputStream baOutputStream = new ByteArrayOutputStream();
+        DataOutputStream dout = new DataOutputStream(new BufferedOutputStream(baOutputStream));
+
+        try {
+            dout.writeByte(getType());
+
+            // write chunkName
+            dout.writeInt(chunkName.getBytes().length);
+            dout.write(chunkName.getBytes());
+
+            // write version
+            dout.writeInt(version);
+
+            // write targetHost
+            dout.writeInt(targetHost.getBytes().length);
+            dout.write(targetHost.getBytes());
+
+            // write targetPort, status and bytesCopied
+            dout.writeInt(targetPort);
+            dout.writeInt(status);
+            dout.writeLong(bytesCopied);
+
+            dout.flush();
+            marshalledBytes = baOutputStream.toByteArray();
+        } catch (IOException e) {
+            log.error(e.getLocalizedMessage());
+            e.printStackTrace();
+        } finally {
+            try {
+                baOutputStream.close();
+                dout.close();
+            } catch (IOException e) {
+                log.error(e.getLocalizedMessage());
+                e.printStackTrace();
+            }
+        }
+
+        return marshalledBytes;
+    }
+
+    @Override
+    public int getType() {
+        return Protocol.REPLICATE_CHUNK_RESPONSE;
+    }
+
+    /**
+     * @return true if the target stored the copy
+     */
+    public boolean isStored() {
+        return status == StoreChunkAck.STATUS_STORED;
+    }
+
+    public String getChunkName() {
+        return chunkName;
+    }
+
+    public void setChunkName(String chunkName) {
+        this.chunkName = chunkName;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public void setVersion(int version) {
+        this.version = version;
+    }
+
+    public String getTargetHost() {
+        return targetHost;
+    }
+
+    public void setTargetHost(String targetHost) {
+        this.targetHost = targetHost;
+    }
+
+    public int getTargetPort() {
+        return targetPort;
+    }
+
+    public void setTargetPort(int targetPort) {
+        this.targetPort = targetPort;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public void setStatus(int status) {
+        this.status = status;
+    }
+
+    public long getBytesCopied() {
+        return bytesCopied;
+    }
+
+    public void setBytesCopied(long bytesCopied) {
+        this.bytesCopied = bytesCopied;
+    }
+}
@@ -0,0 +1,134 @@
+package org.dfs.wireformats;
+
+import org.dfs.util.EventValidator;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Repair hint sent by the Client to the Controller: a replica of a chunk it read was corrupted or missing
+ * (the Client has read the chunk from another replica meanwhile). The status is one of the
+ * {@link RetrieveChunkResponse} statuses.
+ */
+public class ReportBadReplica extends Event {
+    private static final Logger log = LogManager.getLogger(ReportBadReplica.class);
+
+    private String chunkName;
+    private String chunkServerHost;
+    private int chunkServerPort;
+    private int status;
+
+    public ReportBadReplica() {
+
+    }
+
+    public ReportBadReplica(byte[] marshalledBytes) throws IOException {
+        ByteArrayInputStream baInputStream = new ByteArrayInputStream(marshalledBytes);
+        DataInputStream din = new DataInputStream(new BufferedInputStream(baInputStream));
+
+        byte messageType = din.readByte();
+        EventValidator.validateEventType(messageType, getType(), log);
+
+        // read chunk name
+        int chunkNameLength = din.readInt();
+        byte[] chunkNameBytes = new byte[chunkNameLength];
+        din.readFully(chunkNameBytes, 0, chunkNameLength);
+        chunkName = new String(chunkNameBytes);
+
+        // read the chunk server of the replica
+        int hostLength = din.readInt();
+        byte[] hostBytes = new byte[hostLength];
+        din.readFully(hostBytes, 0, hostLength);
+        chunkServerHost = new String(hostBytes);
+        chunkServerPort = din.readInt();
+
+        // read status
+        status = din.readByte();
+
+        baInputStream.close();
+        din.close();
+    }
+
+    @Override
+    public byte[] getBytes() {
+        byte[] marshalledBytes = null;
+        ByteArrayOutputStream baOutputStream = new ByteArrayOutputStream();
+        DataOutputStream dout = new DataOutputStream(new BufferedOutputStream(baOutputStream));
+
+        try {
+            dout.writeByte(getType());
+
+            // write chunk name
+            dout.writeInt(chunkName.getBytes().length);
+            dout.write(chunkName.getBytes());
+
+            // write the chunk server of the replica
+            dout.writeInt(chunkServerHost.getBytes().length);
+            dout.write(chunkServerHost.getBytes());
+            dout.writeInt(chunkServerPort);
+
+            // write status
+            dout.writeByte(status);
+
+            dout.flush();
+            marshalledBytes = baOutputStream.toByteArray();
+        } catch (IOException e) {
+            log.error(e.getLocalizedMessage());
+            e.printStackTrace();
+        } finally {
+            try {
+                baOutputStream.close();
+                dout.close();
+            } catch (IOException e) {
+                log.error(e.getLocalizedMessage());
+                e.printStackTrace();
+            }
+        }
+
+        return marshalledBytes;
+    }
+
+    @Override
+    public int getType() {
+        return Protocol.REPORT_BAD_REPLICA;
+    }
+
+    public String getChunkName() {
+        return chunkName;
+    }
+
+    public void setChunkName(String chunkName) {
+        this.chunkName = chunkName;
+    }
+
+    public String getChunkServerHost() {
+        return chunkServerHost;
+    }
+
+    public void setChunkServerHost(String chunkServerHost) {
+        this.chunkServerHost = chunkServerHost;
+    }
+
+    public int getChunkServerPort() {
+        return chunkServerPort;
+    }
+
+    public void setChunkServerPort(int chunkServerPort) {
+        this.chunkServerPort = chunkServerPort;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public void setStatus(int status) {
+        this.status = status;
+    }
+}
@@ -15,7 +15,12 @@ import java.io.IOException;
 public class RetrieveChunkRequest extends Event {
     private static final Logger log = LogManager.getLogger(RetrieveChunkRequest.class);
 
+    // length used to request the chunk from offset to its end
+    public static final int TO_END_OF_CHUNK = -1;
+
     private String chunkName;
+    private int offset = 0;
+    private int length = TO_END_OF_CHUNK;
 
     public RetrieveChunkRequest() {
 
@@ -34,6 +39,10 @@ public class RetrieveChunkRequest extends Event {
         din.readFully(chunkNameBytes, 0, chunkNameLength);
         chunkName = new String(chunkNameBytes);
 
+        // read byte range
+        offset = din.readInt();
+        length = din.readInt();
+
         baInputStream.close();
         din.close();
     }
@@ -51,6 +60,10 @@ public class RetrieveChunkRequest extends Event {
             dout.writeInt(chunkName.getBytes().length);
             dout.write(chunkName.getBytes());
 
+            // write byte range
+            dout.writeInt(offset);
+            dout.writeInt(length);
+
             dout.flush();
             marshalledBytes = baOutputStream.toByteArray();
         } catch (IOException e) {
@@ -81,4 +94,27 @@ public class RetrieveChunkRequest extends Event {
     public void setChunkName(String chunkName) {
         this.chunkName = chunkName;
     }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public void setOffset(int offset) {
+        this.offset = offset;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public void setLength(int length) {
+        this.length = length;
+    }
+
+    /**
+     * Whether the whole chunk is requested (as opposed to a byte range within it)
+     */
+    public boolean isWholeChunk() {
+        return offset == 0 && length == TO_END_OF_CHUNK;
+    }
 }
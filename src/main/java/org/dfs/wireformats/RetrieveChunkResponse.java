@@ -1,6 +1,7 @@
 package org.dfs.wireformats;
 
 import org.dfs.util.EventValidator;
+import org.dfs.util.checksum.ChecksumType;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -15,9 +16,19 @@ import java.io.IOException;
 public class RetrieveChunkResponse extends Event {
     private static final Logger log = LogManager.getLogger(RetrieveFileResponse.class);
 
+    public static final int STATUS_OK = 0;
+    public static final int STATUS_NOT_FOUND = 1; // the chunk server does not have the chunk, or could not read it
+    public static final int STATUS_CORRUPTED = 2; // the chunk server found the chunk corrupted (and reported it)
+
     private String chunkName;
     private byte[] chunk;
     private String chunkHash;
+    private ChecksumType chunkHashType = ChecksumType.SHA1;
+    // offset of the returned bytes within the chunk (0 for whole chunks)
+    private int offset;
+    private int status = STATUS_OK;
+    // version of the chunk on the sending chunk server (0 if it is not known)
+    private int version;
 
     public RetrieveChunkResponse() {
 
@@ -47,6 +58,18 @@ public class RetrieveChunkResponse extends Event {
         din.readFully(chunkHashBytes, 0, chunkHashLength);
         chunkHash = new String(chunkHashBytes);
 
+        // read chunkHashType
+        chunkHashType = ChecksumType.fromId(din.readByte());
+
+        // read offset
+        offset = din.readInt();
+
+        // read status
+        status = din.readByte();
+
+        // read version
+        version = din.readInt();
+
         baInputStream.close();
         din.close();
     }
@@ -72,6 +95,18 @@ public class RetrieveChunkResponse extends Event {
             dout.writeInt(chunkHash.getBytes().length);
             dout.write(chunkHash.getBytes());
 
+            // write chunkHashType
+            dout.writeByte(chunkHashType.getId());
+
+            // write offset
+            dout.writeInt(offset);
+
+            // write status
+            dout.writeByte(status);
+
+            // write version
+            dout.writeInt(version);
+
             dout.flush();
             marshalledBytes = baOutputStream.toByteArray();
         } catch (IOException e) {
@@ -118,4 +153,36 @@ public class RetrieveChunkResponse extends Event {
     public void setChunkHash(String chunkHash) {
         this.chunkHash = chunkHash;
     }
+
+    public ChecksumType getChunkHashType() {
+        return chunkHashType;
+    }
+
+    public void setChunkHashType(ChecksumType chunkHashType) {
+        this.chunkHashType = chunkHashType;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public void setOffset(int offset) {
+        this.offset = offset;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public void setStatus(int status) {
+        this.status = status;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public void setVersion(int version) {
+        this.version = version;
+    }
 }
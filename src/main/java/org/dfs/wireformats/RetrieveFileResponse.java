@@ -21,6 +21,16 @@ public class RetrieveFileResponse extends Event {
     private String[] chunkServerHosts;
     private String[] chunkServerHostNames;
     private int[] chunkServerPorts;
+    // set if the file is packed into a container: the chunks above are the container's
+    private String containerName = "";
+    private int containerOffset;
+    // set if the file is erasure-coded: there is a chunk server for each stripe of each chunk
+    // (stripe s of chunk i at index i * (dataStripes + parityStripes) + s; an empty host if the stripe is lost)
+    private int dataStripes;
+    private int parityStripes;
+    // the other up-to-date replicas of the chunk at each index, nearest first (read if the first one fails)
+    private String[][] replicaHosts;
+    private int[][] replicaPorts;
 
     public RetrieveFileResponse() {
 
@@ -45,9 +55,14 @@ public class RetrieveFileResponse extends Event {
         // read file size
         fileSize = din.readInt();
 
+        // read erasure coding layout
+        dataStripes = din.readInt();
+        parityStripes = din.readInt();
+        int noOfLocations = getNoOfLocations();
+
         // read chunkServerHosts
-        chunkServerHosts = new String[noOfChunks];
-        for (int i = 0; i < noOfChunks; i++) {
+        chunkServerHosts = new String[noOfLocations];
+        for (int i = 0; i < noOfLocations; i++) {
             int hostLength = din.readInt();
             byte[] hostBytes = new byte[hostLength];
             din.readFully(hostBytes, 0, hostLength);
@@ -55,8 +70,8 @@ public class RetrieveFileResponse extends Event {
         }
 
         // read chunkServerHostNames
-        chunkServerHostNames = new String[noOfChunks];
-        for (int i = 0; i < noOfChunks; i++) {
+        chunkServerHostNames = new String[noOfLocations];
+        for (int i = 0; i < noOfLocations; i++) {
             int hostNameLength = din.readInt();
             byte[] hostNameBytes = new byte[hostNameLength];
             din.readFully(hostNameBytes, 0, hostNameLength);
@@ -64,11 +79,34 @@ public class RetrieveFileResponse extends Event {
         }
 
         // read chunkServerPorts
-        chunkServerPorts = new int[noOfChunks];
-        for (int i = 0; i < noOfChunks; i++) {
+        chunkServerPorts = new int[noOfLocations];
+        for (int i = 0; i < noOfLocations; i++) {
             chunkServerPorts[i] = din.readInt();
         }
 
+        // read container extent
+        int containerNameLength = din.readInt();
+        byte[] containerNameBytes = new byte[containerNameLength];
+        din.readFully(containerNameBytes, 0, containerNameLength);
+        containerName = new String(containerNameBytes);
+        containerOffset = din.readInt();
+
+        // read the other replicas of each chunk
+        replicaHosts = new String[noOfLocations][];
+        replicaPorts = new int[noOfLocations][];
+        for (int i = 0; i < noOfLocations; i++) {
+            int noOfReplicas = din.readInt();
+            replicaHosts[i] = new String[noOfReplicas];
+            replicaPorts[i] = new int[noOfReplicas];
+            for (int j = 0; j < noOfReplicas; j++) {
+                int hostLength = din.readInt();
+                byte[] hostBytes = new byte[hostLength];
+                din.readFully(hostBytes, 0, hostLength);
+                replicaHosts[i][j] = new String(hostBytes);
+                replicaPorts[i][j] = din.readInt();
+            }
+        }
+
         baInputStream.close();
         din.close();
     }
@@ -92,6 +130,10 @@ public class RetrieveFileResponse extends Event {
             // write file size
             dout.writeInt(fileSize);
 
+            // write erasure coding layout
+            dout.writeInt(dataStripes);
+            dout.writeInt(parityStripes);
+
             // write chunkServerHosts
             for (String host : chunkServerHosts) {
                 dout.writeInt(host.getBytes().length);
@@ -109,6 +151,22 @@ public class RetrieveFileResponse extends Event {
                 dout.writeInt(port);
             }
 
+            // write container extent
+            dout.writeInt(containerName.getBytes().length);
+            dout.write(containerName.getBytes());
+            dout.writeInt(containerOffset);
+
+            // write the other replicas of each chunk
+            for (int i = 0; i < getNoOfLocations(); i++) {
+                String[] hosts = replicaHosts == null ? new String[0] : replicaHosts[i];
+                dout.writeInt(hosts.length);
+                for (int j = 0; j < hosts.length; j++) {
+                    dout.writeInt(hosts[j].getBytes().length);
+                    dout.write(hosts[j].getBytes());
+                    dout.writeInt(replicaPorts[i][j]);
+                }
+            }
+
             dout.flush();
             marshalledBytes = baOutputStream.toByteArray();
         } catch (IOException e) {
@@ -177,4 +235,67 @@ public class RetrieveFileResponse extends Event {
     public void setChunkServerHostNames(String[] chunkServerHostNames) {
         this.chunkServerHostNames = chunkServerHostNames;
     }
+
+    public boolean isPacked() {
+        return !containerName.isEmpty();
+    }
+
+    public String getContainerName() {
+        return containerName;
+    }
+
+    public void setContainerName(String containerName) {
+        this.containerName = containerName;
+    }
+
+    public int getContainerOffset() {
+        return containerOffset;
+    }
+
+    public void setContainerOffset(int containerOffset) {
+        this.containerOffset = containerOffset;
+    }
+
+    /**
+     * @return number of chunk servers listed: one per chunk, or one per stripe of each chunk if erasure-coded
+     */
+    public int getNoOfLocations() {
+        return isErasureCoded() ? noOfChunks * (dataStripes + parityStripes) : noOfChunks;
+    }
+
+    public boolean isErasureCoded() {
+        return dataStripes > 0;
+    }
+
+    public int getDataStripes() {
+        return dataStripes;
+    }
+
+    public void setDataStripes(int dataStripes) {
+        this.dataStripes = dataStripes;
+    }
+
+    public int getParityStripes() {
+        return parityStripes;
+    }
+
+    public void setParityStripes(int parityStripes) {
+        this.parityStripes = parityStripes;
+    }
+
+    public String[][] getReplicaHosts() {
+        return replicaHosts;
+    }
+
+    public void setReplicaHosts(String[][] replicaHosts) {
+        this.replicaHosts = replicaHosts;
+    }
+
+    public int[][] getReplicaPorts() {
+        return replicaPorts;
+    }
+
+    public void setReplicaPorts(int[][] replicaPorts) {
+        this.replicaPorts = replicaPorts;
+    }
 }
@@ -22,6 +22,10 @@ public class SendFileInfo extends Event {
     private String fileName;
     private int fileSize;
     private int noOfChunks;
+    private int replicationFactor; // 0: keep the file's current replication factor (the default for a new file)
+    // Reed-Solomon layout if the file is to be erasure-coded (0 data stripes: replicated)
+    private int dataStripes;
+    private int parityStripes;
 
     public SendFileInfo() {
 
@@ -46,6 +50,13 @@ public class SendFileInfo extends Event {
         // read file size
         fileSize = din.readInt();
 
+        // read replication factor
+        replicationFactor = din.readInt();
+
+        // read erasure coding layout
+        dataStripes = din.readInt();
+        parityStripes = din.readInt();
+
         baInputStream.close();
         din.close();
     }
@@ -69,6 +80,13 @@ public class SendFileInfo extends Event {
             // write fileSize
             dout.writeInt(fileSize);
 
+            // write replication factor
+            dout.writeInt(replicationFactor);
+
+            // write erasure coding layout
+            dout.writeInt(dataStripes);
+            dout.writeInt(parityStripes);
+
             dout.flush();
             marshalledBytes = baOutputStream.toByteArray();
         } catch (IOException e) {
@@ -114,4 +132,32 @@ public class SendFileInfo extends Event {
     public void setFileSize(int fileSize) {
         this.fileSize = fileSize;
     }
+
+    public int getReplicationFactor() {
+        return replicationFactor;
+    }
+
+    public void setReplicationFactor(int replicationFactor) {
+        this.replicationFactor = replicationFactor;
+    }
+
+    public boolean isErasureCoded() {
+        return dataStripes > 0;
+    }
+
+    public int getDataStripes() {
+        return dataStripes;
+    }
+
+    public void setDataStripes(int dataStripes) {
+        this.dataStripes = dataStripes;
+    }
+
+    public int getParityStripes() {
+        return parityStripes;
+    }
+
+    public void setParityStripes(int parityStripes) {
+        this.parityStripes = parityStripes;
+    }
 }
@@ -22,10 +22,20 @@ public class SendMajorHeartbeat extends Event {
 
     private int noOfChunks;
     private ArrayList<String> chunks;
-    private long freeSpace;
+    private long freeSpace; // bytes (usable space not reserved by in-flight writes)
+    private long usedSpace; // bytes
+    private long reservedSpace; // bytes
+    private double compressionRatio; // uncompressed bytes per byte on disk
+    private ArrayList<Integer> chunkVersions; // version of each chunk (0 if unknown), in the order of the chunk names
+    // most read chunks recently, with their (decayed) read and byte counts
+    private ArrayList<String> hotChunks;
+    private ArrayList<Long> hotChunkReads;
+    private ArrayList<Long> hotChunkBytes;
 
     public SendMajorHeartbeat() {
-
+        hotChunks = new ArrayList<>();
+        hotChunkReads = new ArrayList<>();
+        hotChunkBytes = new ArrayList<>();
     }
 
     public SendMajorHeartbeat(byte[] marshalledBytes) throws IOException {
@@ -50,6 +60,30 @@ public class SendMajorHeartbeat extends Event {
 
         // read free space
         freeSpace = din.readLong();
+        usedSpace = din.readLong();
+        reservedSpace = din.readLong();
+        compressionRatio = din.readDouble();
+
+        // read chunk versions
+        int noOfChunkVersions = din.readInt();
+        chunkVersions = new ArrayList<>(noOfChunkVersions);
+        for (int i = 0; i < noOfChunkVersions; i++) {
+            chunkVersions.add(din.readInt());
+        }
+
+        // read hot chunks
+        int noOfHotChunks = din.readInt();
+        hotChunks = new ArrayList<>(noOfHotChunks);
+        hotChunkReads = new ArrayList<>(noOfHotChunks);
+        hotChunkBytes = new ArrayList<>(noOfHotChunks);
+        for (int i = 0; i < noOfHotChunks; i++) {
+            int hotChunkLength = din.readInt();
+            byte[] hotChunk = new byte[hotChunkLength];
+            din.readFully(hotChunk, 0, hotChunkLength);
+            hotChunks.add(new String(hotChunk));
+            hotChunkReads.add(din.readLong());
+            hotChunkBytes.add(din.readLong());
+        }
 
         baInputStream.close();
         din.close();
@@ -75,6 +109,24 @@ public class SendMajorHeartbeat extends Event {
 
             // write free space
             dout.writeLong(freeSpace);
+            dout.writeLong(usedSpace);
+            dout.writeLong(reservedSpace);
+            dout.writeDouble(compressionRatio);
+
+            // write chunk versions
+            dout.writeInt(chunkVersions.size());
+            for (int chunkVersion : chunkVersions) {
+                dout.writeInt(chunkVersion);
+            }
+
+            // write hot chunks
+            dout.writeInt(hotChunks.size());
+            for (int i = 0; i < hotChunks.size(); i++) {
+                dout.writeInt(hotChunks.get(i).getBytes().length);
+                dout.write(hotChunks.get(i).getBytes());
+                dout.writeLong(hotChunkReads.get(i));
+                dout.writeLong(hotChunkBytes.get(i));
+            }
 
             dout.flush();
 
@@ -123,4 +175,54 @@ public class SendMajorHeartbeat extends Event {
     public void setFreeSpace(long freeSpace) {
         this.freeSpace = freeSpace;
     }
+
+    public long getUsedSpace() {
+        return usedSpace;
+    }
+
+    public void setUsedSpace(long usedSpace) {
+        this.usedSpace = usedSpace;
+    }
+
+    public long getReservedSpace() {
+        return reservedSpace;
+    }
+
+    public void setReservedSpace(long reservedSpace) {
+        this.reservedSpace = reservedSpace;
+    }
+
+    public ArrayList<Integer> getChunkVersions() {
+        return chunkVersions;
+    }
+
+    public void setChunkVersions(ArrayList<Integer> chunkVersions) {
+        this.chunkVersions = chunkVersions;
+    }
+
+    public ArrayList<String> getHotChunks() {
+        return hotChunks;
+    }
+
+    public ArrayList<Long> getHotChunkReads() {
+        return hotChunkReads;
+    }
+
+    public ArrayList<Long> getHotChunkBytes() {
+        return hotChunkBytes;
+    }
+
+    public void addHotChunk(String chunkName, long reads, long bytes) {
+        hotChunks.add(chunkName);
+        hotChunkReads.add(reads);
+        hotChunkBytes.add(bytes);
+    }
+
+    public double getCompressionRatio() {
+        return compressionRatio;
+    }
+
+    public void setCompressionRatio(double compressionRatio) {
+        this.compressionRatio = compressionRatio;
+    }
 }
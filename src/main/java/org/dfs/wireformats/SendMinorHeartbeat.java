@@ -22,7 +22,11 @@ public class SendMinorHeartbeat extends Event {
 
     private int noOfChunks;
     private ArrayList<String> newChunks;
-    private long freeSpace;
+    private long freeSpace; // bytes (usable space not reserved by in-flight writes)
+    private long usedSpace; // bytes
+    private long reservedSpace; // bytes
+    private double compressionRatio; // uncompressed bytes per byte on disk
+    private ArrayList<Integer> chunkVersions; // version of each chunk (0 if unknown), in the order of the chunk names
     private int totNewChunks;
 
     public SendMinorHeartbeat() {
@@ -43,6 +47,16 @@ public class SendMinorHeartbeat extends Event {
 
         // read free space
         freeSpace = din.readLong();
+        usedSpace = din.readLong();
+        reservedSpace = din.readLong();
+        compressionRatio = din.readDouble();
+
+        // read chunk versions
+        int noOfChunkVersions = din.readInt();
+        chunkVersions = new ArrayList<>(noOfChunkVersions);
+        for (int i = 0; i < noOfChunkVersions; i++) {
+            chunkVersions.add(din.readInt());
+        }
 
         //read total new chunks
         totNewChunks = din.readInt();
@@ -76,6 +90,15 @@ public class SendMinorHeartbeat extends Event {
 
             // write free space
             dout.writeLong(freeSpace);
+            dout.writeLong(usedSpace);
+            dout.writeLong(reservedSpace);
+            dout.writeDouble(compressionRatio);
+
+            // write chunk versions
+            dout.writeInt(chunkVersions.size());
+            for (int chunkVersion : chunkVersions) {
+                dout.writeInt(chunkVersion);
+            }
             //write no of new Chunks
             dout.writeInt(totNewChunks);
 
@@ -140,6 +163,38 @@ public class SendMinorHeartbeat extends Event {
         this.freeSpace = freeSpace;
     }
 
+    public long getUsedSpace() {
+        return usedSpace;
+    }
+
+    public void setUsedSpace(long usedSpace) {
+        this.usedSpace = usedSpace;
+    }
+
+    public long getReservedSpace() {
+        return reservedSpace;
+    }
+
+    public void setReservedSpace(long reservedSpace) {
+        this.reservedSpace = reservedSpace;
+    }
+
+    public ArrayList<Integer> getChunkVersions() {
+        return chunkVersions;
+    }
+
+    public void setChunkVersions(ArrayList<Integer> chunkVersions) {
+        this.chunkVersions = chunkVersions;
+    }
+
+    public double getCompressionRatio() {
+        return compressionRatio;
+    }
+
+    public void setCompressionRatio(double compressionRatio) {
+        this.compressionRatio = compressionRatio;
+    }
+
 
     @Override
     public int getType() {
@@ -0,0 +1,151 @@
+package org.dfs.wireformats;
+
+import org.dfs.util.EventValidator;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Client sends the index of a container to the controller when small files are packed into it:
+ * the container (stored as a single chunk) and the (file name, offset, length) extent of each file in it
+ */
+public class SendPackedFileInfo extends Event {
+    private static final Logger log = LogManager.getLogger(SendPackedFileInfo.class);
+
+    private String containerName;
+    private int containerSize;
+    private ArrayList<String> fileNames;
+    private ArrayList<Integer> offsets;
+    private ArrayList<Integer> lengths;
+
+    public SendPackedFileInfo() {
+        fileNames = new ArrayList<>();
+        offsets = new ArrayList<>();
+        lengths = new ArrayList<>();
+    }
+
+    public SendPackedFileInfo(byte[] marshalledBytes) throws IOException {
+        ByteArrayInputStream baInputStream = new ByteArrayInputStream(marshalledBytes);
+        DataInputStream din = new DataInputStream(new BufferedInputStream(baInputStream));
+
+        byte messageType = din.readByte();
+        EventValidator.validateEventType(messageType, getType(), log);
+
+        // read container name
+        int containerNameLength = din.readInt();
+        byte[] containerNameBytes = new byte[containerNameLength];
+        din.readFully(containerNameBytes, 0, containerNameLength);
+        containerName = new String(containerNameBytes);
+
+        // read container size
+        containerSize = din.readInt();
+
+        // read packed files
+        int noOfFiles = din.readInt();
+        fileNames = new ArrayList<>(noOfFiles);
+        offsets = new ArrayList<>(noOfFiles);
+        lengths = new ArrayList<>(noOfFiles);
+        for (int i = 0; i < noOfFiles; i++) {
+            int fileNameLength = din.readInt();
+            byte[] fileNameBytes = new byte[fileNameLength];
+            din.readFully(fileNameBytes, 0, fileNameLength);
+            fileNames.add(new String(fileNameBytes));
+            offsets.add(din.readInt());
+            lengths.add(din.readInt());
+        }
+
+        baInputStream.close();
+        din.close();
+    }
+
+    @Override
+    public byte[] getBytes() {
+        byte[] marshalledBytes = null;
+        ByteArrayOutputStream baOutputStream = new ByteArrayOutputStream();
+        DataOutputStream dout = new DataOutputStream(new BufferedOutputStream(baOutputStream));
+
+        try {
+            dout.writeByte(getType());
+
+            // write container name
+            dout.writeInt(containerName.getBytes().length);
+            dout.write(containerName.getBytes());
+
+            // write container size
+            dout.writeInt(containerSize);
+
+            // write packed files
+            dout.writeInt(fileNames.size());
+            for (int i = 0; i < fileNames.size(); i++) {
+                String fileName = fileNames.get(i);
+                dout.writeInt(fileName.getBytes().length);
+                dout.write(fileName.getBytes());
+                dout.writeInt(offsets.get(i));
+                dout.writeInt(lengths.get(i));
+            }
+
+            dout.flush();
+            marshalledBytes = baOutputStream.toByteArray();
+        } catch (IOException e) {
+            log.error(e.getLocalizedMessage());
+            e.printStackTrace();
+        } finally {
+            try {
+                baOutputStream.close();
+                dout.close();
+            } catch (IOException e) {
+                log.error(e.getLocalizedMessage());
+                e.printStackTrace();
+            }
+        }
+
+        return marshalledBytes;
+    }
+
+    @Override
+    public int getType() {
+        return Protocol.SEND_PACKED_FILE_INFO;
+    }
+
+    public String getContainerName() {
+        return containerName;
+    }
+
+    public void setContainerName(String containerName) {
+        this.containerName = containerName;
+    }
+
+    public int getContainerSize() {
+        return containerSize;
+    }
+
+    public void setContainerSize(int containerSize) {
+        this.containerSize = containerSize;
+    }
+
+    public ArrayList<String> getFileNames() {
+        return fileNames;
+    }
+
+    public ArrayList<Integer> getOffsets() {
+        return offsets;
+    }
+
+    public ArrayList<Integer> getLengths() {
+        return lengths;
+    }
+
+    public void addFile(String fileName, int offset, int length) {
+        fileNames.add(fileName);
+        offsets.add(offset);
+        lengths.add(length);
+    }
+}
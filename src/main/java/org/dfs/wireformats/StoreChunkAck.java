@@ -0,0 +1,182 @@
+package org.dfs.wireformats;
+
+import org.dfs.util.EventValidator;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Acknowledgement of a stored chunk, sent back up the replication chain: the last chunk server acknowledges
+ * its own replica, and every chunk server before it adds its replica to the acknowledgement of the next one,
+ * so the client receives the status of every replica, in chain order.
+ */
+public class StoreChunkAck extends Event {
+    private static final Logger log = LogManager.getLogger(StoreChunkAck.class);
+
+    public static final int STATUS_STORED = 0;
+    public static final int STATUS_FAILED = 1; // the chunk server could not store the chunk
+    public static final int STATUS_NO_ACK = 2; // the chunk server could not be reached, or did not acknowledge in time
+
+    private String fileName;
+    private int sequenceNumber;
+    private int version;
+    private ArrayList<String> replicas; // host:port of each chunk server of the chain
+    private ArrayList<Integer> statuses;
+    private ArrayList<Long> writeMicros; // time from the first packet to the commit, on each replica
+
+    public StoreChunkAck() {
+        replicas = new ArrayList<>();
+        statuses = new ArrayList<>();
+        writeMicros = new ArrayList<>();
+    }
+
+    public StoreChunkAck(byte[] marshalledBytes) throws IOException {
+        ByteArrayInputStream baInputStream = new ByteArrayInputStream(marshalledBytes);
+        DataInputStream din = new DataInputStream(new BufferedInputStream(baInputStream));
+
+        byte messageType = din.readByte();
+        EventValidator.validateEventType(messageType, getType(), log);
+
+        // read fileName
+        int fileNameLength = din.readInt();
+        byte[] fileNameBytes = new byte[fileNameLength];
+        din.readFully(fileNameBytes, 0, fileNameLength);
+        fileName = new String(fileNameBytes);
+
+        // read sequence number and version
+        sequenceNumber = din.readInt();
+        version = din.readInt();
+
+        // read replicas
+        int noOfReplicas = din.readInt();
+        replicas = new ArrayList<>(noOfReplicas);
+        statuses = new ArrayList<>(noOfReplicas);
+        writeMicros = new ArrayList<>(noOfReplicas);
+        for (int i = 0; i < noOfReplicas; i++) {
+            int replicaLength = din.readInt();
+            byte[] replicaBytes = new byte[replicaLength];
+            din.readFully(replicaBytes, 0, replicaLength);
+            replicas.add(new String(replicaBytes));
+            statuses.add(din.readInt());
+            writeMicros.add(din.readLong());
+        }
+
+        baInputStream.close();
+        din.close();
+    }
+
+    @Override
+    public byte[] getBytes() {
+        byte[] marshalledBytes = null;
+        ByteArrayOutputStream baOutputStream = new ByteArrayOutputStream();
+        DataOutputStream dout = new DataOutputStream(new BufferedOutputStream(baOutputStream));
+
+        try {
+            dout.writeByte(getType());
+
+            // write fileName
+            dout.writeInt(fileName.getBytes().length);
+            dout.write(fileName.getBytes());
+
+            // write sequence number and version
+            dout.writeInt(sequenceNumber);
+            dout.writeInt(version);
+
+            // write replicas
+            dout.writeInt(replicas.size());
+            for (int i = 0; i < replicas.size(); i++) {
+                dout.writeInt(replicas.get(i).getBytes().length);
+                dout.write(replicas.get(i).getBytes());
+                dout.writeInt(statuses.get(i));
+                dout.writeLong(writeMicros.get(i));
+            }
+
+            dout.flush();
+
+            marshalledBytes = baOutputStream.toByteArray();
+        } catch (IOException e) {
+            log.error(e.getLocalizedMessage());
+            e.printStackTrace();
+        } finally {
+            try {
+                baOutputStream.close();
+                dout.close();
+            } catch (IOException e) {
+                log.error(e.getLocalizedMessage());
+                e.printStackTrace();
+            }
+        }
+
+        return marshalledBytes;
+    }
+
+    @Override
+    public int getType() {
+        return Protocol.STORE_CHUNK_ACK;
+    }
+
+    /**
+     * @return true if every replica of the chain has been stored
+     */
+    public boolean isStored() {
+        if (statuses.isEmpty()) {
+            return false;
+        }
+        for (int status : statuses) {
+            if (status != STATUS_STORED) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void addReplica(String replica, int status, long micros) {
+        replicas.add(replica);
+        statuses.add(status);
+        writeMicros.add(micros);
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    public int getSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    public void setSequenceNumber(int sequenceNumber) {
+        this.sequenceNumber = sequenceNumber;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public void setVersion(int version) {
+        this.version = version;
+    }
+
+    public ArrayList<String> getReplicas() {
+        return replicas;
+    }
+
+    public ArrayList<Integer> getStatuses() {
+        return statuses;
+    }
+
+    public ArrayList<Long> getWriteMicros() {
+        return writeMicros;
+    }
+}
@@ -0,0 +1,243 @@
+package org.dfs.wireformats;
+
+import org.dfs.util.Constants;
+import org.dfs.util.EventValidator;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A piece of a chunk being stored. A chunk is streamed down the replication chain as consecutive packets,
+ * so each chunk server forwards a packet to the next one as soon as it arrives, while writing it locally.
+ * Every packet carries the chunk's identity and the rest of the chain; the packet at offset 0 starts a chunk
+ * and the one ending at chunkLength completes it.
+ */
+public class StoreChunkPacket extends Event {
+    private static final Logger log = LogManager.getLogger(StoreChunkPacket.class);
+
+    private String fileName;
+    private int sequenceNumber;
+    private int version;
+    private int chunkLength; // bytes in the whole chunk
+    private int offset; // position of this packet's data in the chunk
+    private byte[] data;
+    // number of next chunk servers (to forward the packet)
+    private int noOfNextChunkServers;
+    private String[] nextChunkServerHosts;
+    private int[] nextChunkServerPorts;
+
+    public StoreChunkPacket() {
+
+    }
+
+    public StoreChunkPacket(byte[] marshalledBytes) throws IOException {
+        ByteArrayInputStream baInputStream = new ByteArrayInputStream(marshalledBytes);
+        DataInputStream din = new DataInputStream(baInputStream);
+
+        byte messageType = din.readByte();
+        EventValidator.validateEventType(messageType, getType(), log);
+
+        // read fileName
+        int fileNameLength = din.readInt();
+        byte[] fileNameBytes = new byte[fileNameLength];
+        din.readFully(fileNameBytes, 0, fileNameLength);
+        fileName = new String(fileNameBytes);
+
+        // read sequence number and version
+        sequenceNumber = din.readInt();
+        version = din.readInt();
+
+        // read position in the chunk
+        chunkLength = din.readInt();
+        offset = din.readInt();
+
+        // read data
+        int dataLength = din.readInt();
+        data = new byte[dataLength];
+        din.readFully(data, 0, dataLength);
+
+        // read nextChunkServer hosts and ports
+        noOfNextChunkServers = din.readInt();
+        nextChunkServerHosts = new String[noOfNextChunkServers];
+        nextChunkServerPorts = new int[noOfNextChunkServers];
+        for (int i = 0; i < noOfNextChunkServers; i++) {
+            int hostLength = din.readInt();
+            byte[] hostBytes = new byte[hostLength];
+            din.readFully(hostBytes, 0, hostLength);
+            nextChunkServerHosts[i] = new String(hostBytes);
+            nextChunkServerPorts[i] = din.readInt();
+        }
+
+        baInputStream.close();
+        din.close();
+    }
+
+    @Override
+    public byte[] getBytes() {
+        byte[] marshalledBytes = null;
+        ByteArrayOutputStream baOutputStream = new ByteArrayOutputStream();
+        DataOutputStream dout = new DataOutputStream(new BufferedOutputStream(baOutputStream));
+
+        try {
+            dout.writeByte(getType());
+
+            // write fileName
+            dout.writeInt(fileName.getBytes().length);
+            dout.write(fileName.getBytes());
+
+            // write sequence number and version
+            dout.writeInt(sequenceNumber);
+            dout.writeInt(version);
+
+            // write position in the chunk
+            dout.writeInt(chunkLength);
+            dout.writeInt(offset);
+
+            // write data
+            dout.writeInt(data.length);
+            dout.write(data);
+
+            // write next servers
+            dout.writeInt(noOfNextChunkServers);
+            for (int i = 0; i < noOfNextChunkServers; i++) {
+                dout.writeInt(nextChunkServerHosts[i].getBytes().length);
+                dout.write(nextChunkServerHosts[i].getBytes());
+                dout.writeInt(nextChunkServerPorts[i]);
+            }
+
+            dout.flush();
+
+            marshalledBytes = baOutputStream.toByteArray();
+        } catch (IOException e) {
+            log.error(e.getLocalizedMessage());
+            e.printStackTrace();
+        } finally {
+            try {
+                baOutputStream.close();
+                dout.close();
+            } catch (IOException e) {
+                log.error(e.getLocalizedMessage());
+                e.printStackTrace();
+            }
+        }
+
+        return marshalledBytes;
+    }
+
+    @Override
+    public int getType() {
+        return Protocol.STORE_CHUNK_PACKET;
+    }
+
+    /**
+     * Split a chunk into the packets to send to the first chunk server of a chain (an empty chunk is one empty packet)
+     */
+    public static List<StoreChunkPacket> packetize(String fileName, int sequenceNumber, int version, byte[] chunk,
+                                                   String[] nextChunkServerHosts, int[] nextChunkServerPorts) {
+        List<StoreChunkPacket> packets = new ArrayList<>();
+        int offset = 0;
+        do {
+            StoreChunkPacket packet = new StoreChunkPacket();
+            packet.setFileName(fileName);
+            packet.setSequenceNumber(sequenceNumber);
+            packet.setVersion(version);
+            packet.setChunkLength(chunk.length);
+            packet.setOffset(offset);
+            packet.setData(Arrays.copyOfRange(chunk, offset, Math.min(chunk.length, offset + Constants.PACKET_SIZE)));
+            packet.setNoOfNextChunkServers(nextChunkServerHosts.length);
+            packet.setNextChunkServerHosts(nextChunkServerHosts);
+            packet.setNextChunkServerPorts(nextChunkServerPorts);
+            packets.add(packet);
+            offset += Constants.PACKET_SIZE;
+        } while (offset < chunk.length);
+        return packets;
+    }
+
+    /**
+     * @return true if this is the last packet of the chunk
+     */
+    public boolean isLast() {
+        return offset + data.length >= chunkLength;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    public int getSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    public void setSequenceNumber(int sequenceNumber) {
+        this.sequenceNumber = sequenceNumber;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public void setVersion(int version) {
+        this.version = version;
+    }
+
+    public int getChunkLength() {
+        return chunkLength;
+    }
+
+    public void setChunkLength(int chunkLength) {
+        this.chunkLength = chunkLength;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public void setOffset(int offset) {
+        this.offset = offset;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public void setData(byte[] data) {
+        this.data = data;
+    }
+
+    public int getNoOfNextChunkServers() {
+        return noOfNextChunkServers;
+    }
+
+    public void setNoOfNextChunkServers(int noOfNextChunkServers) {
+        this.noOfNextChunkServers = noOfNextChunkServers;
+    }
+
+    public String[] getNextChunkServerHosts() {
+        return nextChunkServerHosts;
+    }
+
+    public void setNextChunkServerHosts(String[] nextChunkServerHosts) {
+        this.nextChunkServerHosts = nextChunkServerHosts;
+    }
+
+    public int[] getNextChunkServerPorts() {
+        return nextChunkServerPorts;
+    }
+
+    public void setNextChunkServerPorts(int[] nextChunkServerPorts) {
+        this.nextChunkServerPorts = nextChunkServerPorts;
+    }
+}
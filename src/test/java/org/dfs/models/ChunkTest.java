@@ -0,0 +1,100 @@
+package org.dfs.models;
+
+import org.dfs.util.checksum.ChecksumType;
+import org.dfs.util.compression.CompressionCodec;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChunkTest {
+
+    @Test
+    void restoresMetadata() throws IOException {
+        Chunk chunk = new Chunk(3, 7, "photo.jpg");
+        chunk.setTimeStamp("2021-09-20 10:15:00");
+        chunk.setSliceChecksumType(ChecksumType.CRC32C);
+        chunk.setChunkChecksumType(ChecksumType.SHA256);
+        chunk.setChunkHash("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad");
+        chunk.setSliceHashes(new ArrayList<>(Arrays.asList("e3069283", "00000000", "ffffffff")));
+        chunk.setCodec(CompressionCodec.DEFLATE);
+        chunk.setLength(64000);
+        chunk.setStoredLength(12345);
+
+        Chunk restored = new Chunk(chunk.getMetadataBytes());
+        assertEquals("photo.jpg", restored.getFileName());
+        assertEquals("photo.jpg_chunk3", restored.getName());
+        assertEquals(3, restored.getSequenceNumber());
+        assertEquals(7, restored.getVersion());
+        assertEquals("2021-09-20 10:15:00", restored.getTimeStamp());
+        assertTrue(restored.isValid());
+        assertEquals(ChecksumType.CRC32C, restored.getSliceChecksumType());
+        assertEquals(ChecksumType.SHA256, restored.getChunkChecksumType());
+        assertEquals(chunk.getChunkHash(), restored.getChunkHash());
+        assertEquals(chunk.getSliceHashes(), restored.getSliceHashes());
+        assertEquals(CompressionCodec.DEFLATE, restored.getCodec());
+        assertEquals(64000, restored.getLength());
+        assertEquals(12345, restored.getStoredLength());
+    }
+
+    @Test
+    void restoresMetadataOfAnEmptyChunk() throws IOException {
+        Chunk chunk = new Chunk(1, 1, "empty.txt");
+        Chunk restored = new Chunk(chunk.getMetadataBytes());
+        assertEquals("", restored.getChunkHash());
+        assertEquals("", restored.getTimeStamp());
+        assertTrue(restored.getSliceHashes().isEmpty());
+        assertEquals(ChecksumType.SHA1, restored.getSliceChecksumType());
+        assertEquals(CompressionCodec.NONE, restored.getCodec());
+    }
+
+    @Test
+    void restoresMetadataOfFormatVersion1() throws IOException {
+        // written before compression: no codec and lengths
+        ByteArrayOutputStream baOutputStream = new ByteArrayOutputStream();
+        DataOutputStream dout = new DataOutputStream(baOutputStream);
+        dout.writeInt(1);
+        dout.writeInt(2);
+        dout.writeInt(4);
+        dout.writeUTF("notes.txt");
+        dout.writeUTF("2021-09-01 08:00:00");
+        dout.writeByte(ChecksumType.CRC32C.getId());
+        dout.writeByte(ChecksumType.SHA256.getId());
+        dout.writeUTF("digest");
+        dout.writeInt(2);
+        dout.writeUTF("slice0");
+        dout.writeUTF("slice1");
+        dout.flush();
+
+        Chunk restored = new Chunk(baOutputStream.toByteArray());
+        assertEquals("notes.txt_chunk2", restored.getName());
+        assertEquals(4, restored.getVersion());
+        assertEquals("2021-09-01 08:00:00", restored.getTimeStamp());
+        assertEquals(ChecksumType.CRC32C, restored.getSliceChecksumType());
+        assertEquals(ChecksumType.SHA256, restored.getChunkChecksumType());
+        assertEquals("digest", restored.getChunkHash());
+        assertEquals(Arrays.asList("slice0", "slice1"), restored.getSliceHashes());
+        assertEquals(CompressionCodec.NONE, restored.getCodec());
+        assertEquals(-1, restored.getLength());
+        assertEquals(-1, restored.getStoredLength());
+
+        // rewritten in the current format
+        Chunk rewritten = new Chunk(restored.getMetadataBytes());
+        assertEquals(restored.getSliceHashes(), rewritten.getSliceHashes());
+        assertEquals(-1, rewritten.getLength());
+    }
+
+    @Test
+    void rejectsNewerFormats() throws IOException {
+        byte[] metadata = new Chunk(1, 1, "future.bin").getMetadataBytes();
+        metadata[3]++; // format version, the first int
+        assertThrows(IOException.class, () -> new Chunk(metadata));
+    }
+}
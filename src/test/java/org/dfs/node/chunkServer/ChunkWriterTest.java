@@ -0,0 +1,98 @@
+package org.dfs.node.chunkServer;
+
+import org.dfs.util.Constants;
+import org.dfs.util.checksum.ChecksumType;
+import org.dfs.util.checksum.Checksums;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChunkWriterTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void writesAChunkOfWholeSlices() throws IOException {
+        assertWritten(Constants.CHUNK_SIZE, Constants.CHUNK_SIZE);
+        assertWritten(3 * Constants.SLICE_SIZE, 1000);
+    }
+
+    @Test
+    void writesAShortLastSlice() throws IOException {
+        assertWritten(2 * Constants.SLICE_SIZE + 123, Constants.SLICE_SIZE);
+        assertWritten(Constants.SLICE_SIZE - 1, 7);
+        assertWritten(1, 1);
+    }
+
+    @Test
+    void writesSlicesAcrossPieces() throws IOException {
+        // pieces end before, at and after slice boundaries
+        assertWritten(Constants.CHUNK_SIZE, Constants.SLICE_SIZE - 1);
+        assertWritten(Constants.CHUNK_SIZE, Constants.SLICE_SIZE + 1);
+        assertWritten(Constants.CHUNK_SIZE - 5, 3 * Constants.SLICE_SIZE / 2);
+    }
+
+    @Test
+    void writesAnEmptyChunk() throws IOException {
+        Path path = dir.resolve("empty_chunk1");
+        ChunkWriter writer = new ChunkWriter(path, ChecksumType.CRC32C, ChecksumType.SHA256);
+        writer.close();
+
+        assertTrue(writer.getSliceHashes().isEmpty());
+        assertEquals(Checksums.hash(ChecksumType.SHA256, new byte[0]), writer.getChunkHash());
+        assertEquals(0, writer.getLength());
+        assertEquals(0, Files.size(path));
+    }
+
+    @Test
+    void closesOnce() throws IOException {
+        byte[] data = randomBytes(Constants.SLICE_SIZE + 10);
+        ChunkWriter writer = new ChunkWriter(dir.resolve("twice_chunk1"), ChecksumType.CRC32C, ChecksumType.SHA256);
+        writer.write(data);
+        writer.close();
+        writer.close();
+        assertEquals(2, writer.getSliceHashes().size());
+        assertEquals(Checksums.hash(ChecksumType.SHA256, data), writer.getChunkHash());
+    }
+
+    /**
+     * Write length bytes in pieces of pieceSize, and check the file, the slice checksums and the chunk digest
+     */
+    private void assertWritten(int length, int pieceSize) throws IOException {
+        byte[] data = randomBytes(length);
+        Path path = dir.resolve("file_" + length + "_" + pieceSize + "_chunk1");
+        ChunkWriter writer = new ChunkWriter(path, ChecksumType.CRC32C, ChecksumType.SHA256);
+        for (int offset = 0; offset < length; offset += pieceSize) {
+            writer.write(data, offset, Math.min(pieceSize, length - offset));
+        }
+        writer.close();
+
+        List<String> sliceHashes = new ArrayList<>();
+        for (int offset = 0; offset < length; offset += Constants.SLICE_SIZE) {
+            sliceHashes.add(Checksums.hash(ChecksumType.CRC32C, data, offset,
+                    Math.min(Constants.SLICE_SIZE, length - offset)));
+        }
+        String message = length + " bytes in pieces of " + pieceSize;
+        assertEquals(sliceHashes, writer.getSliceHashes(), message);
+        assertEquals(Checksums.hash(ChecksumType.SHA256, data), writer.getChunkHash(), message);
+        assertEquals(length, writer.getLength(), message);
+        assertEquals(length, writer.getStoredLength(), message);
+        assertArrayEquals(data, Files.readAllBytes(path), message);
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,135 @@
+package org.dfs.node.chunkServer;
+
+import org.dfs.util.Constants;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IoSchedulerTest {
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    @Test
+    @SuppressWarnings("try")
+    void sharesTheDiskByWeight() throws InterruptedException {
+        IoScheduler scheduler = new IoScheduler(1);
+        scheduler.setBandwidthCapMB(IoScheduler.IoClass.SCRUB, 0);
+        int requests = 2 * Constants.ChunkServer.IO_WEIGHT_FOREGROUND;
+        List<IoScheduler.IoClass> granted = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+
+        // queue equal requests of both classes while the only slot is taken
+        IoScheduler.Permit blocker = scheduler.acquire(IoScheduler.IoClass.FOREGROUND, 1000);
+        for (IoScheduler.IoClass ioClass : new IoScheduler.IoClass[]{IoScheduler.IoClass.FOREGROUND,
+                IoScheduler.IoClass.SCRUB}) {
+            for (int i = 0; i < requests; i++) {
+                Thread thread = new Thread(() -> {
+                    try (IoScheduler.Permit permit = scheduler.acquire(ioClass, 1000)) {
+                        granted.add(ioClass);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+                thread.start();
+                threads.add(thread);
+            }
+        }
+        awaitQueueDepth(scheduler, IoScheduler.IoClass.FOREGROUND, requests);
+        awaitQueueDepth(scheduler, IoScheduler.IoClass.SCRUB, requests);
+        blocker.close();
+        for (Thread thread : threads) {
+            thread.join(TIMEOUT.toMillis());
+        }
+        assertEquals(2 * requests, granted.size());
+
+        // while both are queued, scrubbing gets 1 of every IO_WEIGHT_FOREGROUND / IO_WEIGHT_SCRUB + 1 operations
+        int window = Constants.ChunkServer.IO_WEIGHT_FOREGROUND / Constants.ChunkServer.IO_WEIGHT_SCRUB + 1;
+        int scrubs = Collections.frequency(granted.subList(0, window), IoScheduler.IoClass.SCRUB);
+        assertEquals(1, scrubs, granted.toString());
+        // and is not starved
+        int firstScrub = granted.indexOf(IoScheduler.IoClass.SCRUB);
+        assertTrue(firstScrub >= 0 && firstScrub < window, granted.toString());
+    }
+
+    @Test
+    void limitsOperationsToSlots() throws InterruptedException {
+        IoScheduler scheduler = new IoScheduler(2);
+        IoScheduler.Permit first = scheduler.acquire(IoScheduler.IoClass.REPLICATION, 1000);
+        IoScheduler.Permit second = scheduler.acquire(IoScheduler.IoClass.REPLICATION, 1000);
+        Thread waiting = acquireInThread(scheduler, IoScheduler.IoClass.REPLICATION, new AtomicReference<>());
+        awaitQueueDepth(scheduler, IoScheduler.IoClass.REPLICATION, 1);
+
+        first.close();
+        waiting.join(TIMEOUT.toMillis());
+        assertEquals(0, scheduler.getQueueDepth(IoScheduler.IoClass.REPLICATION));
+        second.close();
+    }
+
+    @Test
+    void releasesAPermitOnce() throws InterruptedException {
+        IoScheduler scheduler = new IoScheduler(1);
+        IoScheduler.Permit permit = scheduler.acquire(IoScheduler.IoClass.REPAIR, 1000);
+        permit.close();
+        permit.close();
+
+        // the second close did not free another slot
+        IoScheduler.Permit holder = scheduler.acquire(IoScheduler.IoClass.REPAIR, 1000);
+        Thread waiting = acquireInThread(scheduler, IoScheduler.IoClass.REPAIR, new AtomicReference<>());
+        awaitQueueDepth(scheduler, IoScheduler.IoClass.REPAIR, 1);
+        holder.close();
+        waiting.join(TIMEOUT.toMillis());
+        assertEquals(0, scheduler.getQueueDepth(IoScheduler.IoClass.REPAIR));
+    }
+
+    @Test
+    void cancelsAnInterruptedRequest() throws InterruptedException {
+        IoScheduler scheduler = new IoScheduler(1);
+        IoScheduler.Permit blocker = scheduler.acquire(IoScheduler.IoClass.FOREGROUND, 1000);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread waiting = acquireInThread(scheduler, IoScheduler.IoClass.PREFETCH, failure);
+        awaitQueueDepth(scheduler, IoScheduler.IoClass.PREFETCH, 1);
+
+        waiting.interrupt();
+        waiting.join(TIMEOUT.toMillis());
+        assertTrue(failure.get() instanceof InterruptedException, String.valueOf(failure.get()));
+        assertEquals(0, scheduler.getQueueDepth(IoScheduler.IoClass.PREFETCH));
+
+        // the cancelled request neither holds nor leaks the slot
+        blocker.close();
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            scheduler.acquire(IoScheduler.IoClass.FOREGROUND, 1000).close();
+        });
+    }
+
+    /**
+     * Acquire (and release) a permit in a new thread, recording what it failed with
+     */
+    private static Thread acquireInThread(IoScheduler scheduler, IoScheduler.IoClass ioClass,
+                                          AtomicReference<Throwable> failure) {
+        Thread thread = new Thread(() -> {
+            try {
+                scheduler.acquire(ioClass, 1000).close();
+            } catch (Throwable e) {
+                failure.set(e);
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private static void awaitQueueDepth(IoScheduler scheduler, IoScheduler.IoClass ioClass, int depth)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT.toMillis();
+        while (scheduler.getQueueDepth(ioClass) < depth) {
+            assertTrue(System.currentTimeMillis() < deadline, ioClass + " requests were not queued");
+            Thread.sleep(5);
+        }
+    }
+}
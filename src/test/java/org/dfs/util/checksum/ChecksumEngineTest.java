@@ -0,0 +1,84 @@
+package org.dfs.util.checksum;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ChecksumEngineTest {
+    private static final byte[] CHECK = "123456789".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ABC = "abc".getBytes(StandardCharsets.US_ASCII);
+
+    @Test
+    void computesKnownChecksums() {
+        assertEquals("e3069283", Checksums.hash(ChecksumType.CRC32C, CHECK));
+        assertEquals("a9993e364706816aba3e25717850c26c9cd0d89d", Checksums.hash(ChecksumType.SHA1, ABC));
+        assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad",
+                Checksums.hash(ChecksumType.SHA256, ABC));
+    }
+
+    @Test
+    void checksumsEmptyData() {
+        assertEquals("00000000", Checksums.hash(ChecksumType.CRC32C, new byte[0]));
+        assertEquals("e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855",
+                Checksums.hash(ChecksumType.SHA256, new byte[0]));
+    }
+
+    @Test
+    void updatesInPiecesLikeAtOnce() {
+        byte[] data = new byte[20000];
+        new Random(1).nextBytes(data);
+        for (ChecksumType type : ChecksumType.values()) {
+            ChecksumEngine engine = Checksums.newEngine(type);
+            assertEquals(type, engine.getType());
+            for (int offset = 0; offset < data.length; ) {
+                int length = Math.min(data.length - offset, 1 + offset % 777);
+                engine.update(data, offset, length);
+                offset += length;
+            }
+            assertEquals(Checksums.hash(type, data), engine.digestHex(), type.name());
+        }
+    }
+
+    @Test
+    void resetsAfterDigest() {
+        for (ChecksumType type : ChecksumType.values()) {
+            ChecksumEngine engine = Checksums.newEngine(type);
+            engine.update(ABC, 0, ABC.length);
+            engine.digestHex();
+            engine.update(CHECK, 0, CHECK.length);
+            assertEquals(Checksums.hash(type, CHECK), engine.digestHex(), type.name());
+
+            engine.update(ABC, 0, ABC.length);
+            engine.reset();
+            engine.update(CHECK, 0, CHECK.length);
+            assertEquals(Checksums.hash(type, CHECK), engine.digestHex(), type.name());
+        }
+    }
+
+    @Test
+    void hashesARange() {
+        byte[] data = new byte[100];
+        System.arraycopy(CHECK, 0, data, 40, CHECK.length);
+        assertEquals("e3069283", Checksums.hash(ChecksumType.CRC32C, data, 40, CHECK.length));
+    }
+
+    @Test
+    void keepsTypeIds() {
+        for (ChecksumType type : ChecksumType.values()) {
+            assertEquals(type, ChecksumType.fromId(type.getId()));
+        }
+        assertEquals(ChecksumType.SHA1, ChecksumType.fromId((byte) 1));
+        assertEquals(ChecksumType.SHA256, ChecksumType.fromId((byte) 2));
+        assertEquals(ChecksumType.CRC32C, ChecksumType.fromId((byte) 3));
+        assertThrows(IllegalArgumentException.class, () -> ChecksumType.fromId((byte) 0));
+    }
+
+    @Test
+    void encodesHex() {
+        assertEquals("00017f80ff", Checksums.toHex(new byte[]{0, 1, 127, (byte) 128, (byte) 255}));
+    }
+}
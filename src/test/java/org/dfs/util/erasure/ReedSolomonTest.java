@@ -0,0 +1,131 @@
+package org.dfs.util.erasure;
+
+import org.dfs.util.Constants;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ReedSolomonTest {
+
+    @Test
+    void decodesEveryErasurePatternOfUpToParityStripes() {
+        for (int[] code : new int[][]{{Constants.DATA_STRIPES, Constants.PARITY_STRIPES}, {4, 2}, {3, 1}, {1, 2}}) {
+            ReedSolomon codec = new ReedSolomon(code[0], code[1]);
+            byte[] data = randomBytes(1000, code[0]);
+            byte[][] encoded = codec.encode(data, 0, data.length);
+            int stripeSize = codec.getStripeSize(data.length);
+
+            for (int erased = 0; erased < 1 << codec.getTotalStripes(); erased++) {
+                if (Integer.bitCount(erased) > codec.getParityStripes()) {
+                    continue;
+                }
+                byte[][] stripes = erase(encoded, erased);
+                codec.decode(stripes, stripeSize);
+                for (int i = 0; i < stripes.length; i++) {
+                    assertArrayEquals(encoded[i], stripes[i], "RS(" + code[0] + ", " + code[1] +
+                            "), stripe " + i + " of erasures " + Integer.toBinaryString(erased));
+                }
+                assertArrayEquals(data, codec.join(stripes, data.length));
+            }
+        }
+    }
+
+    @Test
+    void decodeDataLeavesMissingParityStripes() {
+        ReedSolomon codec = new ReedSolomon(4, 2);
+        byte[] data = randomBytes(400, 1);
+        byte[][] encoded = codec.encode(data, 0, data.length);
+
+        // data stripe 1 and parity stripe 5 lost
+        byte[][] stripes = erase(encoded, 1 << 1 | 1 << 5);
+        codec.decodeData(stripes, codec.getStripeSize(data.length));
+        for (int i = 0; i < 4; i++) {
+            assertArrayEquals(encoded[i], stripes[i]);
+        }
+        assertNull(stripes[5]);
+    }
+
+    @Test
+    void padsTheLastDataStripeWithZeros() {
+        ReedSolomon codec = new ReedSolomon(Constants.DATA_STRIPES, Constants.PARITY_STRIPES);
+        // not a multiple of the data stripes: the last one is short
+        byte[] data = randomBytes(Constants.CHUNK_SIZE - 2, 2);
+        int stripeSize = codec.getStripeSize(data.length);
+        assertEquals((data.length + Constants.DATA_STRIPES - 1) / Constants.DATA_STRIPES, stripeSize);
+
+        byte[][] encoded = codec.encode(data, 0, data.length);
+        for (byte[] stripe : encoded) {
+            assertEquals(stripeSize, stripe.length);
+        }
+        byte[] last = encoded[Constants.DATA_STRIPES - 1];
+        int tail = data.length - (Constants.DATA_STRIPES - 1) * stripeSize;
+        assertArrayEquals(Arrays.copyOfRange(data, data.length - tail, data.length), Arrays.copyOf(last, tail));
+        assertArrayEquals(new byte[stripeSize - tail], Arrays.copyOfRange(last, tail, stripeSize));
+
+        // the padding is rebuilt like the data when the last data stripe is lost
+        byte[][] stripes = erase(encoded, 1 << (Constants.DATA_STRIPES - 1) | 1);
+        codec.decode(stripes, stripeSize);
+        assertArrayEquals(last, stripes[Constants.DATA_STRIPES - 1]);
+        assertArrayEquals(data, codec.join(stripes, data.length));
+    }
+
+    @Test
+    void encodesDataShorterThanTheDataStripes() {
+        ReedSolomon codec = new ReedSolomon(Constants.DATA_STRIPES, Constants.PARITY_STRIPES);
+        // stripes of 2 bytes: the last data stripe is all padding
+        byte[] data = randomBytes(10, 3);
+        byte[][] encoded = codec.encode(data, 0, data.length);
+        assertArrayEquals(new byte[2], encoded[Constants.DATA_STRIPES - 1]);
+
+        byte[][] stripes = erase(encoded, 0b111);
+        codec.decode(stripes, 2);
+        assertArrayEquals(data, codec.join(stripes, data.length));
+    }
+
+    @Test
+    void encodesFromAnOffset() {
+        ReedSolomon codec = new ReedSolomon(4, 2);
+        byte[] data = randomBytes(1000, 4);
+        byte[][] encoded = codec.encode(data, 100, 500);
+        assertArrayEquals(codec.encode(Arrays.copyOfRange(data, 100, 600), 0, 500)[5], encoded[5]);
+        assertArrayEquals(Arrays.copyOfRange(data, 100, 600), codec.join(encoded, 500));
+    }
+
+    @Test
+    void rejectsTooFewStripes() {
+        ReedSolomon codec = new ReedSolomon(4, 2);
+        byte[] data = randomBytes(400, 5);
+        byte[][] stripes = erase(codec.encode(data, 0, data.length), 0b111);
+        assertThrows(IllegalArgumentException.class, () -> codec.decode(stripes, codec.getStripeSize(data.length)));
+    }
+
+    @Test
+    void rejectsInvalidCodes() {
+        assertThrows(IllegalArgumentException.class, () -> new ReedSolomon(0, 2));
+        assertThrows(IllegalArgumentException.class, () -> new ReedSolomon(4, -1));
+        assertThrows(IllegalArgumentException.class, () -> new ReedSolomon(200, 57));
+    }
+
+    /**
+     * @return copies of the stripes, null where the bit of erased is set
+     */
+    private static byte[][] erase(byte[][] stripes, int erased) {
+        byte[][] copy = new byte[stripes.length][];
+        for (int i = 0; i < stripes.length; i++) {
+            copy[i] = (erased & 1 << i) != 0 ? null : stripes[i].clone();
+        }
+        return copy;
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,86 @@
+package org.dfs.util.sketch;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CountMinSketchTest {
+
+    @Test
+    void countsExactlyWithoutCollisions() {
+        CountMinSketch sketch = new CountMinSketch(4, 1024);
+        assertEquals(0, sketch.estimate("file_chunk1"));
+        assertEquals(3, sketch.add("file_chunk1", 3));
+        assertEquals(5, sketch.add("file_chunk1", 2));
+        assertEquals(5, sketch.estimate("file_chunk1"));
+        assertEquals(5, sketch.getTotal());
+    }
+
+    @Test
+    void neverUndercountsAndBoundsOvercounting() {
+        int depth = 4;
+        int width = 256;
+        CountMinSketch sketch = new CountMinSketch(depth, width);
+        Map<String, Double> counts = new HashMap<>();
+        Random random = new Random(7);
+        // skewed reads of many more chunks than counters per row
+        for (int i = 0; i < 100_000; i++) {
+            String key = "file" + (int) Math.pow(random.nextInt(5000), 2) / 1000 + "_chunk" + random.nextInt(4);
+            counts.merge(key, 1.0, Double::sum);
+            sketch.add(key, 1);
+        }
+
+        // overcounts by more than e / width of the total with probability e^-depth at most
+        double bound = Math.E / width * sketch.getTotal();
+        int overBound = 0;
+        for (Map.Entry<String, Double> entry : counts.entrySet()) {
+            double estimate = sketch.estimate(entry.getKey());
+            assertTrue(estimate >= entry.getValue(), entry.getKey() + " undercounted");
+            if (estimate - entry.getValue() > bound) {
+                overBound++;
+            }
+        }
+        assertTrue(overBound <= Math.exp(-depth) * counts.size(),
+                overBound + " of " + counts.size() + " estimates are over the bound");
+    }
+
+    @Test
+    void decaysAllCounters() {
+        CountMinSketch sketch = new CountMinSketch(4, 64);
+        sketch.add("a", 100);
+        sketch.add("b", 40);
+        sketch.decay(0.5);
+        assertEquals(50, sketch.estimate("a"));
+        assertEquals(20, sketch.estimate("b"));
+        assertEquals(70, sketch.getTotal());
+
+        // counts added after a decay are not decayed by it
+        sketch.add("b", 10);
+        assertEquals(30, sketch.estimate("b"));
+        assertEquals(80, sketch.getTotal());
+    }
+
+    @Test
+    void weighsRecentEventsMore() {
+        CountMinSketch sketch = new CountMinSketch(4, 64);
+        sketch.add("old", 100);
+        for (int i = 0; i < 4; i++) {
+            sketch.decay(0.5);
+        }
+        sketch.add("recent", 10);
+        assertEquals(6.25, sketch.estimate("old"));
+        assertTrue(sketch.estimate("recent") > sketch.estimate("old"));
+    }
+
+    @Test
+    void rejectsEmptyTables() {
+        assertThrows(IllegalArgumentException.class, () -> new CountMinSketch(0, 64));
+        assertThrows(IllegalArgumentException.class, () -> new CountMinSketch(4, 0));
+    }
+}
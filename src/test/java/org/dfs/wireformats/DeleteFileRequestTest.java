@@ -0,0 +1,20 @@
+package org.dfs.wireformats;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class DeleteFileRequestTest {
+
+    @Test
+    void roundTrips() throws IOException {
+        DeleteFileRequest request = new DeleteFileRequest();
+        request.setFileName("photos/cat.jpg");
+
+        DeleteFileRequest parsed = (DeleteFileRequest) EventFactory.getInstance().getEvent(request.getBytes(), null);
+        assertEquals(Protocol.DELETE_FILE_REQUEST, parsed.getType());
+        assertEquals("photos/cat.jpg", parsed.getFileName());
+    }
+}
@@ -0,0 +1,25 @@
+package org.dfs.wireformats;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class DeleteFileResponseTest {
+
+    @Test
+    void roundTrips() throws IOException {
+        for (boolean deleted : new boolean[]{true, false}) {
+            DeleteFileResponse response = new DeleteFileResponse();
+            response.setFileName("photos/cat.jpg");
+            response.setDeleted(deleted);
+
+            DeleteFileResponse parsed =
+                    (DeleteFileResponse) EventFactory.getInstance().getEvent(response.getBytes(), null);
+            assertEquals(Protocol.DELETE_FILE_RESPONSE, parsed.getType());
+            assertEquals("photos/cat.jpg", parsed.getFileName());
+            assertEquals(deleted, parsed.isDeleted());
+        }
+    }
+}
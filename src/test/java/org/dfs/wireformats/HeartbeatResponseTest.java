@@ -0,0 +1,32 @@
+package org.dfs.wireformats;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HeartbeatResponseTest {
+
+    @Test
+    void roundTrips() throws IOException {
+        HeartbeatResponse response = new HeartbeatResponse();
+        response.addOrphanChunk("deleted.txt_chunk1", 1);
+        response.addOrphanChunk("stale.bin_chunk3", 4);
+
+        HeartbeatResponse parsed = (HeartbeatResponse) EventFactory.getInstance().getEvent(response.getBytes(), null);
+        assertEquals(Protocol.HEARTBEAT_RESPONSE, parsed.getType());
+        assertEquals(Arrays.asList("deleted.txt_chunk1", "stale.bin_chunk3"), parsed.getOrphanChunks());
+        assertEquals(Arrays.asList(1, 4), parsed.getOrphanVersions());
+    }
+
+    @Test
+    void roundTripsNoOrphans() throws IOException {
+        HeartbeatResponse parsed =
+                (HeartbeatResponse) EventFactory.getInstance().getEvent(new HeartbeatResponse().getBytes(), null);
+        assertTrue(parsed.getOrphanChunks().isEmpty());
+        assertTrue(parsed.getOrphanVersions().isEmpty());
+    }
+}
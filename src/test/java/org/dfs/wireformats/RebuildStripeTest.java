@@ -0,0 +1,36 @@
+package org.dfs.wireformats;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RebuildStripeTest {
+
+    @Test
+    void roundTrips() throws IOException {
+        RebuildStripe request = new RebuildStripe();
+        request.setChunkName("cold.bin_stripe1_chunk2");
+        request.setVersion(3);
+        request.setDataStripes(2);
+        request.setParityStripes(2);
+        request.setTargetHost("10.0.0.9");
+        request.setTargetPort(5008);
+        // stripe 1 is the one rebuilt, stripe 3 is lost too
+        request.setStripeHosts(new String[]{"10.0.0.1", "", "10.0.0.3", ""});
+        request.setStripePorts(new int[]{5000, 0, 5002, 0});
+
+        RebuildStripe parsed = (RebuildStripe) EventFactory.getInstance().getEvent(request.getBytes(), null);
+        assertEquals(Protocol.REBUILD_STRIPE, parsed.getType());
+        assertEquals("cold.bin_stripe1_chunk2", parsed.getChunkName());
+        assertEquals(3, parsed.getVersion());
+        assertEquals(2, parsed.getDataStripes());
+        assertEquals(2, parsed.getParityStripes());
+        assertEquals("10.0.0.9", parsed.getTargetHost());
+        assertEquals(5008, parsed.getTargetPort());
+        assertArrayEquals(new String[]{"10.0.0.1", "", "10.0.0.3", ""}, parsed.getStripeHosts());
+        assertArrayEquals(new int[]{5000, 0, 5002, 0}, parsed.getStripePorts());
+    }
+}
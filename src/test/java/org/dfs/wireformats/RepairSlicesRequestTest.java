@@ -0,0 +1,27 @@
+package org.dfs.wireformats;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RepairSlicesRequestTest {
+
+    @Test
+    void roundTrips() throws IOException {
+        RepairSlicesRequest request = new RepairSlicesRequest();
+        request.setChunkName("big.bin_chunk2");
+        request.setVersion(3);
+        request.setSlices(new ArrayList<>(Arrays.asList(0, 5, 7)));
+
+        RepairSlicesRequest parsed =
+                (RepairSlicesRequest) EventFactory.getInstance().getEvent(request.getBytes(), null);
+        assertEquals(Protocol.REPAIR_SLICES_REQUEST, parsed.getType());
+        assertEquals("big.bin_chunk2", parsed.getChunkName());
+        assertEquals(3, parsed.getVersion());
+        assertEquals(Arrays.asList(0, 5, 7), parsed.getSlices());
+    }
+}
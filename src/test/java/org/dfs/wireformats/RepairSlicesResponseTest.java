@@ -0,0 +1,57 @@
+package org.dfs.wireformats;
+
+import org.dfs.util.checksum.ChecksumType;
+import org.dfs.util.checksum.Checksums;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RepairSlicesResponseTest {
+
+    @Test
+    void roundTrips() throws IOException {
+        byte[] slice = new byte[8000];
+        new Random(1).nextBytes(slice);
+        byte[] tail = {1, 2, 3};
+        RepairSlicesResponse response = new RepairSlicesResponse();
+        response.setChunkName("big.bin_chunk2");
+        response.setVersion(3);
+        response.setFound(true);
+        response.setChunkLength(16003);
+        response.setSliceChecksumType(ChecksumType.CRC32C);
+        response.addSlice(0, slice, Checksums.hash(ChecksumType.CRC32C, slice));
+        response.addSlice(2, tail, Checksums.hash(ChecksumType.CRC32C, tail));
+
+        RepairSlicesResponse parsed =
+                (RepairSlicesResponse) EventFactory.getInstance().getEvent(response.getBytes(), null);
+        assertEquals(Protocol.REPAIR_SLICES_RESPONSE, parsed.getType());
+        assertEquals("big.bin_chunk2", parsed.getChunkName());
+        assertEquals(3, parsed.getVersion());
+        assertTrue(parsed.isFound());
+        assertEquals(16003, parsed.getChunkLength());
+        assertEquals(ChecksumType.CRC32C, parsed.getSliceChecksumType());
+        assertEquals(Arrays.asList(0, 2), parsed.getSlices());
+        assertArrayEquals(slice, parsed.getSliceData().get(0));
+        assertArrayEquals(tail, parsed.getSliceData().get(1));
+        assertEquals(response.getSliceHashes(), parsed.getSliceHashes());
+    }
+
+    @Test
+    void roundTripsAMissingReplica() throws IOException {
+        RepairSlicesResponse response = new RepairSlicesResponse();
+        response.setChunkName("big.bin_chunk2");
+        response.setVersion(3);
+
+        RepairSlicesResponse parsed = new RepairSlicesResponse(response.getBytes());
+        assertFalse(parsed.isFound());
+        assertTrue(parsed.getSlices().isEmpty());
+        assertTrue(parsed.getSliceData().isEmpty());
+    }
+}
@@ -0,0 +1,45 @@
+package org.dfs.wireformats;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReplicateChunkResponseTest {
+
+    @Test
+    void roundTrips() throws IOException {
+        ReplicateChunkResponse response = new ReplicateChunkResponse();
+        response.setChunkName("big.bin_chunk2");
+        response.setVersion(3);
+        response.setTargetHost("10.0.0.4");
+        response.setTargetPort(5003);
+        response.setStatus(StoreChunkAck.STATUS_STORED);
+        response.setBytesCopied(64000);
+
+        ReplicateChunkResponse parsed =
+                (ReplicateChunkResponse) EventFactory.getInstance().getEvent(response.getBytes(), null);
+        assertEquals(Protocol.REPLICATE_CHUNK_RESPONSE, parsed.getType());
+        assertEquals("big.bin_chunk2", parsed.getChunkName());
+        assertEquals(3, parsed.getVersion());
+        assertEquals("10.0.0.4", parsed.getTargetHost());
+        assertEquals(5003, parsed.getTargetPort());
+        assertEquals(64000, parsed.getBytesCopied());
+        assertTrue(parsed.isStored());
+    }
+
+    @Test
+    void roundTripsAFailedCopy() throws IOException {
+        ReplicateChunkResponse response = new ReplicateChunkResponse();
+        response.setChunkName("big.bin_chunk2");
+        response.setTargetHost("10.0.0.4");
+        response.setStatus(StoreChunkAck.STATUS_NO_ACK);
+
+        ReplicateChunkResponse parsed = new ReplicateChunkResponse(response.getBytes());
+        assertEquals(StoreChunkAck.STATUS_NO_ACK, parsed.getStatus());
+        assertFalse(parsed.isStored());
+    }
+}
@@ -0,0 +1,26 @@
+package org.dfs.wireformats;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ReplicateChunkTest {
+
+    @Test
+    void roundTrips() throws IOException {
+        ReplicateChunk request = new ReplicateChunk();
+        request.setChunkName("big.bin_chunk2");
+        request.setVersion(3);
+        request.setTargetHost("10.0.0.4");
+        request.setTargetPort(5003);
+
+        ReplicateChunk parsed = (ReplicateChunk) EventFactory.getInstance().getEvent(request.getBytes(), null);
+        assertEquals(Protocol.REPLICATE_CHUNK, parsed.getType());
+        assertEquals("big.bin_chunk2", parsed.getChunkName());
+        assertEquals(3, parsed.getVersion());
+        assertEquals("10.0.0.4", parsed.getTargetHost());
+        assertEquals(5003, parsed.getTargetPort());
+    }
+}
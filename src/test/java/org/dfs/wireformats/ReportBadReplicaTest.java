@@ -0,0 +1,26 @@
+package org.dfs.wireformats;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ReportBadReplicaTest {
+
+    @Test
+    void roundTrips() throws IOException {
+        ReportBadReplica report = new ReportBadReplica();
+        report.setChunkName("big.bin_chunk2");
+        report.setChunkServerHost("10.0.0.2");
+        report.setChunkServerPort(5001);
+        report.setStatus(RetrieveChunkResponse.STATUS_CORRUPTED);
+
+        ReportBadReplica parsed = (ReportBadReplica) EventFactory.getInstance().getEvent(report.getBytes(), null);
+        assertEquals(Protocol.REPORT_BAD_REPLICA, parsed.getType());
+        assertEquals("big.bin_chunk2", parsed.getChunkName());
+        assertEquals("10.0.0.2", parsed.getChunkServerHost());
+        assertEquals(5001, parsed.getChunkServerPort());
+        assertEquals(RetrieveChunkResponse.STATUS_CORRUPTED, parsed.getStatus());
+    }
+}
@@ -0,0 +1,29 @@
+package org.dfs.wireformats;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SendPackedFileInfoTest {
+
+    @Test
+    void roundTrips() throws IOException {
+        SendPackedFileInfo info = new SendPackedFileInfo();
+        info.setContainerName("container_1");
+        info.setContainerSize(1500);
+        info.addFile("a.txt", 0, 1000);
+        info.addFile("b.txt", 1000, 0);
+        info.addFile("c.txt", 1000, 500);
+
+        SendPackedFileInfo parsed = (SendPackedFileInfo) EventFactory.getInstance().getEvent(info.getBytes(), null);
+        assertEquals(Protocol.SEND_PACKED_FILE_INFO, parsed.getType());
+        assertEquals("container_1", parsed.getContainerName());
+        assertEquals(1500, parsed.getContainerSize());
+        assertEquals(Arrays.asList("a.txt", "b.txt", "c.txt"), parsed.getFileNames());
+        assertEquals(Arrays.asList(0, 1000, 1000), parsed.getOffsets());
+        assertEquals(Arrays.asList(1000, 0, 500), parsed.getLengths());
+    }
+}
@@ -0,0 +1,44 @@
+package org.dfs.wireformats;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StoreChunkAckTest {
+
+    @Test
+    void roundTrips() throws IOException {
+        StoreChunkAck ack = new StoreChunkAck();
+        ack.setFileName("big.bin");
+        ack.setSequenceNumber(2);
+        ack.setVersion(3);
+        ack.addReplica("10.0.0.1:5000", StoreChunkAck.STATUS_STORED, 1200);
+        ack.addReplica("10.0.0.2:5001", StoreChunkAck.STATUS_NO_ACK, 0);
+
+        StoreChunkAck parsed = (StoreChunkAck) EventFactory.getInstance().getEvent(ack.getBytes(), null);
+        assertEquals(Protocol.STORE_CHUNK_ACK, parsed.getType());
+        assertEquals("big.bin", parsed.getFileName());
+        assertEquals(2, parsed.getSequenceNumber());
+        assertEquals(3, parsed.getVersion());
+        assertEquals(Arrays.asList("10.0.0.1:5000", "10.0.0.2:5001"), parsed.getReplicas());
+        assertEquals(Arrays.asList(StoreChunkAck.STATUS_STORED, StoreChunkAck.STATUS_NO_ACK), parsed.getStatuses());
+        assertEquals(Arrays.asList(1200L, 0L), parsed.getWriteMicros());
+        assertFalse(parsed.isStored());
+    }
+
+    @Test
+    void isStoredOnlyIfEveryReplicaIs() {
+        StoreChunkAck ack = new StoreChunkAck();
+        assertFalse(ack.isStored());
+        ack.addReplica("10.0.0.1:5000", StoreChunkAck.STATUS_STORED, 1200);
+        ack.addReplica("10.0.0.2:5001", StoreChunkAck.STATUS_STORED, 900);
+        assertTrue(ack.isStored());
+        ack.addReplica("10.0.0.3:5002", StoreChunkAck.STATUS_FAILED, 0);
+        assertFalse(ack.isStored());
+    }
+}
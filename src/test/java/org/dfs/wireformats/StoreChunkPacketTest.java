@@ -0,0 +1,75 @@
+package org.dfs.wireformats;
+
+import org.dfs.util.Constants;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StoreChunkPacketTest {
+    private static final String[] NEXT_HOSTS = {"10.0.0.2", "10.0.0.3"};
+    private static final int[] NEXT_PORTS = {5001, 5002};
+
+    @Test
+    void roundTrips() throws IOException {
+        byte[] chunk = randomBytes(Constants.PACKET_SIZE + 100);
+        StoreChunkPacket packet = StoreChunkPacket.packetize("big.bin", 2, 3, chunk, NEXT_HOSTS, NEXT_PORTS).get(1);
+
+        StoreChunkPacket parsed = (StoreChunkPacket) EventFactory.getInstance().getEvent(packet.getBytes(), null);
+        assertEquals(Protocol.STORE_CHUNK_PACKET, parsed.getType());
+        assertEquals("big.bin", parsed.getFileName());
+        assertEquals(2, parsed.getSequenceNumber());
+        assertEquals(3, parsed.getVersion());
+        assertEquals(chunk.length, parsed.getChunkLength());
+        assertEquals(Constants.PACKET_SIZE, parsed.getOffset());
+        assertArrayEquals(packet.getData(), parsed.getData());
+        assertEquals(2, parsed.getNoOfNextChunkServers());
+        assertArrayEquals(NEXT_HOSTS, parsed.getNextChunkServerHosts());
+        assertArrayEquals(NEXT_PORTS, parsed.getNextChunkServerPorts());
+        assertTrue(parsed.isLast());
+    }
+
+    @Test
+    void packetizesAChunk() throws IOException {
+        for (int length : new int[]{0, 1, Constants.PACKET_SIZE, Constants.CHUNK_SIZE - 1, Constants.CHUNK_SIZE}) {
+            byte[] chunk = randomBytes(length);
+            List<StoreChunkPacket> packets = StoreChunkPacket.packetize("file.txt", 1, 1, chunk, new String[0],
+                    new int[0]);
+            assertEquals(Math.max(1, (length + Constants.PACKET_SIZE - 1) / Constants.PACKET_SIZE), packets.size());
+
+            ByteArrayOutputStream reassembled = new ByteArrayOutputStream();
+            for (int i = 0; i < packets.size(); i++) {
+                StoreChunkPacket parsed = new StoreChunkPacket(packets.get(i).getBytes());
+                assertEquals(reassembled.size(), parsed.getOffset());
+                assertEquals(i == packets.size() - 1, parsed.isLast(), length + " bytes, packet " + i);
+                assertEquals(0, parsed.getNoOfNextChunkServers());
+                reassembled.write(parsed.getData());
+            }
+            assertArrayEquals(chunk, reassembled.toByteArray());
+        }
+    }
+
+    @Test
+    void sendsAnEmptyChunkAsOneEmptyPacket() {
+        List<StoreChunkPacket> packets = StoreChunkPacket.packetize("empty.txt", 1, 1, new byte[0], new String[0],
+                new int[0]);
+        assertEquals(1, packets.size());
+        assertEquals(0, packets.get(0).getData().length);
+        assertTrue(packets.get(0).isLast());
+        assertFalse(StoreChunkPacket.packetize("two.txt", 1, 1, new byte[Constants.PACKET_SIZE + 1],
+                new String[0], new int[0]).get(0).isLast());
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+}